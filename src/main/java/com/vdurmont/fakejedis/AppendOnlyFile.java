@@ -0,0 +1,715 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Append-only file of the write commands, like the AOF of redis.
+ * <p>
+ * The commands are appended to a buffer under the lock of the server, and a dedicated thread writes the buffer to the
+ * file: each write, and each fsync, covers all the commands that were appended in the meantime (group commit). With
+ * appendfsync always, a command waits for the fsync of its bytes, and releases the lock of the server meanwhile, so
+ * that the other clients keep running commands and share the next fsync. With everysec, the file is synced at most once
+ * per second, and with no, never explicitly. The commands of a transaction are written between MULTI and EXEC.
+ * <p>
+ * A rewrite writes the commands that rebuild the databases to a new file, in the background: the databases are dumped
+ * in batches of keys, and the commands that are received meanwhile are buffered, then appended to the new file, which
+ * replaces the current one. The dump is a point-in-time view of the databases at the start of the rewrite: a command
+ * that modifies a key that has not been dumped yet first dumps it (copy-on-write by key), and a flushed database is not
+ * dumped anymore (the buffered commands flush it anyway).
+ * <p>
+ * Not thread-safe: it is used under the lock of the server, and its threads take this lock.
+ *
+ * @param <T> the type of the objects of the databases
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class AppendOnlyFile<T> {
+    static final String FSYNC_ALWAYS = "always";
+    static final String FSYNC_EVERYSEC = "everysec";
+    static final String FSYNC_NO = "no";
+    // Number of keys that the rewrite dumps each time it takes the lock
+    static final int REWRITE_BATCH_SIZE = 1000;
+    // The buffered commands are appended to the rewritten file under the lock once they are smaller than that
+    private static final int REWRITE_FINAL_BUFFER_SIZE = 64 * 1024;
+    private static final long FSYNC_INTERVAL_MILLIS = 1000;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final Object lock;
+    private final Keyspace<T>[] databases;
+    private final Rewriter<T> rewriter;
+    private String fsync;
+    private boolean enabled;
+    private Path file;
+    // File of the AOF, null while the first rewrite creates it
+    private FileChannel channel;
+    private Thread writer;
+    // The writer is writing to the channel, without the lock
+    private boolean writing;
+    private boolean closing;
+    // Commands that have not been written to the file yet
+    private final ByteArrayOutputStream buffer;
+    // Database of the last SELECT of the file, -1 to write a SELECT before the next command
+    private int selectedDb;
+    private int batchDepth;
+    private boolean transaction;
+    private boolean multiWritten;
+    // Bytes appended, written and synced since the creation (not since the opening of the current file)
+    private long appended;
+    private long written;
+    private long synced;
+    private long lastFsync;
+    private long retryTime;
+    private String writeError;
+    private Rewrite rewrite;
+    private boolean rewriteFailed;
+    private long currentSize;
+    private long baseSize;
+    private long commands;
+    private long writes;
+    private long fsyncs;
+    private long rewrites;
+    private long copiedKeys;
+
+    /**
+     * @param lock      the lock of the server
+     * @param databases the databases to rewrite
+     * @param rewriter  writes the commands that create an object
+     */
+    public AppendOnlyFile(Object lock, Keyspace<T>[] databases, Rewriter<T> rewriter) {
+        this.lock = lock;
+        this.databases = databases;
+        this.rewriter = rewriter;
+        this.fsync = FSYNC_EVERYSEC;
+        this.buffer = new ByteArrayOutputStream();
+        this.selectedDb = -1;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public String getFsync() {
+        return this.fsync;
+    }
+
+    /**
+     * @param fsync always, everysec or no
+     */
+    public void setFsync(String fsync) {
+        this.fsync = fsync;
+        this.lock.notifyAll();
+    }
+
+    /**
+     * Starts appending the commands to a file. Like in redis, the file is first created by a rewrite of the databases:
+     * the commands are only appended to it once the rewrite is complete.
+     */
+    public void enable(Path file) {
+        if (this.enabled) {
+            return;
+        }
+        try {
+            // The previous file may still be closing
+            while (this.writer != null) {
+                this.lock.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        this.cancelRewrite();
+        this.enabled = true;
+        this.file = file;
+        this.writeError = null;
+        this.startRewrite(file);
+        this.writer = new Thread(this::write, "fake-jedis-aof");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Stops appending the commands, and closes the file once the buffered commands are written and synced. Waits for
+     * it, releasing the lock of the server, unless it is called in the middle of a transaction.
+     */
+    public void disable() {
+        if (!this.enabled) {
+            return;
+        }
+        this.cancelRewrite();
+        this.enabled = false;
+        this.closing = true;
+        this.lock.notifyAll();
+        Thread writer = this.writer;
+        try {
+            while (this.batchDepth == 0 && this.writer == writer) {
+                this.lock.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts a rewrite of the file in the background (of the given file if the AOF is disabled)
+     *
+     * @return false if a rewrite is already in progress
+     */
+    public boolean rewrite(Path file) {
+        if (this.rewrite != null) {
+            return false;
+        }
+        this.startRewrite(this.enabled ? this.file : file);
+        return true;
+    }
+
+    public boolean isRewriting() {
+        return this.rewrite != null;
+    }
+
+    /**
+     * Called before a command modifies a key. Fails if the last write to the file failed, like redis, and dumps the key
+     * if the rewrite has not dumped it yet.
+     */
+    public void beforeWrite(Keyspace<T> keyspace, String key) {
+        this.checkWriteError();
+        if (this.rewrite != null) {
+            this.rewrite.copy(keyspace, key);
+        }
+    }
+
+    /**
+     * Called before a command flushes or replaces a database
+     */
+    public void beforeFlush(Keyspace<T> keyspace) {
+        this.checkWriteError();
+        if (this.rewrite != null) {
+            this.rewrite.drop(keyspace);
+        }
+    }
+
+    /**
+     * Called when a database is copied to a new keyspace, with the same objects
+     */
+    public void keyspaceReplaced(Keyspace<T> keyspace, Keyspace<T> replacement) {
+        if (this.rewrite != null) {
+            this.rewrite.replace(keyspace, replacement);
+        }
+    }
+
+    /**
+     * Appends a command that has modified the databases, like feedAppendOnlyFile in redis. Out of a batch, waits for
+     * the fsync with appendfsync always.
+     *
+     * @param db      the selected database of the client
+     * @param command the name of the command and its arguments
+     */
+    public void feed(int db, String... command) {
+        if (!this.enabled && this.rewrite == null) {
+            return;
+        }
+        if (db != this.selectedDb) {
+            this.append("SELECT", String.valueOf(db));
+            this.selectedDb = db;
+        }
+        if (this.transaction && !this.multiWritten) {
+            this.append("MULTI");
+            this.multiWritten = true;
+        }
+        this.append(command);
+        this.commands++;
+        if (this.batchDepth == 0) {
+            this.awaitFsync();
+        }
+    }
+
+    /**
+     * Starts a batch of commands, until endBatch: the commands do not wait for the fsync before the end of the batch,
+     * and they are written between MULTI and EXEC if it is a transaction. The batches can be nested.
+     */
+    public void beginBatch(boolean transaction) {
+        if (this.batchDepth++ == 0) {
+            this.transaction = transaction;
+            this.multiWritten = false;
+        }
+    }
+
+    public void endBatch() {
+        if (--this.batchDepth > 0) {
+            return;
+        }
+        if (this.multiWritten) {
+            this.append("EXEC");
+            this.multiWritten = false;
+        }
+        this.transaction = false;
+        this.awaitFsync();
+    }
+
+    /**
+     * @return whether the AOF is enabled and a rewrite is in progress, the sizes of the file (current size and size
+     * after the last rewrite), the bytes waiting to be written, the number of appended commands, of writes and of
+     * fsyncs, the number of rewrites and of keys that the commands dumped during a rewrite, and whether the last write
+     * and the last rewrite failed
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("aof_enabled", this.enabled ? 1l : 0l);
+        stats.put("aof_rewrite_in_progress", this.rewrite != null ? 1l : 0l);
+        stats.put("aof_current_size", this.currentSize);
+        stats.put("aof_base_size", this.baseSize);
+        stats.put("aof_buffer_length", (long) this.buffer.size());
+        stats.put("aof_commands", this.commands);
+        stats.put("aof_writes", this.writes);
+        stats.put("aof_fsyncs", this.fsyncs);
+        stats.put("aof_rewrites", this.rewrites);
+        stats.put("aof_rewrite_copied_keys", this.copiedKeys);
+        stats.put("aof_last_write_failed", this.writeError != null ? 1l : 0l);
+        stats.put("aof_last_rewrite_failed", this.rewriteFailed ? 1l : 0l);
+        return stats;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private void checkWriteError() {
+        if (this.enabled && this.writeError != null) {
+            throw new JedisDataException("MISCONF Errors writing to the AOF file: " + this.writeError);
+        }
+    }
+
+    private void append(String... command) {
+        if (this.enabled && this.channel != null) {
+            int size = this.buffer.size();
+            encode(this.buffer, command);
+            this.appended += this.buffer.size() - size;
+            this.lock.notifyAll();
+        }
+        if (this.rewrite != null) {
+            encode(this.rewrite.buffer, command);
+        }
+    }
+
+    /**
+     * With appendfsync always, waits until the appended commands are synced, releasing the lock of the server
+     */
+    private void awaitFsync() {
+        if (!FSYNC_ALWAYS.equals(this.fsync) || this.channel == null) {
+            return;
+        }
+        long target = this.appended;
+        try {
+            while (this.synced < target && this.enabled && this.writeError == null) {
+                this.lock.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loop of the writer thread
+     */
+    private void write() {
+        while (true) {
+            FileChannel channel;
+            byte[] chunk;
+            long end;
+            boolean closing;
+            String fsync;
+            synchronized (this.lock) {
+                try {
+                    long wait;
+                    while ((wait = this.writerWait()) > 0) {
+                        this.lock.wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (this.closing && (this.channel == null || this.writeError != null
+                        || (this.buffer.size() == 0 && this.synced == this.written))) {
+                    this.close();
+                    return;
+                }
+                channel = this.channel;
+                chunk = this.buffer.toByteArray();
+                this.buffer.reset();
+                end = this.appended;
+                closing = this.closing;
+                fsync = this.fsync;
+                this.writing = true;
+            }
+
+            long now = System.currentTimeMillis();
+            boolean sync = closing || FSYNC_ALWAYS.equals(fsync)
+                    || (FSYNC_EVERYSEC.equals(fsync) && now - this.lastFsync >= FSYNC_INTERVAL_MILLIS);
+            String error = null;
+            long start = 0;
+            try {
+                start = channel.position();
+                writeFully(channel, chunk);
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                error = String.valueOf(e.getMessage());
+                try {
+                    // Like redis, a partial write is removed: it will be written again
+                    channel.truncate(start);
+                } catch (IOException e2) {
+                    // The file is corrupted
+                }
+            }
+
+            synchronized (this.lock) {
+                this.writing = false;
+                if (channel != this.channel) {
+                    // Replaced by a rewrite, which contains the chunk
+                    closeQuietly(channel);
+                } else if (error == null) {
+                    this.writeError = null;
+                    this.written = end;
+                    this.currentSize += chunk.length;
+                    this.writes += chunk.length > 0 ? 1 : 0;
+                    if (sync) {
+                        this.synced = end;
+                        this.fsyncs++;
+                        this.lastFsync = now;
+                    }
+                } else {
+                    this.writeError = error;
+                    this.retryTime = now + RETRY_DELAY_MILLIS;
+                    byte[] pending = this.buffer.toByteArray();
+                    this.buffer.reset();
+                    this.buffer.write(chunk, 0, chunk.length);
+                    this.buffer.write(pending, 0, pending.length);
+                }
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return how long the writer has to wait for something to do, 0 if it has something to do now
+     */
+    private long writerWait() {
+        long now = System.currentTimeMillis();
+        if (this.closing) {
+            return 0;
+        }
+        if (this.channel == null) {
+            return Long.MAX_VALUE;
+        }
+        if (this.buffer.size() > 0) {
+            return Math.max(0, this.retryTime - now);
+        }
+        if (this.written > this.synced && FSYNC_EVERYSEC.equals(this.fsync)) {
+            return Math.max(0, this.lastFsync + FSYNC_INTERVAL_MILLIS - now);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void close() {
+        closeQuietly(this.channel);
+        this.channel = null;
+        this.buffer.reset();
+        this.written = this.appended;
+        this.synced = this.appended;
+        this.writer = null;
+        this.closing = false;
+        this.selectedDb = -1;
+        this.lock.notifyAll();
+    }
+
+    private void startRewrite(Path file) {
+        Rewrite rewrite = new Rewrite(file);
+        for (int i = 0; i < this.databases.length; i++) {
+            if (this.databases[i].size() > 0) {
+                Snapshot snapshot = new Snapshot(this.databases[i], i);
+                rewrite.snapshots.put(snapshot.keyspace, snapshot);
+                rewrite.remaining.add(snapshot);
+            }
+        }
+        // The commands that follow start with a SELECT in both files
+        this.selectedDb = -1;
+        if (this.multiWritten) {
+            encode(rewrite.buffer, "MULTI");
+        }
+        this.rewrite = rewrite;
+        this.rewriteFailed = false;
+        Thread thread = new Thread(rewrite::run, "fake-jedis-aof-rewrite");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void cancelRewrite() {
+        if (this.rewrite != null) {
+            this.rewrite.cancelled = true;
+            this.rewrite = null;
+        }
+    }
+
+    /**
+     * Called by the rewrite, under the lock, once the new file has replaced the current one
+     */
+    private void rewritten(FileChannel channel, long size) {
+        this.rewrite = null;
+        this.rewrites++;
+        this.baseSize = size;
+        if (!this.enabled) {
+            this.currentSize = size;
+            closeQuietly(channel);
+            return;
+        }
+        FileChannel old = this.channel;
+        this.channel = channel;
+        // The buffered commands are in the new file
+        this.buffer.reset();
+        this.written = this.appended;
+        this.synced = this.appended;
+        this.currentSize = size;
+        if (old != null && !this.writing) {
+            closeQuietly(old);
+        }
+        this.lock.notifyAll();
+    }
+
+    private void rewriteFailed() {
+        this.rewrite = null;
+        this.rewriteFailed = true;
+        if (this.enabled && this.channel == null) {
+            // The AOF could not be created
+            this.enabled = false;
+            this.closing = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    private static void encode(ByteArrayOutputStream out, String... args) {
+        writeAscii(out, "*" + args.length + "\r\n");
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            writeAscii(out, "$" + bytes.length + "\r\n");
+            out.write(bytes, 0, bytes.length);
+            writeAscii(out, "\r\n");
+        }
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            out.write(ascii.charAt(i));
+        }
+    }
+
+    private static byte[] take(ByteArrayOutputStream out) {
+        byte[] bytes = out.toByteArray();
+        out.reset();
+        return bytes;
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    /**
+     * Writes the commands that create an object
+     */
+    @FunctionalInterface
+    interface Rewriter<T> {
+        void rewrite(String key, T object, Consumer<String[]> commands);
+    }
+
+    /**
+     * Database that the rewrite has not completely dumped yet
+     */
+    private class Snapshot {
+        private Keyspace<T> keyspace;
+        // Index of the database at the start of the rewrite
+        private final int index;
+        // Keys that have been dumped, or that did not exist at the start of the rewrite
+        private final Set<String> dumped;
+        private long cursor;
+
+        private Snapshot(Keyspace<T> keyspace, int index) {
+            this.keyspace = keyspace;
+            this.index = index;
+            this.dumped = new HashSet<>();
+        }
+    }
+
+    private class Rewrite {
+        private final Path file;
+        private final Path temp;
+        // The databases are identified by their keyspace: they keep their index at the start of the rewrite, even if
+        // they are swapped
+        private final Map<Keyspace<T>, Snapshot> snapshots;
+        private final ArrayDeque<Snapshot> remaining;
+        // Dump of the databases, not written yet
+        private final ByteArrayOutputStream dump;
+        // Commands received since the start of the rewrite, not written yet
+        private final ByteArrayOutputStream buffer;
+        private int dumpDb;
+        private boolean cancelled;
+
+        private Rewrite(Path file) {
+            this.file = file;
+            this.temp = file.resolveSibling("temp-rewriteaof-" + System.nanoTime() + ".aof");
+            this.snapshots = new IdentityHashMap<>();
+            this.remaining = new ArrayDeque<>();
+            this.dump = new ByteArrayOutputStream();
+            this.buffer = new ByteArrayOutputStream();
+            this.dumpDb = -1;
+        }
+
+        /**
+         * Dumps a key before it is modified, if it has not been dumped yet
+         */
+        private void copy(Keyspace<T> keyspace, String key) {
+            Snapshot snapshot = this.snapshots.get(keyspace);
+            if (snapshot != null && snapshot.dumped.add(key)) {
+                T object = keyspace.get(key);
+                if (object != null) {
+                    this.dump(snapshot.index, key, object);
+                    AppendOnlyFile.this.copiedKeys++;
+                }
+            }
+        }
+
+        /**
+         * Stops dumping a database that is flushed
+         */
+        private void drop(Keyspace<T> keyspace) {
+            Snapshot snapshot = this.snapshots.remove(keyspace);
+            if (snapshot != null) {
+                this.remaining.remove(snapshot);
+            }
+        }
+
+        /**
+         * Continues dumping a database in its new keyspace: the keys that have already been dumped are skipped
+         */
+        private void replace(Keyspace<T> keyspace, Keyspace<T> replacement) {
+            Snapshot snapshot = this.snapshots.remove(keyspace);
+            if (snapshot != null) {
+                snapshot.keyspace = replacement;
+                snapshot.cursor = 0;
+                this.snapshots.put(replacement, snapshot);
+            }
+        }
+
+        private void dump(int index, String key, T object) {
+            if (index != this.dumpDb) {
+                encode(this.dump, "SELECT", String.valueOf(index));
+                this.dumpDb = index;
+            }
+            AppendOnlyFile.this.rewriter.rewrite(key, object, command -> encode(this.dump, command));
+        }
+
+        /**
+         * Dumps the next batch of keys of a database
+         */
+        private void scan(Snapshot snapshot) {
+            snapshot.cursor = snapshot.keyspace.scan(snapshot.cursor, REWRITE_BATCH_SIZE, "", (key, object) -> {
+                if (snapshot.dumped.add(key)) {
+                    this.dump(snapshot.index, key, object);
+                }
+            });
+            if (snapshot.cursor == 0) {
+                this.snapshots.remove(snapshot.keyspace);
+                this.remaining.poll();
+            }
+        }
+
+        private void run() {
+            FileChannel channel = null;
+            boolean done = false;
+            try {
+                channel = FileChannel.open(this.temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                // The dump of the databases first
+                boolean complete = false;
+                while (!complete) {
+                    byte[] chunk;
+                    synchronized (AppendOnlyFile.this.lock) {
+                        if (this.cancelled) {
+                            return;
+                        }
+                        if (!this.remaining.isEmpty()) {
+                            this.scan(this.remaining.peek());
+                        }
+                        complete = this.remaining.isEmpty();
+                        chunk = take(this.dump);
+                    }
+                    writeFully(channel, chunk);
+                }
+                // Then the commands received since the start
+                while (true) {
+                    byte[] chunk;
+                    synchronized (AppendOnlyFile.this.lock) {
+                        if (this.cancelled) {
+                            return;
+                        }
+                        if (this.buffer.size() <= REWRITE_FINAL_BUFFER_SIZE) {
+                            writeFully(channel, take(this.buffer));
+                            channel.force(false);
+                            Files.move(this.temp, this.file, StandardCopyOption.REPLACE_EXISTING,
+                                    StandardCopyOption.ATOMIC_MOVE);
+                            done = true;
+                            AppendOnlyFile.this.rewritten(channel, channel.size());
+                            return;
+                        }
+                        chunk = take(this.buffer);
+                    }
+                    writeFully(channel, chunk);
+                }
+            } catch (IOException e) {
+                synchronized (AppendOnlyFile.this.lock) {
+                    if (AppendOnlyFile.this.rewrite == this) {
+                        AppendOnlyFile.this.rewriteFailed();
+                    }
+                }
+            } finally {
+                if (!done) {
+                    closeQuietly(channel);
+                    try {
+                        Files.deleteIfExists(this.temp);
+                    } catch (IOException e) {
+                        // Nothing to do
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.vdurmont.fakejedis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Socket over a blocking {@link SocketChannel} that has no socket of its own (e.g. a unix domain socket channel).
+ * The read timeouts are not supported.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class ChannelSocket extends Socket {
+    private final SocketChannel channel;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private int soTimeout;
+
+    public ChannelSocket(SocketChannel channel) {
+        this.channel = channel;
+        this.inputStream = Channels.newInputStream(channel);
+        this.outputStream = Channels.newOutputStream(channel);
+    }
+
+    @Override public InputStream getInputStream() {
+        return this.inputStream;
+    }
+
+    @Override public OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    @Override public void connect(SocketAddress endpoint, int timeout) {
+        // Connected by the channel
+    }
+
+    @Override public boolean isConnected() {
+        return this.channel.isConnected();
+    }
+
+    @Override public boolean isBound() {
+        return true;
+    }
+
+    @Override public boolean isClosed() {
+        return !this.channel.isOpen();
+    }
+
+    @Override public boolean isInputShutdown() {
+        return !this.channel.isOpen();
+    }
+
+    @Override public boolean isOutputShutdown() {
+        return !this.channel.isOpen();
+    }
+
+    @Override public void close() throws IOException {
+        this.channel.close();
+    }
+
+    @Override public void setSoTimeout(int timeout) {
+        this.soTimeout = timeout;
+    }
+
+    @Override public int getSoTimeout() {
+        return this.soTimeout;
+    }
+
+    @Override public void setTcpNoDelay(boolean on) {
+        // Not a TCP socket
+    }
+
+    @Override public void setKeepAlive(boolean on) {
+        // Not a TCP socket
+    }
+
+    @Override public void setReuseAddress(boolean on) {
+        // Not a TCP socket
+    }
+
+    @Override public void setSoLinger(boolean on, int linger) {
+        // Not a TCP socket
+    }
+
+    @Override public String toString() {
+        return "ChannelSocket[" + this.channel + "]";
+    }
+}
@@ -0,0 +1,175 @@
+package com.vdurmont.fakejedis;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Table of the client tracking of redis (see CLIENT TRACKING): the keys that the tracking clients have read, and the
+ * prefixes of the clients in broadcast mode.
+ * <p>
+ * When a key is modified, its name is sent once to each client that has read it: the client has to read the key again
+ * to be sent its next modification. A client in broadcast mode does not track its reads: it is sent every modified key
+ * that starts with one of its prefixes. When the databases are flushed, every client is sent null.
+ * <p>
+ * Like in redis, the keys of a client that stops tracking are only dropped from the table when they are modified.
+ * Not thread-safe: it is used under the lock of the server, and the listeners are called under this lock.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class ClientTracking {
+    // Clients that have read each key since its last modification
+    private final Map<String, Set<Tracker>> keys;
+    // Clients in broadcast mode, by prefix ("" for all the keys)
+    private final Map<String, Set<Tracker>> prefixes;
+    private final Set<Tracker> trackers;
+    private long invalidations;
+
+    public ClientTracking() {
+        this.keys = new HashMap<>();
+        this.prefixes = new HashMap<>();
+        this.trackers = new HashSet<>();
+    }
+
+    /**
+     * Starts tracking the keys that a client reads
+     *
+     * @param listener the listener of the modified keys of the client
+     * @return the tracker of the client
+     */
+    public Tracker track(Consumer<String> listener) {
+        Tracker tracker = new Tracker(listener, null);
+        this.trackers.add(tracker);
+        return tracker;
+    }
+
+    /**
+     * Starts sending all the modified keys that start with some prefixes to a client
+     *
+     * @param listener the listener of the modified keys of the client
+     * @param prefixes the prefixes of the keys, all the keys if there is none
+     * @return the tracker of the client
+     */
+    public Tracker broadcast(Consumer<String> listener, String... prefixes) {
+        String[] actualPrefixes = prefixes.length == 0 ? new String[]{""} : prefixes.clone();
+        Tracker tracker = new Tracker(listener, actualPrefixes);
+        this.trackers.add(tracker);
+        for (String prefix : actualPrefixes) {
+            this.prefixes.computeIfAbsent(prefix, p -> new HashSet<>()).add(tracker);
+        }
+        return tracker;
+    }
+
+    /**
+     * Stops sending the modified keys to a client
+     */
+    public void untrack(Tracker tracker) {
+        if (!this.trackers.remove(tracker)) {
+            return;
+        }
+        tracker.enabled = false;
+        if (tracker.prefixes != null) {
+            for (String prefix : tracker.prefixes) {
+                Set<Tracker> trackers = this.prefixes.get(prefix);
+                trackers.remove(tracker);
+                if (trackers.isEmpty()) {
+                    this.prefixes.remove(prefix);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers that a client has read a key
+     */
+    public void keyRead(Tracker tracker, String key) {
+        if (tracker.enabled && tracker.prefixes == null) {
+            this.keys.computeIfAbsent(key, k -> new HashSet<>()).add(tracker);
+        }
+    }
+
+    /**
+     * Sends a modified key to the clients that track it
+     */
+    public void keyModified(String key) {
+        Set<Tracker> readers = this.keys.remove(key);
+        if (readers != null) {
+            for (Tracker tracker : readers) {
+                this.send(tracker, key);
+            }
+        }
+        if (!this.prefixes.isEmpty()) {
+            // A client is sent the key once, even if several of its prefixes match
+            Set<Tracker> recipients = new HashSet<>();
+            for (Map.Entry<String, Set<Tracker>> entry : this.prefixes.entrySet()) {
+                if (key.startsWith(entry.getKey())) {
+                    recipients.addAll(entry.getValue());
+                }
+            }
+            for (Tracker tracker : recipients) {
+                this.send(tracker, key);
+            }
+        }
+    }
+
+    /**
+     * Sends null to all the clients: all the keys may have been modified
+     */
+    public void flushed() {
+        this.keys.clear();
+        for (Tracker tracker : this.trackers) {
+            this.send(tracker, null);
+        }
+    }
+
+    /**
+     * @return the number of tracking clients, of tracked keys and prefixes, and of sent invalidations
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("tracking_clients", (long) this.trackers.size());
+        stats.put("tracking_total_keys", (long) this.keys.size());
+        stats.put("tracking_total_prefixes", (long) this.prefixes.size());
+        stats.put("tracking_invalidations", this.invalidations);
+        return stats;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private void send(Tracker tracker, String key) {
+        if (!tracker.enabled) {
+            return;
+        }
+        this.invalidations++;
+        try {
+            tracker.listener.accept(key);
+        } catch (RuntimeException e) {
+            // The listener of a client must not fail the command of another client
+        }
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    /**
+     * Tracking state of a client
+     */
+    static class Tracker {
+        private final Consumer<String> listener;
+        // Prefixes of the broadcast mode, null in the default mode
+        private final String[] prefixes;
+        private boolean enabled;
+
+        private Tracker(Consumer<String> listener, String[] prefixes) {
+            this.listener = listener;
+            this.prefixes = prefixes;
+            this.enabled = true;
+        }
+    }
+}
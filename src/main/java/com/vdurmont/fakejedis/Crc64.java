@@ -0,0 +1,39 @@
+package com.vdurmont.fakejedis;
+
+/**
+ * CRC-64 of the RDB files (Jones polynomial, reflected, like the crc64 of redis), computed a byte at a time with a
+ * lookup table.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class Crc64 {
+    private static final long POLYNOMIAL = 0x95ac9329ac4bc9b5L;
+    private static final long[] TABLE = new long[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            long crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private Crc64() {
+    }
+
+    /**
+     * @param crc    the CRC of the previous bytes (0 for the first bytes)
+     * @param bytes  the bytes
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the CRC of the previous bytes and of these ones
+     */
+    public static long update(long crc, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = TABLE[(int) (crc ^ bytes[i]) & 0xFF] ^ (crc >>> 8);
+        }
+        return crc;
+    }
+}
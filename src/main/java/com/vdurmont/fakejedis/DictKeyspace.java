@@ -0,0 +1,325 @@
+package com.vdurmont.fakejedis;
+
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Keyspace backed by an open addressing hash table (linear probing over parallel arrays, no entry objects), with
+ * incremental rehashing like the redis dict.
+ * <p>
+ * When the table has to grow or shrink, a second table is allocated and every write migrates a few slots of the old
+ * table to the new one, so that no single operation has to copy the whole table. During the rehashing, an entry lives
+ * in exactly one of the two tables. The new table is big enough for the keys that can be written until the rehashing
+ * is complete, so the writes never outrun it.
+ *
+ * @param <V> the type of the values
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class DictKeyspace<V> implements Keyspace<V> {
+    static final int INITIAL_CAPACITY = 16;
+    private static final int REHASH_STEP = 16;
+    // Marks the deleted slots: compared by identity, it can't be confused with a key
+    private static final String TOMBSTONE = new String("<tombstone>");
+
+    private Table table;
+    private Table rehashTable;
+    private int rehashIndex;
+
+    public DictKeyspace() {
+        this.table = new Table(INITIAL_CAPACITY);
+    }
+
+    @Override public V get(String key) {
+        int hash = hash(key);
+        Table found = this.find(key, hash);
+        if (found == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        V value = (V) found.values[found.lastIndex];
+        return value;
+    }
+
+    @Override public V put(String key, V value) {
+        this.rehashStep();
+        int hash = hash(key);
+        Table found = this.find(key, hash);
+        if (found != null) {
+            @SuppressWarnings("unchecked")
+            V old = (V) found.values[found.lastIndex];
+            found.values[found.lastIndex] = value;
+            return old;
+        }
+        // New keys always go to the newest table
+        Table target = this.rehashTable == null ? this.table : this.rehashTable;
+        target.insert(key, hash, value);
+        this.resizeIfNeeded();
+        return null;
+    }
+
+    @Override public V remove(String key) {
+        this.rehashStep();
+        int hash = hash(key);
+        Table found = this.find(key, hash);
+        if (found == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        V old = (V) found.values[found.lastIndex];
+        found.delete(found.lastIndex);
+        this.resizeIfNeeded();
+        return old;
+    }
+
+    @Override public boolean containsKey(String key) {
+        return this.find(key, hash(key)) != null;
+    }
+
+    @Override public int size() {
+        return this.table.size + (this.rehashTable == null ? 0 : this.rehashTable.size);
+    }
+
+    @Override public void forEach(BiConsumer<String, V> consumer) {
+        this.table.forEach(consumer);
+        if (this.rehashTable != null) {
+            this.rehashTable.forEach(consumer);
+        }
+    }
+
+    /**
+     * Probes random slots until one holds a key: the tables are at least 1/8 full, unless they are being rehashed (then
+     * a table is picked with a probability proportional to its number of keys).
+     */
+    @Override public String randomKey(Random random) {
+        int size = this.size();
+        if (size == 0) {
+            return null;
+        }
+        while (true) {
+            Table table = this.rehashTable != null && random.nextInt(size) >= this.table.size ? this.rehashTable : this.table;
+            String key = table.keys[random.nextInt(table.keys.length)];
+            if (key != null && key != TOMBSTONE) {
+                return key;
+            }
+        }
+    }
+
+    @Override public void forEachWithPrefix(String prefix, BiConsumer<String, V> consumer) {
+        this.forEach((key, value) -> {
+            if (key.startsWith(prefix)) {
+                consumer.accept(key, value);
+            }
+        });
+    }
+
+    /**
+     * Like the SCAN of redis, the cursor is a home slot (the slot where the probe sequence of a key starts) whose bits
+     * are incremented in reverse order: the home slots that have been visited are still visited after the table has
+     * grown or shrunk, so every key that is present during the whole iteration is visited and the iteration always
+     * ends. During a rehashing, the home slot is visited in the smaller table, then all its expansions in the bigger
+     * one. The scan never moves the entries.
+     */
+    @Override public long scan(long cursor, int count, String prefix, BiConsumer<String, V> consumer) {
+        if (this.size() == 0) {
+            return 0;
+        }
+        int v = (int) cursor;
+        int visited = 0;
+        do {
+            if (this.rehashTable == null) {
+                visited += this.table.scan(v & this.table.mask, prefix, consumer);
+                v = nextCursor(v, this.table.mask);
+            } else {
+                Table small = this.table.mask <= this.rehashTable.mask ? this.table : this.rehashTable;
+                Table big = small == this.table ? this.rehashTable : this.table;
+                visited += small.scan(v & small.mask, prefix, consumer);
+                do {
+                    visited += big.scan(v & big.mask, prefix, consumer);
+                    v = nextCursor(v, big.mask);
+                    // Continue while the bits that are only in the mask of the bigger table are not all zero
+                } while ((v & (small.mask ^ big.mask)) != 0);
+            }
+        } while (v != 0 && visited < count);
+        return v & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return true if a rehashing is in progress
+     */
+    boolean isRehashing() {
+        return this.rehashTable != null;
+    }
+
+    /**
+     * @return the capacity of the newest table
+     */
+    int capacity() {
+        return this.rehashTable == null ? this.table.keys.length : this.rehashTable.keys.length;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private Table find(String key, int hash) {
+        if (this.rehashTable != null && this.rehashTable.indexOf(key, hash) >= 0) {
+            return this.rehashTable;
+        }
+        return this.table.indexOf(key, hash) >= 0 ? this.table : null;
+    }
+
+    private void rehashStep() {
+        if (this.rehashTable == null) {
+            return;
+        }
+        int end = Math.min(this.table.keys.length, this.rehashIndex + REHASH_STEP);
+        for (; this.rehashIndex < end; this.rehashIndex++) {
+            this.migrate(this.rehashIndex);
+        }
+        if (this.rehashIndex == this.table.keys.length) {
+            this.table = this.rehashTable;
+            this.rehashTable = null;
+        }
+    }
+
+    private void migrate(int index) {
+        String key = this.table.keys[index];
+        if (key != null && key != TOMBSTONE) {
+            this.rehashTable.insert(key, this.table.hashes[index], this.table.values[index]);
+            // The slot becomes a tombstone so that the probe sequences of the other keys of the old table still work
+            this.table.delete(index);
+        }
+    }
+
+    private void resizeIfNeeded() {
+        if (this.rehashTable != null) {
+            return;
+        }
+        int size = this.table.size;
+        int capacity = this.table.keys.length;
+        if (this.table.isOverloaded(0) || (capacity > INITIAL_CAPACITY && size < capacity / 8)) {
+            // The new table is at most half full, which also gets rid of the tombstones. Each write migrates a step of
+            // the old table: the new table must not be overloaded by the keys written until the end of the rehashing.
+            int writes = capacity / REHASH_STEP + 1;
+            int newCapacity = INITIAL_CAPACITY;
+            while (newCapacity < 2 * size || 3l * newCapacity < 4l * (size + writes)) {
+                newCapacity <<= 1;
+            }
+            this.rehashTable = new Table(newCapacity);
+            this.rehashIndex = 0;
+        }
+    }
+
+    /**
+     * @return the next cursor of SCAN: the bits of the mask are incremented from the most significant one
+     */
+    private static int nextCursor(int cursor, int mask) {
+        cursor |= ~mask;
+        return Integer.reverse(Integer.reverse(cursor) + 1);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    private static class Table {
+        private final String[] keys;
+        private final Object[] values;
+        private final int[] hashes;
+        private final int mask;
+        private int size;
+        private int tombstones;
+        // Index of the last slot found by indexOf, to avoid returning a pair
+        private int lastIndex;
+
+        private Table(int capacity) {
+            this.keys = new String[capacity];
+            this.values = new Object[capacity];
+            this.hashes = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int indexOf(String key, int hash) {
+            for (int i = hash & this.mask; ; i = (i + 1) & this.mask) {
+                String current = this.keys[i];
+                if (current == null) {
+                    return -1;
+                }
+                if (current != TOMBSTONE && this.hashes[i] == hash && current.equals(key)) {
+                    this.lastIndex = i;
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * Inserts a key that is not in the table yet
+         */
+        private void insert(String key, int hash, Object value) {
+            int i = hash & this.mask;
+            while (this.keys[i] != null && this.keys[i] != TOMBSTONE) {
+                i = (i + 1) & this.mask;
+            }
+            if (this.keys[i] == TOMBSTONE) {
+                this.tombstones--;
+            }
+            this.keys[i] = key;
+            this.hashes[i] = hash;
+            this.values[i] = value;
+            this.size++;
+        }
+
+        private void delete(int index) {
+            this.keys[index] = TOMBSTONE;
+            this.values[index] = null;
+            this.size--;
+            this.tombstones++;
+        }
+
+        /**
+         * @param pending a number of entries that will be inserted in the table
+         *
+         * @return true if more than 3/4 of the slots are used or deleted: the probe sequences are getting too long
+         */
+        private boolean isOverloaded(int pending) {
+            return 4l * (this.size + this.tombstones + pending) > 3l * this.keys.length;
+        }
+
+        /**
+         * Visits the keys whose probe sequence starts at the given slot: they are all before the next empty slot
+         *
+         * @return the number of visited keys
+         */
+        private <V> int scan(int home, String prefix, BiConsumer<String, V> consumer) {
+            int visited = 0;
+            for (int i = home; this.keys[i] != null; i = (i + 1) & this.mask) {
+                String key = this.keys[i];
+                if (key != TOMBSTONE && (this.hashes[i] & this.mask) == home) {
+                    visited++;
+                    if (key.startsWith(prefix)) {
+                        @SuppressWarnings("unchecked")
+                        V value = (V) this.values[i];
+                        consumer.accept(key, value);
+                    }
+                }
+            }
+            return visited;
+        }
+
+        private <V> void forEach(BiConsumer<String, V> consumer) {
+            for (int i = 0; i < this.keys.length; i++) {
+                String key = this.keys[i];
+                if (key != null && key != TOMBSTONE) {
+                    @SuppressWarnings("unchecked")
+                    V value = (V) this.values[i];
+                    consumer.accept(key, value);
+                }
+            }
+        }
+    }
+}
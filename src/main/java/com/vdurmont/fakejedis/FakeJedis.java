@@ -4,14 +4,11 @@ import redis.clients.jedis.BinaryClient;
 import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.BitOP;
 import redis.clients.jedis.BitPosParams;
-import redis.clients.jedis.Client;
 import redis.clients.jedis.DebugParams;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.JedisMonitor;
 import redis.clients.jedis.JedisPubSub;
-import redis.clients.jedis.Pipeline;
-import redis.clients.jedis.PipelineBlock;
 import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.SortingParams;
@@ -21,15 +18,37 @@ import redis.clients.jedis.Tuple;
 import redis.clients.jedis.ZParams;
 import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
 import redis.clients.util.Slowlog;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Jedis wrapper that simulates the behaviour of redis
@@ -37,14 +56,81 @@ import java.util.Set;
  * @author Vincent DURMONT [vdurmont@gmail.com]
  */
 public class FakeJedis extends Jedis {
+    private static final int STREAMING_CHUNK_SIZE = 1000;
+    private static final int PARALLEL_SORT_THRESHOLD = 8192;
+    private static final int SHARED_INTEGERS = 10000;
+    private static final int SHARED_VALUE_MAX_LENGTH = 44;
+    // Like redis, the rewrite of the AOF creates the lists and hashes by commands of at most 64 elements
+    private static final int AOF_REWRITE_ITEMS_PER_CMD = 64;
+    // The mass insert takes the lock once per batch of commands
+    private static final int MASS_INSERT_BATCH_SIZE = 10000;
+    private static final int MASS_INSERT_BUFFER_SIZE = 256 * 1024;
+    private static final long MASS_INSERT_PROGRESS_MILLIS = 1000;
+    // Like the shared integers of redis: the values "0" to "9999" are never allocated more than once
+    private static final JedisString[] SHARED_INTEGER_STRINGS = new JedisString[SHARED_INTEGERS];
+    // Generation of the new objects, incremented by each fork: the objects created before the last fork of a server are
+    // shared with the forks
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
+    static {
+        for (int i = 0; i < SHARED_INTEGERS; i++) {
+            SHARED_INTEGER_STRINGS[i] = new JedisString(String.valueOf(i)).share();
+        }
+    }
+
     protected final Object LOCK;
     private boolean isMulti;
-    private final Map<String, JedisObject> database;
+    private final Server server;
+    // Index of the selected database
+    private int db;
+    // Tracking state of this client, null if it does not track its keys
+    private ClientTracking.Tracker tracker;
 
     public FakeJedis() {
+        this(new Server());
+    }
+
+    private FakeJedis(Server server) {
         super("");
-        this.LOCK = new Object();
-        this.database = new HashMap<>();
+        this.LOCK = server.lock;
+        this.server = server;
+        this.db = 0;
+        // The inherited methods (pipelines, binary commands...) are sent to this client, and executed on this FakeJedis
+        this.client = new InMemoryClient(this);
+    }
+
+    /**
+     * Creates another client of the same fake server: it shares the databases and the configuration of this client,
+     * but selects its own database.
+     */
+    public FakeJedis newClient() {
+        return new FakeJedis(this.server);
+    }
+
+    /**
+     * Creates a real Jedis client of the same fake server, connected through an in-memory socket: the commands go
+     * through the protocol layer of Jedis, without network.
+     */
+    public Jedis newJedis() {
+        return new SocketJedis(new InMemoryClient(this.newClient()));
+    }
+
+    /**
+     * Forks the fake server: the new server starts with the databases and the configuration of this one, then both are
+     * independent. Like the fork of redis, this is copy-on-write: the fork takes O(1) per database, the two servers
+     * share the objects, and an object is only copied the first time that one of them modifies it.
+     * <p>
+     * The new server uses the same lock as this one. It does not inherit the AOF nor the tracking of the clients.
+     *
+     * @return a client of the new server, that selects the same database as this client
+     */
+    public FakeJedis fork() {
+        synchronized (this.LOCK) {
+            checkMulti();
+            FakeJedis fork = new FakeJedis(this.server.fork());
+            fork.db = this.db;
+            return fork;
+        }
     }
 
     // //////////////////////
@@ -54,7 +140,8 @@ public class FakeJedis extends Jedis {
     @Override public Boolean exists(String key) {
         synchronized (this.LOCK) {
             checkMulti();
-            return this.database.containsKey(key);
+            this.trackRead(key);
+            return this.database().containsKey(key);
         }
     }
 
@@ -69,51 +156,229 @@ public class FakeJedis extends Jedis {
     @Override public Long del(String... keys) {
         synchronized (this.LOCK) {
             checkMulti();
-            long sum = 0;
+            List<String> removed = new ArrayList<>(keys.length);
             for (String key : keys) {
-                sum += this.del(key);
+                this.beforeWrite(key);
+                JedisObject old = this.database().remove(key);
+                if (old != null) {
+                    this.release(old);
+                    this.signalModified(key);
+                    removed.add(key);
+                }
+            }
+            if (removed.isEmpty()) {
+                return 0l;
             }
-            return sum;
+            return this.propagate((long) removed.size(), command("DEL", removed));
         }
     }
 
     @Override public Long del(String key) {
+        return this.del(new String[]{key});
+    }
+
+    /**
+     * Like UNLINK (not part of Jedis 2.6): the keys are removed in O(1) and their objects are released in the
+     * background.
+     *
+     * @return the number of removed keys
+     */
+    public Long unlink(String... keys) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            List<String> removed = new ArrayList<>(keys.length);
+            for (String key : keys) {
+                this.beforeWrite(key);
+                JedisObject old = this.database().remove(key);
+                if (old != null) {
+                    removed.add(key);
+                    this.signalModified(key);
+                    if (old instanceof JedisString && ((JedisString) old).isOffHeap()) {
+                        this.lazyFree().free(old);
+                    }
+                }
+            }
+            if (removed.isEmpty()) {
+                return 0l;
+            }
+            return this.propagate((long) removed.size(), command("UNLINK", removed));
+        }
+    }
+
+    @Override public String type(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisObject object = this.database().get(key);
+            return object == null ? "none" : object.type.name().toLowerCase();
+        }
+    }
+
+    @Override public String randomKey() {
+        synchronized (this.LOCK) {
+            checkMulti();
+            return this.database().randomKey(ThreadLocalRandom.current());
+        }
+    }
+
+    /**
+     * The object is moved to the new key, it is not copied
+     */
+    @Override public String rename(String oldkey, String newkey) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisObject object = this.database().get(oldkey);
+            if (object == null) {
+                throw new JedisDataException("ERR no such key");
+            }
+            if (oldkey.equals(newkey)) {
+                return "OK";
+            }
+            this.beforeWrite(oldkey);
+            this.beforeWrite(newkey);
+            this.database().remove(oldkey);
+            this.release(this.database().put(newkey, object));
+            this.signalModified(oldkey);
+            this.signalModified(newkey);
+            return this.propagate("OK", "RENAME", oldkey, newkey);
+        }
+    }
+
+    @Override public Long renamenx(String oldkey, String newkey) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisObject object = this.database().get(oldkey);
+            if (object == null) {
+                throw new JedisDataException("ERR no such key");
+            }
+            if (this.database().containsKey(newkey)) {
+                return 0l;
+            }
+            this.beforeWrite(oldkey);
+            this.beforeWrite(newkey);
+            this.database().remove(oldkey);
+            this.database().put(newkey, object);
+            this.signalModified(oldkey);
+            this.signalModified(newkey);
+            return this.propagate(1l, "RENAMENX", oldkey, newkey);
+        }
+    }
+
+    /**
+     * The keys never expire in FakeJedis: there is never a timeout to remove
+     */
+    @Override public Long persist(String key) {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisObject old = this.database.remove(key);
-            return (long) (old == null ? 0 : 1);
+            return 0l;
         }
     }
 
     @Override public String set(String key, String value) {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisString str = new JedisString(value);
-            this.database.put(key, str);
-            return "OK";
+            this.beforeWrite(key);
+            this.release(this.database().put(key, this.newString(value)));
+            this.signalModified(key);
+            return this.propagate("OK", "SET", key, value);
         }
     }
 
     @Override public String get(String key) {
         synchronized (this.LOCK) {
             checkMulti();
+            this.trackRead(key);
+            JedisString str = this.get(JedisObjectType.STRING, key);
+            return str == null ? null : str.value();
+        }
+    }
+
+    @Override public String getSet(String key, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisString old = this.get(JedisObjectType.STRING, key);
+            String oldValue = old == null ? null : old.value();
+            this.beforeWrite(key);
+            this.release(this.database().put(key, this.newString(value)));
+            this.signalModified(key);
+            return this.propagate(oldValue, "GETSET", key, value);
+        }
+    }
+
+    @Override public Long append(String key, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisString str = this.get(JedisObjectType.STRING, key);
+            this.beforeWrite(key);
+            if (str == null) {
+                str = this.newString(value);
+                this.database().put(key, str);
+                this.signalModified(key);
+                return this.propagate(str.length(), "APPEND", key, value);
+            }
+            str = this.writable(key, str);
+            JedisEncoding encoding = str.encoding;
+            long length = str.append(value);
+            this.converted(str, encoding);
+            this.compact(str);
+            this.signalModified(key);
+            return this.propagate(length, "APPEND", key, value);
+        }
+    }
+
+    @Override public Long setrange(String key, long offset, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            if (offset < 0) {
+                throw new JedisDataException("ERR offset is out of range");
+            }
+            JedisString str = this.get(JedisObjectType.STRING, key);
+            if (value.isEmpty()) {
+                // Redis does not create the key (nor pad it) for an empty value
+                return str == null ? 0l : str.length();
+            }
+            this.beforeWrite(key);
+            if (str == null) {
+                str = new JedisString("");
+                this.database().put(key, str);
+            }
+            str = this.writable(key, str);
+            JedisEncoding encoding = str.encoding;
+            long length = str.setrange(offset, value);
+            this.converted(str, encoding);
+            this.compact(str);
+            this.signalModified(key);
+            return this.propagate(length, "SETRANGE", key, String.valueOf(offset), value);
+        }
+    }
+
+    @Override public String getrange(String key, long startOffset, long endOffset) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisString str = this.get(JedisObjectType.STRING, key);
+            return str == null ? "" : str.getrange(startOffset, endOffset);
+        }
+    }
+
+    @Override public Long strlen(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
             JedisString str = this.get(JedisObjectType.STRING, key);
-            return str == null ? null : str.value;
+            return str == null ? 0l : str.length();
         }
     }
 
     @Override public Set<String> keys(String pattern) {
         synchronized (this.LOCK) {
             checkMulti();
-            Set<String> keys = this.database.keySet();
-            pattern = pattern.replace("*", "(.*)");
-            Iterator<String> ite = keys.iterator();
-            while (ite.hasNext()) {
-                String key = ite.next();
-                if (!key.matches(pattern)) {
-                    ite.remove();
+            Set<String> keys = new HashSet<>();
+            this.database().forEachWithPrefix(literalPrefix(pattern), (key, object) -> {
+                if (globMatches(pattern, key)) {
+                    keys.add(key);
                 }
-            }
+            });
             return keys;
         }
     }
@@ -130,202 +395,2917 @@ public class FakeJedis extends Jedis {
             if (obj != null) {
                 return 0l;
             }
-            this.database.put(key, new JedisString(value));
-            return 1l;
+            this.beforeWrite(key);
+            this.database().put(key, this.newString(value));
+            this.signalModified(key);
+            return this.propagate(1l, "SETNX", key, value);
+        }
+    }
+
+    @Override public String objectEncoding(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            // Not a lookup: the access time of the object is not updated
+            JedisObject object = this.database().get(key);
+            return object == null ? null : object.encoding.name;
+        }
+    }
+
+    @Override public Long objectIdletime(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisObject object = this.database().get(key);
+            return object == null ? null : object.idletime();
+        }
+    }
+
+    @Override public Long objectRefcount(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisObject object = this.database().get(key);
+            if (object == null) {
+                return null;
+            }
+            return object.isShared() ? Integer.MAX_VALUE : 1l;
+        }
+    }
+
+    @Override public List<String> configGet(String pattern) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            Map<String, String> config = new LinkedHashMap<>();
+            config.put("hash-max-ziplist-entries", String.valueOf(this.server.hashMaxZiplistEntries));
+            config.put("hash-max-ziplist-value", String.valueOf(this.server.hashMaxZiplistValue));
+            config.put("string-offheap-threshold", String.valueOf(this.server.stringOffheapThreshold));
+            config.put("value-compression-threshold", String.valueOf(this.server.valueCompressionThreshold));
+            config.put("list-compress-depth", String.valueOf(this.server.listCompressDepth));
+            config.put("shared-values-max-entries", String.valueOf(this.server.sharedValuesMaxEntries));
+            config.put("keyspace-encoding", this.server.radixKeyspace ? "radix" : "hashtable");
+            config.put("dir", this.server.dir);
+            config.put("dbfilename", this.server.dbfilename);
+            config.put("appendonly", this.server.aof.isEnabled() ? "yes" : "no");
+            config.put("appendfilename", this.server.appendfilename);
+            config.put("appendfsync", this.server.aof.getFsync());
+            List<String> result = new ArrayList<>();
+            for (Map.Entry<String, String> entry : config.entrySet()) {
+                if (globMatches(pattern, entry.getKey())) {
+                    result.add(entry.getKey());
+                    result.add(entry.getValue());
+                }
+            }
+            return result;
+        }
+    }
+
+    @Override public String configSet(String parameter, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            switch (parameter.toLowerCase()) {
+                case "hash-max-ziplist-entries":
+                    this.server.hashMaxZiplistEntries = parseConfigInt(parameter, value);
+                    break;
+                case "hash-max-ziplist-value":
+                    this.server.hashMaxZiplistValue = parseConfigInt(parameter, value);
+                    break;
+                case "string-offheap-threshold":
+                    this.server.stringOffheapThreshold = parseConfigInt(parameter, value);
+                    break;
+                case "value-compression-threshold":
+                    this.server.valueCompressionThreshold = parseConfigInt(parameter, value);
+                    break;
+                case "list-compress-depth":
+                    this.setListCompressDepth(parameter, value);
+                    break;
+                case "shared-values-max-entries":
+                    this.server.sharedValuesMaxEntries = parseConfigInt(parameter, value);
+                    // The values that are already shared stay valid
+                    this.server.sharedValues.clear();
+                    break;
+                case "keyspace-encoding":
+                    this.setKeyspaceEncoding(parameter, value);
+                    break;
+                case "dir":
+                    if (!Files.isDirectory(Paths.get(value))) {
+                        throw new JedisDataException("ERR Invalid argument '" + value + "' for CONFIG SET 'dir'");
+                    }
+                    this.server.dir = Paths.get(value).toAbsolutePath().toString();
+                    break;
+                case "dbfilename":
+                    if (value.isEmpty() || value.contains("/")) {
+                        throw new JedisDataException("ERR Invalid argument '" + value + "' for CONFIG SET 'dbfilename'");
+                    }
+                    this.server.dbfilename = value;
+                    break;
+                case "appendonly":
+                    if (value.equalsIgnoreCase("yes")) {
+                        this.server.aof.enable(this.aofFile());
+                    } else if (value.equalsIgnoreCase("no")) {
+                        this.server.aof.disable();
+                    } else {
+                        throw new JedisDataException("ERR Invalid argument '" + value + "' for CONFIG SET 'appendonly'");
+                    }
+                    break;
+                case "appendfilename":
+                    if (value.isEmpty() || value.contains("/") || this.server.aof.isEnabled()) {
+                        throw new JedisDataException("ERR Invalid argument '" + value + "' for CONFIG SET 'appendfilename'");
+                    }
+                    this.server.appendfilename = value;
+                    break;
+                case "appendfsync":
+                    switch (value.toLowerCase()) {
+                        case AppendOnlyFile.FSYNC_ALWAYS:
+                        case AppendOnlyFile.FSYNC_EVERYSEC:
+                        case AppendOnlyFile.FSYNC_NO:
+                            this.server.aof.setFsync(value.toLowerCase());
+                            break;
+                        default:
+                            throw new JedisDataException("ERR Invalid argument '" + value + "' for CONFIG SET 'appendfsync'");
+                    }
+                    break;
+                default:
+                    throw new JedisDataException("ERR Unsupported CONFIG parameter: " + parameter);
+            }
+            return "OK";
+        }
+    }
+
+    @Override public ScanResult<String> scan(String cursor) {
+        return this.scan(cursor, new ScanParams());
+    }
+
+    @Override public ScanResult<String> scan(String cursor, ScanParams params) {
+        String pattern = getScanParam(params, "MATCH", "*");
+        int count = Integer.valueOf(getScanParam(params, "COUNT", "10"));
+        long start = parseCursor(cursor);
+        synchronized (this.LOCK) {
+            checkMulti();
+            List<String> keys = new ArrayList<>();
+            long next = this.database().scan(start, count, literalPrefix(pattern), (key, object) -> {
+                if (globMatches(pattern, key)) {
+                    keys.add(key);
+                }
+            });
+            return new ScanResult<>(String.valueOf(next), keys);
         }
     }
 
+    @Override public ScanResult<String> scan(int cursor) {
+        return this.scan(String.valueOf(cursor));
+    }
+
+    @Override public ScanResult<String> scan(int cursor, ScanParams params) {
+        return this.scan(String.valueOf(cursor), params);
+    }
+
     // //////////////////////
-    // PUBLIC API — LISTS
+    // PUBLIC API — PERSISTENCE
     // //////////////
 
-    @Override public Long lpush(String key, String... strings) {
+    /**
+     * Writes the databases to the RDB file of the dir and dbfilename parameters, blocking the other clients
+     */
+    @Override public String save() {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisList jedisList = this.getOrCreate(JedisObjectType.LIST, key);
-            for (String str : strings) {
-                jedisList.list.addFirst(str);
+            if (this.server.bgsave != null) {
+                throw new JedisDataException("ERR Background save already in progress");
             }
-            return jedisList.size();
+            this.writeRdbFile(this.rdbFile());
+            this.server.lastSave = System.currentTimeMillis() / 1000;
+            return "OK";
         }
     }
 
-    @Override public String lpop(String key) {
+    /**
+     * Like SAVE, but in a background thread: there is no fork in java, so the other clients still wait for the end of
+     * the save when they send a command.
+     */
+    @Override public String bgsave() {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisList jedisList = this.getOrCreate(JedisObjectType.LIST, key);
-            return jedisList.list.pollFirst();
+            if (this.server.bgsave != null) {
+                throw new JedisDataException("ERR Background save already in progress");
+            }
+            Path file = this.rdbFile();
+            Thread thread = new Thread(() -> {
+                synchronized (this.LOCK) {
+                    try {
+                        // The client may be in a transaction by now
+                        this.writeRdbFile(file);
+                        this.server.lastSave = System.currentTimeMillis() / 1000;
+                    } catch (FakeJedisException e) {
+                        // Like redis, the failure is only visible in LASTSAVE
+                    } finally {
+                        this.server.bgsave = null;
+                    }
+                }
+            }, "fake-jedis-bgsave");
+            thread.setDaemon(true);
+            this.server.bgsave = thread;
+            thread.start();
+            return "Background saving started";
         }
     }
 
-    @Override public Long llen(String key) {
+    /**
+     * @return the time of the last successful save, in seconds (the creation time of the server if there is none)
+     */
+    @Override public Long lastsave() {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisList jedisList = this.getOrCreate(JedisObjectType.LIST, key);
-            return jedisList.size();
+            return this.server.lastSave;
         }
     }
 
-    @Override public List<String> lrange(String key, long start, long end) {
+    /**
+     * Rewrites the AOF in the background (see the appendonly parameter), from a point-in-time view of the databases:
+     * the other clients only wait while a batch of keys is dumped. Like redis, the file is written even if the AOF is
+     * disabled.
+     */
+    @Override public String bgrewriteaof() {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisList jedisList = this.get(JedisObjectType.LIST, key);
-            end++; // Because the end is included in redis
-            if (jedisList == null) {
-                return new ArrayList<>();
-            } else {
-                // Negative index means we start from the tail
-                if (start < 0) {
-                    start = jedisList.size() + start;
+            if (!this.server.aof.rewrite(this.aofFile())) {
+                throw new JedisDataException("ERR Background append only file rewriting already in progress");
+            }
+            return "Background append only file rewriting started";
+        }
+    }
+
+    /**
+     * Writes all the databases to an RDB file (not part of Jedis), with the strings, lists and hashes. The file is
+     * written to a temporary file first, then renamed, so that it is never partially written.
+     *
+     * @param file the file to write
+     */
+    public void saveRdb(Path file) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.writeRdbFile(file);
+        }
+    }
+
+    /**
+     * Writes the RDB file of SAVE, BGSAVE and saveRdb, under the lock
+     */
+    private void writeRdbFile(Path file) {
+        Path temp = file.resolveSibling("temp-" + file.getFileName() + "-" + System.nanoTime());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            RdbWriter writer = new RdbWriter(channel);
+            for (int i = 0; i < this.server.databases.length; i++) {
+                Keyspace<JedisObject> database = this.server.databases[i];
+                if (database.size() > 0) {
+                    writer.selectDb(i, database.size());
+                    database.forEach((key, object) -> writeRdb(writer, key, object));
+                }
+            }
+            writer.finish();
+            channel.force(false);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new FakeJedisException("Cannot write the RDB file " + file, e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * Replaces all the databases by the content of an RDB file (not part of Jedis), e.g. a dump.rdb of a real redis.
+     * <p>
+     * The file is streamed into new databases, which replace the current ones once it is completely read: if it is
+     * invalid, the databases are left untouched. The strings, lists and hashes are loaded with the current
+     * configuration (encodings, compression...); the sets and sorted sets are skipped, as well as the keys that have
+     * expired, and the expiration times of the other keys are dropped.
+     *
+     * @param file the file to read
+     * @return the number of loaded keys (keys_loaded), of expired keys (keys_expired), of keys with an unsupported type
+     * (keys_skipped) and of loaded keys that had an expiration time (volatile_keys)
+     */
+    public Map<String, Long> loadRdb(Path file) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            RdbLoader loader = new RdbLoader();
+            RdbReader reader;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                reader = new RdbReader(channel, System.currentTimeMillis());
+                reader.read(loader);
+            } catch (IOException | RuntimeException e) {
+                for (Keyspace<JedisObject> database : loader.databases) {
+                    this.reclaim(database);
                 }
-                if (end < 1) {
-                    end = jedisList.size() + end;
+                if (e instanceof RuntimeException) {
+                    throw (RuntimeException) e;
                 }
+                throw new FakeJedisException("Cannot read the RDB file " + file, e);
+            }
+            this.replaceDatabases(loader.databases);
+            return reader.getStats();
+        }
+    }
 
-                // If we have reversed index, return empty
-                if (start > end) {
-                    return new ArrayList<>();
+    /**
+     * Replaces all the databases by the replay of an AOF (not part of Jedis), e.g. the AOF of a previous run of the fake.
+     * <p>
+     * The databases are flushed, then the commands of the file are executed like the commands of a client of the fake
+     * server, with the commands that are supported by the fake server. Like redis with aof-load-truncated, an
+     * incomplete command at the end of the file (e.g. after a crash) is ignored.
+     *
+     * @param file the file to read
+     * @return the number of executed commands (commands_loaded), of commands that returned an error (commands_failed)
+     * and the size of the incomplete command at the end of the file (truncated_bytes)
+     */
+    public Map<String, Long> loadAof(Path file) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            RedisSession session = new RedisSession(this.newClient());
+            RespDecoder decoder = new RespDecoder();
+            ByteBuffer buffer = ByteBuffer.allocate(RdbReader.BUFFER_SIZE);
+            long loaded = 0;
+            long failed = 0;
+            this.server.aof.beginBatch(false);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // Only the current content is read, the file may be the AOF itself
+                long remaining = channel.size();
+                this.flushAll();
+                while (true) {
+                    if (remaining > 0) {
+                        int limit = buffer.limit();
+                        if (buffer.remaining() > remaining) {
+                            buffer.limit(buffer.position() + (int) remaining);
+                        }
+                        int read = channel.read(buffer);
+                        buffer.limit(limit);
+                        remaining = read < 0 ? 0 : remaining - read;
+                    }
+                    buffer.flip();
+                    while (decoder.decode(buffer)) {
+                        Object reply = session.execute(decoder.argumentsAsStrings());
+                        loaded++;
+                        failed += reply instanceof JedisDataException ? 1 : 0;
+                    }
+                    if (remaining == 0) {
+                        Map<String, Long> stats = new TreeMap<>();
+                        stats.put("commands_loaded", loaded);
+                        stats.put("commands_failed", failed);
+                        stats.put("truncated_bytes", (long) buffer.remaining());
+                        return stats;
+                    }
+                    buffer.compact();
+                    // A full buffer may end in the middle of a header: the size of the request is not known yet
+                    if (!buffer.hasRemaining() || decoder.pendingRequestSize() > buffer.capacity()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), decoder.pendingRequestSize()));
+                        buffer.flip();
+                        bigger.put(buffer);
+                        buffer = bigger;
+                    }
                 }
+            } catch (IOException e) {
+                throw new FakeJedisException("Cannot read the AOF " + file, e);
+            } catch (JedisDataException e) {
+                throw new FakeJedisException("Bad file format reading the append only file " + file, e);
+            } finally {
+                this.server.aof.endBatch();
+            }
+        }
+    }
 
-                // We are resilient to the IndexOutOfBounds errors
-                start = Math.max(0, start);
-                end = Math.min(jedisList.size(), end);
+    /**
+     * Writes all the databases to a snapshot (not part of Jedis), a binary file that {@link #loadSnapshot(Path)} maps
+     * in memory. Like {@link #saveRdb(Path)}, the file is written to a temporary file first, then renamed.
+     *
+     * @param file the file to write
+     */
+    public void saveSnapshot(Path file) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            Path temp = file.resolveSibling("temp-" + file.getFileName() + "-" + System.nanoTime());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                MappedSnapshot.Writer writer = new MappedSnapshot.Writer(channel, this.server.databases.length);
+                for (int i = 0; i < this.server.databases.length; i++) {
+                    Keyspace<JedisObject> database = this.server.databases[i];
+                    if (database.size() > 0) {
+                        writer.selectDb(i, database.size());
+                        database.forEach((key, object) -> writeSnapshot(writer, key, object));
+                    }
+                }
+                writer.finish();
+                channel.force(false);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new FakeJedisException("Cannot write the snapshot " + file, e);
+            } finally {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
 
-                return jedisList.list.subList((int) start, (int) end);
+    /**
+     * Replaces all the databases by the content of a snapshot written by {@link #saveSnapshot(Path)} (not part of
+     * Jedis), e.g. a fixture shared by several tests.
+     * <p>
+     * The file is memory-mapped, and only its keys are read, in parallel: a value is decoded the first time that its
+     * key is accessed, with the current configuration (encodings, compression...), so that the pages of the file that
+     * hold the values that are never accessed are never read. The commands that visit all the keys (KEYS, SCAN...)
+     * decode the values that they visit. All the values are decoded if the AOF is enabled, since they are written to
+     * it, or when the keyspace-encoding parameter is changed. If the file is invalid, the databases are left untouched.
+     *
+     * @param file the file to read
+     * @return the number of loaded keys (keys_loaded) and the size of the file (snapshot_bytes)
+     */
+    public Map<String, Long> loadSnapshot(Path file) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            MappedSnapshot snapshot;
+            try {
+                snapshot = new MappedSnapshot(file);
+            } catch (IOException e) {
+                throw new FakeJedisException("Cannot read the snapshot " + file, e);
+            }
+            if (snapshot.databases() > this.server.databases.length) {
+                throw new FakeJedisException("DB index is out of range in the snapshot: " + (snapshot.databases() - 1));
+            }
+            Keyspace<JedisObject>[] databases = newKeyspaceArray(this.server.databases.length);
+            long keys = 0;
+            for (int i = 0; i < databases.length; i++) {
+                if (i < snapshot.databases() && snapshot.size(i) > 0) {
+                    MappedKeyspace<JedisObject> database = new MappedKeyspace<>(this.server.newKeyspace(), this::decodeSnapshot);
+                    snapshot.load(i, database::putValue);
+                    databases[i] = database;
+                    keys += database.size();
+                } else {
+                    databases[i] = this.server.newKeyspace();
+                }
             }
+            this.replaceDatabases(databases);
+            Map<String, Long> stats = new TreeMap<>();
+            stats.put("keys_loaded", keys);
+            try {
+                stats.put("snapshot_bytes", Files.size(file));
+            } catch (IOException e) {
+                throw new FakeJedisException("Cannot read the snapshot " + file, e);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Executes the commands of a file in the redis protocol (not part of Jedis), like redis-cli --pipe
+     *
+     * @see #massInsert(InputStream, Consumer)
+     */
+    public Map<String, Number> massInsert(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return this.massInsert(channel, null);
+        } catch (IOException e) {
+            throw new FakeJedisException("Cannot read the mass insert file " + file, e);
         }
     }
 
+    /**
+     * Executes the commands of a stream in the redis protocol (not part of Jedis), like redis-cli --pipe: the arrays of
+     * bulk strings that the redis clients send, or inline commands.
+     * <p>
+     * The commands are executed like the commands of a new connection to the fake server (starting on the DB 0), but
+     * their replies are dropped, except that the errors are counted. The commands are decoded in batches, without the
+     * lock; then each batch is executed with a single acquisition of the lock (and a single fsync of the AOF), so that
+     * the other clients can run their commands between two batches.
+     *
+     * @param in       the stream to read, which is not closed
+     * @param progress the listener of the progress, called about every second and at the end with the same stats as
+     *                 the result, or null
+     * @return the number of executed commands (commands), of commands that returned an error (errors), of read bytes
+     * (bytes) and of bytes of an incomplete command at the end of the stream (truncated_bytes), the duration
+     * (elapsed_millis) and the throughput (ops_per_sec)
+     */
+    public Map<String, Number> massInsert(InputStream in, Consumer<Map<String, Number>> progress) {
+        return this.massInsert(Channels.newChannel(in), progress);
+    }
+
     // //////////////////////
-    // PUBLIC API — HASHES
+    // PUBLIC API — DATABASES
     // //////////////
 
-    @Override public Long hset(String key, String field, String value) {
+    @Override public String select(int index) {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisHash jedisHash = this.getOrCreate(JedisObjectType.HASH, key);
-            String old = jedisHash.hash.put(field, value);
-            return (long) (old == null ? 1 : 0);
+            checkDbIndex(index);
+            this.db = index;
+            return "OK";
         }
     }
 
-    @Override public String hget(String key, String field) {
+    @Override public Long getDB() {
+        synchronized (this.LOCK) {
+            return (long) this.db;
+        }
+    }
+
+    @Override public Long move(String key, int dbIndex) {
         synchronized (this.LOCK) {
             checkMulti();
-            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
-            if (jedisHash == null) {
-                return null;
+            checkDbIndex(dbIndex);
+            if (dbIndex == this.db) {
+                throw new JedisDataException("ERR source and destination objects are the same");
+            }
+            Keyspace<JedisObject> destination = this.server.databases[dbIndex];
+            JedisObject object = this.database().get(key);
+            if (object == null || destination.containsKey(key)) {
+                return 0l;
+            }
+            this.beforeWrite(key);
+            this.server.aof.beforeWrite(destination, key);
+            this.database().remove(key);
+            destination.put(key, object);
+            this.signalModified(key);
+            return this.propagate(1l, "MOVE", key, String.valueOf(dbIndex));
+        }
+    }
+
+    @Override public Long dbSize() {
+        synchronized (this.LOCK) {
+            checkMulti();
+            return (long) this.database().size();
+        }
+    }
+
+    /**
+     * Empties the selected database in O(1): the keyspace is replaced by a new one.
+     */
+    @Override public String flushDB() {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.server.aof.beforeFlush(this.database());
+            this.reclaim(this.server.databases[this.db]);
+            this.server.databases[this.db] = this.server.newKeyspace();
+            this.signalFlushed();
+            return this.propagate("OK", "FLUSHDB");
+        }
+    }
+
+    @Override public String flushAll() {
+        synchronized (this.LOCK) {
+            checkMulti();
+            for (int i = 0; i < this.server.databases.length; i++) {
+                this.server.aof.beforeFlush(this.server.databases[i]);
+                this.reclaim(this.server.databases[i]);
+                this.server.databases[i] = this.server.newKeyspace();
+            }
+            this.signalFlushed();
+            return this.propagate("OK", "FLUSHALL");
+        }
+    }
+
+    /**
+     * Swaps two databases, like SWAPDB (not part of Jedis 2.6): the clients that selected one of them immediately see
+     * the other one.
+     */
+    public String swapDB(int index1, int index2) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            checkDbIndex(index1);
+            checkDbIndex(index2);
+            Keyspace<JedisObject> keyspace = this.server.databases[index1];
+            this.server.databases[index1] = this.server.databases[index2];
+            this.server.databases[index2] = keyspace;
+            this.signalFlushed();
+            return this.propagate("OK", "SWAPDB", String.valueOf(index1), String.valueOf(index2));
+        }
+    }
+
+    // //////////////////////
+    // PUBLIC API — LISTS
+    // //////////////
+
+    @Override public Long lpush(String key, String... strings) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.beforeWrite(key);
+            JedisList jedisList = this.getOrCreate(JedisObjectType.LIST, key);
+            for (String str : strings) {
+                jedisList.list.addFirst(str);
+            }
+            this.signalModified(key);
+            return this.propagate(jedisList.size(), command("LPUSH", key, strings));
+        }
+    }
+
+    @Override public Long rpush(String key, String... strings) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.beforeWrite(key);
+            JedisList jedisList = this.getOrCreate(JedisObjectType.LIST, key);
+            for (String str : strings) {
+                jedisList.list.addLast(str);
+            }
+            this.signalModified(key);
+            return this.propagate(jedisList.size(), command("RPUSH", key, strings));
+        }
+    }
+
+    @Override public Long lpushx(String key, String... strings) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return 0l;
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            for (String str : strings) {
+                jedisList.list.addFirst(str);
+            }
+            this.signalModified(key);
+            return this.propagate(jedisList.size(), command("LPUSHX", key, strings));
+        }
+    }
+
+    @Override public Long rpushx(String key, String... strings) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return 0l;
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            for (String str : strings) {
+                jedisList.list.addLast(str);
+            }
+            this.signalModified(key);
+            return this.propagate(jedisList.size(), command("RPUSHX", key, strings));
+        }
+    }
+
+    @Override public String lpop(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return null;
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            String element = jedisList.list.pollFirst();
+            this.removeIfEmpty(key, jedisList);
+            this.signalModified(key);
+            return this.propagate(element, "LPOP", key);
+        }
+    }
+
+    @Override public String rpop(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return null;
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            String element = jedisList.list.pollLast();
+            this.removeIfEmpty(key, jedisList);
+            this.signalModified(key);
+            return this.propagate(element, "RPOP", key);
+        }
+    }
+
+    @Override public String rpoplpush(String srckey, String dstkey) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList source = this.get(JedisObjectType.LIST, srckey);
+            if (source == null) {
+                // Like redis, a missing source is not an error, whatever the type of the destination
+                return null;
+            }
+            // Check the type of the destination before touching the source
+            JedisList destination = this.get(JedisObjectType.LIST, dstkey);
+            this.beforeWrite(srckey);
+            this.beforeWrite(dstkey);
+            boolean same = source == destination;
+            source = this.writable(srckey, source);
+            destination = same ? source : destination == null ? null : this.writable(dstkey, destination);
+            String element = source.list.pollLast();
+            if (destination == null) {
+                destination = this.newList();
+                this.database().put(dstkey, destination);
+            }
+            destination.list.addFirst(element);
+            // Checked after the push: the source and the destination can be the same list
+            this.removeIfEmpty(srckey, source);
+            this.signalModified(srckey);
+            this.signalModified(dstkey);
+            return this.propagate(element, "RPOPLPUSH", srckey, dstkey);
+        }
+    }
+
+    @Override public Long llen(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            return jedisList == null ? 0l : jedisList.size();
+        }
+    }
+
+    @Override public List<String> lrange(String key, long start, long end) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return new ArrayList<>();
+            }
+            long[] range = normalizeRange(start, end, jedisList.size());
+            if (range == null) {
+                return new ArrayList<>();
+            }
+            return jedisList.list.range(range[0], range[1]);
+        }
+    }
+
+    @Override public String lindex(String key, long index) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return null;
+            }
+            if (index < 0) {
+                index += jedisList.size();
+            }
+            if (index < 0 || index >= jedisList.size()) {
+                return null;
+            }
+            return jedisList.list.get(index);
+        }
+    }
+
+    @Override public String lset(String key, long index, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                throw new JedisDataException("ERR no such key");
+            }
+            if (index < 0) {
+                index += jedisList.size();
+            }
+            if (index < 0 || index >= jedisList.size()) {
+                throw new JedisDataException("ERR index out of range");
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            jedisList.list.set(index, value);
+            this.signalModified(key);
+            return this.propagate("OK", "LSET", key, String.valueOf(index), value);
+        }
+    }
+
+    @Override public Long linsert(String key, BinaryClient.LIST_POSITION where, String pivot, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return 0l;
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            if (!jedisList.list.insert(pivot, value, where == BinaryClient.LIST_POSITION.AFTER)) {
+                return -1l;
+            }
+            this.signalModified(key);
+            return this.propagate(jedisList.size(), "LINSERT", key, where.name(), pivot, value);
+        }
+    }
+
+    @Override public Long lrem(String key, long count, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return 0l;
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            long removed = jedisList.list.remove(count, value);
+            if (removed == 0) {
+                return 0l;
+            }
+            this.removeIfEmpty(key, jedisList);
+            this.signalModified(key);
+            return this.propagate(removed, "LREM", key, String.valueOf(count), value);
+        }
+    }
+
+    @Override public String ltrim(String key, long start, long end) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisList jedisList = this.get(JedisObjectType.LIST, key);
+            if (jedisList == null) {
+                return "OK";
+            }
+            this.beforeWrite(key);
+            jedisList = this.writable(key, jedisList);
+            long[] range = normalizeRange(start, end, jedisList.size());
+            if (range == null) {
+                jedisList.list.trim(1, 0);
+            } else {
+                jedisList.list.trim(range[0], range[1]);
+            }
+            this.removeIfEmpty(key, jedisList);
+            this.signalModified(key);
+            return this.propagate("OK", "LTRIM", key, String.valueOf(start), String.valueOf(end));
+        }
+    }
+
+    // //////////////////////
+    // PUBLIC API — HASHES
+    // //////////////
+
+    @Override public Long hset(String key, String field, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.beforeWrite(key);
+            JedisHash jedisHash = this.getOrCreate(JedisObjectType.HASH, key);
+            String old = this.hashPut(jedisHash, field, value);
+            this.signalModified(key);
+            return this.propagate((long) (old == null ? 1 : 0), "HSET", key, field, value);
+        }
+    }
+
+    @Override public Long hsetnx(String key, String field, String value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.beforeWrite(key);
+            JedisHash jedisHash = this.getOrCreate(JedisObjectType.HASH, key);
+            if (jedisHash.containsKey(field)) {
+                return 0l;
+            }
+            this.hashPut(jedisHash, field, value);
+            this.signalModified(key);
+            return this.propagate(1l, "HSETNX", key, field, value);
+        }
+    }
+
+    @Override public String hmset(String key, Map<String, String> hash) {
+        if (hash.isEmpty()) {
+            throw new JedisDataException("ERR wrong number of arguments for 'hmset' command");
+        }
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.beforeWrite(key);
+            JedisHash jedisHash = this.getOrCreate(JedisObjectType.HASH, key);
+            List<String> command = new ArrayList<>(2 + 2 * hash.size());
+            command.add("HMSET");
+            command.add(key);
+            for (Map.Entry<String, String> entry : hash.entrySet()) {
+                this.hashPut(jedisHash, entry.getKey(), entry.getValue());
+                command.add(entry.getKey());
+                command.add(entry.getValue());
+            }
+            this.signalModified(key);
+            return this.propagate("OK", command.toArray(new String[command.size()]));
+        }
+    }
+
+    @Override public String hget(String key, String field) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            if (jedisHash == null) {
+                return null;
+            }
+            return jedisHash.get(field);
+        }
+    }
+
+    @Override public List<String> hmget(String key, String... fields) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            List<String> values = new ArrayList<>(fields.length);
+            for (String field : fields) {
+                values.add(jedisHash == null ? null : jedisHash.get(field));
+            }
+            return values;
+        }
+    }
+
+    @Override public Long hincrBy(String key, String field, long value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.beforeWrite(key);
+            JedisHash jedisHash = this.getOrCreate(JedisObjectType.HASH, key);
+            String old = jedisHash.get(field);
+            long newValue = value;
+            if (old != null) {
+                try {
+                    newValue += Long.valueOf(old);
+                } catch (NumberFormatException e) {
+                    throw new JedisDataException("ERR hash value is not an integer");
+                }
+            }
+            this.hashPut(jedisHash, field, String.valueOf(newValue));
+            this.signalModified(key);
+            return this.propagate(newValue, "HINCRBY", key, field, String.valueOf(value));
+        }
+    }
+
+    @Override public Double hincrByFloat(String key, String field, double value) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.beforeWrite(key);
+            JedisHash jedisHash = this.getOrCreate(JedisObjectType.HASH, key);
+            String old = jedisHash.get(field);
+            double newValue = value;
+            if (old != null) {
+                try {
+                    newValue += Double.valueOf(old);
+                } catch (NumberFormatException e) {
+                    throw new JedisDataException("ERR hash value is not a float");
+                }
+            }
+            if (Double.isNaN(newValue) || Double.isInfinite(newValue)) {
+                throw new JedisDataException("ERR increment would produce NaN or Infinity");
+            }
+            String formatted = BigDecimal.valueOf(newValue).stripTrailingZeros().toPlainString();
+            this.hashPut(jedisHash, field, formatted);
+            this.signalModified(key);
+            // Like redis, the result is propagated: the floating point computation may differ when it is replayed
+            return this.propagate(newValue, "HSET", key, field, formatted);
+        }
+    }
+
+    @Override public Boolean hexists(String key, String field) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            return jedisHash != null && jedisHash.containsKey(field);
+        }
+    }
+
+    @Override public Long hdel(String key, String... fields) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            if (jedisHash == null) {
+                return 0l;
+            }
+            this.beforeWrite(key);
+            jedisHash = this.writable(key, jedisHash);
+            long sum = 0;
+            for (String field : fields) {
+                if (jedisHash.remove(field) != null) {
+                    sum++;
+                }
+            }
+            if (jedisHash.size() == 0) {
+                // Redis never keeps an empty hash around
+                this.database().remove(key);
+            }
+            if (sum == 0) {
+                return 0l;
+            }
+            this.signalModified(key);
+            return this.propagate(sum, command("HDEL", key, fields));
+        }
+    }
+
+    @Override public Long hlen(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            return jedisHash == null ? 0l : jedisHash.size();
+        }
+    }
+
+    @Override public Set<String> hkeys(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            return jedisHash == null ? new HashSet<>() : jedisHash.keys();
+        }
+    }
+
+    @Override public List<String> hvals(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            return jedisHash == null ? new ArrayList<>() : jedisHash.values();
+        }
+    }
+
+    @Override public Map<String, String> hgetAll(String key) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash hash = this.get(JedisObjectType.HASH, key);
+            Map<String, String> map = new HashMap<>();
+            if (hash != null) {
+                hash.copyTo(map);
+            }
+            return map;
+        }
+    }
+
+    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, String cursor) {
+        return this.hscan(key, cursor, new ScanParams());
+    }
+
+    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, String cursor, ScanParams params) {
+        String pattern = getScanParam(params, "MATCH", "*");
+        int count = Integer.valueOf(getScanParam(params, "COUNT", "10"));
+        long start = parseCursor(cursor);
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+            List<Map.Entry<String, String>> entries = new ArrayList<>();
+            if (jedisHash == null) {
+                return new ScanResult<>(ScanParams.SCAN_POINTER_START, entries);
+            }
+            long next = jedisHash.scan(start, count, (field, value) -> {
+                if (globMatches(pattern, field)) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(field, value));
+                }
+            });
+            return new ScanResult<>(String.valueOf(next), entries);
+        }
+    }
+
+    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, int cursor) {
+        return this.hscan(key, String.valueOf(cursor));
+    }
+
+    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, int cursor, ScanParams params) {
+        return this.hscan(key, String.valueOf(cursor), params);
+    }
+
+    // //////////////////////
+    // PUBLIC API — SORT
+    // //////////////
+
+    @Override public List<String> sort(String key) {
+        return this.sort(key, new SortingParams());
+    }
+
+    @Override public List<String> sort(String key, SortingParams sortingParameters) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            return this.doSort(key, sortingParameters);
+        }
+    }
+
+    @Override public Long sort(String key, String dstkey) {
+        return this.sort(key, new SortingParams(), dstkey);
+    }
+
+    @Override public Long sort(String key, SortingParams sortingParameters, String dstkey) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.trackRead(key);
+            List<String> sorted = this.doSort(key, sortingParameters);
+            this.beforeWrite(dstkey);
+            this.release(this.database().remove(dstkey));
+            if (!sorted.isEmpty()) {
+                JedisList jedisList = this.newList();
+                for (String element : sorted) {
+                    // Missing GET values are stored as empty strings
+                    jedisList.list.addLast(element == null ? "" : element);
+                }
+                this.database().put(dstkey, jedisList);
+            }
+            this.signalModified(dstkey);
+            List<String> command = new ArrayList<>();
+            command.add("SORT");
+            command.add(key);
+            for (byte[] param : sortingParameters.getParams()) {
+                command.add(SafeEncoder.encode(param));
+            }
+            command.add("STORE");
+            command.add(dstkey);
+            return this.propagate((long) sorted.size(), command.toArray(new String[command.size()]));
+        }
+    }
+
+    // //////////////////////
+    // PUBLIC API — STREAMING (not part of Jedis)
+    // //////////////
+
+    /**
+     * Visits all the fields of a hash without copying it.
+     * <p>
+     * The hash is walked in small chunks and the lock is released between two
+     * chunks, so that other clients are not stalled by a huge hash. The consumer is called outside of the lock: it can
+     * use this instance. Like HSCAN, every field that is in the hash during the whole iteration is visited, even if the
+     * hash is modified between two chunks. The fields that are added or removed during the iteration may or may not be
+     * visited, and a field can be visited twice if the hash table is resized during the iteration.
+     *
+     * @param key      the key of the hash
+     * @param consumer the consumer of the fields and their values
+     */
+    public void hforEach(String key, BiConsumer<String, String> consumer) {
+        List<String> chunk = new ArrayList<>(2 * STREAMING_CHUNK_SIZE);
+        long cursor = 0;
+        do {
+            chunk.clear();
+            synchronized (this.LOCK) {
+                checkMulti();
+                this.trackRead(key);
+                JedisHash jedisHash = this.get(JedisObjectType.HASH, key);
+                if (jedisHash == null) {
+                    return;
+                }
+                cursor = jedisHash.scan(cursor, STREAMING_CHUNK_SIZE, (field, value) -> {
+                    chunk.add(field);
+                    chunk.add(value);
+                });
+            }
+            for (int i = 0; i < chunk.size(); i += 2) {
+                consumer.accept(chunk.get(i), chunk.get(i + 1));
+            }
+        } while (cursor != 0);
+    }
+
+    /**
+     * Visits the elements of a list between start and end (included, negative indexes are supported), without
+     * building the whole range.
+     * <p>
+     * The list is walked in small chunks and the lock is released between two
+     * chunks. The consumer is called outside of the lock: it can use this instance. The indexes are resolved against
+     * the size of the list at the beginning of the iteration, and the iteration stops early if the list shrinks.
+     *
+     * @param key      the key of the list
+     * @param start    the index of the first element
+     * @param end      the index of the last element
+     * @param consumer the consumer of the elements
+     */
+    public void lrangeForEach(String key, long start, long end, Consumer<String> consumer) {
+        List<String> chunk = new ArrayList<>(STREAMING_CHUNK_SIZE);
+        boolean first = true;
+        long position = start;
+        long last = end;
+        while (true) {
+            chunk.clear();
+            synchronized (this.LOCK) {
+                checkMulti();
+                this.trackRead(key);
+                JedisList jedisList = this.get(JedisObjectType.LIST, key);
+                if (jedisList == null) {
+                    return;
+                }
+                long size = jedisList.size();
+                if (first) {
+                    // Negative index means we start from the tail
+                    position = start < 0 ? Math.max(0, size + start) : start;
+                    last = end < 0 ? size + end : end;
+                    first = false;
+                }
+                long to = Math.min(Math.min(last, size - 1), position + STREAMING_CHUNK_SIZE - 1);
+                if (position > to) {
+                    return;
+                }
+                jedisList.list.forEach(position, to, chunk::add);
+                position = to + 1;
+            }
+            chunk.forEach(consumer);
+        }
+    }
+
+    // //////////////////////
+    // PUBLIC API — CLIENT TRACKING (not part of Jedis)
+    // //////////////
+
+    /**
+     * Like CLIENT TRACKING ON: the keys that this client reads are remembered, and the listener is sent the name of
+     * each of them when it is modified (by any client). A key is sent once: the client has to read it again to be sent
+     * its next modification. The listener is sent null when the databases are flushed or swapped.
+     * <p>
+     * The listener is called by the thread that modifies the key, under the lock of the server: it must be fast and must
+     * not wait for another thread.
+     *
+     * @param listener the listener of the modified keys
+     */
+    public void clientTrackingOn(Consumer<String> listener) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.clientTrackingOff();
+            this.tracker = this.tracking().track(listener);
+        }
+    }
+
+    /**
+     * Like CLIENT TRACKING ON BCAST: the listener is sent the name of every modified key that starts with one of the
+     * prefixes, whether this client has read it or not. See {@link #clientTrackingOn(Consumer)}.
+     *
+     * @param listener the listener of the modified keys
+     * @param prefixes the prefixes of the keys, all the keys if there is none
+     */
+    public void clientTrackingBroadcast(Consumer<String> listener, String... prefixes) {
+        synchronized (this.LOCK) {
+            checkMulti();
+            this.clientTrackingOff();
+            this.tracker = this.tracking().broadcast(listener, prefixes);
+        }
+    }
+
+    /**
+     * Like CLIENT TRACKING OFF: the modified keys are not sent to this client anymore
+     */
+    public void clientTrackingOff() {
+        synchronized (this.LOCK) {
+            if (this.tracker != null) {
+                this.server.tracking.untrack(this.tracker);
+                this.tracker = null;
+            }
+        }
+    }
+
+    // //////////////////////
+    // PUBLIC API — STATS (not part of Jedis)
+    // //////////////
+
+    /**
+     * Counts the conversions of the objects from an encoding to another, e.g. "ziplist->hashtable" when a hash grows
+     * too big for the compact encoding, or "embstr->raw" when a string is appended to.
+     *
+     * @return the number of conversions, by "from->to" encodings
+     */
+    public Map<String, Long> getEncodingConversions() {
+        synchronized (this.LOCK) {
+            return new TreeMap<>(this.server.encodingConversions);
+        }
+    }
+
+    /**
+     * @return the number of bytes used by the string values that are stored off-heap
+     */
+    public long getOffHeapUsedBytes() {
+        synchronized (this.LOCK) {
+            return this.server.offHeapArena == null ? 0 : this.server.offHeapArena.usedBytes();
+        }
+    }
+
+    /**
+     * Statistics of the compression of the values (see the value-compression-threshold parameter): number of
+     * compressed values and of values that were not worth compressing, uncompressed and compressed bytes and their
+     * ratio, time spent compressing and decompressing, hits and misses of the cache of decompressed values.
+     */
+    public Map<String, Number> getCompressionStats() {
+        synchronized (this.LOCK) {
+            return this.valueCompressor().getStats();
+        }
+    }
+
+    /**
+     * Statistics of the client tracking (see clientTrackingOn): number of tracking clients, of keys that are tracked, of
+     * prefixes of the clients in broadcast mode, and of invalidations sent to the clients.
+     */
+    public Map<String, Long> getTrackingStats() {
+        synchronized (this.LOCK) {
+            return this.tracking().getStats();
+        }
+    }
+
+    /**
+     * Statistics of the AOF (see the appendonly parameter): whether it is enabled and a rewrite is in progress, size of
+     * the file and size after the last rewrite, bytes waiting to be written, number of appended commands, of writes and
+     * of fsyncs (the commands are written and synced by groups), number of rewrites and of keys that were dumped by the
+     * commands during a rewrite, and whether the last write and the last rewrite failed.
+     */
+    public Map<String, Long> getAofStats() {
+        synchronized (this.LOCK) {
+            return this.server.aof.getStats();
+        }
+    }
+
+    /**
+     * Statistics of the background reclamation of the removed objects (see unlink, flushDB and flushAll): number of
+     * objects that are waiting to be released and number of released objects.
+     */
+    public Map<String, Long> getLazyFreeStats() {
+        synchronized (this.LOCK) {
+            Map<String, Long> stats = new TreeMap<>();
+            LazyFree<JedisObject> lazyFree = this.server.lazyFree;
+            stats.put("lazyfree_pending_objects", lazyFree == null ? 0 : lazyFree.pendingObjects());
+            stats.put("lazyfreed_objects", lazyFree == null ? 0 : lazyFree.freedObjects());
+            return stats;
+        }
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private Keyspace<JedisObject> database() {
+        return this.server.databases[this.db];
+    }
+
+    private Map<String, Number> massInsert(ReadableByteChannel channel, Consumer<Map<String, Number>> progress) {
+        synchronized (this.LOCK) {
+            checkMulti();
+        }
+        RedisSession session = new RedisSession(this.newClient());
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.allocate(MASS_INSERT_BUFFER_SIZE);
+        buffer.flip();
+        List<String[]> batch = new ArrayList<>(MASS_INSERT_BATCH_SIZE);
+        long start = System.nanoTime();
+        long lastProgress = start;
+        long commands = 0;
+        long errors = 0;
+        long bytes = 0;
+        boolean eof = false;
+        try {
+            while (!eof || !batch.isEmpty()) {
+                // The batch is decoded without the lock
+                while (!eof && batch.size() < MASS_INSERT_BATCH_SIZE) {
+                    if (decoder.decode(buffer)) {
+                        batch.add(decoder.argumentsAsStrings());
+                        continue;
+                    }
+                    buffer.compact();
+                    // A full buffer may end in the middle of a header: the size of the request is not known yet
+                    if (!buffer.hasRemaining() || decoder.pendingRequestSize() > buffer.capacity()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), decoder.pendingRequestSize()));
+                        buffer.flip();
+                        bigger.put(buffer);
+                        buffer = bigger;
+                    }
+                    int read = channel.read(buffer);
+                    buffer.flip();
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        bytes += read;
+                    }
+                }
+                synchronized (this.LOCK) {
+                    this.beginBatch(false);
+                    try {
+                        for (String[] args : batch) {
+                            errors += session.execute(args) instanceof JedisDataException ? 1 : 0;
+                        }
+                    } finally {
+                        this.endBatch();
+                    }
+                }
+                commands += batch.size();
+                batch.clear();
+                long now = System.nanoTime();
+                if (progress != null && (eof || now - lastProgress >= MASS_INSERT_PROGRESS_MILLIS * 1000000)) {
+                    lastProgress = now;
+                    progress.accept(massInsertStats(commands, errors, bytes, buffer.remaining(), now - start));
+                }
+            }
+        } catch (IOException e) {
+            throw new FakeJedisException("Cannot read the mass insert stream", e);
+        } catch (JedisDataException e) {
+            throw new FakeJedisException("Protocol error in the mass insert stream after " + commands + " commands", e);
+        }
+        return massInsertStats(commands, errors, bytes, buffer.remaining(), System.nanoTime() - start);
+    }
+
+    private static Map<String, Number> massInsertStats(long commands, long errors, long bytes, long truncated, long nanos) {
+        Map<String, Number> stats = new TreeMap<>();
+        stats.put("commands", commands);
+        stats.put("errors", errors);
+        stats.put("bytes", bytes);
+        stats.put("truncated_bytes", truncated);
+        stats.put("elapsed_millis", nanos / 1000000);
+        stats.put("ops_per_sec", nanos == 0 ? 0.0 : commands * 1e9 / nanos);
+        return stats;
+    }
+
+    /**
+     * Releases the resources of the objects of a keyspace that has been dropped, in the background
+     */
+    private void reclaim(Keyspace<JedisObject> keyspace) {
+        // Only the off-heap strings hold resources that the garbage collector can't reclaim
+        if (this.server.offHeapArena == null) {
+            return;
+        }
+        if (keyspace instanceof MappedKeyspace) {
+            // The values that have not been decoded hold nothing, and must not be decoded without the lock
+            ((MappedKeyspace<JedisObject>) keyspace).forEachDecoded((key, object) -> this.lazyFree().free(object));
+        } else if (keyspace instanceof ForkedKeyspace) {
+            // The inherited values belong to the base, that is still used by the other forks
+            ((ForkedKeyspace<JedisObject>) keyspace).forEachOwn((key, object) -> this.lazyFree().free(object));
+        } else {
+            this.lazyFree().free(keyspace);
+        }
+    }
+
+    /**
+     * Replaces all the databases by new ones, whose content is written to the AOF
+     */
+    private void replaceDatabases(Keyspace<JedisObject>[] databases) {
+        for (int i = 0; i < this.server.databases.length; i++) {
+            this.server.aof.beforeFlush(this.server.databases[i]);
+            this.reclaim(this.server.databases[i]);
+            this.server.databases[i] = databases[i];
+        }
+        this.signalFlushed();
+        if (!this.server.aof.isEnabled()) {
+            return;
+        }
+        // The content of the databases is written to the AOF as commands
+        this.server.aof.beginBatch(false);
+        try {
+            this.server.aof.feed(this.db, "FLUSHALL");
+            for (int i = 0; i < this.server.databases.length; i++) {
+                int index = i;
+                this.server.databases[i].forEach((key, object) ->
+                        rewriteObject(key, object, command -> this.server.aof.feed(index, command)));
+            }
+        } finally {
+            this.server.aof.endBatch();
+        }
+    }
+
+    private LazyFree<JedisObject> lazyFree() {
+        if (this.server.lazyFree == null) {
+            this.server.lazyFree = new LazyFree<>(this.LOCK, this::release);
+        }
+        return this.server.lazyFree;
+    }
+
+    private Path rdbFile() {
+        return Paths.get(this.server.dir, this.server.dbfilename);
+    }
+
+    private Path aofFile() {
+        return Paths.get(this.server.dir, this.server.appendfilename);
+    }
+
+    private static void writeRdb(RdbWriter writer, String key, JedisObject object) {
+        switch (object.type) {
+            case STRING:
+                writer.string(key, ((JedisString) object).value());
+                break;
+            case LIST:
+                JedisList jedisList = (JedisList) object;
+                writer.beginList(key, jedisList.size());
+                jedisList.list.forEach(0, jedisList.size() - 1, writer::listElement);
+                break;
+            case HASH:
+                JedisHash jedisHash = (JedisHash) object;
+                writer.beginHash(key, jedisHash.size());
+                jedisHash.forEach(writer::hashField);
+                break;
+            default:
+                throw new FakeJedisException("Unsupported type: " + object.type);
+        }
+    }
+
+    private static void writeSnapshot(MappedSnapshot.Writer writer, String key, JedisObject object) {
+        switch (object.type) {
+            case STRING:
+                writer.string(key, ((JedisString) object).value());
+                break;
+            case LIST:
+                JedisList jedisList = (JedisList) object;
+                writer.beginList(key, (int) jedisList.size());
+                jedisList.list.forEach(0, jedisList.size() - 1, writer::listElement);
+                break;
+            case HASH:
+                JedisHash jedisHash = (JedisHash) object;
+                writer.beginHash(key, (int) jedisHash.size());
+                jedisHash.forEach(writer::hashField);
+                break;
+            default:
+                throw new FakeJedisException("Unsupported type: " + object.type);
+        }
+    }
+
+    /**
+     * @return an array of keyspaces, all null
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> Keyspace<V>[] newKeyspaceArray(int length) {
+        return (Keyspace<V>[]) new Keyspace<?>[length];
+    }
+
+    /**
+     * Decodes a value of a snapshot, on the first access to its key (see MappedKeyspace)
+     */
+    private JedisObject decodeSnapshot(String key, MappedSnapshot.Value value) {
+        SnapshotDecoder decoder = new SnapshotDecoder();
+        value.read(key, decoder);
+        return decoder.object;
+    }
+
+    /**
+     * Called before a command modifies a key of the selected database (see AppendOnlyFile)
+     */
+    private void beforeWrite(String key) {
+        this.server.aof.beforeWrite(this.database(), key);
+    }
+
+    /**
+     * Writes a command that has modified the databases to the AOF, like propagate in redis. With appendfsync always,
+     * this waits for the fsync and releases the lock meanwhile: the reply must be computed before.
+     *
+     * @return the reply of the command
+     */
+    private <T> T propagate(T reply, String... command) {
+        this.server.aof.feed(this.db, command);
+        return reply;
+    }
+
+    private static String[] command(String name, String key, String... args) {
+        String[] command = new String[args.length + 2];
+        command[0] = name;
+        command[1] = key;
+        System.arraycopy(args, 0, command, 2, args.length);
+        return command;
+    }
+
+    private static String[] command(String name, List<String> keys) {
+        String[] command = new String[keys.size() + 1];
+        command[0] = name;
+        for (int i = 0; i < keys.size(); i++) {
+            command[i + 1] = keys.get(i);
+        }
+        return command;
+    }
+
+    /**
+     * Writes the commands that create an object, for the rewrite of the AOF
+     */
+    private static void rewriteObject(String key, JedisObject object, Consumer<String[]> commands) {
+        switch (object.type) {
+            case STRING:
+                commands.accept(new String[]{"SET", key, ((JedisString) object).value()});
+                break;
+            case LIST:
+                JedisList jedisList = (JedisList) object;
+                List<String> push = new ArrayList<>(AOF_REWRITE_ITEMS_PER_CMD);
+                jedisList.list.forEach(0, jedisList.size() - 1, element -> {
+                    push.add(element);
+                    if (push.size() == AOF_REWRITE_ITEMS_PER_CMD) {
+                        commands.accept(command("RPUSH", key, push.toArray(new String[push.size()])));
+                        push.clear();
+                    }
+                });
+                if (!push.isEmpty()) {
+                    commands.accept(command("RPUSH", key, push.toArray(new String[push.size()])));
+                }
+                break;
+            case HASH:
+                List<String> fields = new ArrayList<>(2 * AOF_REWRITE_ITEMS_PER_CMD);
+                ((JedisHash) object).forEach((field, value) -> {
+                    fields.add(field);
+                    fields.add(value);
+                    if (fields.size() == 2 * AOF_REWRITE_ITEMS_PER_CMD) {
+                        commands.accept(command("HSET", key, fields.toArray(new String[fields.size()])));
+                        fields.clear();
+                    }
+                });
+                if (!fields.isEmpty()) {
+                    commands.accept(command("HSET", key, fields.toArray(new String[fields.size()])));
+                }
+                break;
+            default:
+                throw new FakeJedisException("Unsupported type: " + object.type);
+        }
+    }
+
+    private ClientTracking tracking() {
+        if (this.server.tracking == null) {
+            this.server.tracking = new ClientTracking();
+        }
+        return this.server.tracking;
+    }
+
+    /**
+     * Remembers that this client has read a key, if it tracks its keys
+     */
+    private void trackRead(String key) {
+        if (this.tracker != null) {
+            this.server.tracking.keyRead(this.tracker, key);
+        }
+    }
+
+    /**
+     * Sends a modified key to the clients that track it, like signalModifiedKey in redis
+     */
+    private void signalModified(String key) {
+        if (this.server.tracking != null) {
+            this.server.tracking.keyModified(key);
+        }
+    }
+
+    private void signalFlushed() {
+        if (this.server.tracking != null) {
+            this.server.tracking.flushed();
+        }
+    }
+
+    private void checkDbIndex(int index) {
+        if (index < 0 || index >= this.server.databases.length) {
+            throw new JedisDataException("ERR DB index is out of range");
+        }
+    }
+
+    private <T extends JedisObject> T get(JedisObjectType type, String key) {
+        JedisObject object = this.database().get(key);
+        if (object == null) {
+            return null;
+        } else if (object.type == type) {
+            object.touch();
+            @SuppressWarnings("unchecked")
+            T fetched = (T) object;
+            return fetched;
+        } else {
+            throw new JedisDataException("WRONGTYPE Operation against a key holding the wrong kind of value");
+        }
+    }
+
+    private <T extends JedisObject> T getOrCreate(JedisObjectType type, String key) {
+        T object = this.get(type, key);
+        if (object == null) {
+            object = type.newInstance();
+            this.setUp(object);
+            this.database().put(key, object);
+            return object;
+        }
+        return this.writable(key, object);
+    }
+
+    private String hashPut(JedisHash jedisHash, String field, String value) {
+        value = this.sharedValue(value);
+        String old = jedisHash.put(field, value);
+        if (jedisHash.encoding == JedisEncoding.ZIPLIST && (jedisHash.size() > this.server.hashMaxZiplistEntries
+                || field.length() > this.server.hashMaxZiplistValue || value.length() > this.server.hashMaxZiplistValue)) {
+            jedisHash.convertToHashtable();
+            this.converted(jedisHash, JedisEncoding.ZIPLIST);
+        }
+        if (this.server.valueCompressionThreshold > 0 && value.length() >= this.server.valueCompressionThreshold) {
+            jedisHash.compress(field, this.valueCompressor());
+        }
+        return old;
+    }
+
+    private JedisList newList() {
+        JedisList jedisList = new JedisList();
+        this.setUp(jedisList);
+        return jedisList;
+    }
+
+    /**
+     * Applies the configuration to a new object
+     */
+    private void setUp(JedisObject object) {
+        if (object instanceof JedisList && this.server.listCompressDepth > 0) {
+            ((JedisList) object).list.setCompressDepth(this.server.listCompressDepth, this.valueCompressor());
+        }
+    }
+
+    /**
+     * Applies the new depth to the lists of all the databases. The lists that are shared with a fork are replaced by a
+     * copy, created with the new depth. The values of a snapshot that are not decoded yet get it when they are.
+     */
+    @SuppressWarnings("unchecked")
+    private void setListCompressDepth(String parameter, String value) {
+        this.server.listCompressDepth = parseConfigInt(parameter, value);
+        ValueCompressor compressor = this.server.listCompressDepth > 0 ? this.valueCompressor() : null;
+        for (Keyspace<JedisObject> database : this.server.databases) {
+            Map<String, JedisObject> copies = new HashMap<>();
+            BiConsumer<String, JedisObject> visitor = (key, object) -> {
+                if (!(object instanceof JedisList)) {
+                    return;
+                }
+                if (this.isSealed(object)) {
+                    copies.put(key, this.copy(object));
+                } else {
+                    ((JedisList) object).list.setCompressDepth(this.server.listCompressDepth, compressor);
+                }
+            };
+            if (database instanceof MappedKeyspace) {
+                ((MappedKeyspace<JedisObject>) database).forEachDecoded(visitor);
+            } else {
+                database.forEach(visitor);
+            }
+            // The keyspace can't be modified while it is iterated
+            copies.forEach(database::put);
+        }
+    }
+
+    private JedisString newString(String value) {
+        JedisString shared = this.sharedString(value);
+        if (shared != null) {
+            return shared;
+        }
+        JedisString str = new JedisString(value);
+        this.compact(str);
+        return str;
+    }
+
+    /**
+     * @return the shared string for the value (a shared integer or an interned value), or null if there is none
+     */
+    private JedisString sharedString(String value) {
+        int length = value.length();
+        if (length <= 4 && length > 0 && (value.charAt(0) != '0' || length == 1)) {
+            int n = 0;
+            for (int i = 0; i < length && n >= 0; i++) {
+                char c = value.charAt(i);
+                n = c >= '0' && c <= '9' ? 10 * n + (c - '0') : -1;
+            }
+            if (n >= 0) {
+                return SHARED_INTEGER_STRINGS[n];
+            }
+        }
+        if (this.server.sharedValuesMaxEntries == 0 || length > SHARED_VALUE_MAX_LENGTH) {
+            return null;
+        }
+        return this.server.sharedValues.computeIfAbsent(value, v -> new JedisString(v).share());
+    }
+
+    /**
+     * @return the shared instance of a value, to store it in a hash
+     */
+    private String sharedValue(String value) {
+        JedisString shared = this.sharedString(value);
+        return shared == null ? value : shared.value();
+    }
+
+    /**
+     * Copy-on-write of the shared strings and of the objects shared with a fork of the server
+     *
+     * @return an object that can be modified, stored at the key
+     */
+    private <T extends JedisObject> T writable(String key, T object) {
+        if (!object.isShared() && !this.isSealed(object)) {
+            return object;
+        }
+        @SuppressWarnings("unchecked")
+        T copy = (T) this.copy(object);
+        this.database().put(key, copy);
+        return copy;
+    }
+
+    /**
+     * @return a copy of an object, with the configuration of this server
+     */
+    private JedisObject copy(JedisObject object) {
+        JedisObject copy;
+        switch (object.type) {
+            case STRING:
+                copy = new JedisString(((JedisString) object).value());
+                break;
+            case LIST:
+                JedisList jedisList = this.newList();
+                ((JedisList) object).list.forEach(0, ((JedisList) object).size() - 1, jedisList.list::addLast);
+                copy = jedisList;
+                break;
+            case HASH:
+                JedisHash jedisHash = new JedisHash();
+                if (object.encoding == JedisEncoding.HASHTABLE) {
+                    jedisHash.convertToHashtable();
+                }
+                ((JedisHash) object).forEach((field, value) -> this.hashPut(jedisHash, field, value));
+                copy = jedisHash;
+                break;
+            default:
+                throw new IllegalStateException("Unknown type: " + object.type);
+        }
+        return copy;
+    }
+
+    /**
+     * @return true if the object is shared with a fork of the server: it must be copied before it is modified
+     */
+    private boolean isSealed(JedisObject object) {
+        return object.generation <= this.server.sealedGeneration;
+    }
+
+    /**
+     * Compresses a string or moves it off-heap if it is bigger than the thresholds
+     */
+    private void compact(JedisString str) {
+        if (str.isShared() || str.isCompressed() || str.isOffHeap()) {
+            return;
+        }
+        if (this.server.valueCompressionThreshold > 0 && str.length() >= this.server.valueCompressionThreshold && str.compress(this.valueCompressor())) {
+            return;
+        }
+        if (this.server.stringOffheapThreshold > 0 && str.length() >= this.server.stringOffheapThreshold) {
+            if (this.server.offHeapArena == null) {
+                this.server.offHeapArena = new OffHeapArena();
+            }
+            str.moveOffHeap(this.server.offHeapArena);
+        }
+    }
+
+    private ValueCompressor valueCompressor() {
+        if (this.server.valueCompressor == null) {
+            this.server.valueCompressor = new ValueCompressor();
+        }
+        return this.server.valueCompressor;
+    }
+
+    /**
+     * Releases the resources of an object that has been removed, unless it is still used by a fork
+     */
+    private void release(JedisObject object) {
+        if (object instanceof JedisString && !object.isShared() && !this.isSealed(object)) {
+            ((JedisString) object).release();
+        }
+    }
+
+    private void converted(JedisObject object, JedisEncoding from) {
+        if (object.encoding != from) {
+            this.server.encodingConversions.merge(from.name + "->" + object.encoding.name, 1l, Long::sum);
+        }
+    }
+
+    private static int parseConfigInt(String parameter, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        throw new JedisDataException("ERR Invalid argument '" + value + "' for CONFIG SET '" + parameter + "'");
+    }
+
+    private void setKeyspaceEncoding(String parameter, String value) {
+        boolean radix;
+        switch (value.toLowerCase()) {
+            case "hashtable":
+                radix = false;
+                break;
+            case "radix":
+                radix = true;
+                break;
+            default:
+                throw new JedisDataException("ERR Invalid argument '" + value + "' for CONFIG SET '" + parameter + "'");
+        }
+        if (radix != this.server.radixKeyspace) {
+            this.server.radixKeyspace = radix;
+            for (int i = 0; i < this.server.databases.length; i++) {
+                Keyspace<JedisObject> keyspace = this.server.newKeyspace();
+                this.server.databases[i].forEach(keyspace::put);
+                this.server.aof.keyspaceReplaced(this.server.databases[i], keyspace);
+                this.server.databases[i] = keyspace;
+            }
+        }
+    }
+
+    private static long parseCursor(String cursor) {
+        try {
+            long value = Long.parseLong(cursor);
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        throw new JedisDataException("ERR invalid cursor");
+    }
+
+    private static String getScanParam(ScanParams params, String name, String defaultValue) {
+        Iterator<byte[]> ite = params.getParams().iterator();
+        while (ite.hasNext()) {
+            if (name.equalsIgnoreCase(SafeEncoder.encode(ite.next())) && ite.hasNext()) {
+                return SafeEncoder.encode(ite.next());
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the part of a glob-style pattern before its first special char: every matching string starts with it
+     */
+    private static String literalPrefix(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            switch (pattern.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case '\\':
+                    return pattern.substring(0, i);
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * Matches a string against a redis glob-style pattern (supports *, ?, [...] and \ escapes)
+     */
+    private static boolean globMatches(String pattern, String string) {
+        return globMatches(pattern, 0, string, 0);
+    }
+
+    private static boolean globMatches(String pattern, int p, String string, int s) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            switch (c) {
+                case '*':
+                    while (p + 1 < pattern.length() && pattern.charAt(p + 1) == '*') {
+                        p++;
+                    }
+                    if (p + 1 == pattern.length()) {
+                        return true;
+                    }
+                    for (int i = s; i <= string.length(); i++) {
+                        if (globMatches(pattern, p + 1, string, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case '?':
+                    if (s >= string.length()) {
+                        return false;
+                    }
+                    s++;
+                    break;
+                case '[': {
+                    if (s >= string.length()) {
+                        return false;
+                    }
+                    char target = string.charAt(s);
+                    p++;
+                    boolean not = p < pattern.length() && pattern.charAt(p) == '^';
+                    if (not) {
+                        p++;
+                    }
+                    boolean match = false;
+                    while (p < pattern.length() && pattern.charAt(p) != ']') {
+                        char current = pattern.charAt(p);
+                        if (current == '\\' && p + 1 < pattern.length()) {
+                            p++;
+                            match |= pattern.charAt(p) == target;
+                        } else if (p + 2 < pattern.length() && pattern.charAt(p + 1) == '-') {
+                            char from = (char) Math.min(current, pattern.charAt(p + 2));
+                            char to = (char) Math.max(current, pattern.charAt(p + 2));
+                            match |= target >= from && target <= to;
+                            p += 2;
+                        } else {
+                            match |= current == target;
+                        }
+                        p++;
+                    }
+                    if (match == not) {
+                        return false;
+                    }
+                    s++;
+                    break;
+                }
+                case '\\':
+                    // The escaped char is matched literally
+                    if (p + 1 < pattern.length()) {
+                        p++;
+                        c = pattern.charAt(p);
+                    }
+                    if (s >= string.length() || string.charAt(s) != c) {
+                        return false;
+                    }
+                    s++;
+                    break;
+                default:
+                    if (s >= string.length() || string.charAt(s) != c) {
+                        return false;
+                    }
+                    s++;
+                    break;
+            }
+            p++;
+        }
+        return s == string.length();
+    }
+
+    /**
+     * Sorts the elements of a list, like the SORT command.
+     * <p>
+     * The sort keys (the elements themselves or the values of the BY pattern) are looked up and parsed once, before
+     * sorting, into a primitive array. The permutation of the indexes, an int[], is then sorted without boxing (see
+     * {@link IndexSort}), in parallel for big lists, and the GET patterns are only resolved for the elements selected
+     * by LIMIT.
+     */
+    private List<String> doSort(String key, SortingParams sortingParameters) {
+        String by = null;
+        boolean desc = false;
+        boolean alpha = false;
+        long offset = 0;
+        long count = -1;
+        List<String> gets = new ArrayList<>();
+        Iterator<byte[]> ite = sortingParameters.getParams().iterator();
+        while (ite.hasNext()) {
+            String param = SafeEncoder.encode(ite.next());
+            if ("BY".equalsIgnoreCase(param)) {
+                by = SafeEncoder.encode(ite.next());
+            } else if ("LIMIT".equalsIgnoreCase(param)) {
+                offset = Long.parseLong(SafeEncoder.encode(ite.next()));
+                count = Long.parseLong(SafeEncoder.encode(ite.next()));
+            } else if ("GET".equalsIgnoreCase(param)) {
+                gets.add(SafeEncoder.encode(ite.next()));
+            } else if ("DESC".equalsIgnoreCase(param)) {
+                desc = true;
+            } else if ("ASC".equalsIgnoreCase(param)) {
+                desc = false;
+            } else if ("ALPHA".equalsIgnoreCase(param)) {
+                alpha = true;
+            } else {
+                throw new JedisDataException("ERR syntax error");
+            }
+        }
+
+        JedisList jedisList = this.get(JedisObjectType.LIST, key);
+        if (jedisList == null) {
+            return new ArrayList<>();
+        }
+        int size = (int) jedisList.size();
+        String[] elements = new String[size];
+        int[] position = new int[1];
+        jedisList.list.forEach(0, size - 1, element -> elements[position[0]++] = element);
+
+        int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            permutation[i] = i;
+        }
+
+        // A BY pattern without any '*' means that the elements are not sorted
+        if (by == null || by.contains("*")) {
+            IndexSort.Comparator comparator;
+            if (alpha) {
+                String[] keys = new String[size];
+                for (int i = 0; i < size; i++) {
+                    keys[i] = by == null ? elements[i] : this.lookupSortPattern(by, elements[i]);
+                }
+                comparator = (i1, i2) -> {
+                    String k1 = keys[i1];
+                    String k2 = keys[i2];
+                    int cmp = k1 == null ? (k2 == null ? 0 : -1) : (k2 == null ? 1 : k1.compareTo(k2));
+                    return cmp != 0 ? cmp : elements[i1].compareTo(elements[i2]);
+                };
+            } else {
+                double[] scores = new double[size];
+                for (int i = 0; i < size; i++) {
+                    String value = by == null ? elements[i] : this.lookupSortPattern(by, elements[i]);
+                    if (value != null) {
+                        try {
+                            scores[i] = Double.parseDouble(value.trim());
+                        } catch (NumberFormatException e) {
+                            throw new JedisDataException("ERR One or more scores can't be converted into double");
+                        }
+                    }
+                }
+                comparator = (i1, i2) -> {
+                    int cmp = Double.compare(scores[i1], scores[i2]);
+                    return cmp != 0 ? cmp : elements[i1].compareTo(elements[i2]);
+                };
+            }
+            if (desc) {
+                IndexSort.Comparator ascending = comparator;
+                comparator = (i1, i2) -> ascending.compare(i2, i1);
+            }
+            IndexSort.sort(permutation, comparator, PARALLEL_SORT_THRESHOLD);
+        }
+
+        int from = (int) Math.min(size, Math.max(0, offset));
+        int to = count < 0 ? size : (int) Math.min(size, from + count);
+        List<String> result = new ArrayList<>(Math.max(0, to - from) * Math.max(1, gets.size()));
+        for (int i = from; i < to; i++) {
+            String element = elements[permutation[i]];
+            if (gets.isEmpty()) {
+                result.add(element);
+            } else {
+                for (String get : gets) {
+                    result.add(this.lookupSortPattern(get, element));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a BY or GET pattern of the SORT command: the first '*' is replaced by the element, and "->field" reads
+     * a field of a hash. "#" is the element itself.
+     */
+    private String lookupSortPattern(String pattern, String element) {
+        if ("#".equals(pattern)) {
+            return element;
+        }
+        int star = pattern.indexOf('*');
+        if (star < 0) {
+            return null;
+        }
+        int arrow = pattern.indexOf("->", star + 1);
+        String suffix = arrow < 0 ? pattern.substring(star + 1) : pattern.substring(star + 1, arrow);
+        String key = pattern.substring(0, star) + element + suffix;
+        JedisObject object = this.database().get(key);
+        if (object == null) {
+            return null;
+        }
+        if (arrow < 0) {
+            return object.type == JedisObjectType.STRING ? ((JedisString) object).value() : null;
+        }
+        return object.type == JedisObjectType.HASH ? ((JedisHash) object).get(pattern.substring(arrow + 2)) : null;
+    }
+
+    /**
+     * Resolves the negative indexes of a redis range (start and end included) and clamps it to the size.
+     *
+     * @return the range, or null if it is empty
+     */
+    private static long[] normalizeRange(long start, long end, long size) {
+        // Negative index means we start from the tail
+        if (start < 0) {
+            start = Math.max(0, size + start);
+        }
+        if (end < 0) {
+            end = size + end;
+        }
+        // We are resilient to the IndexOutOfBounds errors
+        end = Math.min(end, size - 1);
+        if (start > end) {
+            return null;
+        }
+        return new long[]{start, end};
+    }
+
+    private void removeIfEmpty(String key, JedisList jedisList) {
+        // Redis never keeps an empty list around
+        if (jedisList.size() == 0) {
+            this.database().remove(key);
+        }
+    }
+
+    private void checkMulti() {
+        if (this.isMulti) {
+            throw new JedisDataException("Cannot use Jedis when in Multi. Please use JedisTransaction instead.");
+        }
+    }
+
+    protected void setMulti(boolean multi) {
+        this.isMulti = multi;
+    }
+
+    /**
+     * Starts a batch of commands that are written to the AOF together, until endBatch (see AppendOnlyFile)
+     *
+     * @param transaction true to write the commands between MULTI and EXEC
+     */
+    void beginBatch(boolean transaction) {
+        synchronized (this.LOCK) {
+            this.server.aof.beginBatch(transaction);
+        }
+    }
+
+    void endBatch() {
+        synchronized (this.LOCK) {
+            this.server.aof.endBatch();
+        }
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    /**
+     * State of the fake server, shared by all its clients
+     */
+    private static class Server {
+        private static final int DATABASES = 16;
+
+        private final Object lock;
+        private final Keyspace<JedisObject>[] databases;
+        private boolean radixKeyspace;
+        private int hashMaxZiplistEntries;
+        private int hashMaxZiplistValue;
+        private int stringOffheapThreshold;
+        private OffHeapArena offHeapArena;
+        private int valueCompressionThreshold;
+        private int listCompressDepth;
+        private int sharedValuesMaxEntries;
+        private final Map<String, JedisString> sharedValues;
+        private ValueCompressor valueCompressor;
+        private final Map<String, Long> encodingConversions;
+        private LazyFree<JedisObject> lazyFree;
+        private ClientTracking tracking;
+        private String dir;
+        private String dbfilename;
+        // Time of the last successful save, in seconds
+        private long lastSave;
+        private Thread bgsave;
+        private final AppendOnlyFile<JedisObject> aof;
+        private String appendfilename;
+        // The objects of this generation or older are shared with a fork (-1 if the server has never been forked)
+        private int sealedGeneration;
+
+        public Server() {
+            this(new Object());
+        }
+
+        private Server(Object lock) {
+            this.lock = lock;
+            this.databases = newKeyspaceArray(DATABASES);
+            for (int i = 0; i < DATABASES; i++) {
+                this.databases[i] = this.newKeyspace();
+            }
+            this.hashMaxZiplistEntries = 128;
+            this.hashMaxZiplistValue = 64;
+            this.stringOffheapThreshold = 0;
+            this.valueCompressionThreshold = 0;
+            this.listCompressDepth = 0;
+            this.sharedValuesMaxEntries = 0;
+            this.sharedValues = new LinkedHashMap<String, JedisString>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<String, JedisString> eldest) {
+                    return this.size() > Server.this.sharedValuesMaxEntries;
+                }
+            };
+            this.encodingConversions = new HashMap<>();
+            this.dir = Paths.get("").toAbsolutePath().toString();
+            this.dbfilename = "dump.rdb";
+            this.lastSave = System.currentTimeMillis() / 1000;
+            this.aof = new AppendOnlyFile<>(this.lock, this.databases, FakeJedis::rewriteObject);
+            this.appendfilename = "appendonly.aof";
+            this.sealedGeneration = -1;
+        }
+
+        public <V> Keyspace<V> newKeyspace() {
+            return this.radixKeyspace ? new RadixKeyspace<>() : new DictKeyspace<>();
+        }
+
+        /**
+         * Forks the databases: both servers inherit the current keyspaces, and the objects that exist now are sealed in
+         * both of them
+         *
+         * @return the new server, that uses the same lock
+         */
+        @SuppressWarnings("unchecked")
+        public Server fork() {
+            Server fork = new Server(this.lock);
+            fork.radixKeyspace = this.radixKeyspace;
+            fork.hashMaxZiplistEntries = this.hashMaxZiplistEntries;
+            fork.hashMaxZiplistValue = this.hashMaxZiplistValue;
+            fork.stringOffheapThreshold = this.stringOffheapThreshold;
+            fork.valueCompressionThreshold = this.valueCompressionThreshold;
+            fork.listCompressDepth = this.listCompressDepth;
+            fork.sharedValuesMaxEntries = this.sharedValuesMaxEntries;
+            fork.dir = this.dir;
+            fork.dbfilename = this.dbfilename;
+            fork.appendfilename = this.appendfilename;
+            int generation = GENERATION.getAndIncrement();
+            this.sealedGeneration = generation;
+            fork.sealedGeneration = generation;
+            for (int i = 0; i < DATABASES; i++) {
+                Keyspace<JedisObject> base = this.databases[i];
+                if (base.size() == 0) {
+                    continue;
+                }
+                if (base instanceof ForkedKeyspace && ((ForkedKeyspace<JedisObject>) base).changes() == 0) {
+                    // Unchanged since its last fork: the forks don't need to stack
+                    base = ((ForkedKeyspace<JedisObject>) base).base();
+                }
+                if (base instanceof ForkedKeyspace && ((ForkedKeyspace<JedisObject>) base).depth() == ForkedKeyspace.MAX_DEPTH) {
+                    // Too many stacked forks: they are merged into a single frozen layer, in O(n)
+                    Keyspace<JedisObject> flat = this.newKeyspace();
+                    base.forEach(flat::put);
+                    base = flat;
+                }
+                if (base instanceof MappedKeyspace) {
+                    // The values of the snapshot that are decoded after the fork are shared too (the shared strings
+                    // are never modified anyway)
+                    ((MappedKeyspace<JedisObject>) base).freeze(object -> {
+                        if (!object.isShared()) {
+                            object.generation = generation;
+                        }
+                    });
+                }
+                Keyspace<JedisObject> forked = new ForkedKeyspace<>(base, this.newKeyspace());
+                this.aof.keyspaceReplaced(this.databases[i], forked);
+                this.databases[i] = forked;
+                fork.databases[i] = new ForkedKeyspace<>(base, fork.newKeyspace());
+            }
+            return fork;
+        }
+    }
+
+    /**
+     * Loads the keys of an RDB file into new databases
+     */
+    private class RdbLoader implements RdbReader.Handler {
+        private final Keyspace<JedisObject>[] databases;
+        private Keyspace<JedisObject> database;
+        private JedisList jedisList;
+        private JedisHash jedisHash;
+
+        private RdbLoader() {
+            this.databases = newKeyspaceArray(FakeJedis.this.server.databases.length);
+            for (int i = 0; i < this.databases.length; i++) {
+                this.databases[i] = FakeJedis.this.server.newKeyspace();
+            }
+            this.database = this.databases[0];
+        }
+
+        @Override public void selectDb(int index) {
+            if (index < 0 || index >= this.databases.length) {
+                throw new FakeJedisException("DB index is out of range in the RDB file: " + index);
+            }
+            this.database = this.databases[index];
+        }
+
+        @Override public void string(String key, String value) {
+            FakeJedis.this.release(this.database.put(key, FakeJedis.this.newString(value)));
+        }
+
+        @Override public void beginList(String key) {
+            this.jedisList = FakeJedis.this.newList();
+            FakeJedis.this.release(this.database.put(key, this.jedisList));
+        }
+
+        @Override public void listElement(String element) {
+            this.jedisList.list.addLast(element);
+        }
+
+        @Override public void beginHash(String key) {
+            this.jedisHash = new JedisHash();
+            FakeJedis.this.release(this.database.put(key, this.jedisHash));
+        }
+
+        @Override public void hashField(String field, String value) {
+            FakeJedis.this.hashPut(this.jedisHash, field, value);
+        }
+    }
+
+    /**
+     * Builds the object of a value of a snapshot
+     */
+    private class SnapshotDecoder implements RdbReader.Handler {
+        private JedisObject object;
+
+        @Override public void selectDb(int index) {
+            throw new IllegalStateException("A value has no database");
+        }
+
+        @Override public void string(String key, String value) {
+            this.object = FakeJedis.this.newString(value);
+        }
+
+        @Override public void beginList(String key) {
+            this.object = FakeJedis.this.newList();
+        }
+
+        @Override public void listElement(String element) {
+            ((JedisList) this.object).list.addLast(element);
+        }
+
+        @Override public void beginHash(String key) {
+            this.object = new JedisHash();
+        }
+
+        @Override public void hashField(String field, String value) {
+            FakeJedis.this.hashPut((JedisHash) this.object, field, value);
+        }
+    }
+
+    private static class JedisObject {
+        public final JedisObjectType type;
+        public JedisEncoding encoding;
+        private int lru;
+        // Shared objects are used by several keys and never modified
+        private boolean shared;
+        private int generation;
+
+        public JedisObject(JedisObjectType type, JedisEncoding encoding) {
+            this.type = type;
+            this.encoding = encoding;
+            this.generation = GENERATION.get();
+            this.touch();
+        }
+
+        public void touch() {
+            if (!this.shared) {
+                this.lru = clock();
+            }
+        }
+
+        public boolean isShared() {
+            return this.shared;
+        }
+
+        protected void markShared() {
+            this.shared = true;
+        }
+
+        public long idletime() {
+            return Math.max(0, clock() - this.lru);
+        }
+
+        /**
+         * @return a clock with a resolution of one second, like the LRU clock of redis
+         */
+        private static int clock() {
+            return (int) (System.currentTimeMillis() / 1000);
+        }
+    }
+
+    private static class JedisList extends JedisObject {
+        public final QuickList list;
+
+        public JedisList() {
+            super(JedisObjectType.LIST, JedisEncoding.QUICKLIST);
+            this.list = new QuickList();
+        }
+
+        public long size() {
+            return this.list.size();
+        }
+    }
+
+    /**
+     * A redis hash.
+     * <p>
+     * Small hashes use a compact encoding, like the redis ziplist: the fields and the values are stored in a flat array
+     * and looked up linearly. The hash is converted to a real hash table when it grows too big.
+     * <p>
+     * The storage is only reachable through this class so that every operation is O(1) per field. The hash table is a
+     * {@link DictKeyspace}: its SCAN cursor stays valid when the hash is modified or resized, so HSCAN resumes where the
+     * previous call stopped and never misses a field that is in the hash during the whole iteration.
+     */
+    private static class JedisHash extends JedisObject {
+        // Placeholder of the compressed values in the hash table: compared by identity, it can't be confused with a value
+        private static final String COMPRESSED = new String("<compressed>");
+
+        private String[] pairs;
+        private int size;
+        private DictKeyspace<String> hash;
+        private Map<String, byte[]> compressedValues;
+        private ValueCompressor compressor;
+
+        public JedisHash() {
+            super(JedisObjectType.HASH, JedisEncoding.ZIPLIST);
+            this.pairs = new String[8];
+        }
+
+        public String get(String field) {
+            if (this.hash != null) {
+                return this.decoded(field, this.hash.get(field));
+            }
+            int index = this.indexOf(field);
+            return index < 0 ? null : this.pairs[index + 1];
+        }
+
+        public boolean containsKey(String field) {
+            return this.hash == null ? this.indexOf(field) >= 0 : this.hash.containsKey(field);
+        }
+
+        public String put(String field, String value) {
+            String old;
+            if (this.hash != null) {
+                old = this.removeCompressed(field, this.hash.put(field, value));
+            } else {
+                int index = this.indexOf(field);
+                if (index >= 0) {
+                    old = this.pairs[index + 1];
+                    this.pairs[index + 1] = value;
+                    return old;
+                }
+                old = null;
+                if (2 * this.size == this.pairs.length) {
+                    this.pairs = Arrays.copyOf(this.pairs, 2 * this.pairs.length);
+                }
+                this.pairs[2 * this.size] = field;
+                this.pairs[2 * this.size + 1] = value;
+                this.size++;
+            }
+            return old;
+        }
+
+        public String remove(String field) {
+            String old;
+            if (this.hash != null) {
+                old = this.removeCompressed(field, this.hash.remove(field));
+            } else {
+                int index = this.indexOf(field);
+                if (index < 0) {
+                    return null;
+                }
+                old = this.pairs[index + 1];
+                // Keep the insertion order, like a ziplist
+                System.arraycopy(this.pairs, index + 2, this.pairs, index, 2 * this.size - index - 2);
+                this.size--;
+                this.pairs[2 * this.size] = null;
+                this.pairs[2 * this.size + 1] = null;
+            }
+            return old;
+        }
+
+        public long size() {
+            return (long) (this.hash == null ? this.size : this.hash.size());
+        }
+
+        public Set<String> keys() {
+            Set<String> keys = new HashSet<>(2 * (int) this.size());
+            if (this.hash != null) {
+                this.hash.forEach((field, value) -> keys.add(field));
+                return keys;
+            }
+            for (int i = 0; i < this.size; i++) {
+                keys.add(this.pairs[2 * i]);
+            }
+            return keys;
+        }
+
+        public List<String> values() {
+            List<String> values = new ArrayList<>((int) this.size());
+            this.forEach((field, value) -> values.add(value));
+            return values;
+        }
+
+        public void copyTo(Map<String, String> map) {
+            this.forEach(map::put);
+        }
+
+        /**
+         * Visits all the fields and their decoded values
+         */
+        public void forEach(BiConsumer<String, String> visitor) {
+            if (this.hash != null) {
+                this.hash.forEach((field, value) -> visitor.accept(field, this.decoded(field, value)));
+            } else {
+                for (int i = 0; i < this.size; i++) {
+                    visitor.accept(this.pairs[2 * i], this.pairs[2 * i + 1]);
+                }
+            }
+        }
+
+        public void convertToHashtable() {
+            DictKeyspace<String> hash = new DictKeyspace<>();
+            for (int i = 0; i < this.size; i++) {
+                hash.put(this.pairs[2 * i], this.pairs[2 * i + 1]);
+            }
+            this.hash = hash;
+            this.pairs = null;
+            this.size = 0;
+            this.encoding = JedisEncoding.HASHTABLE;
+        }
+
+        /**
+         * Visits about {@code count} entries, starting at the given cursor. Like redis, the compact encoding is visited
+         * at once, whatever the count.
+         *
+         * @return the cursor to use to continue the iteration, 0 if it is complete
+         */
+        public long scan(long cursor, int count, BiConsumer<String, String> visitor) {
+            if (this.hash == null) {
+                this.forEach(visitor);
+                return 0;
+            }
+            return this.hash.scan(cursor, count, "", (field, value) -> visitor.accept(field, this.decoded(field, value)));
+        }
+
+        /**
+         * Compresses the value of a field, if it is stored in the hash table and if it is worth it
+         */
+        public void compress(String field, ValueCompressor compressor) {
+            String value = this.hash == null ? null : this.hash.get(field);
+            if (value == null || value == COMPRESSED) {
+                return;
+            }
+            byte[] compressed = compressor.compress(value);
+            if (compressed != null) {
+                if (this.compressedValues == null) {
+                    this.compressedValues = new HashMap<>();
+                }
+                this.compressedValues.put(field, compressed);
+                this.compressor = compressor;
+                this.hash.put(field, COMPRESSED);
+            }
+        }
+
+        private String decoded(String field, String value) {
+            return value == COMPRESSED ? this.compressor.decompress(this.compressedValues.get(field)) : value;
+        }
+
+        /**
+         * @return the decoded value that has been replaced or removed
+         */
+        private String removeCompressed(String field, String old) {
+            if (old != COMPRESSED) {
+                return old;
+            }
+            byte[] compressed = this.compressedValues.remove(field);
+            String value = this.compressor.decompress(compressed);
+            this.compressor.discard(compressed);
+            return value;
+        }
+
+        private int indexOf(String field) {
+            for (int i = 0; i < 2 * this.size; i += 2) {
+                if (this.pairs[i].equals(field)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A redis string.
+     * <p>
+     * Strings are stored as a plain {@link String} until they are mutated in place (APPEND, SETRANGE). From then on,
+     * they are stored as an UTF-8 byte buffer that grows geometrically, so that repeated appends are amortized O(1).
+     * The decoded value is cached until the next mutation.
+     */
+    private static class JedisString extends JedisObject {
+        private static final int MAX_LENGTH = 512 * 1024 * 1024;
+        private static final int EMBSTR_MAX_LENGTH = 44;
+
+        private String value;
+        private byte[] buffer;
+        private int length;
+        // Off-heap storage of the bytes, when arena is not null
+        private OffHeapArena arena;
+        private long handle;
+        private int capacity;
+        // Compressed bytes, when not null
+        private byte[] compressed;
+        private ValueCompressor compressor;
+
+        public JedisString(String value) {
+            super(JedisObjectType.STRING, encodingOf(value));
+            this.value = value;
+            this.length = -1;
+        }
+
+        public String value() {
+            if (this.compressed != null) {
+                return this.compressor.decompress(this.compressed);
+            }
+            if (this.arena != null) {
+                // Decoded on demand: the value is not kept on the heap
+                byte[] bytes = new byte[this.length];
+                this.arena.read(this.handle, 0, bytes, 0, this.length);
+                return new String(bytes, StandardCharsets.UTF_8);
             }
-            return jedisHash.hash.get(field);
+            if (this.value == null) {
+                this.value = new String(this.buffer, 0, this.length, StandardCharsets.UTF_8);
+            }
+            return this.value;
         }
-    }
 
-    @Override public Long hincrBy(String key, String field, long value) {
-        synchronized (this.LOCK) {
-            checkMulti();
-            JedisHash jedisHash = this.getOrCreate(JedisObjectType.HASH, key);
-            String old = jedisHash.hash.get(field);
-            long newValue = value;
-            if (old != null) {
-                try {
-                    newValue += Long.valueOf(old);
-                } catch (NumberFormatException e) {
-                    throw new JedisDataException("ERR hash value is not an integer");
-                }
+        /**
+         * @return the length of the string, in bytes
+         */
+        public long length() {
+            if (this.length < 0) {
+                this.length = utf8Length(this.value);
             }
-            jedisHash.hash.put(field, String.valueOf(newValue));
-            return newValue;
+            return this.length;
         }
-    }
 
-    @Override public Map<String, String> hgetAll(String key) {
-        synchronized (this.LOCK) {
-            checkMulti();
-            JedisHash hash = this.get(JedisObjectType.HASH, key);
-            Map<String, String> map = new HashMap<>();
-            if (hash != null) {
-                map.putAll(hash.hash);
+        public long append(String suffix) {
+            byte[] bytes = suffix.getBytes(StandardCharsets.UTF_8);
+            int offset = (int) this.length();
+            this.write(offset, bytes);
+            return this.length;
+        }
+
+        public long setrange(long offset, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (offset + bytes.length > MAX_LENGTH) {
+                throw new JedisDataException("ERR string exceeds maximum allowed size (512MB)");
             }
-            return map;
+            this.write((int) offset, bytes);
+            return this.length;
         }
-    }
 
-    // //////////////////////
-    // PRIVATE TOOLS
-    // //////////////
+        public String getrange(long start, long end) {
+            long length = this.length();
+            if (start < 0) {
+                start = Math.max(0, length + start);
+            }
+            if (end < 0) {
+                end = Math.max(0, length + end);
+            }
+            end = Math.min(end, length - 1);
+            if (start > end || length == 0) {
+                return "";
+            }
+            if (this.arena != null) {
+                byte[] bytes = new byte[(int) (end - start + 1)];
+                this.arena.read(this.handle, (int) start, bytes, 0, bytes.length);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            String value = this.compressed == null ? this.value : this.value();
+            if (this.buffer == null && length == value.length()) {
+                // Pure ASCII: byte offsets are char offsets
+                return value.substring((int) start, (int) end + 1);
+            }
+            byte[] bytes = this.buffer == null ? value.getBytes(StandardCharsets.UTF_8) : this.buffer;
+            return new String(bytes, (int) start, (int) (end - start + 1), StandardCharsets.UTF_8);
+        }
 
-    private <T extends JedisObject> T get(JedisObjectType type, String key) {
-        JedisObject object = this.database.get(key);
-        if (object == null) {
-            return null;
-        } else if (object.type == type) {
-            @SuppressWarnings("unchecked")
-            T fetched = (T) object;
-            return fetched;
-        } else {
-            throw new JedisDataException("WRONGTYPE Operation against a key holding the wrong kind of value");
+        private void write(int offset, byte[] bytes) {
+            long newLength = Math.max(this.length(), (long) offset + bytes.length);
+            if (newLength > MAX_LENGTH) {
+                throw new JedisDataException("ERR string exceeds maximum allowed size (512MB)");
+            }
+            if (this.compressed != null) {
+                // Decompressed to be modified, the caller can compress it again
+                this.buffer = this.compressor.inflate(this.compressed);
+                this.release();
+            }
+            if (this.arena != null) {
+                this.writeOffHeap(offset, bytes, (int) newLength);
+                return;
+            }
+            this.ensureCapacity((int) newLength);
+            if (offset > this.length) {
+                // The bytes between the current end and the offset are zero-padded
+                Arrays.fill(this.buffer, this.length, offset, (byte) 0);
+            }
+            System.arraycopy(bytes, 0, this.buffer, offset, bytes.length);
+            this.length = (int) newLength;
+            this.value = null;
+            this.encoding = JedisEncoding.RAW;
         }
-    }
 
-    private <T extends JedisObject> T getOrCreate(JedisObjectType type, String key) {
-        T object = this.get(type, key);
-        if (object == null) {
-            object = type.newInstance();
-            this.database.put(key, object);
+        private void writeOffHeap(int offset, byte[] bytes, int newLength) {
+            if (newLength > this.capacity) {
+                int size = (int) Math.min(MAX_LENGTH, Math.max(newLength, 2l * this.capacity));
+                long newHandle = this.arena.allocate(size);
+                this.arena.copy(this.handle, newHandle, this.length);
+                this.arena.free(this.handle, this.capacity);
+                this.handle = newHandle;
+                this.capacity = OffHeapArena.capacityFor(size);
+            }
+            if (offset > this.length) {
+                this.arena.fill(this.handle, this.length, offset - this.length);
+            }
+            this.arena.write(this.handle, offset, bytes, 0, bytes.length);
+            this.length = newLength;
+            this.encoding = JedisEncoding.RAW;
         }
-        return object;
-    }
 
-    private void checkMulti() {
-        if (this.isMulti) {
-            throw new JedisDataException("Cannot use Jedis when in Multi. Please use JedisTransaction instead.");
+        public boolean isOffHeap() {
+            return this.arena != null;
         }
-    }
 
-    protected void setMulti(boolean multi) {
-        this.isMulti = multi;
-    }
+        /**
+         * Makes the string shared
+         *
+         * @return this string
+         */
+        public JedisString share() {
+            // Computed now: a shared string is never modified
+            this.length();
+            this.markShared();
+            return this;
+        }
 
-    // //////////////////////
-    // MODEL
-    // //////////////
+        public boolean isCompressed() {
+            return this.compressed != null;
+        }
 
-    private static class JedisObject {
-        public final JedisObjectType type;
+        /**
+         * Compresses the bytes of the string, if it is worth it
+         *
+         * @return true if the string has been compressed
+         */
+        public boolean compress(ValueCompressor compressor) {
+            byte[] bytes = this.buffer == null ? this.value.getBytes(StandardCharsets.UTF_8) : Arrays.copyOf(this.buffer, this.length);
+            byte[] compressed = compressor.compress(bytes);
+            if (compressed == null) {
+                return false;
+            }
+            this.length = bytes.length;
+            this.compressed = compressed;
+            this.compressor = compressor;
+            this.value = null;
+            this.buffer = null;
+            return true;
+        }
 
-        public JedisObject(JedisObjectType type) {
-            this.type = type;
+        /**
+         * Moves the bytes of the string to the arena
+         */
+        public void moveOffHeap(OffHeapArena arena) {
+            byte[] bytes = this.buffer == null ? this.value.getBytes(StandardCharsets.UTF_8) : this.buffer;
+            int length = (int) this.length();
+            this.arena = arena;
+            this.handle = arena.allocate(length);
+            this.capacity = OffHeapArena.capacityFor(length);
+            arena.write(this.handle, 0, bytes, 0, length);
+            this.value = null;
+            this.buffer = null;
         }
-    }
 
-    private static class JedisList extends JedisObject {
-        public final LinkedList<String> list;
+        /**
+         * Frees the off-heap or compressed bytes of a string that is not in the database anymore
+         */
+        public void release() {
+            if (this.compressed != null) {
+                this.compressor.discard(this.compressed);
+                this.compressed = null;
+                this.compressor = null;
+            }
+            if (this.arena != null) {
+                this.arena.free(this.handle, this.capacity);
+                this.arena = null;
+            }
+        }
 
-        public JedisList() {
-            super(JedisObjectType.LIST);
-            this.list = new LinkedList<>();
+        private void ensureCapacity(int capacity) {
+            if (this.buffer == null) {
+                byte[] bytes = this.value.getBytes(StandardCharsets.UTF_8);
+                this.buffer = Arrays.copyOf(bytes, Math.max(capacity, bytes.length));
+            } else if (this.buffer.length < capacity) {
+                int newCapacity = (int) Math.min(MAX_LENGTH, Math.max(capacity, 2l * this.buffer.length));
+                this.buffer = Arrays.copyOf(this.buffer, newCapacity);
+            }
         }
 
-        public long size() {
-            return (long) this.list.size();
+        private static JedisEncoding encodingOf(String value) {
+            if (isCanonicalLong(value)) {
+                return JedisEncoding.INT;
+            }
+            return value.length() <= EMBSTR_MAX_LENGTH && utf8Length(value) <= EMBSTR_MAX_LENGTH ? JedisEncoding.EMBSTR : JedisEncoding.RAW;
         }
-    }
 
-    private static class JedisHash extends JedisObject {
-        public final Map<String, String> hash;
+        /**
+         * @return true if the value is the canonical representation of a long ("12" but not "012", "+12" or "-0")
+         */
+        private static boolean isCanonicalLong(String value) {
+            int length = value.length();
+            int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+            if (length == start || length > 20 || (value.charAt(start) == '0' && (length > 1))) {
+                return false;
+            }
+            for (int i = start; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            if (length - start < 19) {
+                return true;
+            }
+            // Checked without an exception in the common case: only the longest numbers can overflow
+            try {
+                Long.parseLong(value);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
 
-        public JedisHash() {
-            super(JedisObjectType.HASH);
-            this.hash = new HashMap<>();
+        private static int utf8Length(String str) {
+            int length = 0;
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired surrogates are encoded as '?'
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
         }
     }
 
-    private static class JedisString extends JedisObject {
-        public final String value;
+    private static enum JedisEncoding {
+        INT("int"),
+        EMBSTR("embstr"),
+        RAW("raw"),
+        ZIPLIST("ziplist"),
+        HASHTABLE("hashtable"),
+        QUICKLIST("quicklist");
 
-        public JedisString(String value) {
-            super(JedisObjectType.STRING);
-            this.value = value;
+        private final String name;
+
+        private JedisEncoding(String name) {
+            this.name = name;
         }
     }
 
@@ -359,22 +3339,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public String type(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String randomKey() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String rename(String oldkey, String newkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long renamenx(String oldkey, String newkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Long expire(String key, int seconds) {
         throw new FakeJedisNotImplementedException();
     }
@@ -387,14 +3351,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long move(String key, int dbIndex) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String getSet(String key, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public List<String> mget(String... keys) {
         throw new FakeJedisNotImplementedException();
     }
@@ -431,78 +3387,10 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long append(String key, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public String substr(String key, int start, int end) {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long hsetnx(String key, String field, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String hmset(String key, Map<String, String> hash) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<String> hmget(String key, String... fields) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Double hincrByFloat(String key, String field, double value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Boolean hexists(String key, String field) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long hdel(String key, String... fields) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long hlen(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Set<String> hkeys(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<String> hvals(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long rpush(String key, String... strings) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String ltrim(String key, long start, long end) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String lindex(String key, long index) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String lset(String key, long index, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long lrem(String key, long count, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String rpop(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String rpoplpush(String srckey, String dstkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Long sadd(String key, String... members) {
         throw new FakeJedisNotImplementedException();
     }
@@ -615,14 +3503,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public List<String> sort(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<String> sort(String key, SortingParams sortingParameters) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public List<String> blpop(int timeout, String... keys) {
         throw new FakeJedisNotImplementedException();
     }
@@ -643,14 +3523,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long sort(String key, SortingParams sortingParameters, String dstkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long sort(String key, String dstkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public List<String> brpop(int timeout, String... keys) {
         throw new FakeJedisNotImplementedException();
     }
@@ -771,30 +3643,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long strlen(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long lpushx(String key, String... string) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long persist(String key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long rpushx(String key, String... string) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String echo(String string) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long linsert(String key, BinaryClient.LIST_POSITION where, String pivot, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public String brpoplpush(String source, String destination, int timeout) {
         throw new FakeJedisNotImplementedException();
     }
@@ -811,14 +3659,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long setrange(String key, long offset, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String getrange(String key, long startOffset, long endOffset) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Long bitpos(String key, boolean value) {
         throw new FakeJedisNotImplementedException();
     }
@@ -827,14 +3667,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public List<String> configGet(String pattern) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String configSet(String parameter, String value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Object eval(String script, int keyCount, String... params) {
         throw new FakeJedisNotImplementedException();
     }
@@ -883,23 +3715,11 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public List<Slowlog> slowlogGet() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<Slowlog> slowlogGet(long entries) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long objectRefcount(String string) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String objectEncoding(String string) {
+    @Override public List<Slowlog> slowlogGet() {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long objectIdletime(String string) {
+    @Override public List<Slowlog> slowlogGet(long entries) {
         throw new FakeJedisNotImplementedException();
     }
 
@@ -995,22 +3815,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public ScanResult<String> scan(int cursor) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<String> scan(int cursor, ScanParams params) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, int cursor) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, int cursor, ScanParams params) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public ScanResult<String> sscan(String key, int cursor) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1027,22 +3831,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public ScanResult<String> scan(String cursor) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<String> scan(String cursor, ScanParams params) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, String cursor) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<Map.Entry<String, String>> hscan(String key, String cursor, ScanParams params) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public ScanResult<String> sscan(String key, String cursor) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1183,66 +3971,14 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public String ping() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String set(byte[] key, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public String set(byte[] key, byte[] value, byte[] nxxx, byte[] expx, long time) {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public byte[] get(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String quit() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Boolean exists(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long del(byte[]... keys) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long del(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String type(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String flushDB() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Set<byte[]> keys(byte[] pattern) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public byte[] randomBinaryKey() {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public String rename(byte[] oldkey, byte[] newkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long renamenx(byte[] oldkey, byte[] newkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long dbSize() {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Long expire(byte[] key, int seconds) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1255,30 +3991,10 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public String select(int index) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long move(byte[] key, int dbIndex) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String flushAll() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] getSet(byte[] key, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public List<byte[]> mget(byte[]... keys) {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long setnx(byte[] key, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public String setex(byte[] key, int seconds, byte[] value) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1311,110 +4027,10 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long append(byte[] key, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public byte[] substr(byte[] key, int start, int end) {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long hset(byte[] key, byte[] field, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] hget(byte[] key, byte[] field) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long hsetnx(byte[] key, byte[] field, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String hmset(byte[] key, Map<byte[], byte[]> hash) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<byte[]> hmget(byte[] key, byte[]... fields) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long hincrBy(byte[] key, byte[] field, long value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Double hincrByFloat(byte[] key, byte[] field, double value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Boolean hexists(byte[] key, byte[] field) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long hdel(byte[] key, byte[]... fields) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long hlen(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Set<byte[]> hkeys(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<byte[]> hvals(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Map<byte[], byte[]> hgetAll(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long rpush(byte[] key, byte[]... strings) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long lpush(byte[] key, byte[]... strings) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long llen(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<byte[]> lrange(byte[] key, long start, long end) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String ltrim(byte[] key, long start, long end) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] lindex(byte[] key, long index) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String lset(byte[] key, long index, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long lrem(byte[] key, long count, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] lpop(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] rpop(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] rpoplpush(byte[] srckey, byte[] dstkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Long sadd(byte[] key, byte[]... members) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1527,18 +4143,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override protected void checkIsInMulti() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public void connect() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public void disconnect() {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public void resetState() {
         throw new FakeJedisNotImplementedException();
     }
@@ -1551,26 +4155,10 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public List<byte[]> sort(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public List<byte[]> sort(byte[] key, SortingParams sortingParameters) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public List<byte[]> blpop(int timeout, byte[]... keys) {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long sort(byte[] key, SortingParams sortingParameters, byte[] dstkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long sort(byte[] key, byte[] dstkey) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public List<byte[]> brpop(int timeout, byte[]... keys) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1595,14 +4183,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public List<Object> pipelined(PipelineBlock jedisPipeline) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Pipeline pipelined() {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Long zcount(byte[] key, double min, double max) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1719,22 +4299,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public String save() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String bgsave() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public String bgrewriteaof() {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long lastsave() {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public String shutdown() {
         throw new FakeJedisNotImplementedException();
     }
@@ -1775,42 +4339,14 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long strlen(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public void sync() {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long lpushx(byte[] key, byte[]... string) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long persist(byte[] key) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long rpushx(byte[] key, byte[]... string) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] echo(byte[] string) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public Long linsert(byte[] key, BinaryClient.LIST_POSITION where, byte[] pivot, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public String debug(DebugParams params) {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Client getClient() {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public byte[] brpoplpush(byte[] source, byte[] destination, int timeout) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1835,14 +4371,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long setrange(byte[] key, long offset, byte[] value) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public byte[] getrange(byte[] key, long startOffset, long endOffset) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Long publish(byte[] channel, byte[] message) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1855,10 +4383,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public Long getDB() {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public Object eval(byte[] script, List<byte[]> keys, List<byte[]> args) {
         throw new FakeJedisNotImplementedException();
     }
@@ -1971,10 +4495,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public String set(byte[] key, byte[] value, byte[] nxxx) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public String set(byte[] key, byte[] value, byte[] nxxx, byte[] expx, int time) {
         throw new FakeJedisNotImplementedException();
     }
@@ -2023,22 +4543,6 @@ public class FakeJedis extends Jedis {
         throw new FakeJedisNotImplementedException();
     }
 
-    @Override public ScanResult<byte[]> scan(byte[] cursor) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<byte[]> scan(byte[] cursor, ScanParams params) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<Map.Entry<byte[], byte[]>> hscan(byte[] key, byte[] cursor) {
-        throw new FakeJedisNotImplementedException();
-    }
-
-    @Override public ScanResult<Map.Entry<byte[], byte[]>> hscan(byte[] key, byte[] cursor, ScanParams params) {
-        throw new FakeJedisNotImplementedException();
-    }
-
     @Override public ScanResult<byte[]> sscan(byte[] key, byte[] cursor) {
         throw new FakeJedisNotImplementedException();
     }
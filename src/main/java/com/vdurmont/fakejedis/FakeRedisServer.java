@@ -0,0 +1,409 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Redis server that serves the databases of a {@link FakeJedis} over TCP, in RESP2, so that any redis client (in any
+ * language) can use the fake. It can also listen to a unix domain socket, with java 16 or later.
+ * <p>
+ * An acceptor thread accepts the connections and hands them, round-robin, to a few reactor threads. Each reactor
+ * serves its connections with a non-blocking selector. The requests are decoded by a {@link RespDecoder} and the
+ * replies encoded by a {@link RespEncoder} (in RESP3 after {@code HELLO 3}). The requests can be pipelined.
+ * <p>
+ * The buffers of a connection are bounded: the connection is closed if a request does not fit in
+ * {@link #MAX_INPUT_BUFFER_SIZE} bytes, and its requests are not read anymore while more than
+ * {@link #MAX_PENDING_OUTPUT} bytes of replies are waiting to be sent.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+public class FakeRedisServer implements Closeable {
+    static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    static final int MAX_INPUT_BUFFER_SIZE = 64 * 1024 * 1024;
+    static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    // Pause of the acceptor after a failed accept (e.g. too many open files), doubled on each consecutive failure
+    static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+    static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    private final FakeJedis jedis;
+    // Either the TCP address or the path of the unix domain socket is set
+    private final InetSocketAddress address;
+    private final Path unixSocket;
+    private final Reactor[] reactors;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+    // Last failure of the acceptor, null if it has never failed
+    private volatile IOException acceptError;
+
+    /**
+     * @param jedis the client whose databases are served
+     * @param port  the port to listen to, on the loopback interface (0 to pick a free port)
+     */
+    public FakeRedisServer(FakeJedis jedis, int port) {
+        this(jedis, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param jedis        the client whose databases are served
+     * @param address      the address to listen to
+     * @param reactorCount the number of threads that serve the connections
+     */
+    public FakeRedisServer(FakeJedis jedis, InetSocketAddress address, int reactorCount) {
+        this(jedis, address, null, reactorCount);
+    }
+
+    /**
+     * @param jedis      the client whose databases are served
+     * @param unixSocket the path of the unix domain socket to listen to (a socket that exists at this path is
+     *                   replaced, any other file fails the start)
+     */
+    public FakeRedisServer(FakeJedis jedis, Path unixSocket) {
+        this(jedis, unixSocket, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param jedis        the client whose databases are served
+     * @param unixSocket   the path of the unix domain socket to listen to (a socket that exists at this path is
+     *                     replaced, any other file fails the start)
+     * @param reactorCount the number of threads that serve the connections
+     */
+    public FakeRedisServer(FakeJedis jedis, Path unixSocket, int reactorCount) {
+        this(jedis, null, unixSocket, reactorCount);
+    }
+
+    private FakeRedisServer(FakeJedis jedis, InetSocketAddress address, Path unixSocket, int reactorCount) {
+        if (reactorCount < 1) {
+            throw new IllegalArgumentException("At least one reactor is needed");
+        }
+        this.jedis = jedis;
+        this.address = address;
+        this.unixSocket = unixSocket;
+        this.reactors = new Reactor[reactorCount];
+    }
+
+    /**
+     * Connects a real Jedis client to a server that listens to a unix domain socket (Jedis only supports TCP)
+     *
+     * @param unixSocket the path of the unix domain socket of the server
+     * @return the client
+     */
+    public static Jedis connect(Path unixSocket) {
+        return new SocketJedis(new UnixSocketClient(unixSocket));
+    }
+
+    /**
+     * Binds the server and starts serving the connections
+     *
+     * @return this server
+     */
+    public synchronized FakeRedisServer start() {
+        if (this.running) {
+            throw new FakeJedisException("The server is already started");
+        }
+        try {
+            if (this.unixSocket != null) {
+                this.serverChannel = UnixSockets.bind(this.unixSocket, 1024);
+            } else {
+                this.serverChannel = ServerSocketChannel.open();
+                this.serverChannel.bind(this.address, 1024);
+            }
+            for (int i = 0; i < this.reactors.length; i++) {
+                this.reactors[i] = new Reactor(i);
+            }
+        } catch (IOException e) {
+            this.close();
+            throw new FakeJedisException("Cannot start the server on " + (this.unixSocket != null ? this.unixSocket : this.address), e);
+        }
+        this.running = true;
+        for (Reactor reactor : this.reactors) {
+            reactor.thread.start();
+        }
+        this.acceptor = new Thread(this::accept, "fake-redis-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        return this;
+    }
+
+    /**
+     * @return the port the server listens to
+     */
+    public int getPort() {
+        if (this.serverChannel == null) {
+            throw new FakeJedisException("The server is not started");
+        }
+        if (this.unixSocket != null) {
+            throw new FakeJedisException("The server listens to a unix domain socket");
+        }
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the path of the unix domain socket the server listens to, null if it listens to TCP
+     */
+    public Path getUnixSocket() {
+        return this.unixSocket;
+    }
+
+    /**
+     * The acceptor does not stop when it fails to accept a connection: it waits a little, then tries again. The
+     * connection that failed stays in the backlog of the socket.
+     *
+     * @return the last error of the acceptor (e.g. too many open files), null if it has never failed
+     */
+    public IOException getLastAcceptError() {
+        return this.acceptError;
+    }
+
+    /**
+     * Stops the server and closes all the connections
+     */
+    @Override public synchronized void close() {
+        this.running = false;
+        closeQuietly(this.serverChannel);
+        for (Reactor reactor : this.reactors) {
+            if (reactor != null) {
+                reactor.selector.wakeup();
+            }
+        }
+        try {
+            if (this.acceptor != null) {
+                this.acceptor.join(1000);
+            }
+            for (Reactor reactor : this.reactors) {
+                if (reactor != null) {
+                    reactor.thread.join(1000);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.unixSocket != null && this.serverChannel != null) {
+            try {
+                Files.deleteIfExists(this.unixSocket);
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private void accept() {
+        int next = 0;
+        int failures = 0;
+        while (this.running) {
+            SocketChannel channel;
+            try {
+                channel = this.serverChannel.accept();
+                failures = 0;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // The error is likely to persist for a while: retrying at once would spin
+                this.acceptError = e;
+                try {
+                    Thread.sleep(acceptBackoffMillis(++failures));
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                if (this.unixSocket == null) {
+                    channel.socket().setTcpNoDelay(true);
+                }
+            } catch (IOException e) {
+                closeQuietly(channel);
+                continue;
+            }
+            Reactor reactor = this.reactors[next];
+            next = (next + 1) % this.reactors.length;
+            reactor.pending.add(channel);
+            reactor.selector.wakeup();
+        }
+    }
+
+    /**
+     * @return the pause of the acceptor after the given number of consecutive failures
+     */
+    static long acceptBackoffMillis(int failures) {
+        return Math.min(MAX_ACCEPT_BACKOFF_MILLIS, MIN_ACCEPT_BACKOFF_MILLIS << Math.min(failures - 1, 20));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    private class Reactor {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> pending;
+        private final Thread thread;
+
+        private Reactor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.pending = new ConcurrentLinkedQueue<>();
+            this.thread = new Thread(this::run, "fake-redis-reactor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            try {
+                while (FakeRedisServer.this.running) {
+                    this.selector.select();
+                    SocketChannel channel;
+                    while ((channel = this.pending.poll()) != null) {
+                        Connection connection = new Connection(channel);
+                        connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+                    }
+                    for (SelectionKey key : this.selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            connection.handle();
+                        } catch (IOException | RuntimeException e) {
+                            connection.close();
+                        }
+                    }
+                    this.selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                // The selector is broken, stop serving
+            } finally {
+                for (SelectionKey key : this.selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                closeQuietly(this.selector);
+                SocketChannel channel;
+                while ((channel = this.pending.poll()) != null) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final RedisSession session;
+        private final RespDecoder decoder;
+        private final RespEncoder encoder;
+        private SelectionKey key;
+        // Received bytes, the undecoded ones are between 0 and the position
+        private ByteBuffer input;
+        private boolean closing;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.session = new RedisSession(FakeRedisServer.this.jedis.newClient());
+            this.decoder = new RespDecoder();
+            this.encoder = new RespEncoder(INITIAL_BUFFER_SIZE);
+            this.input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+
+        private void handle() throws IOException {
+            if (this.key.isWritable()) {
+                this.flush();
+            }
+            if (this.key.isValid() && this.key.isReadable()) {
+                if (!this.input.hasRemaining()) {
+                    this.grow(2 * this.input.capacity());
+                }
+                if (this.channel.read(this.input) < 0) {
+                    this.close();
+                    return;
+                }
+            }
+            this.process();
+            this.flush();
+        }
+
+        /**
+         * Executes the complete requests that have been received, unless too many replies are waiting to be sent
+         */
+        private void process() {
+            this.input.flip();
+            try {
+                while (!this.closing && this.encoder.pendingBytes() < MAX_PENDING_OUTPUT && this.decoder.decode(this.input)) {
+                    this.session.execute(this.decoder, this.encoder);
+                    if (this.session.isClosed()) {
+                        this.closing = true;
+                    }
+                }
+                if (this.decoder.pendingRequestSize() > this.input.capacity()) {
+                    this.input.compact();
+                    this.grow(this.decoder.pendingRequestSize());
+                    return;
+                }
+            } catch (JedisDataException e) {
+                // Redis closes the connections that break the protocol
+                this.encoder.error(e.getMessage());
+                this.closing = true;
+            }
+            this.input.compact();
+        }
+
+        /**
+         * Grows the input buffer (in write mode)
+         */
+        private void grow(int capacity) {
+            if (this.input.capacity() >= MAX_INPUT_BUFFER_SIZE || capacity > MAX_INPUT_BUFFER_SIZE) {
+                throw new FakeJedisException("Request too large");
+            }
+            ByteBuffer input = ByteBuffer.allocate(Math.max(capacity, Math.min(MAX_INPUT_BUFFER_SIZE, 2 * this.input.capacity())));
+            this.input.flip();
+            input.put(this.input);
+            this.input = input;
+        }
+
+        private void flush() throws IOException {
+            if (this.encoder.pendingBytes() > 0) {
+                this.encoder.writeTo(this.channel);
+            }
+            boolean flushed = this.encoder.pendingBytes() == 0;
+            if (flushed && this.closing) {
+                this.close();
+                return;
+            }
+            int interests = 0;
+            if (!flushed) {
+                interests |= SelectionKey.OP_WRITE;
+            }
+            if (!this.closing && this.encoder.pendingBytes() < MAX_PENDING_OUTPUT) {
+                interests |= SelectionKey.OP_READ;
+            }
+            this.key.interestOps(interests);
+        }
+
+        private void close() {
+            this.key.cancel();
+            closeQuietly(this.channel);
+            this.session.close();
+        }
+    }
+}
@@ -4,7 +4,6 @@ import redis.clients.jedis.BinaryClient;
 import redis.clients.jedis.BitOP;
 import redis.clients.jedis.BitPosParams;
 import redis.clients.jedis.Builder;
-import redis.clients.jedis.BuilderFactory;
 import redis.clients.jedis.Client;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.SortingParams;
@@ -52,7 +51,6 @@ public class FakeTransaction extends Transaction {
 
     @Override public Response<Long> hincrBy(String key, String field, long value) {
         Action<Long> action = new Action<>(
-                BuilderFactory.LONG,
                 getMethod("hincrBy", String.class, String.class, long.class),
                 key, field, value
         );
@@ -62,7 +60,6 @@ public class FakeTransaction extends Transaction {
 
     @Override public Response<Long> del(String... keys) {
         Action<Long> action = new Action<>(
-                BuilderFactory.LONG,
                 getMethod("del", String[].class),
                 keys
         );
@@ -72,7 +69,6 @@ public class FakeTransaction extends Transaction {
 
     @Override public Response<Long> del(String key) {
         Action<Long> action = new Action<>(
-                BuilderFactory.LONG,
                 getMethod("del", String.class),
                 key
         );
@@ -82,7 +78,6 @@ public class FakeTransaction extends Transaction {
 
     @Override public Response<String> set(String key, String value) {
         Action<String> action = new Action<>(
-                BuilderFactory.STRING,
                 getMethod("set", String.class, String.class),
                 key, value
         );
@@ -96,14 +91,20 @@ public class FakeTransaction extends Transaction {
             // We have the lock so we remove the multi to execute our commands
             this.jedis.setMulti(false);
 
-            for (Action action : this.actions) {
-                try {
-                    Object result = action.method.invoke(this.jedis, action.args);
-                    action.response.set(result);
-                    results.add(result);
-                } catch (IllegalAccessException | InvocationTargetException e) {
-                    throw new FakeJedisException("An error occurred while executing a transaction", e);
+            // The commands are written to the AOF as one transaction
+            this.jedis.beginBatch(true);
+            try {
+                for (Action action : this.actions) {
+                    try {
+                        Object result = action.method.invoke(this.jedis, action.args);
+                        action.response.set(result);
+                        results.add(result);
+                    } catch (IllegalAccessException | InvocationTargetException e) {
+                        throw new FakeJedisException("An error occurred while executing a transaction", e);
+                    }
                 }
+            } finally {
+                this.jedis.endBatch();
             }
         }
         return results;
@@ -118,10 +119,17 @@ public class FakeTransaction extends Transaction {
         public final Object[] args;
         public final Response<T> response;
 
-        private Action(Builder<T> builder, Method method, Object... args) {
+        private Action(Method method, Object... args) {
             this.method = method;
             this.args = args;
-            this.response = new Response<>(builder);
+            // The results are computed by FakeJedis: they don't need to be decoded from the redis protocol
+            this.response = new Response<>(new Builder<T>() {
+                @Override public T build(Object data) {
+                    @SuppressWarnings("unchecked")
+                    T built = (T) data;
+                    return built;
+                }
+            });
         }
     }
 
@@ -226,7 +234,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> rename(String oldkey, String newkey) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("rename", String.class, String.class),
+                oldkey, newkey
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> rename(byte[] oldkey, byte[] newkey) {
@@ -234,7 +247,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> renamenx(String oldkey, String newkey) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("renamenx", String.class, String.class),
+                oldkey, newkey
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> renamenx(byte[] oldkey, byte[] newkey) {
@@ -242,7 +260,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> rpoplpush(String srckey, String dstkey) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("rpoplpush", String.class, String.class),
+                srckey, dstkey
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<byte[]> rpoplpush(byte[] srckey, byte[] dstkey) {
@@ -290,7 +313,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> sort(String key, SortingParams sortingParameters, String dstkey) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("sort", String.class, SortingParams.class, String.class),
+                key, sortingParameters, dstkey
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> sort(byte[] key, SortingParams sortingParameters, byte[] dstkey) {
@@ -298,7 +326,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> sort(String key, String dstkey) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("sort", String.class, String.class),
+                key, dstkey
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> sort(byte[] key, byte[] dstkey) {
@@ -406,7 +439,11 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> randomKey() {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("randomKey")
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<byte[]> randomKeyBinary() {
@@ -414,11 +451,19 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> flushDB() {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("flushDB")
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> flushAll() {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("flushAll")
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> info() {
@@ -430,7 +475,11 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> dbSize() {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("dbSize")
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> shutdown() {
@@ -442,7 +491,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> select(int index) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("select", int.class),
+                index
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> bitop(BitOP op, byte[] destKey, byte[]... srcKeys) {
@@ -506,7 +560,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> append(String key, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("append", String.class, String.class),
+                key, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> append(byte[] key, byte[] value) {
@@ -614,11 +673,21 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> getrange(String key, long startOffset, long endOffset) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("getrange", String.class, long.class, long.class),
+                key, startOffset, endOffset
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> getSet(String key, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("getSet", String.class, String.class),
+                key, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<byte[]> getSet(byte[] key, byte[] value) {
@@ -630,7 +699,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> hdel(String key, String... field) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("hdel", String.class, String[].class),
+                key, field
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> hdel(byte[] key, byte[]... field) {
@@ -638,7 +712,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Boolean> hexists(String key, String field) {
-        throw new FakeJedisNotImplementedException();
+        Action<Boolean> action = new Action<>(
+                getMethod("hexists", String.class, String.class),
+                key, field
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Boolean> hexists(byte[] key, byte[] field) {
@@ -646,7 +725,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> hget(String key, String field) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("hget", String.class, String.class),
+                key, field
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<byte[]> hget(byte[] key, byte[] field) {
@@ -654,7 +738,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Map<String, String>> hgetAll(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<Map<String, String>> action = new Action<>(
+                getMethod("hgetAll", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Map<byte[], byte[]>> hgetAll(byte[] key) {
@@ -666,7 +755,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Set<String>> hkeys(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<Set<String>> action = new Action<>(
+                getMethod("hkeys", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Set<byte[]>> hkeys(byte[] key) {
@@ -674,7 +768,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> hlen(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("hlen", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> hlen(byte[] key) {
@@ -682,7 +781,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<List<String>> hmget(String key, String... fields) {
-        throw new FakeJedisNotImplementedException();
+        Action<List<String>> action = new Action<>(
+                getMethod("hmget", String.class, String[].class),
+                key, fields
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<List<byte[]>> hmget(byte[] key, byte[]... fields) {
@@ -690,7 +794,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> hmset(String key, Map<String, String> hash) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("hmset", String.class, Map.class),
+                key, hash
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> hmset(byte[] key, Map<byte[], byte[]> hash) {
@@ -698,7 +807,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> hset(String key, String field, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("hset", String.class, String.class, String.class),
+                key, field, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> hset(byte[] key, byte[] field, byte[] value) {
@@ -706,7 +820,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> hsetnx(String key, String field, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("hsetnx", String.class, String.class, String.class),
+                key, field, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> hsetnx(byte[] key, byte[] field, byte[] value) {
@@ -714,7 +833,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<List<String>> hvals(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<List<String>> action = new Action<>(
+                getMethod("hvals", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<List<byte[]>> hvals(byte[] key) {
@@ -738,7 +862,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> lindex(String key, long index) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("lindex", String.class, long.class),
+                key, index
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<byte[]> lindex(byte[] key, long index) {
@@ -746,7 +875,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> linsert(String key, BinaryClient.LIST_POSITION where, String pivot, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("linsert", String.class, BinaryClient.LIST_POSITION.class, String.class, String.class),
+                key, where, pivot, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> linsert(byte[] key, BinaryClient.LIST_POSITION where, byte[] pivot, byte[] value) {
@@ -754,7 +888,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> llen(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("llen", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> llen(byte[] key) {
@@ -763,7 +902,6 @@ public class FakeTransaction extends Transaction {
 
     @Override public Response<String> lpop(String key) {
         Action<String> action = new Action<>(
-                BuilderFactory.STRING,
                 getMethod("lpop", String.class),
                 key
         );
@@ -777,7 +915,6 @@ public class FakeTransaction extends Transaction {
 
     @Override public Response<Long> lpush(String key, String... string) {
         Action<Long> action = new Action<>(
-                BuilderFactory.LONG,
                 getMethod("lpush", String.class, String[].class),
                 key, string
         );
@@ -790,7 +927,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> lpushx(String key, String... string) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("lpushx", String.class, String[].class),
+                key, string
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> lpushx(byte[] key, byte[]... bytes) {
@@ -798,7 +940,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<List<String>> lrange(String key, long start, long end) {
-        throw new FakeJedisNotImplementedException();
+        Action<List<String>> action = new Action<>(
+                getMethod("lrange", String.class, long.class, long.class),
+                key, start, end
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<List<byte[]>> lrange(byte[] key, long start, long end) {
@@ -806,7 +953,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> lrem(String key, long count, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("lrem", String.class, long.class, String.class),
+                key, count, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> lrem(byte[] key, long count, byte[] value) {
@@ -814,7 +966,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> lset(String key, long index, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("lset", String.class, long.class, String.class),
+                key, index, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> lset(byte[] key, long index, byte[] value) {
@@ -822,7 +979,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> ltrim(String key, long start, long end) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("ltrim", String.class, long.class, long.class),
+                key, start, end
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> ltrim(byte[] key, long start, long end) {
@@ -830,7 +992,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> move(String key, int dbIndex) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("move", String.class, int.class),
+                key, dbIndex
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> move(byte[] key, int dbIndex) {
@@ -838,7 +1005,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> persist(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("persist", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> persist(byte[] key) {
@@ -846,7 +1018,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> rpop(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("rpop", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<byte[]> rpop(byte[] key) {
@@ -854,7 +1031,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> rpush(String key, String... string) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("rpush", String.class, String[].class),
+                key, string
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> rpush(byte[] key, byte[]... string) {
@@ -862,7 +1044,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> rpushx(String key, String... string) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("rpushx", String.class, String[].class),
+                key, string
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> rpushx(byte[] key, byte[]... string) {
@@ -914,7 +1101,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> setrange(String key, long offset, String value) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("setrange", String.class, long.class, String.class),
+                key, offset, value
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> setrange(byte[] key, long offset, byte[] value) {
@@ -938,7 +1130,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<List<String>> sort(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<List<String>> action = new Action<>(
+                getMethod("sort", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<List<byte[]>> sort(byte[] key) {
@@ -946,7 +1143,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<List<String>> sort(String key, SortingParams sortingParameters) {
-        throw new FakeJedisNotImplementedException();
+        Action<List<String>> action = new Action<>(
+                getMethod("sort", String.class, SortingParams.class),
+                key, sortingParameters
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<List<byte[]>> sort(byte[] key, SortingParams sortingParameters) {
@@ -986,7 +1188,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Long> strlen(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<Long> action = new Action<>(
+                getMethod("strlen", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Long> strlen(byte[] key) {
@@ -1010,7 +1217,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<String> type(String key) {
-        throw new FakeJedisNotImplementedException();
+        Action<String> action = new Action<>(
+                getMethod("type", String.class),
+                key
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<String> type(byte[] key) {
@@ -1442,7 +1654,12 @@ public class FakeTransaction extends Transaction {
     }
 
     @Override public Response<Double> hincrByFloat(String key, String field, double increment) {
-        throw new FakeJedisNotImplementedException();
+        Action<Double> action = new Action<>(
+                getMethod("hincrByFloat", String.class, String.class, double.class),
+                key, field, increment
+        );
+        this.actions.add(action);
+        return action.response;
     }
 
     @Override public Response<Double> hincrByFloat(byte[] key, byte[] field, double increment) {
@@ -0,0 +1,205 @@
+package com.vdurmont.fakejedis;
+
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Keyspace of a fork of a database: the keys are inherited from a base keyspace that is never modified again, and the
+ * changes are stored in a keyspace of their own.
+ * <p>
+ * A fork is created in O(1), and grows only with the keys that it writes or removes: a removed key that exists in the
+ * base is hidden by a tombstone. Several forks can share the same base, which is frozen: they must all use it under the
+ * same lock since reading some keyspaces modifies them (lazy decoding, incremental rehashing). The values themselves
+ * are shared with the base: they must be copied before they are modified.
+ *
+ * @param <V> the type of the values
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class ForkedKeyspace<V> implements Keyspace<V> {
+    // Placeholder of the removed keys of the base: compared by identity, it can't be confused with a value
+    private static final Object TOMBSTONE = new Object();
+    // Maximum number of forks stacked under a fork: each of them has its own bit in the cursors of SCAN, above the
+    // cursors of the other keyspaces (32 bits)
+    static final int MAX_DEPTH = 30;
+
+    private final Keyspace<V> base;
+    private final Keyspace<Object> own;
+    private final int depth;
+    // Bit of the cursors of SCAN that are in the base, after the keyspace of the fork
+    private final long baseCursor;
+    private int size;
+
+    /**
+     * @param base the keyspace to inherit, that must not be modified anymore
+     * @param own  the keyspace that stores the changes, empty
+     */
+    public ForkedKeyspace(Keyspace<V> base, Keyspace<Object> own) {
+        this.base = base;
+        this.own = own;
+        this.depth = base instanceof ForkedKeyspace ? ((ForkedKeyspace<V>) base).depth + 1 : 0;
+        if (this.depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Too many stacked forks: " + this.depth);
+        }
+        this.baseCursor = 1L << (62 - this.depth);
+        this.size = base.size();
+    }
+
+    /**
+     * @return the keyspace inherited by the fork
+     */
+    public Keyspace<V> base() {
+        return this.base;
+    }
+
+    /**
+     * @return the number of forks stacked under this one
+     */
+    public int depth() {
+        return this.depth;
+    }
+
+    /**
+     * @return the number of keys that have been written or removed since the fork
+     */
+    public int changes() {
+        return this.own.size();
+    }
+
+    /**
+     * Visits the values that have been written since the fork, without the inherited ones
+     */
+    public void forEachOwn(BiConsumer<String, V> consumer) {
+        this.own.forEach((key, value) -> {
+            if (value != TOMBSTONE) {
+                consumer.accept(key, this.cast(value));
+            }
+        });
+    }
+
+    @Override public V get(String key) {
+        Object value = this.own.get(key);
+        if (value == null) {
+            return this.base.get(key);
+        }
+        return value == TOMBSTONE ? null : this.cast(value);
+    }
+
+    @Override public V put(String key, V value) {
+        Object old = this.own.put(key, value);
+        if (old == null) {
+            V inherited = this.base.get(key);
+            if (inherited == null) {
+                this.size++;
+            }
+            return inherited;
+        }
+        if (old == TOMBSTONE) {
+            this.size++;
+            return null;
+        }
+        return this.cast(old);
+    }
+
+    @Override public V remove(String key) {
+        Object old = this.own.get(key);
+        if (old == TOMBSTONE) {
+            return null;
+        }
+        V removed = old == null ? this.base.get(key) : this.cast(old);
+        if (removed == null) {
+            return null;
+        }
+        if (this.base.containsKey(key)) {
+            this.own.put(key, TOMBSTONE);
+        } else {
+            this.own.remove(key);
+        }
+        this.size--;
+        return removed;
+    }
+
+    @Override public boolean containsKey(String key) {
+        Object value = this.own.get(key);
+        return value == null ? this.base.containsKey(key) : value != TOMBSTONE;
+    }
+
+    @Override public int size() {
+        return this.size;
+    }
+
+    @Override public void forEach(BiConsumer<String, V> consumer) {
+        this.forEachOwn(consumer);
+        this.base.forEach((key, value) -> {
+            if (!this.own.containsKey(key)) {
+                consumer.accept(key, value);
+            }
+        });
+    }
+
+    /**
+     * Picks a layer with a probability proportional to its number of keys, then retries if the key is removed or
+     * overridden by the fork
+     */
+    @Override public String randomKey(Random random) {
+        if (this.size == 0) {
+            return null;
+        }
+        while (true) {
+            int ownSize = this.own.size();
+            if (random.nextInt(ownSize + this.base.size()) < ownSize) {
+                String key = this.own.randomKey(random);
+                if (this.own.get(key) != TOMBSTONE) {
+                    return key;
+                }
+            } else {
+                String key = this.base.randomKey(random);
+                if (!this.own.containsKey(key)) {
+                    return key;
+                }
+            }
+        }
+    }
+
+    @Override public void forEachWithPrefix(String prefix, BiConsumer<String, V> consumer) {
+        this.own.forEachWithPrefix(prefix, (key, value) -> {
+            if (value != TOMBSTONE) {
+                consumer.accept(key, this.cast(value));
+            }
+        });
+        this.base.forEachWithPrefix(prefix, (key, value) -> {
+            if (!this.own.containsKey(key)) {
+                consumer.accept(key, value);
+            }
+        });
+    }
+
+    /**
+     * Scans the keyspace of the fork, then the base. The inherited keys that have been written since the start of the
+     * iteration are visited again with their new value, so that no key is missed. Each stacked fork marks the cursors
+     * of its base with a bit of its own, that the cursors of the forks above it keep.
+     */
+    @Override public long scan(long cursor, int count, String prefix, BiConsumer<String, V> consumer) {
+        if ((cursor & this.baseCursor) == 0) {
+            long next = this.own.scan(cursor, count, prefix, (key, value) -> {
+                if (value != TOMBSTONE) {
+                    consumer.accept(key, this.cast(value));
+                }
+            });
+            return next != 0 || this.base.size() == 0 ? next : this.baseCursor;
+        }
+        long next = this.base.scan(cursor & ~this.baseCursor, count, prefix, (key, value) -> {
+            Object own = this.own.get(key);
+            if (own == null) {
+                consumer.accept(key, value);
+            } else if (own != TOMBSTONE) {
+                consumer.accept(key, this.cast(own));
+            }
+        });
+        return next == 0 ? 0 : next | this.baseCursor;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+        return (V) value;
+    }
+}
@@ -0,0 +1,24 @@
+package com.vdurmont.fakejedis;
+
+import java.net.Socket;
+
+/**
+ * Jedis client whose connection is an {@link InMemorySocket}: the commands are encoded and decoded by Jedis, like
+ * with a real server, but executed in-process by a FakeJedis, without network.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class InMemoryClient extends SocketClient {
+    private final FakeJedis jedis;
+
+    /**
+     * @param jedis the client that executes the commands
+     */
+    public InMemoryClient(FakeJedis jedis) {
+        this.jedis = jedis;
+    }
+
+    @Override protected Socket openSocket() {
+        return new InMemorySocket(new RedisSession(this.jedis));
+    }
+}
@@ -0,0 +1,205 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+/**
+ * Socket that is connected to an in-process redis session instead of the network.
+ * <p>
+ * The bytes written to its output stream are decoded as requests and executed right away, by the thread that writes
+ * them; the encoded replies are then read from its input stream. Reading when no reply is pending is the end of the
+ * stream: the session never replies later. Not thread-safe, like the redis clients.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class InMemorySocket extends Socket {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final RedisSession session;
+    private final RespDecoder decoder;
+    private final RespEncoder encoder;
+    // Received requests, the undecoded bytes are between 0 and the position
+    private ByteBuffer requests;
+    // Replies that are being read
+    private byte[] replies;
+    private int repliesOffset;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private int soTimeout;
+    // A protocol error happened: the requests are ignored, like on a connection that redis closed
+    private boolean broken;
+    private boolean closed;
+
+    public InMemorySocket(RedisSession session) {
+        this.session = session;
+        this.decoder = new RespDecoder();
+        this.encoder = new RespEncoder(BUFFER_SIZE);
+        this.requests = ByteBuffer.allocate(BUFFER_SIZE);
+        this.replies = new byte[0];
+        this.inputStream = new ReplyStream();
+        this.outputStream = new RequestStream();
+    }
+
+    @Override public InputStream getInputStream() throws IOException {
+        this.checkOpen();
+        return this.inputStream;
+    }
+
+    @Override public OutputStream getOutputStream() throws IOException {
+        this.checkOpen();
+        return this.outputStream;
+    }
+
+    @Override public void connect(SocketAddress endpoint, int timeout) {
+        // Always connected
+    }
+
+    @Override public boolean isConnected() {
+        return true;
+    }
+
+    @Override public boolean isBound() {
+        return true;
+    }
+
+    @Override public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override public boolean isInputShutdown() {
+        return this.closed;
+    }
+
+    @Override public boolean isOutputShutdown() {
+        return this.closed;
+    }
+
+    @Override public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            this.session.close();
+        }
+    }
+
+    @Override public void setSoTimeout(int timeout) {
+        // There is nothing to wait for
+        this.soTimeout = timeout;
+    }
+
+    @Override public int getSoTimeout() {
+        return this.soTimeout;
+    }
+
+    @Override public void setTcpNoDelay(boolean on) {
+        // No network
+    }
+
+    @Override public void setKeepAlive(boolean on) {
+        // No network
+    }
+
+    @Override public void setReuseAddress(boolean on) {
+        // No network
+    }
+
+    @Override public void setSoLinger(boolean on, int linger) {
+        // No network
+    }
+
+    @Override public String toString() {
+        return "InMemorySocket[closed=" + this.closed + "]";
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private void checkOpen() throws SocketException {
+        if (this.closed) {
+            throw new SocketException("Socket is closed");
+        }
+    }
+
+    private void receive(byte[] bytes, int offset, int length) throws IOException {
+        this.checkOpen();
+        if (this.broken || this.session.isClosed()) {
+            return;
+        }
+        if (this.requests.remaining() < length) {
+            ByteBuffer requests = ByteBuffer.allocate(Math.max(this.requests.position() + length, 2 * this.requests.capacity()));
+            this.requests.flip();
+            requests.put(this.requests);
+            this.requests = requests;
+        }
+        this.requests.put(bytes, offset, length);
+        this.requests.flip();
+        try {
+            while (!this.session.isClosed() && this.decoder.decode(this.requests)) {
+                this.session.execute(this.decoder, this.encoder);
+            }
+        } catch (JedisDataException e) {
+            // Protocol error: redis replies with the error and closes the connection
+            this.encoder.error(e.getMessage());
+            this.broken = true;
+        }
+        this.requests.compact();
+    }
+
+    /**
+     * @return the number of bytes that can be read, 0 if there is no pending reply
+     */
+    private int available() {
+        if (this.repliesOffset == this.replies.length && this.encoder.pendingBytes() > 0) {
+            this.replies = this.encoder.drain();
+            this.repliesOffset = 0;
+        }
+        return this.replies.length - this.repliesOffset;
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    private class RequestStream extends OutputStream {
+        @Override public void write(int b) throws IOException {
+            InMemorySocket.this.receive(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override public void write(byte[] bytes, int offset, int length) throws IOException {
+            InMemorySocket.this.receive(bytes, offset, length);
+        }
+    }
+
+    private class ReplyStream extends InputStream {
+        @Override public int read() throws IOException {
+            InMemorySocket.this.checkOpen();
+            if (InMemorySocket.this.available() == 0) {
+                return -1;
+            }
+            return InMemorySocket.this.replies[InMemorySocket.this.repliesOffset++] & 0xFF;
+        }
+
+        @Override public int read(byte[] bytes, int offset, int length) throws IOException {
+            InMemorySocket.this.checkOpen();
+            int available = InMemorySocket.this.available();
+            if (available == 0) {
+                return length == 0 ? 0 : -1;
+            }
+            int read = Math.min(available, length);
+            System.arraycopy(InMemorySocket.this.replies, InMemorySocket.this.repliesOffset, bytes, offset, read);
+            InMemorySocket.this.repliesOffset += read;
+            return read;
+        }
+
+        @Override public int available() {
+            return InMemorySocket.this.available();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.vdurmont.fakejedis;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable merge sort of a permutation of indexes, on a primitive array: the indexes are compared without being boxed.
+ * Big arrays are sorted in parallel, in the common fork/join pool.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class IndexSort {
+    // Ranges smaller than this are sorted by insertion
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * Comparator of two indexes
+     */
+    public interface Comparator {
+        int compare(int i1, int i2);
+    }
+
+    private IndexSort() {
+    }
+
+    /**
+     * @param indexes           the indexes to sort
+     * @param comparator        the comparator of the indexes
+     * @param parallelThreshold the size from which the ranges are sorted in parallel
+     */
+    public static void sort(int[] indexes, Comparator comparator, int parallelThreshold) {
+        int[] buffer = indexes.clone();
+        if (indexes.length >= parallelThreshold) {
+            ForkJoinPool.commonPool().invoke(new ParallelSort(buffer, indexes, 0, indexes.length, comparator, parallelThreshold));
+        } else {
+            sort(buffer, indexes, 0, indexes.length, comparator);
+        }
+    }
+
+    /**
+     * Sorts the range of {@code dst}, using the range of {@code src} (that holds the same indexes) as a buffer
+     */
+    private static void sort(int[] src, int[] dst, int from, int to, Comparator comparator) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int index = dst[i];
+                int j = i - 1;
+                for (; j >= from && comparator.compare(dst[j], index) > 0; j--) {
+                    dst[j + 1] = dst[j];
+                }
+                dst[j + 1] = index;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(dst, src, from, middle, comparator);
+        sort(dst, src, middle, to, comparator);
+        merge(src, dst, from, middle, to, comparator);
+    }
+
+    /**
+     * Merges the two sorted halves of the range of {@code src} into {@code dst}
+     */
+    private static void merge(int[] src, int[] dst, int from, int middle, int to, Comparator comparator) {
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            // Ties are taken from the left half: the sort is stable
+            if (right >= to || left < middle && comparator.compare(src[left], src[right]) <= 0) {
+                dst[i] = src[left++];
+            } else {
+                dst[i] = src[right++];
+            }
+        }
+    }
+
+    private static class ParallelSort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] src;
+        private final int[] dst;
+        private final int from;
+        private final int to;
+        private final Comparator comparator;
+        private final int threshold;
+
+        private ParallelSort(int[] src, int[] dst, int from, int to, Comparator comparator, int threshold) {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+            this.threshold = threshold;
+        }
+
+        @Override protected void compute() {
+            if (this.to - this.from < this.threshold) {
+                sort(this.src, this.dst, this.from, this.to, this.comparator);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new ParallelSort(this.dst, this.src, this.from, middle, this.comparator, this.threshold),
+                    new ParallelSort(this.dst, this.src, middle, this.to, this.comparator, this.threshold));
+            merge(this.src, this.dst, this.from, middle, this.to, this.comparator);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.vdurmont.fakejedis;
+
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Map of the keys of a database to their values.
+ * <p>
+ * Implementations are not thread-safe: FakeJedis only uses them while holding its lock. The keyspace must not be
+ * modified while it is being iterated.
+ *
+ * @param <V> the type of the values
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+interface Keyspace<V> {
+    V get(String key);
+
+    /**
+     * @return the previous value of the key, or null if there was none
+     */
+    V put(String key, V value);
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    V remove(String key);
+
+    boolean containsKey(String key);
+
+    int size();
+
+    void forEach(BiConsumer<String, V> consumer);
+
+    /**
+     * @return a random key, in O(1) expected time, or null if the keyspace is empty
+     */
+    String randomKey(Random random);
+
+    /**
+     * Visits the keys that start with the given prefix.
+     */
+    void forEachWithPrefix(String prefix, BiConsumer<String, V> consumer);
+
+    /**
+     * Visits about {@code count} keys that start with the given prefix, starting at the given cursor, like SCAN.
+     * <p>
+     * A full iteration (from cursor 0 until 0 is returned) visits every key that is present from the start to the end
+     * of the iteration. A key can be visited more than once.
+     *
+     * @return the cursor to use to continue the iteration, 0 if it is complete
+     */
+    long scan(long cursor, int count, String prefix, BiConsumer<String, V> consumer);
+}
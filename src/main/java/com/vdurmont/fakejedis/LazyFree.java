@@ -0,0 +1,135 @@
+package com.vdurmont.fakejedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Background reclaimer of the objects that have been removed from the databases, like the lazy free of redis.
+ * <p>
+ * The heap is reclaimed by the garbage collector, but some objects hold resources that have to be released explicitly
+ * (e.g. off-heap memory). Instead of walking a dropped keyspace or releasing the objects while holding the lock of the
+ * server, the commands hand them to this reclaimer: its thread walks the detached keyspaces without the lock, and only
+ * takes it to release the objects, by batches.
+ *
+ * @param <T> the type of the objects
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class LazyFree<T> {
+    static final int BATCH_SIZE = 1000;
+
+    private final Object lock;
+    private final Consumer<T> releaser;
+    private final LinkedBlockingQueue<Object> jobs;
+    private final AtomicLong pendingObjects;
+    private final AtomicLong freedObjects;
+    private final Thread thread;
+
+    /**
+     * @param lock     the lock to hold while releasing objects
+     * @param releaser releases an object
+     */
+    public LazyFree(Object lock, Consumer<T> releaser) {
+        this.lock = lock;
+        this.releaser = releaser;
+        this.jobs = new LinkedBlockingQueue<>();
+        this.pendingObjects = new AtomicLong();
+        this.freedObjects = new AtomicLong();
+        this.thread = new Thread(this::run, "fake-jedis-lazyfree");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Releases an object that is not referenced by the databases anymore
+     */
+    public void free(T object) {
+        this.pendingObjects.incrementAndGet();
+        this.jobs.add(object);
+    }
+
+    /**
+     * Releases the objects of a keyspace that is not referenced by the databases anymore
+     */
+    public void free(Keyspace<T> keyspace) {
+        this.pendingObjects.addAndGet(keyspace.size());
+        this.jobs.add(keyspace);
+    }
+
+    /**
+     * @return the number of objects that are waiting to be released
+     */
+    public long pendingObjects() {
+        return this.pendingObjects.get();
+    }
+
+    /**
+     * @return the number of objects that have been released
+     */
+    public long freedObjects() {
+        return this.freedObjects.get();
+    }
+
+    /**
+     * Waits until all the pending objects are released
+     *
+     * @return false if the timeout expired before
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (this.pendingObjects.get() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private void run() {
+        List<T> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            Object job;
+            try {
+                job = this.jobs.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job instanceof Keyspace) {
+                @SuppressWarnings("unchecked")
+                Keyspace<T> keyspace = (Keyspace<T>) job;
+                // Detached: nobody else modifies it, it can be walked without the lock
+                keyspace.forEach((key, object) -> {
+                    batch.add(object);
+                    if (batch.size() == BATCH_SIZE) {
+                        this.release(batch);
+                    }
+                });
+            } else {
+                @SuppressWarnings("unchecked")
+                T object = (T) job;
+                batch.add(object);
+            }
+            if (!batch.isEmpty() && (batch.size() == BATCH_SIZE || this.jobs.isEmpty() || job instanceof Keyspace)) {
+                this.release(batch);
+            }
+        }
+    }
+
+    private void release(List<T> batch) {
+        synchronized (this.lock) {
+            for (T object : batch) {
+                this.releaser.accept(object);
+            }
+        }
+        this.freedObjects.addAndGet(batch.size());
+        this.pendingObjects.addAndGet(-batch.size());
+        batch.clear();
+    }
+}
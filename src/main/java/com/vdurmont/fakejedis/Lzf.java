@@ -0,0 +1,53 @@
+package com.vdurmont.fakejedis;
+
+/**
+ * Decompressor of LZF, the compression of the strings of the RDB files
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class Lzf {
+    private Lzf() {
+    }
+
+    /**
+     * @param input  the compressed bytes
+     * @param output the decompressed bytes, whose length is the decompressed length
+     * @throws FakeJedisException if the input is corrupted
+     */
+    public static void decompress(byte[] input, byte[] output) {
+        int in = 0;
+        int out = 0;
+        try {
+            while (in < input.length) {
+                int control = input[in++] & 0xFF;
+                if (control < 32) {
+                    // Literal run of control + 1 bytes
+                    int length = control + 1;
+                    System.arraycopy(input, in, output, out, length);
+                    in += length;
+                    out += length;
+                } else {
+                    // Back reference
+                    int length = control >> 5;
+                    if (length == 7) {
+                        length += input[in++] & 0xFF;
+                    }
+                    length += 2;
+                    int reference = out - ((control & 0x1F) << 8) - (input[in++] & 0xFF) - 1;
+                    if (reference < 0) {
+                        throw new FakeJedisException("Invalid LZF back reference");
+                    }
+                    // The reference can overlap the output: copy byte by byte
+                    for (int i = 0; i < length; i++) {
+                        output[out++] = output[reference++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new FakeJedisException("Corrupted LZF string", e);
+        }
+        if (out != output.length) {
+            throw new FakeJedisException("Corrupted LZF string: " + out + " bytes instead of " + output.length);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.vdurmont.fakejedis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Keyspace loaded from a {@link MappedSnapshot}, whose values are decoded on their first access.
+ * <p>
+ * The values of the snapshot are stored in the underlying keyspace as they are, and replaced by their decoded value
+ * the first time that they are read, written or visited. Like the other keyspaces, it is used under the lock of the
+ * server, which is also held when the values are decoded. The values that are decoded while the keyspace is iterated
+ * are only stored at the end of the iteration, since the keyspace must not be modified while it is iterated. Once the
+ * keyspace is frozen as the base of forks, the values that it decodes are shared by the forks.
+ *
+ * @param <V> the type of the values
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class MappedKeyspace<V> implements Keyspace<V> {
+    private final Keyspace<Object> keyspace;
+    private final BiFunction<String, MappedSnapshot.Value, V> decoder;
+    private int undecoded;
+    private int iterations;
+    // Values decoded during the current iteration
+    private final Map<String, V> decoded;
+    // Called on the values decoded once the keyspace is frozen (null until then)
+    private Consumer<V> sealer;
+
+    /**
+     * @param keyspace the underlying keyspace, empty
+     * @param decoder  the decoder of the values of the snapshot
+     */
+    public MappedKeyspace(Keyspace<Object> keyspace, BiFunction<String, MappedSnapshot.Value, V> decoder) {
+        this.keyspace = keyspace;
+        this.decoder = decoder;
+        this.decoded = new HashMap<>();
+    }
+
+    /**
+     * Adds a key whose value is not decoded yet
+     */
+    public void putValue(String key, MappedSnapshot.Value value) {
+        if (!(this.keyspace.put(key, value) instanceof MappedSnapshot.Value)) {
+            this.undecoded++;
+        }
+    }
+
+    /**
+     * Freezes the keyspace, which must not be modified anymore: the values that are decoded from now on are passed to
+     * the sealer. Freezing a frozen keyspace keeps its first sealer.
+     */
+    public void freeze(Consumer<V> sealer) {
+        if (this.sealer == null) {
+            this.sealer = sealer;
+        }
+    }
+
+    /**
+     * @return the number of values that have not been decoded yet
+     */
+    public int undecoded() {
+        return this.undecoded;
+    }
+
+    /**
+     * Visits the values that have been decoded, without decoding the others
+     */
+    public void forEachDecoded(BiConsumer<String, V> consumer) {
+        this.iterate(() -> this.keyspace.forEach((key, value) -> {
+            if (!(value instanceof MappedSnapshot.Value)) {
+                consumer.accept(key, this.cast(value));
+            }
+        }));
+    }
+
+    @Override public V get(String key) {
+        return this.decode(key, this.keyspace.get(key));
+    }
+
+    /**
+     * Like the other keyspaces, the previous value is returned: it is decoded if it was not
+     */
+    @Override public V put(String key, V value) {
+        return this.decoded(key, this.keyspace.put(key, value));
+    }
+
+    @Override public V remove(String key) {
+        return this.decoded(key, this.keyspace.remove(key));
+    }
+
+    @Override public boolean containsKey(String key) {
+        return this.keyspace.containsKey(key);
+    }
+
+    @Override public int size() {
+        return this.keyspace.size();
+    }
+
+    @Override public void forEach(BiConsumer<String, V> consumer) {
+        this.iterate(() -> this.keyspace.forEach((key, value) -> consumer.accept(key, this.decode(key, value))));
+    }
+
+    @Override public String randomKey(Random random) {
+        return this.keyspace.randomKey(random);
+    }
+
+    @Override public void forEachWithPrefix(String prefix, BiConsumer<String, V> consumer) {
+        this.iterate(() -> this.keyspace.forEachWithPrefix(prefix, (key, value) -> consumer.accept(key, this.decode(key, value))));
+    }
+
+    @Override public long scan(long cursor, int count, String prefix, BiConsumer<String, V> consumer) {
+        long[] next = new long[1];
+        this.iterate(() -> next[0] = this.keyspace.scan(cursor, count, prefix, (key, value) -> consumer.accept(key, this.decode(key, value))));
+        return next[0];
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    /**
+     * @return the decoded value of a key, stored in place of the value of the snapshot
+     */
+    private V decode(String key, Object value) {
+        if (!(value instanceof MappedSnapshot.Value)) {
+            return this.cast(value);
+        }
+        if (this.iterations > 0) {
+            V decoded = this.decoded.get(key);
+            if (decoded == null) {
+                decoded = this.decodeValue(key, (MappedSnapshot.Value) value);
+                this.decoded.put(key, decoded);
+            }
+            return decoded;
+        }
+        V decoded = this.decodeValue(key, (MappedSnapshot.Value) value);
+        this.keyspace.put(key, decoded);
+        this.undecoded--;
+        return decoded;
+    }
+
+    /**
+     * @return the decoded value of a key that has been replaced or removed
+     */
+    private V decoded(String key, Object old) {
+        if (!(old instanceof MappedSnapshot.Value)) {
+            return this.cast(old);
+        }
+        this.undecoded--;
+        V decoded = this.decoded.remove(key);
+        return decoded == null ? this.decodeValue(key, (MappedSnapshot.Value) old) : decoded;
+    }
+
+    /**
+     * @return the decoded value of the snapshot, sealed if the keyspace is frozen
+     */
+    private V decodeValue(String key, MappedSnapshot.Value value) {
+        V decoded = this.decoder.apply(key, value);
+        if (this.sealer != null) {
+            this.sealer.accept(decoded);
+        }
+        return decoded;
+    }
+
+    /**
+     * Runs an iteration of the underlying keyspace, then stores the values that it has decoded
+     */
+    private void iterate(Runnable iteration) {
+        this.iterations++;
+        try {
+            iteration.run();
+        } finally {
+            if (--this.iterations == 0 && !this.decoded.isEmpty()) {
+                for (Map.Entry<String, V> entry : this.decoded.entrySet()) {
+                    this.keyspace.put(entry.getKey(), entry.getValue());
+                    this.undecoded--;
+                }
+                this.decoded.clear();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+        return (V) value;
+    }
+}
@@ -0,0 +1,506 @@
+package com.vdurmont.fakejedis;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Binary snapshot of the databases, made to be memory-mapped: opening a snapshot only reads its keys, and a value is
+ * decoded from the mapped file when it is needed, so that the pages of the values that are never read are never
+ * loaded.
+ * <p>
+ * The file starts with a header (magic, version, and the number of keys and the position of the index of each
+ * database), followed by the values, then by the keys and the index of each database. A value is its type followed by
+ * its strings (for a list, its elements; for a hash, its fields and values), each string being its length in bytes
+ * and its UTF-8 bytes. The keys of a database are stored one after the other, without their length: the index is the
+ * array of the positions of the keys followed by the array of the positions of the values, each with one more
+ * position for the end of the last one. All the numbers are big-endian.
+ * <p>
+ * The file is mapped in segments of 1GB, so that it can be larger than a buffer; the few values that straddle two
+ * segments are copied when they are read. A value can't be larger than 2GB.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class MappedSnapshot {
+    static final int VERSION = 1;
+    static final int TYPE_STRING = 0;
+    static final int TYPE_LIST = 1;
+    static final int TYPE_HASH = 2;
+    static final int SEGMENT_SIZE = 1 << 30;
+    private static final byte[] MAGIC = "FJSNAP".getBytes(StandardCharsets.US_ASCII);
+    // Number of keys that are decoded by each task when the snapshot is loaded
+    private static final int KEYS_PER_TASK = 16 * 1024;
+
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+    private final long size;
+    private final int[] keys;
+    private final long[] indexes;
+    // The values are between the header and the first key
+    private final long valuesStart;
+    private final long valuesEnd;
+
+    /**
+     * Maps a snapshot and reads its header
+     *
+     * @param file the file of the snapshot
+     * @throws IOException if the file can't be read
+     */
+    public MappedSnapshot(Path file) throws IOException {
+        this(file, SEGMENT_SIZE);
+    }
+
+    MappedSnapshot(Path file, int segmentSize) throws IOException {
+        this.segmentSize = segmentSize;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mappings stay valid once the channel is closed
+            this.size = channel.size();
+            int count = (int) ((this.size + segmentSize - 1) / segmentSize);
+            this.segments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = (long) i * segmentSize;
+                this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, this.size - position));
+            }
+        }
+        if (this.size < MAGIC.length + 6) {
+            throw new FakeJedisException("Bad file format reading the snapshot: the file is too short");
+        }
+        ByteBuffer header = this.slice(0, MAGIC.length + 6);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new FakeJedisException("Bad file format reading the snapshot: not a snapshot");
+        }
+        int version = header.getShort();
+        if (version != VERSION) {
+            throw new FakeJedisException("Can't handle the version " + version + " of the snapshot");
+        }
+        int databases = header.getInt();
+        long headerSize = headerSize(databases);
+        if (databases < 0 || headerSize > this.size) {
+            throw new FakeJedisException("Bad file format reading the snapshot: truncated header");
+        }
+        header = this.slice(MAGIC.length + 6, (int) headerSize - MAGIC.length - 6);
+        this.keys = new int[databases];
+        this.indexes = new long[databases];
+        this.valuesStart = headerSize;
+        long valuesEnd = this.size;
+        for (int i = 0; i < databases; i++) {
+            this.keys[i] = header.getInt();
+            this.indexes[i] = header.getLong();
+            if (this.keys[i] < 0 || this.indexes[i] < headerSize || this.indexes[i] + 16l * (this.keys[i] + 1) > this.size) {
+                throw new FakeJedisException("Bad file format reading the snapshot: bad index of the DB " + i);
+            }
+            if (this.keys[i] > 0) {
+                valuesEnd = Math.min(valuesEnd, this.readLong(this.indexes[i]));
+            }
+        }
+        this.valuesEnd = valuesEnd;
+    }
+
+    /**
+     * @return the number of databases of the snapshot
+     */
+    public int databases() {
+        return this.keys.length;
+    }
+
+    /**
+     * @return the number of keys of a database
+     */
+    public int size(int db) {
+        return this.keys[db];
+    }
+
+    /**
+     * Reads the keys of a database. The keys are decoded in parallel, then passed to the consumer one by one, in the
+     * order of the file, with the values that they are associated to.
+     *
+     * @param db       the index of the database
+     * @param consumer the consumer of the keys and of their values, which are not decoded yet
+     */
+    public void load(int db, BiConsumer<String, Value> consumer) {
+        int count = this.keys[db];
+        String[] keys = new String[count];
+        Value[] values = new Value[count];
+        int tasks = (count + KEYS_PER_TASK - 1) / KEYS_PER_TASK;
+        IntStream.range(0, tasks).parallel().forEach(task ->
+                this.index(db, task * KEYS_PER_TASK, Math.min(count, (task + 1) * KEYS_PER_TASK), keys, values));
+        for (int i = 0; i < count; i++) {
+            consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private static long headerSize(int databases) {
+        return MAGIC.length + 6 + 12l * databases;
+    }
+
+    /**
+     * Decodes the keys from index start (inclusive) to index end (exclusive) of a database
+     */
+    private void index(int db, int start, int end, String[] keys, Value[] values) {
+        int count = this.keys[db];
+        long keyOffsets = this.indexes[db];
+        long valueOffsets = keyOffsets + 8l * (count + 1);
+        long keysEnd = keyOffsets;
+        long keyStart = this.readLong(keyOffsets + 8l * start);
+        long valueStart = this.readLong(valueOffsets + 8l * start);
+        // Views of the segments for this task, since the position of a buffer can't be shared between threads
+        ByteBuffer[] views = new ByteBuffer[this.segments.length];
+        for (int i = start; i < end; i++) {
+            long keyEnd = this.readLong(keyOffsets + 8l * (i + 1));
+            long valueEnd = this.readLong(valueOffsets + 8l * (i + 1));
+            if (keyStart < this.valuesEnd || keyEnd < keyStart || keyEnd > keysEnd || keyEnd - keyStart > Integer.MAX_VALUE
+                    || valueStart < this.valuesStart || valueEnd <= valueStart || valueEnd > this.valuesEnd
+                    || valueEnd - valueStart > Integer.MAX_VALUE) {
+                throw new FakeJedisException("Bad file format reading the snapshot: bad position of the key " + i + " of the DB " + db);
+            }
+            byte[] key = new byte[(int) (keyEnd - keyStart)];
+            this.read(views, keyStart, key);
+            keys[i] = new String(key, StandardCharsets.UTF_8);
+            values[i] = new Value(this, valueStart, (int) (valueEnd - valueStart));
+            keyStart = keyEnd;
+            valueStart = valueEnd;
+        }
+    }
+
+    private long readLong(long position) {
+        int segment = (int) (position / this.segmentSize);
+        int offset = (int) (position % this.segmentSize);
+        if (offset + 8 <= this.segments[segment].capacity()) {
+            return this.segments[segment].getLong(offset);
+        }
+        return this.slice(position, 8).getLong();
+    }
+
+    /**
+     * Copies a part of the file, without allocating a buffer
+     */
+    private void read(ByteBuffer[] views, long position, byte[] bytes) {
+        int segment = (int) (position / this.segmentSize);
+        int offset = (int) (position % this.segmentSize);
+        int read = 0;
+        while (read < bytes.length) {
+            if (views[segment] == null) {
+                views[segment] = this.segments[segment].duplicate();
+            }
+            ByteBuffer view = views[segment];
+            int length = Math.min(bytes.length - read, view.capacity() - offset);
+            view.position(offset);
+            view.get(bytes, read, length);
+            read += length;
+            segment++;
+            offset = 0;
+        }
+    }
+
+    /**
+     * @return a buffer over a part of the file, copied if it straddles several segments
+     */
+    private ByteBuffer slice(long position, int length) {
+        int segment = (int) (position / this.segmentSize);
+        int offset = (int) (position % this.segmentSize);
+        ByteBuffer buffer = this.segments[segment].duplicate();
+        if (offset + length <= buffer.capacity()) {
+            buffer.position(offset);
+            buffer.limit(offset + length);
+            return buffer.slice();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        while (copy.hasRemaining()) {
+            buffer.position(offset);
+            buffer.limit(Math.min(buffer.capacity(), offset + copy.remaining()));
+            copy.put(buffer);
+            buffer = this.segments[++segment].duplicate();
+            offset = 0;
+        }
+        copy.flip();
+        return copy;
+    }
+
+    private static String decode(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new FakeJedisException("Bad file format reading the snapshot: bad length of a string");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    /**
+     * A value of the snapshot, that has not been decoded
+     */
+    static final class Value {
+        private final MappedSnapshot snapshot;
+        private final long position;
+        private final int length;
+
+        private Value(MappedSnapshot snapshot, long position, int length) {
+            this.snapshot = snapshot;
+            this.position = position;
+            this.length = length;
+        }
+
+        /**
+         * Decodes the value, like RdbReader decodes a key
+         *
+         * @param key     the key of the value
+         * @param handler the handler of the value
+         */
+        public void read(String key, RdbReader.Handler handler) {
+            ByteBuffer buffer = this.snapshot.slice(this.position, this.length);
+            try {
+                int type = buffer.get();
+                switch (type) {
+                    case TYPE_STRING:
+                        handler.string(key, decode(buffer, buffer.getInt()));
+                        break;
+                    case TYPE_LIST:
+                        int elements = buffer.getInt();
+                        handler.beginList(key);
+                        for (int i = 0; i < elements; i++) {
+                            handler.listElement(decode(buffer, buffer.getInt()));
+                        }
+                        break;
+                    case TYPE_HASH:
+                        int fields = buffer.getInt();
+                        handler.beginHash(key);
+                        for (int i = 0; i < fields; i++) {
+                            handler.hashField(decode(buffer, buffer.getInt()), decode(buffer, buffer.getInt()));
+                        }
+                        break;
+                    default:
+                        throw new FakeJedisException("Bad file format reading the snapshot: unknown type " + type + " of the key " + key);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new FakeJedisException("Bad file format reading the snapshot: truncated value of the key " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Streaming writer of snapshots. The databases must be written in the order of their indexes, and the keys of a
+     * database must not be modified until the end of the file is written. Not thread-safe.
+     */
+    static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final int[] sizes;
+        private final List<List<String>> keys;
+        private final long[][] offsets;
+        // Position in the file of the start of the buffer
+        private long flushed;
+        private int db;
+        private int size;
+
+        /**
+         * @param channel   the channel of the file to write, at its start
+         * @param databases the number of databases
+         */
+        public Writer(FileChannel channel, int databases) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(RdbReader.BUFFER_SIZE);
+            this.sizes = new int[databases];
+            this.keys = new ArrayList<>(databases);
+            this.offsets = new long[databases][];
+            for (int i = 0; i < databases; i++) {
+                this.keys.add(new ArrayList<>());
+                this.offsets[i] = new long[1];
+            }
+            // The header is written at the end
+            this.flushed = headerSize(databases);
+            this.db = -1;
+        }
+
+        /**
+         * Starts the keys of a database
+         */
+        public void selectDb(int index, int size) {
+            if (index <= this.db) {
+                throw new IllegalStateException("The databases must be written in the order of their indexes");
+            }
+            this.end();
+            this.db = index;
+            this.offsets[index] = new long[size + 1];
+            this.size = 0;
+        }
+
+        public void string(String key, String value) {
+            this.begin(key, TYPE_STRING);
+            this.writeString(value);
+        }
+
+        /**
+         * Starts a list, followed by its elements
+         */
+        public void beginList(String key, int size) {
+            this.begin(key, TYPE_LIST);
+            this.putInt(size);
+        }
+
+        public void listElement(String element) {
+            this.writeString(element);
+        }
+
+        /**
+         * Starts a hash, followed by its fields
+         */
+        public void beginHash(String key, int size) {
+            this.begin(key, TYPE_HASH);
+            this.putInt(size);
+        }
+
+        public void hashField(String field, String value) {
+            this.writeString(field);
+            this.writeString(value);
+        }
+
+        /**
+         * Writes the keys and the indexes, then the header
+         */
+        public void finish() {
+            this.end();
+            long[] indexes = new long[this.sizes.length];
+            for (int i = 0; i < this.sizes.length; i++) {
+                List<String> keys = this.keys.get(i);
+                long[] keyOffsets = new long[keys.size() + 1];
+                for (int j = 0; j < keys.size(); j++) {
+                    keyOffsets[j] = this.position();
+                    this.writeBytes(keys.get(j).getBytes(StandardCharsets.UTF_8));
+                }
+                keyOffsets[keys.size()] = this.position();
+                indexes[i] = this.position();
+                for (long offset : keyOffsets) {
+                    this.putLong(offset);
+                }
+                long[] valueOffsets = this.offsets[i];
+                for (int j = 0; j <= keys.size(); j++) {
+                    this.putLong(valueOffsets[j]);
+                }
+            }
+            this.flush();
+            this.buffer.put(MAGIC).putShort((short) VERSION).putInt(this.sizes.length);
+            for (int i = 0; i < this.sizes.length; i++) {
+                this.buffer.putInt(this.sizes[i]).putLong(indexes[i]);
+            }
+            this.buffer.flip();
+            try {
+                long position = 0;
+                while (this.buffer.hasRemaining()) {
+                    position += this.channel.write(this.buffer, position);
+                }
+            } catch (IOException e) {
+                throw new FakeJedisException("Cannot write the snapshot", e);
+            }
+            this.buffer.clear();
+        }
+
+        // //////////////////////
+        // PRIVATE TOOLS
+        // //////////////
+
+        private void begin(String key, int type) {
+            if (this.size == this.offsets[this.db].length - 1) {
+                throw new IllegalStateException("More keys than announced in the DB " + this.db);
+            }
+            this.checkLength();
+            this.offsets[this.db][this.size++] = this.position();
+            this.keys.get(this.db).add(key);
+            this.put(type);
+        }
+
+        /**
+         * Ends the values of the current database
+         */
+        private void end() {
+            if (this.db < 0) {
+                return;
+            }
+            if (this.size != this.offsets[this.db].length - 1) {
+                throw new IllegalStateException("Fewer keys than announced in the DB " + this.db);
+            }
+            this.checkLength();
+            this.offsets[this.db][this.size] = this.position();
+            this.sizes[this.db] = this.size;
+        }
+
+        /**
+         * Checks that the last value can be mapped in a buffer
+         */
+        private void checkLength() {
+            if (this.size > 0 && this.position() - this.offsets[this.db][this.size - 1] > Integer.MAX_VALUE) {
+                throw new FakeJedisException("The value of the key " + this.keys.get(this.db).get(this.size - 1) + " is too large for a snapshot");
+            }
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.putInt(bytes.length);
+            this.writeBytes(bytes);
+        }
+
+        private void put(int b) {
+            this.ensure(1);
+            this.buffer.put((byte) b);
+        }
+
+        private void putInt(int value) {
+            this.ensure(4);
+            this.buffer.putInt(value);
+        }
+
+        private void putLong(long value) {
+            this.ensure(8);
+            this.buffer.putLong(value);
+        }
+
+        private void writeBytes(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                this.ensure(1);
+                int chunk = Math.min(this.buffer.remaining(), bytes.length - offset);
+                this.buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        private long position() {
+            return this.flushed + this.buffer.position();
+        }
+
+        private void ensure(int n) {
+            if (this.buffer.remaining() < n) {
+                this.flush();
+            }
+        }
+
+        private void flush() {
+            this.buffer.flip();
+            try {
+                while (this.buffer.hasRemaining()) {
+                    this.flushed += this.channel.write(this.buffer, this.flushed);
+                }
+            } catch (IOException e) {
+                throw new FakeJedisException("Cannot write the snapshot", e);
+            }
+            this.buffer.clear();
+        }
+    }
+}
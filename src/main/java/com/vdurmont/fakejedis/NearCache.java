@@ -0,0 +1,188 @@
+package com.vdurmont.fakejedis;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client-side cache of the strings and hashes of a {@link FakeJedis}, kept up to date by the client tracking, like the
+ * client-side caching of the redis clients.
+ * <p>
+ * The cache reads the database that its FakeJedis has selected when the cache is created, with its own client that
+ * tracks the keys it reads. A read is served from the cache until the key is modified by any client; then the key is
+ * dropped from the cache and the next read goes to the fake again. A hit does not take the lock of the server. The
+ * number of cached keys is bounded: when the cache is full, an arbitrary key is evicted. Thread-safe.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+public class NearCache implements Closeable {
+    private static final int DEFAULT_MAX_KEYS = 10000;
+
+    private final FakeJedis client;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder invalidations;
+
+    /**
+     * @param jedis the fake to cache
+     */
+    public NearCache(FakeJedis jedis) {
+        this(jedis, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param jedis   the fake to cache
+     * @param maxKeys the maximum number of cached keys
+     */
+    public NearCache(FakeJedis jedis, int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one key");
+        }
+        this.maxKeys = maxKeys;
+        this.entries = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.invalidations = new LongAdder();
+        this.client = jedis.newClient();
+        this.client.select(jedis.getDB().intValue());
+        this.client.clientTrackingOn(this::invalidate);
+    }
+
+    /**
+     * Like GET, served from the cache if possible
+     */
+    public String get(String key) {
+        Entry entry = this.entries.get(key);
+        Optional<String> cached = entry == null ? null : entry.string;
+        if (cached != null) {
+            this.hits.increment();
+            return cached.orElse(null);
+        }
+        this.misses.increment();
+        // The read and the caching are atomic: no invalidation can be missed in between
+        synchronized (this.client.LOCK) {
+            String value = this.client.get(key);
+            this.entry(key).string = Optional.ofNullable(value);
+            return value;
+        }
+    }
+
+    /**
+     * Like HGET, served from the cache if possible
+     */
+    public String hget(String key, String field) {
+        Entry entry = this.entries.get(key);
+        if (entry != null) {
+            Map<String, String> hash = entry.hash;
+            Optional<String> cached = hash == null ? entry.fields.get(field) : Optional.ofNullable(hash.get(field));
+            if (cached != null) {
+                this.hits.increment();
+                return cached.orElse(null);
+            }
+        }
+        this.misses.increment();
+        synchronized (this.client.LOCK) {
+            String value = this.client.hget(key, field);
+            this.entry(key).fields.put(field, Optional.ofNullable(value));
+            return value;
+        }
+    }
+
+    /**
+     * Like HGETALL, served from the cache if possible
+     *
+     * @return a copy of the hash
+     */
+    public Map<String, String> hgetAll(String key) {
+        Entry entry = this.entries.get(key);
+        Map<String, String> cached = entry == null ? null : entry.hash;
+        if (cached != null) {
+            this.hits.increment();
+            return new HashMap<>(cached);
+        }
+        this.misses.increment();
+        synchronized (this.client.LOCK) {
+            Map<String, String> hash = this.client.hgetAll(key);
+            this.entry(key).hash = hash;
+            return new HashMap<>(hash);
+        }
+    }
+
+    /**
+     * @return the number of hits, misses and invalidated keys, the number of cached keys and the hit ratio
+     */
+    public Map<String, Number> getStats() {
+        long hits = this.hits.sum();
+        long misses = this.misses.sum();
+        Map<String, Number> stats = new TreeMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("invalidations", this.invalidations.sum());
+        stats.put("keys", this.entries.size());
+        stats.put("hit_ratio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    /**
+     * Stops the tracking and empties the cache
+     */
+    @Override public void close() {
+        this.client.clientTrackingOff();
+        this.entries.clear();
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    /**
+     * @return the entry of a key, created if needed (under the lock of the server)
+     */
+    private Entry entry(String key) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            if (this.entries.size() >= this.maxKeys) {
+                Iterator<String> keys = this.entries.keySet().iterator();
+                if (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                }
+            }
+            entry = new Entry();
+            this.entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Called under the lock of the server when a cached key is modified, or with null when the databases are flushed
+     */
+    private void invalidate(String key) {
+        if (key == null) {
+            this.invalidations.add(this.entries.size());
+            this.entries.clear();
+        } else if (this.entries.remove(key) != null) {
+            this.invalidations.increment();
+        }
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    private static class Entry {
+        // Value of the string, null if it has not been read
+        private volatile Optional<String> string;
+        // Whole hash, null if it has not been read
+        private volatile Map<String, String> hash;
+        // Fields of the hash that have been read one by one
+        private final ConcurrentHashMap<String, Optional<String>> fields = new ConcurrentHashMap<>();
+    }
+}
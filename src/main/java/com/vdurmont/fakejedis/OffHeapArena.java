@@ -0,0 +1,180 @@
+package com.vdurmont.fakejedis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Allocator of byte blocks outside of the java heap, in direct {@link ByteBuffer} slabs.
+ * <p>
+ * The sizes are rounded up to a power of two size class (from 64 bytes to the size of a slab). Each size class carves
+ * its blocks from its own slabs and keeps the freed blocks in a free list, so that they are reused by the next
+ * allocations of the class. The blocks that are bigger than a slab get a dedicated buffer, that is dropped when they
+ * are freed.
+ * <p>
+ * A block is identified by a handle (the index of its buffer and its offset in the buffer). Not thread-safe.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class OffHeapArena {
+    static final int SLAB_SIZE = 1024 * 1024;
+    private static final int MIN_CLASS_SHIFT = 6;
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(SLAB_SIZE) - MIN_CLASS_SHIFT + 1;
+
+    private final List<ByteBuffer> buffers;
+    // Indexes of the dropped dedicated buffers, to reuse them
+    private final List<Integer> freeBufferIndexes;
+    private final ClassState[] classes;
+    private long usedBytes;
+    private long reservedBytes;
+
+    public OffHeapArena() {
+        this.buffers = new ArrayList<>();
+        this.freeBufferIndexes = new ArrayList<>();
+        this.classes = new ClassState[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            this.classes[i] = new ClassState();
+        }
+    }
+
+    /**
+     * @return the size of the block that is allocated for the given size
+     */
+    public static int capacityFor(int size) {
+        if (size > SLAB_SIZE) {
+            return size;
+        }
+        return Math.max(1 << MIN_CLASS_SHIFT, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+    }
+
+    /**
+     * Allocates a block of at least the given size. Its content is undefined.
+     *
+     * @return the handle of the block
+     */
+    public long allocate(int size) {
+        int capacity = capacityFor(size);
+        this.usedBytes += capacity;
+        if (capacity > SLAB_SIZE) {
+            this.reservedBytes += capacity;
+            return handle(this.addBuffer(ByteBuffer.allocateDirect(capacity)), 0);
+        }
+        ClassState state = this.classes[classOf(capacity)];
+        if (state.freeCount > 0) {
+            return state.free[--state.freeCount];
+        }
+        if (state.slab < 0 || state.offset + capacity > SLAB_SIZE) {
+            this.reservedBytes += SLAB_SIZE;
+            state.slab = this.addBuffer(ByteBuffer.allocateDirect(SLAB_SIZE));
+            state.offset = 0;
+        }
+        long handle = handle(state.slab, state.offset);
+        state.offset += capacity;
+        return handle;
+    }
+
+    /**
+     * Frees a block
+     *
+     * @param capacity the capacity of the block, as returned by {@link #capacityFor(int)}
+     */
+    public void free(long handle, int capacity) {
+        this.usedBytes -= capacity;
+        if (capacity > SLAB_SIZE) {
+            int index = (int) (handle >>> 32);
+            this.buffers.set(index, null);
+            this.freeBufferIndexes.add(index);
+            this.reservedBytes -= capacity;
+            return;
+        }
+        ClassState state = this.classes[classOf(capacity)];
+        if (state.freeCount == state.free.length) {
+            state.free = Arrays.copyOf(state.free, 2 * state.free.length);
+        }
+        state.free[state.freeCount++] = handle;
+    }
+
+    public void write(long handle, int position, byte[] src, int offset, int length) {
+        ByteBuffer view = this.view(handle, position);
+        view.put(src, offset, length);
+    }
+
+    public void read(long handle, int position, byte[] dst, int offset, int length) {
+        ByteBuffer view = this.view(handle, position);
+        view.get(dst, offset, length);
+    }
+
+    /**
+     * Copies bytes from a block to another one
+     */
+    public void copy(long from, long to, int length) {
+        ByteBuffer source = this.view(from, 0);
+        source.limit(source.position() + length);
+        this.view(to, 0).put(source);
+    }
+
+    /**
+     * Writes zeros in a block
+     */
+    public void fill(long handle, int position, int length) {
+        ByteBuffer view = this.view(handle, position);
+        for (int i = 0; i < length; i++) {
+            view.put((byte) 0);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the allocated blocks
+     */
+    public long usedBytes() {
+        return this.usedBytes;
+    }
+
+    /**
+     * @return the number of bytes of the direct buffers
+     */
+    public long reservedBytes() {
+        return this.reservedBytes;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private ByteBuffer view(long handle, int position) {
+        ByteBuffer view = this.buffers.get((int) (handle >>> 32)).duplicate();
+        view.position((int) handle + position);
+        return view;
+    }
+
+    private int addBuffer(ByteBuffer buffer) {
+        if (this.freeBufferIndexes.isEmpty()) {
+            this.buffers.add(buffer);
+            return this.buffers.size() - 1;
+        }
+        int index = this.freeBufferIndexes.remove(this.freeBufferIndexes.size() - 1);
+        this.buffers.set(index, buffer);
+        return index;
+    }
+
+    private static int classOf(int capacity) {
+        return Integer.numberOfTrailingZeros(capacity) - MIN_CLASS_SHIFT;
+    }
+
+    private static long handle(int bufferIndex, int offset) {
+        return ((long) bufferIndex << 32) | offset;
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    private static class ClassState {
+        // Slab in which the new blocks are carved, -1 if none
+        private int slab = -1;
+        private int offset;
+        private long[] free = new long[16];
+        private int freeCount;
+    }
+}
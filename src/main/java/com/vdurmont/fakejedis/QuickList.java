@@ -0,0 +1,586 @@
+package com.vdurmont.fakejedis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * List of strings that mimics the redis quicklist: a doubly linked list of nodes, each node holding a small array of
+ * elements.
+ * <p>
+ * Pushing and popping at both ends is O(1), positional accesses skip whole nodes and start from the closest end, and
+ * trimming drops whole nodes. Indexes are always in [0, size).
+ * <p>
+ * Like list-compress-depth, the nodes that are more than {@code compressDepth} nodes away from both ends can be
+ * stored compressed. They are decompressed when an operation modifies them, and only decoded into a temporary array
+ * when they are read. The nodes at the ends are never compressed, so pushing and popping keep their cost.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class QuickList {
+    static final int NODE_CAPACITY = 128;
+
+    private Node head;
+    private Node tail;
+    private long size;
+    private int compressDepth;
+    private ValueCompressor compressor;
+
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * @param depth the number of nodes that are never compressed at each end of the list, 0 to disable the compression
+     */
+    public void setCompressDepth(int depth, ValueCompressor compressor) {
+        if (depth == this.compressDepth) {
+            return;
+        }
+        this.compressDepth = depth;
+        if (compressor != null) {
+            // The current compressor is still needed to decompress the nodes
+            this.compressor = compressor;
+        }
+        int nodes = 0;
+        for (Node node = this.head; node != null; node = node.next) {
+            nodes++;
+        }
+        int index = 0;
+        for (Node node = this.head; node != null; node = node.next) {
+            if (depth > 0 && index >= depth && index < nodes - depth) {
+                this.compress(node);
+            } else {
+                this.decompress(node);
+            }
+            index++;
+        }
+    }
+
+    /**
+     * @return the number of compressed nodes
+     */
+    int compressedNodes() {
+        int count = 0;
+        for (Node node = this.head; node != null; node = node.next) {
+            if (node.compressed != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void addFirst(String element) {
+        Node node = this.head;
+        if (node == null || node.start == 0) {
+            if (node != null && node.count < NODE_CAPACITY) {
+                node.moveTo(NODE_CAPACITY - node.count);
+            } else {
+                node = new Node(NODE_CAPACITY);
+                this.linkBefore(node, this.head);
+            }
+        }
+        node.entries[--node.start] = element;
+        node.count++;
+        this.size++;
+        this.compressEnds();
+    }
+
+    public void addLast(String element) {
+        Node node = this.tail;
+        if (node == null || node.start + node.count == NODE_CAPACITY) {
+            if (node != null && node.count < NODE_CAPACITY) {
+                node.moveTo(0);
+            } else {
+                node = new Node(0);
+                this.linkAfter(node, this.tail);
+            }
+        }
+        node.entries[node.start + node.count] = element;
+        node.count++;
+        this.size++;
+        this.compressEnds();
+    }
+
+    public String pollFirst() {
+        Node node = this.head;
+        if (node == null) {
+            return null;
+        }
+        String element = node.entries[node.start];
+        node.entries[node.start] = null;
+        node.start++;
+        this.removed(node, 1);
+        this.compressEnds();
+        return element;
+    }
+
+    public String pollLast() {
+        Node node = this.tail;
+        if (node == null) {
+            return null;
+        }
+        int index = node.start + node.count - 1;
+        String element = node.entries[index];
+        node.entries[index] = null;
+        this.removed(node, 1);
+        this.compressEnds();
+        return element;
+    }
+
+    public String get(long index) {
+        Position position = this.locate(index);
+        return this.read(position.node)[position.node.start + position.offset];
+    }
+
+    public void set(long index, String element) {
+        Position position = this.locate(index);
+        this.decompress(position.node);
+        position.node.entries[position.node.start + position.offset] = element;
+        this.recompress(position.node);
+    }
+
+    /**
+     * Inserts an element before or after the first occurrence of the pivot.
+     *
+     * @return true if the pivot was found
+     */
+    public boolean insert(String pivot, String element, boolean after) {
+        for (Node node = this.head; node != null; node = node.next) {
+            String[] entries = this.read(node);
+            for (int i = 0; i < node.count; i++) {
+                if (pivot.equals(entries[node.start + i])) {
+                    this.decompress(node);
+                    this.insertAt(node, after ? i + 1 : i, element);
+                    // The node may have been split
+                    Node next = node.next;
+                    this.recompress(node);
+                    if (next != null) {
+                        this.recompress(next);
+                    }
+                    this.compressEnds();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the occurrences of an element, like LREM.
+     *
+     * @param count the maximum number of elements to remove (0 for all), from the tail if negative
+     *
+     * @return the number of removed elements
+     */
+    public long remove(long count, String element) {
+        long max = count == 0 ? Long.MAX_VALUE : Math.abs(count);
+        long removed = 0;
+        Node node = count < 0 ? this.tail : this.head;
+        while (node != null && removed < max) {
+            Node following = count < 0 ? node.prev : node.next;
+            if (node.compressed != null && !this.contains(node, element)) {
+                // Don't decompress the nodes that are not modified
+                node = following;
+                continue;
+            }
+            this.decompress(node);
+            int nodeRemoved = count < 0 ? node.removeBackward(element, max - removed) : node.removeForward(element, max - removed);
+            if (nodeRemoved > 0) {
+                this.removed(node, nodeRemoved);
+                removed += nodeRemoved;
+            }
+            if (node.count > 0) {
+                this.recompress(node);
+            }
+            node = following;
+        }
+        this.compressEnds();
+        return removed;
+    }
+
+    /**
+     * Only keeps the elements between start and end (included). Whole nodes are dropped without being visited.
+     */
+    public void trim(long start, long end) {
+        if (start > end || start >= this.size) {
+            this.head = null;
+            this.tail = null;
+            this.size = 0;
+            return;
+        }
+        end = Math.min(end, this.size - 1);
+        long fromTail = this.size - 1 - end;
+
+        // Drop the head
+        while (start >= this.head.count) {
+            start -= this.head.count;
+            this.size -= this.head.count;
+            this.unlink(this.head);
+        }
+        if (start > 0) {
+            Node node = this.head;
+            this.decompress(node);
+            for (int i = 0; i < start; i++) {
+                node.entries[node.start + i] = null;
+            }
+            node.start += (int) start;
+            node.count -= (int) start;
+            this.size -= start;
+        }
+
+        // Drop the tail
+        while (fromTail >= this.tail.count) {
+            fromTail -= this.tail.count;
+            this.size -= this.tail.count;
+            this.unlink(this.tail);
+        }
+        if (fromTail > 0) {
+            Node node = this.tail;
+            this.decompress(node);
+            for (int i = 0; i < fromTail; i++) {
+                node.entries[node.start + node.count - 1 - i] = null;
+            }
+            node.count -= (int) fromTail;
+            this.size -= fromTail;
+        }
+        this.compressEnds();
+    }
+
+    /**
+     * Visits the elements between from and to (included).
+     */
+    public void forEach(long from, long to, Consumer<String> consumer) {
+        if (from > to) {
+            return;
+        }
+        Position position = this.locate(from);
+        Node node = position.node;
+        String[] entries = this.read(node);
+        int offset = position.offset;
+        for (long i = from; i <= to; i++) {
+            if (offset == node.count) {
+                node = node.next;
+                entries = this.read(node);
+                offset = 0;
+            }
+            consumer.accept(entries[node.start + offset]);
+            offset++;
+        }
+    }
+
+    public List<String> range(long from, long to) {
+        List<String> list = new ArrayList<>((int) Math.max(0, to - from + 1));
+        this.forEach(from, to, list::add);
+        return list;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private Position locate(long index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        if (index < this.size / 2) {
+            Node node = this.head;
+            while (index >= node.count) {
+                index -= node.count;
+                node = node.next;
+            }
+            return new Position(node, (int) index);
+        } else {
+            long fromTail = this.size - 1 - index;
+            Node node = this.tail;
+            while (fromTail >= node.count) {
+                fromTail -= node.count;
+                node = node.prev;
+            }
+            return new Position(node, node.count - 1 - (int) fromTail);
+        }
+    }
+
+    private void insertAt(Node node, int offset, String element) {
+        if (node.count == NODE_CAPACITY) {
+            // Split the node in two halves
+            int half = NODE_CAPACITY / 2;
+            Node right = new Node(0);
+            System.arraycopy(node.entries, node.start + half, right.entries, 0, node.count - half);
+            for (int i = half; i < node.count; i++) {
+                node.entries[node.start + i] = null;
+            }
+            right.count = node.count - half;
+            node.count = half;
+            this.linkAfter(right, node);
+            if (offset > half) {
+                node = right;
+                offset -= half;
+            }
+        }
+        if (node.start + node.count == NODE_CAPACITY) {
+            node.moveTo(0);
+        }
+        int index = node.start + offset;
+        System.arraycopy(node.entries, index, node.entries, index + 1, node.count - offset);
+        node.entries[index] = element;
+        node.count++;
+        this.size++;
+    }
+
+    /**
+     * @return the entries of a node, decoded in a temporary array if the node is compressed
+     */
+    private String[] read(Node node) {
+        return node.compressed == null ? node.entries : this.decode(node);
+    }
+
+    private boolean contains(Node node, String element) {
+        String[] entries = this.read(node);
+        for (int i = 0; i < node.count; i++) {
+            if (Objects.equals(element, entries[node.start + i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes sure that the nodes at the ends are not compressed and that the nodes that are now in the interior of the
+     * list are. Only the nodes that are close to the ends can have moved.
+     */
+    private void compressEnds() {
+        if (this.compressDepth == 0) {
+            return;
+        }
+        Node fromHead = this.head;
+        Node fromTail = this.tail;
+        for (int i = 0; i < this.compressDepth && fromHead != null; i++) {
+            this.decompress(fromHead);
+            this.decompress(fromTail);
+            fromHead = fromHead.next;
+            fromTail = fromTail.prev;
+        }
+        if (fromHead != null) {
+            this.recompress(fromHead);
+            this.recompress(fromTail);
+        }
+    }
+
+    /**
+     * Compresses a node again after it has been modified, if it is in the interior of the list
+     */
+    private void recompress(Node node) {
+        if (this.compressDepth == 0 || node.compressed != null) {
+            return;
+        }
+        Node fromHead = this.head;
+        Node fromTail = this.tail;
+        for (int i = 0; i < this.compressDepth && fromHead != null; i++) {
+            if (fromHead == node || fromTail == node) {
+                return;
+            }
+            fromHead = fromHead.next;
+            fromTail = fromTail.prev;
+        }
+        this.compress(node);
+    }
+
+    private void compress(Node node) {
+        if (node.compressed != null || node.incompressible || node.count == 0) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (int i = 0; i < node.count; i++) {
+                byte[] element = node.entries[node.start + i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(element.length);
+                out.write(element);
+            }
+        } catch (IOException e) {
+            throw new FakeJedisException("Failed to compress a list node", e);
+        }
+        byte[] compressed = this.compressor.compress(bytes.toByteArray());
+        if (compressed != null) {
+            node.compressed = compressed;
+            node.entries = null;
+        } else {
+            node.incompressible = true;
+        }
+    }
+
+    /**
+     * Called before a node is modified
+     */
+    private void decompress(Node node) {
+        if (node.compressed != null) {
+            node.entries = this.decode(node);
+            node.compressed = null;
+        }
+        // The node may be worth compressing once modified
+        node.incompressible = false;
+    }
+
+    private String[] decode(Node node) {
+        String[] entries = new String[NODE_CAPACITY];
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(this.compressor.inflate(node.compressed)))) {
+            for (int i = 0; i < node.count; i++) {
+                byte[] element = new byte[in.readInt()];
+                in.readFully(element);
+                entries[node.start + i] = new String(element, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new FakeJedisException("Failed to decompress a list node", e);
+        }
+        return entries;
+    }
+
+    private void removed(Node node, int count) {
+        node.count -= count;
+        this.size -= count;
+        if (node.count == 0) {
+            this.unlink(node);
+        }
+    }
+
+    private void linkBefore(Node node, Node next) {
+        node.next = next;
+        if (next == null) {
+            node.prev = this.tail;
+            if (this.tail == null) {
+                this.head = node;
+            } else {
+                this.tail.next = node;
+            }
+            this.tail = node;
+        } else {
+            node.prev = next.prev;
+            if (next.prev == null) {
+                this.head = node;
+            } else {
+                next.prev.next = node;
+            }
+            next.prev = node;
+        }
+    }
+
+    private void linkAfter(Node node, Node prev) {
+        if (prev == null) {
+            this.linkBefore(node, this.head);
+        } else {
+            this.linkBefore(node, prev.next);
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            this.head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            this.tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    private static class Node {
+        private Node prev;
+        private Node next;
+        private String[] entries;
+        // Compressed entries, when not null (the entries are then null)
+        private byte[] compressed;
+        // True if the compression of the node has failed: it is not compressed again until it is modified
+        private boolean incompressible;
+        private int start;
+        private int count;
+
+        private Node(int start) {
+            this.entries = new String[NODE_CAPACITY];
+            this.start = start;
+        }
+
+        /**
+         * Moves the elements so that the first one is at the given index
+         */
+        private void moveTo(int newStart) {
+            System.arraycopy(this.entries, this.start, this.entries, newStart, this.count);
+            if (newStart > this.start) {
+                for (int i = this.start; i < Math.min(newStart, this.start + this.count); i++) {
+                    this.entries[i] = null;
+                }
+            } else {
+                for (int i = Math.max(newStart + this.count, this.start); i < this.start + this.count; i++) {
+                    this.entries[i] = null;
+                }
+            }
+            this.start = newStart;
+        }
+
+        /**
+         * Removes at most max occurrences of an element, from the head. The count is not updated.
+         */
+        private int removeForward(String element, long max) {
+            int removed = 0;
+            int write = this.start;
+            for (int read = this.start; read < this.start + this.count; read++) {
+                String current = this.entries[read];
+                if (removed < max && Objects.equals(element, current)) {
+                    removed++;
+                } else {
+                    this.entries[write++] = current;
+                }
+            }
+            for (int i = write; i < this.start + this.count; i++) {
+                this.entries[i] = null;
+            }
+            return removed;
+        }
+
+        /**
+         * Removes at most max occurrences of an element, from the tail. The count is not updated.
+         */
+        private int removeBackward(String element, long max) {
+            int removed = 0;
+            int end = this.start + this.count;
+            int write = end - 1;
+            for (int read = end - 1; read >= this.start; read--) {
+                String current = this.entries[read];
+                if (removed < max && Objects.equals(element, current)) {
+                    removed++;
+                } else {
+                    this.entries[write--] = current;
+                }
+            }
+            for (int i = this.start; i <= write; i++) {
+                this.entries[i] = null;
+            }
+            this.start = write + 1;
+            return removed;
+        }
+    }
+
+    private static class Position {
+        private final Node node;
+        private final int offset;
+
+        private Position(Node node, int offset) {
+            this.node = node;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.vdurmont.fakejedis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Keyspace backed by a radix tree with path compression: a chain of nodes with a single child is collapsed into one
+ * node, so the common prefixes of structured keys ({@code user:42:profile}, {@code user:42:session}...) are stored
+ * once and the keys are never stored as whole strings.
+ * <p>
+ * The children of a node are kept in sorted arrays whose capacity adapts to the number of children (4, 16, 48, then
+ * doubling), and every node knows the number of keys in its subtree. The keys are iterated in lexicographic order and
+ * the iterations restricted to a prefix only visit the matching subtree.
+ *
+ * @param <V> the type of the values
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class RadixKeyspace<V> implements Keyspace<V> {
+    private static final char[] EMPTY = new char[0];
+    private static final int MAX_CURSORS = 1024;
+
+    private final Node root;
+    // SCAN cursors, mapped to the last key that they returned
+    private final Map<Long, String> cursors;
+    private long nextCursor;
+
+    public RadixKeyspace() {
+        this.root = new Node(EMPTY);
+        this.cursors = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return this.size() > MAX_CURSORS;
+            }
+        };
+        this.nextCursor = 1;
+    }
+
+    @Override public V get(String key) {
+        Node node = this.find(key);
+        if (node == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        V value = (V) node.value;
+        return value;
+    }
+
+    @Override public V put(String key, V value) {
+        List<Node> path = new ArrayList<>();
+        Node parent = null;
+        Node node = this.root;
+        int i = 0;
+        while (true) {
+            int matched = node.match(key, i);
+            if (matched < node.prefix.length) {
+                // The key diverges in the middle of the prefix of the node: split it
+                Node split = new Node(Arrays.copyOf(node.prefix, matched));
+                char label = node.prefix[matched];
+                node.prefix = Arrays.copyOfRange(node.prefix, matched + 1, node.prefix.length);
+                split.addChild(label, node);
+                split.size = node.size;
+                parent.replaceChild(key.charAt(i - 1), split);
+                node = split;
+            }
+            i += matched;
+            if (i == key.length()) {
+                if (node.value != null) {
+                    @SuppressWarnings("unchecked")
+                    V old = (V) node.value;
+                    node.value = value;
+                    return old;
+                }
+                node.value = value;
+                break;
+            }
+            char label = key.charAt(i);
+            Node child = node.getChild(label);
+            if (child == null) {
+                Node leaf = new Node(key.substring(i + 1).toCharArray());
+                leaf.value = value;
+                leaf.size = 1;
+                node.addChild(label, leaf);
+                break;
+            }
+            path.add(node);
+            parent = node;
+            node = child;
+            i++;
+        }
+        // A new key has been added
+        node.size++;
+        for (Node ancestor : path) {
+            ancestor.size++;
+        }
+        return null;
+    }
+
+    @Override public V remove(String key) {
+        List<Node> path = new ArrayList<>();
+        List<Character> labels = new ArrayList<>();
+        Node node = this.root;
+        int i = 0;
+        while (true) {
+            int matched = node.match(key, i);
+            if (matched < node.prefix.length) {
+                return null;
+            }
+            i += matched;
+            if (i == key.length()) {
+                break;
+            }
+            Node child = node.getChild(key.charAt(i));
+            if (child == null) {
+                return null;
+            }
+            path.add(node);
+            labels.add(key.charAt(i));
+            node = child;
+            i++;
+        }
+        if (node.value == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        V old = (V) node.value;
+        node.value = null;
+        node.size--;
+        for (Node ancestor : path) {
+            ancestor.size--;
+        }
+
+        // Keep the tree compressed
+        if (node != this.root) {
+            Node parent = path.get(path.size() - 1);
+            char label = labels.get(labels.size() - 1);
+            if (node.childCount == 0) {
+                parent.removeChild(label);
+                if (parent != this.root && parent.value == null && parent.childCount == 1) {
+                    Node grandParent = path.get(path.size() - 2);
+                    grandParent.replaceChild(labels.get(labels.size() - 2), parent.mergeWithChild());
+                }
+            } else if (node.childCount == 1) {
+                parent.replaceChild(label, node.mergeWithChild());
+            }
+        }
+        return old;
+    }
+
+    @Override public boolean containsKey(String key) {
+        return this.find(key) != null;
+    }
+
+    @Override public int size() {
+        return this.root.size;
+    }
+
+    @Override public void forEach(BiConsumer<String, V> consumer) {
+        this.forEachWithPrefix("", consumer);
+    }
+
+    /**
+     * Descends from the root, choosing each child with a probability proportional to the size of its subtree
+     */
+    @Override public String randomKey(Random random) {
+        if (this.root.size == 0) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        Node node = this.root;
+        int rank = random.nextInt(this.root.size);
+        while (true) {
+            key.append(node.prefix);
+            if (node.value != null) {
+                if (rank == 0) {
+                    return key.toString();
+                }
+                rank--;
+            }
+            for (int i = 0; i < node.childCount; i++) {
+                Node child = node.children[i];
+                if (rank < child.size) {
+                    key.append(node.labels[i]);
+                    node = child;
+                    break;
+                }
+                rank -= child.size;
+            }
+        }
+    }
+
+    @Override public void forEachWithPrefix(String prefix, BiConsumer<String, V> consumer) {
+        this.iterate(prefix, null, Integer.MAX_VALUE, consumer);
+    }
+
+    /**
+     * The cursors are handles on the last visited key: the iteration resumes right after it, in lexicographic order,
+     * even if keys have been added or removed in between. If the cursor is unknown (too many iterations are in
+     * progress), the iteration starts over.
+     */
+    @Override public long scan(long cursor, int count, String prefix, BiConsumer<String, V> consumer) {
+        String after = cursor == 0 ? null : this.cursors.remove(cursor);
+        String last = this.iterate(prefix, after, count, consumer);
+        if (last == null) {
+            return 0;
+        }
+        long next = this.nextCursor++;
+        this.cursors.put(next, last);
+        return next;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private Node find(String key) {
+        Node node = this.root;
+        int i = 0;
+        while (true) {
+            int matched = node.match(key, i);
+            if (matched < node.prefix.length) {
+                return null;
+            }
+            i += matched;
+            if (i == key.length()) {
+                return node.value == null ? null : node;
+            }
+            node = node.getChild(key.charAt(i));
+            if (node == null) {
+                return null;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Visits, in lexicographic order, at most {@code count} keys that start with the prefix and are greater than
+     * {@code after} (if not null).
+     *
+     * @return the last visited key if the iteration has been stopped by the count, null if it is complete
+     */
+    private String iterate(String prefix, String after, int count, BiConsumer<String, V> consumer) {
+        // Find the subtree of the prefix
+        StringBuilder path = new StringBuilder(prefix.length() + 16);
+        Node node = this.root;
+        int i = 0;
+        while (true) {
+            int matched = node.match(prefix, i);
+            path.append(node.prefix);
+            i += matched;
+            if (i == prefix.length()) {
+                break;
+            }
+            if (matched < node.prefix.length) {
+                return null;
+            }
+            Node child = node.getChild(prefix.charAt(i));
+            if (child == null) {
+                return null;
+            }
+            path.append(prefix.charAt(i));
+            node = child;
+            i++;
+        }
+
+        // Depth-first traversal, the children being sorted
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        nodes.add(node);
+        positions.add(-1);
+        lengths.add(path.length());
+        int visited = 0;
+        while (!nodes.isEmpty()) {
+            int top = nodes.size() - 1;
+            Node current = nodes.get(top);
+            int position = positions.get(top);
+            path.setLength(lengths.get(top));
+            if (position == -1) {
+                positions.set(top, 0);
+                if (after != null && !isCandidate(path, after)) {
+                    // The whole subtree is before the cursor
+                    nodes.remove(top);
+                    positions.remove(top);
+                    lengths.remove(top);
+                    continue;
+                }
+                if (current.value != null && (after == null || compare(path, after) > 0)) {
+                    if (visited == count) {
+                        return after;
+                    }
+                    String key = path.toString();
+                    @SuppressWarnings("unchecked")
+                    V value = (V) current.value;
+                    consumer.accept(key, value);
+                    after = null;
+                    visited++;
+                    if (visited == count) {
+                        // Remember where we stopped
+                        after = key;
+                    }
+                }
+                continue;
+            }
+            if (position == current.childCount) {
+                nodes.remove(top);
+                positions.remove(top);
+                lengths.remove(top);
+                continue;
+            }
+            positions.set(top, position + 1);
+            Node child = current.children[position];
+            path.append(current.labels[position]).append(child.prefix);
+            nodes.add(child);
+            positions.add(-1);
+            lengths.add(path.length());
+        }
+        return null;
+    }
+
+    /**
+     * @return true if a key that starts with the given path can be greater than {@code after}
+     */
+    private static boolean isCandidate(CharSequence path, String after) {
+        int length = Math.min(path.length(), after.length());
+        for (int i = 0; i < length; i++) {
+            char c = path.charAt(i);
+            char a = after.charAt(i);
+            if (c != a) {
+                return c > a;
+            }
+        }
+        // The path is a prefix of "after" (some of its descendants can follow it) or "after" is a prefix of the path
+        return true;
+    }
+
+    private static int compare(CharSequence path, String after) {
+        int length = Math.min(path.length(), after.length());
+        for (int i = 0; i < length; i++) {
+            char c = path.charAt(i);
+            char a = after.charAt(i);
+            if (c != a) {
+                return c - a;
+            }
+        }
+        return path.length() - after.length();
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    private static class Node {
+        private char[] prefix;
+        private Object value;
+        private char[] labels;
+        private Node[] children;
+        private int childCount;
+        // Number of keys in the subtree
+        private int size;
+
+        private Node(char[] prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return the number of chars of the prefix of the node that match the key, starting at the given index
+         */
+        private int match(String key, int start) {
+            int length = Math.min(this.prefix.length, key.length() - start);
+            int i = 0;
+            while (i < length && this.prefix[i] == key.charAt(start + i)) {
+                i++;
+            }
+            return i;
+        }
+
+        private int indexOf(char label) {
+            return this.labels == null ? -1 : Arrays.binarySearch(this.labels, 0, this.childCount, label);
+        }
+
+        private Node getChild(char label) {
+            int index = this.indexOf(label);
+            return index < 0 ? null : this.children[index];
+        }
+
+        private void addChild(char label, Node child) {
+            if (this.labels == null) {
+                this.labels = new char[4];
+                this.children = new Node[4];
+            } else if (this.childCount == this.labels.length) {
+                int capacity = this.childCount == 4 ? 16 : this.childCount == 16 ? 48 : 2 * this.childCount;
+                this.labels = Arrays.copyOf(this.labels, capacity);
+                this.children = Arrays.copyOf(this.children, capacity);
+            }
+            int index = -this.indexOf(label) - 1;
+            System.arraycopy(this.labels, index, this.labels, index + 1, this.childCount - index);
+            System.arraycopy(this.children, index, this.children, index + 1, this.childCount - index);
+            this.labels[index] = label;
+            this.children[index] = child;
+            this.childCount++;
+        }
+
+        private void replaceChild(char label, Node child) {
+            this.children[this.indexOf(label)] = child;
+        }
+
+        private void removeChild(char label) {
+            int index = this.indexOf(label);
+            System.arraycopy(this.labels, index + 1, this.labels, index, this.childCount - index - 1);
+            System.arraycopy(this.children, index + 1, this.children, index, this.childCount - index - 1);
+            this.childCount--;
+            this.children[this.childCount] = null;
+            if (this.childCount == 0) {
+                this.labels = null;
+                this.children = null;
+            }
+        }
+
+        /**
+         * Merges a node without value with its only child
+         *
+         * @return the merged node
+         */
+        private Node mergeWithChild() {
+            Node child = this.children[0];
+            char[] prefix = new char[this.prefix.length + 1 + child.prefix.length];
+            System.arraycopy(this.prefix, 0, prefix, 0, this.prefix.length);
+            prefix[this.prefix.length] = this.labels[0];
+            System.arraycopy(child.prefix, 0, prefix, this.prefix.length + 1, child.prefix.length);
+            child.prefix = prefix;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,667 @@
+package com.vdurmont.fakejedis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Streaming reader of the RDB files of redis (versions 1 to 12).
+ * <p>
+ * The file is read through a fixed buffer and each key is sent to a {@link Handler} as soon as it is decoded: the
+ * elements of the lists and the fields of the hashes are sent one by one, and the compact encodings (ziplist,
+ * listpack, zipmap, quicklist) are decoded in place. Only one value (or one node of a compact encoding) is in memory
+ * at a time. The strings, lists and hashes are loaded; the sets and sorted sets are decoded but skipped, and the keys
+ * that have already expired are skipped. The keys never expire in FakeJedis: the other expiration times are ignored.
+ * Streams and modules are not supported. The checksum of the file is verified. Not thread-safe.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class RdbReader {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_VERSION = 12;
+
+    static final int TYPE_STRING = 0;
+    static final int TYPE_LIST = 1;
+    static final int TYPE_SET = 2;
+    static final int TYPE_ZSET = 3;
+    static final int TYPE_HASH = 4;
+    static final int TYPE_ZSET_2 = 5;
+    static final int TYPE_HASH_ZIPMAP = 9;
+    static final int TYPE_LIST_ZIPLIST = 10;
+    static final int TYPE_SET_INTSET = 11;
+    static final int TYPE_ZSET_ZIPLIST = 12;
+    static final int TYPE_HASH_ZIPLIST = 13;
+    static final int TYPE_LIST_QUICKLIST = 14;
+    static final int TYPE_HASH_LISTPACK = 16;
+    static final int TYPE_ZSET_LISTPACK = 17;
+    static final int TYPE_LIST_QUICKLIST_2 = 18;
+    static final int TYPE_SET_LISTPACK = 20;
+
+    static final int OPCODE_SLOT_INFO = 0xF4;
+    static final int OPCODE_FUNCTION = 0xF5;
+    static final int OPCODE_IDLE = 0xF8;
+    static final int OPCODE_FREQ = 0xF9;
+    static final int OPCODE_AUX = 0xFA;
+    static final int OPCODE_RESIZEDB = 0xFB;
+    static final int OPCODE_EXPIRETIME_MS = 0xFC;
+    static final int OPCODE_EXPIRETIME = 0xFD;
+    static final int OPCODE_SELECTDB = 0xFE;
+    static final int OPCODE_EOF = 0xFF;
+
+    static final int ENCODING_INT8 = 0;
+    static final int ENCODING_INT16 = 1;
+    static final int ENCODING_INT32 = 2;
+    static final int ENCODING_LZF = 3;
+
+    private static final int QUICKLIST_NODE_PLAIN = 1;
+
+    private final ReadableByteChannel channel;
+    private final long now;
+    private final ByteBuffer buffer;
+    // The bytes of the buffer before this position are included in the CRC
+    private int crcPosition;
+    private long crc;
+    // Set by readLength when the length is a special encoding
+    private boolean encoded;
+    private long loadedKeys;
+    private long expiredKeys;
+    private long skippedKeys;
+    private long volatileKeys;
+
+    /**
+     * @param channel the channel to read
+     * @param now     the current time, in milliseconds: the keys that expire before are skipped
+     */
+    public RdbReader(ReadableByteChannel channel, long now) {
+        this.channel = channel;
+        this.now = now;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.flip();
+    }
+
+    /**
+     * Reads the whole file and sends its keys to the handler
+     *
+     * @throws FakeJedisException if the file can't be read, is corrupted or is not supported
+     */
+    public void read(Handler handler) {
+        try {
+            int version = this.readHeader();
+            long expireAt = -1;
+            while (true) {
+                int type = this.readByte();
+                switch (type) {
+                    case OPCODE_EOF:
+                        this.readChecksum(version);
+                        return;
+                    case OPCODE_SELECTDB:
+                        handler.selectDb((int) this.readLength());
+                        break;
+                    case OPCODE_RESIZEDB:
+                        this.readLength();
+                        this.readLength();
+                        break;
+                    case OPCODE_AUX:
+                        this.skipString();
+                        this.skipString();
+                        break;
+                    case OPCODE_EXPIRETIME_MS:
+                        this.ensure(8);
+                        expireAt = this.buffer.getLong();
+                        break;
+                    case OPCODE_EXPIRETIME:
+                        this.ensure(4);
+                        expireAt = 1000 * (this.buffer.getInt() & 0xFFFFFFFFL);
+                        break;
+                    case OPCODE_FREQ:
+                        this.readByte();
+                        break;
+                    case OPCODE_IDLE:
+                        this.readLength();
+                        break;
+                    case OPCODE_FUNCTION:
+                        this.skipString();
+                        break;
+                    case OPCODE_SLOT_INFO:
+                        this.readLength();
+                        this.readLength();
+                        this.readLength();
+                        break;
+                    default:
+                        String key = this.readString();
+                        if (expireAt >= 0 && expireAt < this.now) {
+                            this.expiredKeys++;
+                            this.readObject(type, key, null);
+                        } else {
+                            if (expireAt >= 0) {
+                                this.volatileKeys++;
+                            }
+                            this.readObject(type, key, handler);
+                        }
+                        expireAt = -1;
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new FakeJedisException("Cannot read the RDB file", e);
+        } catch (IndexOutOfBoundsException e) {
+            // An entry of a compact encoding overflows its node
+            throw new FakeJedisException("Corrupted RDB file", e);
+        }
+    }
+
+    /**
+     * @return the number of loaded keys, of expired keys, of keys whose type is not supported by FakeJedis and of loaded
+     * keys that had an expiration time
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("keys_loaded", this.loadedKeys);
+        stats.put("keys_expired", this.expiredKeys);
+        stats.put("keys_skipped", this.skippedKeys);
+        stats.put("volatile_keys", this.volatileKeys);
+        return stats;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private int readHeader() throws IOException {
+        this.ensure(9);
+        byte[] magic = new byte[9];
+        this.buffer.get(magic);
+        String header = new String(magic, StandardCharsets.US_ASCII);
+        if (!header.startsWith("REDIS")) {
+            throw new FakeJedisException("Not an RDB file");
+        }
+        int version;
+        try {
+            version = Integer.parseInt(header.substring(5));
+        } catch (NumberFormatException e) {
+            throw new FakeJedisException("Invalid RDB version: " + header.substring(5));
+        }
+        if (version < 1 || version > MAX_VERSION) {
+            throw new FakeJedisException("Unsupported RDB version: " + version);
+        }
+        return version;
+    }
+
+    private void readChecksum(int version) throws IOException {
+        if (version < 5) {
+            return;
+        }
+        this.updateCrc();
+        long expected = this.crc;
+        this.ensure(8);
+        long checksum = this.buffer.getLong();
+        // A checksum of 0 means that the checksum is disabled (rdbchecksum no)
+        if (checksum != 0 && checksum != expected) {
+            throw new FakeJedisException("Wrong RDB checksum");
+        }
+    }
+
+    /**
+     * Reads an object and sends it to the handler, or skips it if the handler is null
+     */
+    private void readObject(int type, String key, Handler handler) throws IOException {
+        boolean load = handler != null;
+        switch (type) {
+            case TYPE_STRING:
+                if (load) {
+                    handler.string(key, this.readString());
+                } else {
+                    this.skipString();
+                }
+                break;
+            case TYPE_LIST:
+                if (load) {
+                    handler.beginList(key);
+                }
+                for (long i = this.readLength(); i > 0; i--) {
+                    if (load) {
+                        handler.listElement(this.readString());
+                    } else {
+                        this.skipString();
+                    }
+                }
+                break;
+            case TYPE_LIST_ZIPLIST:
+                if (load) {
+                    handler.beginList(key);
+                    forEachZiplistEntry(this.readStringBytes(), handler::listElement);
+                } else {
+                    this.skipString();
+                }
+                break;
+            case TYPE_LIST_QUICKLIST:
+            case TYPE_LIST_QUICKLIST_2:
+                if (load) {
+                    handler.beginList(key);
+                }
+                for (long i = this.readLength(); i > 0; i--) {
+                    long container = type == TYPE_LIST_QUICKLIST_2 ? this.readLength() : 0;
+                    if (!load) {
+                        this.skipString();
+                    } else if (container == QUICKLIST_NODE_PLAIN) {
+                        handler.listElement(this.readString());
+                    } else if (type == TYPE_LIST_QUICKLIST_2) {
+                        forEachListpackEntry(this.readStringBytes(), handler::listElement);
+                    } else {
+                        forEachZiplistEntry(this.readStringBytes(), handler::listElement);
+                    }
+                }
+                break;
+            case TYPE_HASH:
+                if (load) {
+                    handler.beginHash(key);
+                }
+                for (long i = this.readLength(); i > 0; i--) {
+                    if (load) {
+                        handler.hashField(this.readString(), this.readString());
+                    } else {
+                        this.skipString();
+                        this.skipString();
+                    }
+                }
+                break;
+            case TYPE_HASH_ZIPMAP:
+            case TYPE_HASH_ZIPLIST:
+            case TYPE_HASH_LISTPACK:
+                if (!load) {
+                    this.skipString();
+                    break;
+                }
+                handler.beginHash(key);
+                byte[] bytes = this.readStringBytes();
+                if (type == TYPE_HASH_ZIPMAP) {
+                    forEachZipmapEntry(bytes, handler);
+                } else {
+                    PairCollector pairs = new PairCollector(handler);
+                    if (type == TYPE_HASH_ZIPLIST) {
+                        forEachZiplistEntry(bytes, pairs);
+                    } else {
+                        forEachListpackEntry(bytes, pairs);
+                    }
+                }
+                break;
+            case TYPE_SET:
+                for (long i = this.readLength(); i > 0; i--) {
+                    this.skipString();
+                }
+                this.skipped(load);
+                return;
+            case TYPE_ZSET:
+            case TYPE_ZSET_2:
+                for (long i = this.readLength(); i > 0; i--) {
+                    this.skipString();
+                    if (type == TYPE_ZSET_2) {
+                        this.skip(8);
+                    } else {
+                        int length = this.readByte();
+                        // 253, 254 and 255 are NaN, +inf and -inf
+                        if (length < 253) {
+                            this.skip(length);
+                        }
+                    }
+                }
+                this.skipped(load);
+                return;
+            case TYPE_SET_INTSET:
+            case TYPE_SET_LISTPACK:
+            case TYPE_ZSET_ZIPLIST:
+            case TYPE_ZSET_LISTPACK:
+                this.skipString();
+                this.skipped(load);
+                return;
+            default:
+                throw new FakeJedisException("Unsupported RDB object type: " + type);
+        }
+        if (load) {
+            this.loadedKeys++;
+        }
+    }
+
+    private void skipped(boolean load) {
+        if (load) {
+            this.skippedKeys++;
+        }
+    }
+
+    private long readLength() throws IOException {
+        int first = this.readByte();
+        this.encoded = false;
+        switch (first >> 6) {
+            case 0:
+                return first & 0x3F;
+            case 1:
+                return ((first & 0x3F) << 8) | this.readByte();
+            case 2:
+                if (first == 0x80) {
+                    this.ensure(4);
+                    return Integer.reverseBytes(this.buffer.getInt()) & 0xFFFFFFFFL;
+                } else if (first == 0x81) {
+                    this.ensure(8);
+                    return Long.reverseBytes(this.buffer.getLong());
+                }
+                throw new FakeJedisException("Invalid RDB length encoding: " + first);
+            default:
+                this.encoded = true;
+                return first & 0x3F;
+        }
+    }
+
+    private String readString() throws IOException {
+        long length = this.readLength();
+        if (this.encoded && length != ENCODING_LZF) {
+            return String.valueOf(this.readInteger((int) length));
+        }
+        return new String(this.readStringBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readStringBytes() throws IOException {
+        long length = this.readLength();
+        if (this.encoded && length != ENCODING_LZF) {
+            return String.valueOf(this.readInteger((int) length)).getBytes(StandardCharsets.US_ASCII);
+        }
+        return this.readStringBytes(length);
+    }
+
+    /**
+     * @param length the length that has just been read
+     */
+    private byte[] readStringBytes(long length) throws IOException {
+        if (this.encoded) {
+            long compressedLength = this.readLength();
+            long uncompressedLength = this.readLength();
+            byte[] compressed = this.readBytes(compressedLength);
+            byte[] bytes = new byte[checkedLength(uncompressedLength)];
+            Lzf.decompress(compressed, bytes);
+            return bytes;
+        }
+        return this.readBytes(length);
+    }
+
+    private void skipString() throws IOException {
+        long length = this.readLength();
+        if (!this.encoded) {
+            this.skip(length);
+        } else if (length == ENCODING_LZF) {
+            long compressedLength = this.readLength();
+            this.readLength();
+            this.skip(compressedLength);
+        } else {
+            this.readInteger((int) length);
+        }
+    }
+
+    private long readInteger(int encoding) throws IOException {
+        switch (encoding) {
+            case ENCODING_INT8:
+                return (byte) this.readByte();
+            case ENCODING_INT16:
+                this.ensure(2);
+                return this.buffer.getShort();
+            case ENCODING_INT32:
+                this.ensure(4);
+                return this.buffer.getInt();
+            default:
+                throw new FakeJedisException("Invalid RDB string encoding: " + encoding);
+        }
+    }
+
+    private int readByte() throws IOException {
+        this.ensure(1);
+        return this.buffer.get() & 0xFF;
+    }
+
+    private byte[] readBytes(long length) throws IOException {
+        byte[] bytes = new byte[checkedLength(length)];
+        int offset = 0;
+        while (offset < bytes.length) {
+            this.ensure(1);
+            int chunk = Math.min(this.buffer.remaining(), bytes.length - offset);
+            this.buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+        return bytes;
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            this.ensure(1);
+            int chunk = (int) Math.min(this.buffer.remaining(), length);
+            this.buffer.position(this.buffer.position() + chunk);
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Makes sure that at least n bytes (at most the size of the buffer) can be read from the buffer
+     */
+    private void ensure(int n) throws IOException {
+        if (this.buffer.remaining() >= n) {
+            return;
+        }
+        this.updateCrc();
+        this.buffer.compact();
+        while (this.buffer.position() < n) {
+            if (this.channel.read(this.buffer) < 0) {
+                throw new FakeJedisException("Unexpected end of the RDB file");
+            }
+        }
+        this.buffer.flip();
+        this.crcPosition = 0;
+    }
+
+    /**
+     * Adds the bytes that have been read since the last update to the CRC
+     */
+    private void updateCrc() {
+        int position = this.buffer.position();
+        this.crc = Crc64.update(this.crc, this.buffer.array(), this.crcPosition, position - this.crcPosition);
+        this.crcPosition = position;
+    }
+
+    private static int checkedLength(long length) {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new FakeJedisException("RDB string too large: " + length + " bytes");
+        }
+        return (int) length;
+    }
+
+    private static void forEachZiplistEntry(byte[] ziplist, Consumer<String> consumer) {
+        ByteBuffer zl = ByteBuffer.wrap(ziplist).order(ByteOrder.LITTLE_ENDIAN);
+        // zlbytes, zltail and zllen
+        int position = 10;
+        while ((ziplist[position] & 0xFF) != 0xFF) {
+            // Length of the previous entry
+            position += (ziplist[position] & 0xFF) == 0xFE ? 5 : 1;
+            int encoding = ziplist[position] & 0xFF;
+            int length;
+            switch (encoding >> 6) {
+                case 0:
+                    length = encoding & 0x3F;
+                    position += 1;
+                    break;
+                case 1:
+                    length = ((encoding & 0x3F) << 8) | (ziplist[position + 1] & 0xFF);
+                    position += 2;
+                    break;
+                case 2:
+                    length = Integer.reverseBytes(zl.getInt(position + 1));
+                    position += 5;
+                    break;
+                default:
+                    long value;
+                    position += 1;
+                    if (encoding == 0xC0) {
+                        value = zl.getShort(position);
+                        position += 2;
+                    } else if (encoding == 0xD0) {
+                        value = zl.getInt(position);
+                        position += 4;
+                    } else if (encoding == 0xE0) {
+                        value = zl.getLong(position);
+                        position += 8;
+                    } else if (encoding == 0xF0) {
+                        value = (zl.getInt(position - 1) >> 8);
+                        position += 3;
+                    } else if (encoding == 0xFE) {
+                        value = ziplist[position];
+                        position += 1;
+                    } else {
+                        // 4 bits immediate value, from 1 to 13
+                        value = (encoding & 0x0F) - 1;
+                    }
+                    consumer.accept(String.valueOf(value));
+                    continue;
+            }
+            consumer.accept(new String(ziplist, position, length, StandardCharsets.UTF_8));
+            position += length;
+        }
+    }
+
+    private static void forEachListpackEntry(byte[] listpack, Consumer<String> consumer) {
+        ByteBuffer lp = ByteBuffer.wrap(listpack).order(ByteOrder.LITTLE_ENDIAN);
+        // Total bytes and number of elements
+        int position = 6;
+        while ((listpack[position] & 0xFF) != 0xFF) {
+            int encoding = listpack[position] & 0xFF;
+            int entryLength;
+            if ((encoding & 0x80) == 0) {
+                consumer.accept(String.valueOf(encoding));
+                entryLength = 1;
+            } else if ((encoding & 0xC0) == 0x80) {
+                int length = encoding & 0x3F;
+                consumer.accept(new String(listpack, position + 1, length, StandardCharsets.UTF_8));
+                entryLength = 1 + length;
+            } else if ((encoding & 0xE0) == 0xC0) {
+                int value = ((encoding & 0x1F) << 8) | (listpack[position + 1] & 0xFF);
+                // 13 bits signed integer
+                consumer.accept(String.valueOf(value >= 1 << 12 ? value - (1 << 13) : value));
+                entryLength = 2;
+            } else if ((encoding & 0xF0) == 0xE0) {
+                int length = ((encoding & 0x0F) << 8) | (listpack[position + 1] & 0xFF);
+                consumer.accept(new String(listpack, position + 2, length, StandardCharsets.UTF_8));
+                entryLength = 2 + length;
+            } else {
+                switch (encoding) {
+                    case 0xF0:
+                        int length = lp.getInt(position + 1);
+                        consumer.accept(new String(listpack, position + 5, length, StandardCharsets.UTF_8));
+                        entryLength = 5 + length;
+                        break;
+                    case 0xF1:
+                        consumer.accept(String.valueOf(lp.getShort(position + 1)));
+                        entryLength = 3;
+                        break;
+                    case 0xF2:
+                        consumer.accept(String.valueOf(lp.getInt(position) >> 8));
+                        entryLength = 4;
+                        break;
+                    case 0xF3:
+                        consumer.accept(String.valueOf(lp.getInt(position + 1)));
+                        entryLength = 5;
+                        break;
+                    case 0xF4:
+                        consumer.accept(String.valueOf(lp.getLong(position + 1)));
+                        entryLength = 9;
+                        break;
+                    default:
+                        throw new FakeJedisException("Invalid listpack encoding: " + encoding);
+                }
+            }
+            // The entry is followed by its length, on 1 to 5 bytes
+            position += entryLength + backlenSize(entryLength);
+        }
+    }
+
+    private static int backlenSize(int length) {
+        if (length <= 127) {
+            return 1;
+        } else if (length < 16383) {
+            return 2;
+        } else if (length < 2097151) {
+            return 3;
+        } else if (length < 268435455) {
+            return 4;
+        }
+        return 5;
+    }
+
+    private static void forEachZipmapEntry(byte[] zipmap, Handler handler) {
+        ByteBuffer zm = ByteBuffer.wrap(zipmap).order(ByteOrder.LITTLE_ENDIAN);
+        // Number of entries
+        int position = 1;
+        while ((zipmap[position] & 0xFF) != 0xFF) {
+            int length = zipmap[position] & 0xFF;
+            if (length == 254) {
+                length = zm.getInt(position + 1);
+                position += 5;
+            } else {
+                position += 1;
+            }
+            String field = new String(zipmap, position, length, StandardCharsets.UTF_8);
+            position += length;
+            length = zipmap[position] & 0xFF;
+            if (length == 254) {
+                length = zm.getInt(position + 1);
+                position += 5;
+            } else {
+                position += 1;
+            }
+            int free = zipmap[position++] & 0xFF;
+            handler.hashField(field, new String(zipmap, position, length, StandardCharsets.UTF_8));
+            position += length + free;
+        }
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    /**
+     * Receives the keys of the file, in order. The elements of a list (resp. the fields of a hash) follow the call to
+     * beginList (resp. beginHash) of their key.
+     */
+    interface Handler {
+        void selectDb(int index);
+
+        void string(String key, String value);
+
+        void beginList(String key);
+
+        void listElement(String element);
+
+        void beginHash(String key);
+
+        void hashField(String field, String value);
+    }
+
+    /**
+     * Sends the flat entries of a compact hash to the handler, as pairs
+     */
+    private static class PairCollector implements Consumer<String> {
+        private final Handler handler;
+        private String field;
+
+        private PairCollector(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override public void accept(String entry) {
+            if (this.field == null) {
+                this.field = entry;
+            } else {
+                this.handler.hashField(this.field, entry);
+                this.field = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.vdurmont.fakejedis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming writer of RDB files (version 9, readable by redis 5 and later).
+ * <p>
+ * The keys are written one by one through a fixed buffer, with the plain encodings (string, list, hash) that every
+ * version of redis loads; the strings that are small integers are stored as integers, like redis does. The strings are
+ * not compressed. The checksum is written at the end of the file. Not thread-safe.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class RdbWriter {
+    static final int VERSION = 9;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long crc;
+
+    /**
+     * Writes the header of the file
+     *
+     * @param channel the channel to write to
+     */
+    public RdbWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(RdbReader.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.writeBytes(String.format("REDIS%04d", VERSION).getBytes(StandardCharsets.US_ASCII));
+        this.aux("redis-ver", "6.0.0");
+        this.aux("redis-bits", "64");
+        this.aux("ctime", String.valueOf(System.currentTimeMillis() / 1000));
+    }
+
+    /**
+     * Starts the keys of a database
+     *
+     * @param index the index of the database
+     * @param size  the number of keys of the database
+     */
+    public void selectDb(int index, long size) {
+        this.put(RdbReader.OPCODE_SELECTDB).writeLength(index);
+        this.put(RdbReader.OPCODE_RESIZEDB).writeLength(size).writeLength(0);
+    }
+
+    public void string(String key, String value) {
+        this.put(RdbReader.TYPE_STRING).writeString(key).writeString(value);
+    }
+
+    /**
+     * Starts a list, followed by its elements
+     */
+    public void beginList(String key, long size) {
+        this.put(RdbReader.TYPE_LIST).writeString(key).writeLength(size);
+    }
+
+    public void listElement(String element) {
+        this.writeString(element);
+    }
+
+    /**
+     * Starts a hash, followed by its fields
+     */
+    public void beginHash(String key, long size) {
+        this.put(RdbReader.TYPE_HASH).writeString(key).writeLength(size);
+    }
+
+    public void hashField(String field, String value) {
+        this.writeString(field).writeString(value);
+    }
+
+    /**
+     * Writes the end of the file and its checksum, and flushes the buffer
+     */
+    public void finish() {
+        this.put(RdbReader.OPCODE_EOF);
+        // The checksum covers all the bytes up to the end marker
+        this.flush();
+        this.buffer.putLong(this.crc);
+        this.writeBuffer();
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private void aux(String key, String value) {
+        this.put(RdbReader.OPCODE_AUX).writeString(key).writeString(value);
+    }
+
+    private RdbWriter writeLength(long length) {
+        if (length < 1 << 6) {
+            this.put((int) length);
+        } else if (length < 1 << 14) {
+            this.put((int) (0x40 | (length >> 8))).put((int) (length & 0xFF));
+        } else if (length <= 0xFFFFFFFFL) {
+            this.put(0x80);
+            this.ensure(4);
+            this.buffer.putInt(Integer.reverseBytes((int) length));
+        } else {
+            this.put(0x81);
+            this.ensure(8);
+            this.buffer.putLong(Long.reverseBytes(length));
+        }
+        return this;
+    }
+
+    private RdbWriter writeString(String value) {
+        long integer = integerValue(value);
+        if (integer >= Byte.MIN_VALUE && integer <= Byte.MAX_VALUE) {
+            this.put(0xC0 | RdbReader.ENCODING_INT8).put((int) integer);
+        } else if (integer >= Short.MIN_VALUE && integer <= Short.MAX_VALUE) {
+            this.put(0xC0 | RdbReader.ENCODING_INT16);
+            this.ensure(2);
+            this.buffer.putShort((short) integer);
+        } else if (integer >= Integer.MIN_VALUE && integer <= Integer.MAX_VALUE) {
+            this.put(0xC0 | RdbReader.ENCODING_INT32);
+            this.ensure(4);
+            this.buffer.putInt((int) integer);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.writeLength(bytes.length);
+            this.writeBytes(bytes);
+        }
+        return this;
+    }
+
+    private RdbWriter put(int b) {
+        this.ensure(1);
+        this.buffer.put((byte) b);
+        return this;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            this.ensure(1);
+            int chunk = Math.min(this.buffer.remaining(), bytes.length - offset);
+            this.buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    /**
+     * Makes sure that n bytes (at most the size of the buffer) can be written to the buffer
+     */
+    private void ensure(int n) {
+        if (this.buffer.remaining() < n) {
+            this.flush();
+        }
+    }
+
+    private void flush() {
+        this.crc = Crc64.update(this.crc, this.buffer.array(), 0, this.buffer.position());
+        this.writeBuffer();
+    }
+
+    private void writeBuffer() {
+        this.buffer.flip();
+        try {
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+        } catch (IOException e) {
+            throw new FakeJedisException("Cannot write the RDB file", e);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * @return the value of a string that is the canonical form of an integer of 32 bits, or Long.MAX_VALUE
+     */
+    private static long integerValue(String value) {
+        int length = value.length();
+        if (length == 0 || length > 11) {
+            return Long.MAX_VALUE;
+        }
+        int start = value.charAt(0) == '-' ? 1 : 0;
+        if (start == length || (value.charAt(start) == '0' && length > 1)) {
+            // No leading zero, no "-0"
+            return Long.MAX_VALUE;
+        }
+        long integer = 0;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MAX_VALUE;
+            }
+            integer = 10 * integer + (c - '0');
+        }
+        integer = start == 1 ? -integer : integer;
+        return integer >= Integer.MIN_VALUE && integer <= Integer.MAX_VALUE ? integer : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,317 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.BinaryClient;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.SortingParams;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Table of the redis commands that are served by the fake server, mapped to the methods of FakeJedis.
+ * <p>
+ * The replies are plain java objects: {@link Status} for the simple strings, String (or null) for the bulk strings,
+ * Long and Boolean for the integers, collections and maps for the arrays. Errors are thrown as
+ * {@link JedisDataException}, with the message of the redis error.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class RedisCommands {
+    private static final Map<String, Command> COMMANDS = new HashMap<>();
+
+    static {
+        // Connection
+        register("ping", -1, (c, a) -> a.length == 1 ? status("PONG") : a[1]);
+        register("echo", 2, (c, a) -> a[1]);
+        register("command", -1, (c, a) -> new ArrayList<>());
+
+        // Keys
+        register("exists", -2, (c, a) -> {
+            long count = 0;
+            for (int i = 1; i < a.length; i++) {
+                count += c.exists(a[i]) ? 1 : 0;
+            }
+            return count;
+        });
+        register("del", -2, (c, a) -> c.del(Arrays.copyOfRange(a, 1, a.length)));
+        register("unlink", -2, (c, a) -> c.unlink(Arrays.copyOfRange(a, 1, a.length)));
+        register("keys", 2, (c, a) -> c.keys(a[1]));
+        register("scan", -2, (c, a) -> c.scan(a[1], scanParams(a, 2)));
+        register("type", 2, (c, a) -> status(c.type(a[1])));
+        register("randomkey", 1, (c, a) -> c.randomKey());
+        register("rename", 3, (c, a) -> status(c.rename(a[1], a[2])));
+        register("renamenx", 3, (c, a) -> c.renamenx(a[1], a[2]));
+        register("persist", 2, (c, a) -> c.persist(a[1]));
+        register("object", 3, (c, a) -> {
+            switch (a[1].toLowerCase()) {
+                case "encoding":
+                    return c.objectEncoding(a[2]);
+                case "idletime":
+                    return c.objectIdletime(a[2]);
+                case "refcount":
+                    return c.objectRefcount(a[2]);
+                default:
+                    throw new JedisDataException("ERR Unknown subcommand or wrong number of arguments for '" + a[1] + "'");
+            }
+        });
+
+        // Databases
+        register("select", 2, (c, a) -> status(c.select(toInt(a[1]))));
+        register("move", 3, (c, a) -> c.move(a[1], toInt(a[2])));
+        register("dbsize", 1, (c, a) -> c.dbSize());
+        register("flushdb", -1, (c, a) -> status(c.flushDB()));
+        register("flushall", -1, (c, a) -> status(c.flushAll()));
+        register("swapdb", 3, (c, a) -> status(c.swapDB(toInt(a[1]), toInt(a[2]))));
+
+        // Server
+        register("config", -2, (c, a) -> {
+            if (a[1].equalsIgnoreCase("get") && a.length == 3) {
+                return c.configGet(a[2]);
+            } else if (a[1].equalsIgnoreCase("set") && a.length == 4) {
+                return status(c.configSet(a[2], a[3]));
+            }
+            throw new JedisDataException("ERR Unknown subcommand or wrong number of arguments for '" + a[1] + "'");
+        });
+        register("save", 1, (c, a) -> status(c.save()));
+        register("bgsave", 1, (c, a) -> status(c.bgsave()));
+        register("lastsave", 1, (c, a) -> c.lastsave());
+        register("bgrewriteaof", 1, (c, a) -> status(c.bgrewriteaof()));
+
+        // Strings
+        register("get", 2, (c, a) -> c.get(a[1]));
+        register("set", -3, (c, a) -> {
+            boolean nx = false;
+            boolean xx = false;
+            for (int i = 3; i < a.length; i++) {
+                if (a[i].equalsIgnoreCase("nx")) {
+                    nx = true;
+                } else if (a[i].equalsIgnoreCase("xx")) {
+                    xx = true;
+                } else {
+                    // The keys don't expire in FakeJedis
+                    throw new JedisDataException("ERR syntax error");
+                }
+            }
+            if (nx && xx) {
+                throw new JedisDataException("ERR syntax error");
+            }
+            if ((nx && c.exists(a[1])) || (xx && !c.exists(a[1]))) {
+                return null;
+            }
+            return status(c.set(a[1], a[2]));
+        });
+        register("setnx", 3, (c, a) -> c.setnx(a[1], a[2]));
+        register("getset", 3, (c, a) -> c.getSet(a[1], a[2]));
+        register("append", 3, (c, a) -> c.append(a[1], a[2]));
+        register("setrange", 4, (c, a) -> c.setrange(a[1], toLong(a[2]), a[3]));
+        register("getrange", 4, (c, a) -> c.getrange(a[1], toLong(a[2]), toLong(a[3])));
+        register("strlen", 2, (c, a) -> c.strlen(a[1]));
+
+        // Lists
+        register("lpush", -3, (c, a) -> c.lpush(a[1], Arrays.copyOfRange(a, 2, a.length)));
+        register("rpush", -3, (c, a) -> c.rpush(a[1], Arrays.copyOfRange(a, 2, a.length)));
+        register("lpushx", -3, (c, a) -> c.lpushx(a[1], Arrays.copyOfRange(a, 2, a.length)));
+        register("rpushx", -3, (c, a) -> c.rpushx(a[1], Arrays.copyOfRange(a, 2, a.length)));
+        register("lpop", 2, (c, a) -> c.lpop(a[1]));
+        register("rpop", 2, (c, a) -> c.rpop(a[1]));
+        register("rpoplpush", 3, (c, a) -> c.rpoplpush(a[1], a[2]));
+        register("llen", 2, (c, a) -> c.llen(a[1]));
+        register("lrange", 4, (c, a) -> c.lrange(a[1], toLong(a[2]), toLong(a[3])));
+        register("lindex", 3, (c, a) -> c.lindex(a[1], toLong(a[2])));
+        register("lset", 4, (c, a) -> status(c.lset(a[1], toLong(a[2]), a[3])));
+        register("linsert", 5, (c, a) -> {
+            BinaryClient.LIST_POSITION where;
+            if (a[2].equalsIgnoreCase("before")) {
+                where = BinaryClient.LIST_POSITION.BEFORE;
+            } else if (a[2].equalsIgnoreCase("after")) {
+                where = BinaryClient.LIST_POSITION.AFTER;
+            } else {
+                throw new JedisDataException("ERR syntax error");
+            }
+            return c.linsert(a[1], where, a[3], a[4]);
+        });
+        register("lrem", 4, (c, a) -> c.lrem(a[1], toLong(a[2]), a[3]));
+        register("ltrim", 4, (c, a) -> status(c.ltrim(a[1], toLong(a[2]), toLong(a[3]))));
+
+        // Hashes
+        register("hset", -4, (c, a) -> {
+            if (a.length % 2 != 0) {
+                throw wrongNumberOfArguments(a[0]);
+            }
+            long added = 0;
+            for (int i = 2; i < a.length; i += 2) {
+                added += c.hset(a[1], a[i], a[i + 1]);
+            }
+            return added;
+        });
+        register("hsetnx", 4, (c, a) -> c.hsetnx(a[1], a[2], a[3]));
+        register("hmset", -4, (c, a) -> {
+            if (a.length % 2 != 0) {
+                throw wrongNumberOfArguments(a[0]);
+            }
+            Map<String, String> hash = new LinkedHashMap<>();
+            for (int i = 2; i < a.length; i += 2) {
+                hash.put(a[i], a[i + 1]);
+            }
+            return status(c.hmset(a[1], hash));
+        });
+        register("hget", 3, (c, a) -> c.hget(a[1], a[2]));
+        register("hmget", -3, (c, a) -> c.hmget(a[1], Arrays.copyOfRange(a, 2, a.length)));
+        register("hincrby", 4, (c, a) -> c.hincrBy(a[1], a[2], toLong(a[3])));
+        register("hincrbyfloat", 4, (c, a) -> {
+            double value = c.hincrByFloat(a[1], a[2], toDouble(a[3]));
+            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        });
+        register("hexists", 3, (c, a) -> c.hexists(a[1], a[2]));
+        register("hdel", -3, (c, a) -> c.hdel(a[1], Arrays.copyOfRange(a, 2, a.length)));
+        register("hlen", 2, (c, a) -> c.hlen(a[1]));
+        register("hkeys", 2, (c, a) -> c.hkeys(a[1]));
+        register("hvals", 2, (c, a) -> c.hvals(a[1]));
+        register("hgetall", 2, (c, a) -> c.hgetAll(a[1]));
+        register("hscan", -3, (c, a) -> c.hscan(a[1], a[2], scanParams(a, 3)));
+
+        // Sort
+        register("sort", -2, (c, a) -> {
+            SortingParams params = new SortingParams();
+            String store = null;
+            for (int i = 2; i < a.length; i++) {
+                String option = a[i].toLowerCase();
+                if (option.equals("by") && i + 1 < a.length) {
+                    params.by(a[++i]);
+                } else if (option.equals("limit") && i + 2 < a.length) {
+                    params.limit(toInt(a[i + 1]), toInt(a[i + 2]));
+                    i += 2;
+                } else if (option.equals("get") && i + 1 < a.length) {
+                    params.get(a[++i]);
+                } else if (option.equals("asc")) {
+                    params.asc();
+                } else if (option.equals("desc")) {
+                    params.desc();
+                } else if (option.equals("alpha")) {
+                    params.alpha();
+                } else if (option.equals("store") && i + 1 < a.length) {
+                    store = a[++i];
+                } else {
+                    throw new JedisDataException("ERR syntax error");
+                }
+            }
+            return store == null ? c.sort(a[1], params) : c.sort(a[1], params, store);
+        });
+    }
+
+    private RedisCommands() {
+        // Static table
+    }
+
+    /**
+     * @return the command with the given name (case-insensitive), or null if it is unknown
+     */
+    public static Command get(String name) {
+        return COMMANDS.get(name.toLowerCase());
+    }
+
+    public static Status status(String message) {
+        return new Status(message);
+    }
+
+    public static JedisDataException wrongNumberOfArguments(String command) {
+        return new JedisDataException("ERR wrong number of arguments for '" + command.toLowerCase() + "' command");
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private static void register(String name, int arity, Handler handler) {
+        COMMANDS.put(name, new Command(name, arity, handler));
+    }
+
+    private static long toLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new JedisDataException("ERR value is not an integer or out of range");
+        }
+    }
+
+    private static int toInt(String value) {
+        long parsed = toLong(value);
+        if (parsed != (int) parsed) {
+            throw new JedisDataException("ERR value is not an integer or out of range");
+        }
+        return (int) parsed;
+    }
+
+    private static double toDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new JedisDataException("ERR value is not a valid float");
+        }
+    }
+
+    private static ScanParams scanParams(String[] args, int from) {
+        ScanParams params = new ScanParams();
+        for (int i = from; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new JedisDataException("ERR syntax error");
+            }
+            if (args[i].equalsIgnoreCase("match")) {
+                params.match(args[i + 1]);
+            } else if (args[i].equalsIgnoreCase("count")) {
+                params.count(toInt(args[i + 1]));
+            } else {
+                throw new JedisDataException("ERR syntax error");
+            }
+        }
+        return params;
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    @FunctionalInterface
+    interface Handler {
+        Object execute(FakeJedis client, String[] args);
+    }
+
+    static class Command {
+        public final String name;
+        // Number of arguments (with the name of the command), or minus the minimum number of arguments
+        public final int arity;
+        private final Handler handler;
+
+        private Command(String name, int arity, Handler handler) {
+            this.name = name;
+            this.arity = arity;
+            this.handler = handler;
+        }
+
+        /**
+         * @param args the name of the command and its arguments
+         */
+        public Object execute(FakeJedis client, String[] args) {
+            if (this.arity > 0 ? args.length != this.arity : args.length < -this.arity) {
+                throw wrongNumberOfArguments(this.name);
+            }
+            return this.handler.execute(client, args);
+        }
+    }
+
+    /**
+     * Simple string reply
+     */
+    static class Status {
+        public final String message;
+
+        private Status(String message) {
+            this.message = message;
+        }
+    }
+}
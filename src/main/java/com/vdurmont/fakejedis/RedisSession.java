@@ -0,0 +1,329 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of a connection to the fake server: its client (and thus its selected database) and its transaction.
+ * <p>
+ * Executes the commands of {@link RedisCommands} and returns their replies. The errors are returned as
+ * {@link JedisDataException}, not thrown. Not thread-safe: a session is used by one connection.
+ * <p>
+ * With CLIENT TRACKING, the keys modified by the other clients are queued by their threads, and sent as RESP3
+ * invalidation pushes before the next reply of the session. They are dropped in RESP2, like without REDIRECT in redis.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class RedisSession {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id;
+    private final FakeJedis client;
+    // Version of RESP, changed by HELLO
+    private int protocol;
+    // Commands queued by MULTI, null if no transaction is in progress
+    private List<String[]> transaction;
+    private boolean transactionFailed;
+    private boolean closed;
+    // Invalidations of the client tracking, empty for a flush
+    private final ConcurrentLinkedQueue<Optional<String>> invalidations;
+
+    /**
+     * @param client the client that executes the commands of the session
+     */
+    public RedisSession(FakeJedis client) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.client = client;
+        this.protocol = 2;
+        this.invalidations = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Executes the request that has just been decoded and encodes its reply
+     */
+    public void execute(RespDecoder decoder, RespEncoder encoder) {
+        Object reply;
+        try {
+            reply = this.execute(decoder.argumentsAsStrings());
+        } catch (JedisDataException e) {
+            // A binary argument: the command fails (and its transaction), but the connection stays open
+            this.transactionFailed = this.transaction != null;
+            reply = e;
+        }
+        // HELLO replies in the protocol that it selects
+        encoder.setProtocol(this.protocol);
+        this.writeInvalidations(encoder);
+        writeReply(encoder, reply);
+    }
+
+    /**
+     * @param args the name of the command and its arguments
+     * @return the reply of the command
+     */
+    public Object execute(String[] args) {
+        String name = args[0].toLowerCase();
+        switch (name) {
+            case "quit":
+                this.closed = true;
+                return RedisCommands.status("OK");
+            case "multi":
+                if (this.transaction != null) {
+                    return new JedisDataException("ERR MULTI calls can not be nested");
+                }
+                this.transaction = new ArrayList<>();
+                this.transactionFailed = false;
+                return RedisCommands.status("OK");
+            case "hello":
+                return this.hello(args);
+            case "client":
+                return this.client(args);
+            case "exec":
+                return this.exec();
+            case "discard":
+                if (this.transaction == null) {
+                    return new JedisDataException("ERR DISCARD without MULTI");
+                }
+                this.transaction = null;
+                return RedisCommands.status("OK");
+            default:
+                break;
+        }
+
+        RedisCommands.Command command = RedisCommands.get(name);
+        if (this.transaction != null) {
+            // Only the syntax is checked when a command is queued
+            JedisDataException error = null;
+            if (command == null) {
+                error = unknownCommand(args[0]);
+            } else if (command.arity > 0 ? args.length != command.arity : args.length < -command.arity) {
+                error = RedisCommands.wrongNumberOfArguments(name);
+            }
+            if (error != null) {
+                this.transactionFailed = true;
+                return error;
+            }
+            this.transaction.add(args);
+            return RedisCommands.status("QUEUED");
+        }
+        if (command == null) {
+            return unknownCommand(args[0]);
+        }
+        synchronized (this.client.LOCK) {
+            // The command (e.g. HSET with several fields) waits for the fsync of the AOF once, at the end
+            this.client.beginBatch(false);
+            try {
+                return execute(this.client, command, args);
+            } finally {
+                this.client.endBatch();
+            }
+        }
+    }
+
+    /**
+     * Releases the resources of the session when its connection is closed
+     */
+    public void close() {
+        this.closed = true;
+        this.client.clientTrackingOff();
+    }
+
+    /**
+     * @return the version of RESP that the replies must use (2 or 3)
+     */
+    public int getProtocol() {
+        return this.protocol;
+    }
+
+    /**
+     * @return true if the client asked to close the connection
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private Object hello(String[] args) {
+        int protocol = this.protocol;
+        if (args.length > 1) {
+            if (!args[1].equals("2") && !args[1].equals("3")) {
+                return new JedisDataException("NOPROTO unsupported protocol version");
+            }
+            protocol = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            // AUTH and SETNAME are not supported
+            return new JedisDataException("ERR Syntax error in HELLO option '" + args[2] + "'");
+        }
+        this.protocol = protocol;
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put("server", "redis");
+        reply.put("version", "6.0.0");
+        reply.put("proto", (long) protocol);
+        reply.put("id", this.id);
+        reply.put("mode", "standalone");
+        reply.put("role", "master");
+        reply.put("modules", new ArrayList<>());
+        return reply;
+    }
+
+    private Object client(String[] args) {
+        if (args.length < 2) {
+            return RedisCommands.wrongNumberOfArguments("client");
+        }
+        if (!args[1].equalsIgnoreCase("tracking")) {
+            return new JedisDataException("ERR Unknown subcommand or wrong number of arguments for '" + args[1] + "'. Try CLIENT HELP");
+        }
+        if (args.length < 3) {
+            return RedisCommands.wrongNumberOfArguments("client|tracking");
+        }
+        boolean broadcast = false;
+        List<String> prefixes = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("bcast")) {
+                broadcast = true;
+            } else if (args[i].equalsIgnoreCase("prefix") && i + 1 < args.length) {
+                prefixes.add(args[++i]);
+            } else {
+                // REDIRECT, OPTIN, OPTOUT and NOLOOP are not supported
+                return new JedisDataException("ERR syntax error");
+            }
+        }
+        if (!prefixes.isEmpty() && !broadcast) {
+            return new JedisDataException("ERR PREFIX option requires BCAST mode to be enabled");
+        }
+        if (args[2].equalsIgnoreCase("on")) {
+            if (broadcast) {
+                this.client.clientTrackingBroadcast(this::invalidated, prefixes.toArray(new String[prefixes.size()]));
+            } else {
+                this.client.clientTrackingOn(this::invalidated);
+            }
+        } else if (args[2].equalsIgnoreCase("off")) {
+            this.client.clientTrackingOff();
+            this.invalidations.clear();
+        } else {
+            return new JedisDataException("ERR syntax error");
+        }
+        return RedisCommands.status("OK");
+    }
+
+    /**
+     * Called by the thread of the client that modified the key
+     */
+    private void invalidated(String key) {
+        this.invalidations.add(Optional.ofNullable(key));
+    }
+
+    private void writeInvalidations(RespEncoder encoder) {
+        Optional<String> key;
+        while ((key = this.invalidations.poll()) != null) {
+            if (this.protocol != 3) {
+                continue;
+            }
+            encoder.pushHeader(2).bulkString("invalidate");
+            if (key.isPresent()) {
+                encoder.arrayHeader(1).bulkString(key.get());
+            } else {
+                encoder.nullValue();
+            }
+        }
+    }
+
+    private Object exec() {
+        if (this.transaction == null) {
+            return new JedisDataException("ERR EXEC without MULTI");
+        }
+        List<String[]> commands = this.transaction;
+        this.transaction = null;
+        if (this.transactionFailed) {
+            return new JedisDataException("EXECABORT Transaction discarded because of previous errors.");
+        }
+        List<Object> replies = new ArrayList<>(commands.size());
+        // No other client can run a command in the middle of the transaction
+        synchronized (this.client.LOCK) {
+            this.client.beginBatch(true);
+            try {
+                for (String[] args : commands) {
+                    replies.add(execute(this.client, RedisCommands.get(args[0]), args));
+                }
+            } finally {
+                this.client.endBatch();
+            }
+        }
+        return replies;
+    }
+
+    private static Object execute(FakeJedis client, RedisCommands.Command command, String[] args) {
+        try {
+            return command.execute(client, args);
+        } catch (JedisDataException e) {
+            return e;
+        } catch (RuntimeException e) {
+            return new JedisDataException("ERR " + e.getMessage());
+        }
+    }
+
+    private static JedisDataException unknownCommand(String name) {
+        return new JedisDataException("ERR unknown command '" + name + "'");
+    }
+
+    private static void writeReply(RespEncoder encoder, Object reply) {
+        if (reply == null) {
+            encoder.nullValue();
+        } else if (reply instanceof RedisCommands.Status) {
+            encoder.simpleString(((RedisCommands.Status) reply).message);
+        } else if (reply instanceof JedisDataException) {
+            encoder.error(((JedisDataException) reply).getMessage());
+        } else if (reply instanceof Long || reply instanceof Integer) {
+            encoder.integer(((Number) reply).longValue());
+        } else if (reply instanceof Boolean) {
+            // The redis commands reply with integers, even in RESP3
+            encoder.integer((Boolean) reply ? 1 : 0);
+        } else if (reply instanceof String) {
+            encoder.bulkString((String) reply);
+        } else if (reply instanceof Double) {
+            encoder.bulkString(reply.toString());
+        } else if (reply instanceof Collection) {
+            Collection<?> collection = (Collection<?>) reply;
+            encoder.arrayHeader(collection.size());
+            for (Object element : collection) {
+                writeReply(encoder, element);
+            }
+        } else if (reply instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) reply;
+            encoder.mapHeader(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeReply(encoder, entry.getKey());
+                writeReply(encoder, entry.getValue());
+            }
+        } else if (reply instanceof ScanResult) {
+            ScanResult<?> result = (ScanResult<?>) reply;
+            encoder.arrayHeader(2);
+            encoder.bulkString(result.getStringCursor());
+            if (!result.getResult().isEmpty() && result.getResult().get(0) instanceof Map.Entry) {
+                // HSCAN: flat list of fields and values
+                encoder.arrayHeader(2 * result.getResult().size());
+                for (Object element : result.getResult()) {
+                    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                    writeReply(encoder, entry.getKey());
+                    writeReply(encoder, entry.getValue());
+                }
+            } else {
+                writeReply(encoder, result.getResult());
+            }
+        } else {
+            throw new FakeJedisException("Unsupported reply: " + reply.getClass());
+        }
+    }
+}
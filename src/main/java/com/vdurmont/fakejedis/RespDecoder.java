@@ -0,0 +1,346 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental decoder of the redis requests: arrays of bulk strings (the same in RESP2 and RESP3) and inline requests.
+ * <p>
+ * {@link #decode(ByteBuffer)} is called with the received bytes, between the position and the limit of the buffer. If
+ * a request is complete, the position is moved after it and the arguments are available as slices of the buffer:
+ * they are not copied, and remain valid until the content of the buffer is moved or overwritten. Otherwise, the
+ * position is not moved and the decoder remembers how far it went: the next call resumes there, once more bytes have
+ * been received. In between, the buffer can be compacted (the partial request moved to the start of the buffer).
+ * <p>
+ * Protocol errors are thrown as {@link JedisDataException}, with the message of redis, as well as the arguments that
+ * can't be decoded as strings. Not thread-safe.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class RespDecoder {
+    static final int MAX_INLINE_LENGTH = 64 * 1024;
+    static final int MAX_MULTIBULK_LENGTH = 1024 * 1024;
+    static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+
+    private static final int START = 0;
+    private static final int MULTIBULK_LENGTH = 1;
+    private static final int BULK_LENGTH = 2;
+    private static final int BULK_DATA = 3;
+    private static final int INLINE = 4;
+
+    private int state;
+    // Number of bytes of the current request that have already been parsed
+    private int parsed;
+    // Offsets (from the start of the request) and lengths of the arguments
+    private int[] offsets;
+    private int[] lengths;
+    private int argumentCount;
+    private int argumentIndex;
+    private ByteBuffer buffer;
+    // Position of the last decoded request in the buffer
+    private int requestStart;
+
+    public RespDecoder() {
+        this.offsets = new int[16];
+        this.lengths = new int[16];
+        this.state = START;
+    }
+
+    /**
+     * Decodes the next request. The empty requests are skipped.
+     *
+     * @return true if a request has been decoded, false if more bytes are needed
+     */
+    public boolean decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int position = start + this.parsed;
+        while (true) {
+            switch (this.state) {
+                case START:
+                    if (position == limit) {
+                        return this.suspend(start, position);
+                    }
+                    if (buffer.get(position) == '*') {
+                        this.state = MULTIBULK_LENGTH;
+                        position++;
+                    } else {
+                        this.state = INLINE;
+                    }
+                    break;
+                case MULTIBULK_LENGTH: {
+                    int eol = indexOfCrlf(buffer, position, limit);
+                    if (eol < 0) {
+                        this.checkLineLength(start, limit, "too big mbulk count string");
+                        return this.suspend(start, position);
+                    }
+                    long count = parseLength(buffer, position, eol, "invalid multibulk length");
+                    if (count > MAX_MULTIBULK_LENGTH) {
+                        throw protocolError("invalid multibulk length");
+                    }
+                    position = eol + 2;
+                    if (count <= 0) {
+                        // Empty request, skip it
+                        buffer.position(position);
+                        start = position;
+                        this.state = START;
+                        break;
+                    }
+                    this.argumentCount = (int) count;
+                    this.argumentIndex = 0;
+                    if (this.offsets.length < count) {
+                        this.offsets = new int[this.argumentCount];
+                        this.lengths = new int[this.argumentCount];
+                    }
+                    this.state = BULK_LENGTH;
+                    break;
+                }
+                case BULK_LENGTH: {
+                    if (this.argumentIndex == this.argumentCount) {
+                        return this.complete(buffer, start, position);
+                    }
+                    if (position == limit) {
+                        return this.suspend(start, position);
+                    }
+                    if (buffer.get(position) != '$') {
+                        throw protocolError("expected '$', got '" + (char) buffer.get(position) + "'");
+                    }
+                    int eol = indexOfCrlf(buffer, position, limit);
+                    if (eol < 0) {
+                        this.checkLineLength(position, limit, "too big bulk count string");
+                        return this.suspend(start, position);
+                    }
+                    long length = parseLength(buffer, position + 1, eol, "invalid bulk length");
+                    if (length < 0 || length > MAX_BULK_LENGTH) {
+                        throw protocolError("invalid bulk length");
+                    }
+                    position = eol + 2;
+                    this.offsets[this.argumentIndex] = position - start;
+                    this.lengths[this.argumentIndex] = (int) length;
+                    this.state = BULK_DATA;
+                    break;
+                }
+                case BULK_DATA: {
+                    int length = this.lengths[this.argumentIndex];
+                    if ((long) limit - position < length + 2L) {
+                        return this.suspend(start, position);
+                    }
+                    position += length + 2;
+                    this.argumentIndex++;
+                    this.state = BULK_LENGTH;
+                    break;
+                }
+                case INLINE: {
+                    int eol = -1;
+                    for (int i = position; i < limit; i++) {
+                        if (buffer.get(i) == '\n') {
+                            eol = i;
+                            break;
+                        }
+                    }
+                    if (eol < 0) {
+                        this.checkLineLength(start, limit, "too big inline request");
+                        return this.suspend(start, limit);
+                    }
+                    this.splitInline(buffer, start, eol);
+                    if (this.argumentCount == 0) {
+                        buffer.position(eol + 1);
+                        start = eol + 1;
+                        position = start;
+                        this.state = START;
+                        break;
+                    }
+                    return this.complete(buffer, start, eol + 1);
+                }
+                default:
+                    throw new IllegalStateException("Unknown state: " + this.state);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes that the request being decoded needs, as far as it is known. A buffer that is
+     * smaller than that will never hold the complete request.
+     */
+    public int pendingRequestSize() {
+        if (this.state == BULK_DATA) {
+            return this.offsets[this.argumentIndex] + this.lengths[this.argumentIndex] + 2;
+        }
+        return this.parsed + 1;
+    }
+
+    public int argumentCount() {
+        return this.argumentCount;
+    }
+
+    /**
+     * @return the position of the argument in the buffer
+     */
+    public int argumentOffset(int index) {
+        return this.requestStart + this.offsets[index];
+    }
+
+    public int argumentLength(int index) {
+        return this.lengths[index];
+    }
+
+    /**
+     * @return a view of the argument, that shares the content of the buffer
+     */
+    public ByteBuffer argument(int index) {
+        ByteBuffer view = this.buffer.duplicate();
+        view.limit(this.argumentOffset(index) + this.lengths[index]).position(this.argumentOffset(index));
+        return view.slice();
+    }
+
+    /**
+     * @return the argument, decoded as a UTF-8 string
+     * @throws JedisDataException if the argument is not valid UTF-8: the values are stored as strings, a binary value
+     *                            would be corrupted
+     */
+    public String argumentAsString(int index) {
+        int offset = this.argumentOffset(index);
+        int length = this.lengths[index];
+        String argument;
+        if (this.buffer.hasArray()) {
+            argument = new String(this.buffer.array(), this.buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = this.buffer.get(offset + i);
+            }
+            argument = new String(bytes, StandardCharsets.UTF_8);
+        }
+        // The invalid sequences are decoded as replacement characters, which are rare in valid strings
+        if (argument.indexOf('\uFFFD') >= 0) {
+            try {
+                StandardCharsets.UTF_8.newDecoder().decode(this.argument(index));
+            } catch (CharacterCodingException e) {
+                throw new JedisDataException("ERR invalid UTF-8 in argument " + index + ", the fake server only stores strings");
+            }
+        }
+        return argument;
+    }
+
+    /**
+     * @return true if the argument is equal to the given ASCII string, ignoring the case (e.g. a command name)
+     */
+    public boolean argumentEqualsIgnoreCase(int index, String ascii) {
+        int length = this.lengths[index];
+        if (length != ascii.length()) {
+            return false;
+        }
+        int offset = this.argumentOffset(index);
+        for (int i = 0; i < length; i++) {
+            int b = this.buffer.get(offset + i);
+            int c = ascii.charAt(i);
+            if (b != c && toLowerCase(b) != toLowerCase(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the arguments of the request, decoded as UTF-8 strings
+     * @throws JedisDataException if an argument is not valid UTF-8
+     */
+    public String[] argumentsAsStrings() {
+        String[] args = new String[this.argumentCount];
+        for (int i = 0; i < this.argumentCount; i++) {
+            args[i] = this.argumentAsString(i);
+        }
+        return args;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private boolean suspend(int start, int position) {
+        this.parsed = position - start;
+        return false;
+    }
+
+    private boolean complete(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.requestStart = start;
+        this.parsed = 0;
+        this.state = START;
+        buffer.position(end);
+        return true;
+    }
+
+    private void splitInline(ByteBuffer buffer, int start, int eol) {
+        int end = eol > start && buffer.get(eol - 1) == '\r' ? eol - 1 : eol;
+        this.argumentCount = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && isSpace(buffer.get(i))) {
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+            int from = i;
+            while (i < end && !isSpace(buffer.get(i))) {
+                i++;
+            }
+            if (this.argumentCount == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, 2 * this.offsets.length);
+                this.lengths = Arrays.copyOf(this.lengths, 2 * this.lengths.length);
+            }
+            this.offsets[this.argumentCount] = from - start;
+            this.lengths[this.argumentCount] = i - from;
+            this.argumentCount++;
+        }
+    }
+
+    private void checkLineLength(int start, int limit, String error) {
+        if (limit - start > MAX_INLINE_LENGTH) {
+            throw protocolError(error);
+        }
+    }
+
+    private static int indexOfCrlf(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit - 1; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long parseLength(ByteBuffer buffer, int start, int end, String error) {
+        boolean negative = end > start && buffer.get(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 18) {
+            throw protocolError(error);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw protocolError(error);
+            }
+            value = 10 * value + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static JedisDataException protocolError(String message) {
+        return new JedisDataException("ERR Protocol error: " + message);
+    }
+}
@@ -0,0 +1,312 @@
+package com.vdurmont.fakejedis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoder of the redis replies, in RESP2 or RESP3, into a reusable output buffer.
+ * <p>
+ * The replies are appended to the buffer (that grows if needed) and {@link #writeTo(WritableByteChannel)} sends as many
+ * pending bytes as the channel accepts. The numbers and the strings are encoded directly in the buffer, without
+ * intermediate objects. The RESP3 types are downgraded to their RESP2 equivalent when the protocol is RESP2 (e.g. a
+ * map is encoded as a flat array). Not thread-safe.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class RespEncoder {
+    private static final byte[] MIN_LONG = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+
+    private final int initialCapacity;
+    // Pending bytes between 0 and the position
+    private ByteBuffer buffer;
+    private int protocol;
+
+    public RespEncoder(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+        this.protocol = 2;
+    }
+
+    /**
+     * @return the version of RESP (2 or 3)
+     */
+    public int getProtocol() {
+        return this.protocol;
+    }
+
+    public void setProtocol(int protocol) {
+        if (protocol != 2 && protocol != 3) {
+            throw new IllegalArgumentException("Unsupported protocol: " + protocol);
+        }
+        this.protocol = protocol;
+    }
+
+    public RespEncoder simpleString(CharSequence value) {
+        this.put((byte) '+').putLine(value).putCrlf();
+        return this;
+    }
+
+    public RespEncoder error(CharSequence message) {
+        this.put((byte) '-').putLine(message).putCrlf();
+        return this;
+    }
+
+    public RespEncoder integer(long value) {
+        this.put((byte) ':').putLong(value).putCrlf();
+        return this;
+    }
+
+    public RespEncoder bulkString(CharSequence value) {
+        int length = utf8Length(value);
+        this.put((byte) '$').putLong(length).putCrlf();
+        this.reserve(length + 2);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                this.buffer.put((byte) c);
+            } else if (c < 0x800) {
+                this.buffer.put((byte) (0xC0 | (c >> 6)));
+                this.buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                this.buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                this.buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                this.buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                this.buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, like String.getBytes
+                this.buffer.put((byte) '?');
+            } else {
+                this.buffer.put((byte) (0xE0 | (c >> 12)));
+                this.buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                this.buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        this.putCrlf();
+        return this;
+    }
+
+    public RespEncoder bulkString(byte[] value, int offset, int length) {
+        this.put((byte) '$').putLong(length).putCrlf();
+        this.reserve(length + 2);
+        this.buffer.put(value, offset, length);
+        this.putCrlf();
+        return this;
+    }
+
+    /**
+     * Encodes the bytes between the position and the limit of the given buffer, without moving its position
+     */
+    public RespEncoder bulkString(ByteBuffer value) {
+        this.put((byte) '$').putLong(value.remaining()).putCrlf();
+        this.reserve(value.remaining() + 2);
+        this.buffer.put(value.duplicate());
+        this.putCrlf();
+        return this;
+    }
+
+    /**
+     * Null reply: a null bulk string in RESP2
+     */
+    public RespEncoder nullValue() {
+        if (this.protocol == 3) {
+            this.reserve(3);
+            this.buffer.put((byte) '_');
+        } else {
+            this.reserve(5);
+            this.buffer.put((byte) '$').put((byte) '-').put((byte) '1');
+        }
+        this.putCrlf();
+        return this;
+    }
+
+    /**
+     * Header of an array, followed by its elements
+     */
+    public RespEncoder arrayHeader(int size) {
+        this.put((byte) '*').putLong(size).putCrlf();
+        return this;
+    }
+
+    /**
+     * Header of a map, followed by its keys and values (alternated). A flat array in RESP2.
+     */
+    public RespEncoder mapHeader(int size) {
+        if (this.protocol == 3) {
+            this.put((byte) '%').putLong(size).putCrlf();
+        } else {
+            this.arrayHeader(2 * size);
+        }
+        return this;
+    }
+
+    /**
+     * Header of a set, followed by its elements. An array in RESP2.
+     */
+    public RespEncoder setHeader(int size) {
+        this.put((byte) (this.protocol == 3 ? '~' : '*')).putLong(size).putCrlf();
+        return this;
+    }
+
+    /**
+     * Header of an out-of-band push message (e.g. an invalidation), followed by its elements. An array in RESP2.
+     */
+    public RespEncoder pushHeader(int size) {
+        this.put((byte) (this.protocol == 3 ? '>' : '*')).putLong(size).putCrlf();
+        return this;
+    }
+
+    /**
+     * Boolean reply: an integer (1 or 0) in RESP2
+     */
+    public RespEncoder booleanValue(boolean value) {
+        if (this.protocol == 3) {
+            this.put((byte) '#').put((byte) (value ? 't' : 'f')).putCrlf();
+        } else {
+            this.integer(value ? 1 : 0);
+        }
+        return this;
+    }
+
+    /**
+     * Double reply: a bulk string in RESP2
+     */
+    public RespEncoder doubleValue(double value) {
+        String formatted = Double.isInfinite(value) ? (value > 0 ? "inf" : "-inf") : Double.toString(value);
+        if (this.protocol == 3) {
+            this.put((byte) ',').putLine(formatted).putCrlf();
+        } else {
+            this.bulkString(formatted);
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of bytes that are waiting to be sent
+     */
+    public int pendingBytes() {
+        return this.buffer.position();
+    }
+
+    /**
+     * Sends the pending bytes, as many as the channel accepts
+     *
+     * @return the number of bytes that have been sent
+     */
+    public int writeTo(WritableByteChannel channel) throws IOException {
+        this.buffer.flip();
+        int written;
+        try {
+            written = channel.write(this.buffer);
+        } finally {
+            this.buffer.compact();
+        }
+        if (this.buffer.position() == 0 && this.buffer.capacity() > 64 * this.initialCapacity) {
+            // Don't keep a huge buffer after a huge reply
+            this.buffer = ByteBuffer.allocate(this.initialCapacity);
+        }
+        return written;
+    }
+
+    /**
+     * Moves the pending bytes out of the encoder
+     */
+    public byte[] drain() {
+        byte[] bytes = new byte[this.buffer.position()];
+        this.buffer.flip();
+        this.buffer.get(bytes);
+        this.buffer.clear();
+        return bytes;
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private RespEncoder put(byte b) {
+        this.reserve(1);
+        this.buffer.put(b);
+        return this;
+    }
+
+    private RespEncoder putCrlf() {
+        this.reserve(2);
+        this.buffer.put((byte) '\r').put((byte) '\n');
+        return this;
+    }
+
+    /**
+     * Writes the content of a simple string or an error: a single line, no CR or LF
+     */
+    private RespEncoder putLine(CharSequence value) {
+        int length = utf8Length(value);
+        if (length == value.length()) {
+            this.reserve(length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                this.buffer.put(c == '\r' || c == '\n' ? (byte) ' ' : (byte) c);
+            }
+            return this;
+        }
+        byte[] bytes = value.toString().replace('\r', ' ').replace('\n', ' ').getBytes(StandardCharsets.UTF_8);
+        this.reserve(bytes.length);
+        this.buffer.put(bytes);
+        return this;
+    }
+
+    private RespEncoder putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            this.reserve(MIN_LONG.length);
+            this.buffer.put(MIN_LONG);
+            return this;
+        }
+        this.reserve(20);
+        if (value < 0) {
+            this.buffer.put((byte) '-');
+            value = -value;
+        }
+        int start = this.buffer.position();
+        do {
+            this.buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // The digits have been written backwards
+        for (int i = start, j = this.buffer.position() - 1; i < j; i++, j--) {
+            byte b = this.buffer.get(i);
+            this.buffer.put(i, this.buffer.get(j));
+            this.buffer.put(j, b);
+        }
+        return this;
+    }
+
+    private void reserve(int length) {
+        if (this.buffer.remaining() < length) {
+            int capacity = Math.max(this.buffer.position() + length, 2 * this.buffer.capacity());
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            this.buffer.flip();
+            buffer.put(this.buffer);
+            this.buffer = buffer;
+        }
+    }
+
+    private static int utf8Length(CharSequence value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // 4 bytes for 2 chars
+                    length += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    length += 2;
+                }
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,62 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.RedisInputStream;
+import redis.clients.util.RedisOutputStream;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.Socket;
+
+/**
+ * Jedis client whose connection is a socket that Jedis cannot create itself (e.g. an in-memory socket): it is plugged
+ * into the private fields of {@link Connection} when the client connects.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+abstract class SocketClient extends Client {
+    private static final Field SOCKET = connectionField("socket");
+    private static final Field OUTPUT_STREAM = connectionField("outputStream");
+    private static final Field INPUT_STREAM = connectionField("inputStream");
+
+    protected SocketClient() {
+        super("");
+    }
+
+    @Override public void connect() {
+        if (this.isConnected()) {
+            return;
+        }
+        try {
+            Socket socket = this.openSocket();
+            SOCKET.set(this, socket);
+            OUTPUT_STREAM.set(this, new RedisOutputStream(socket.getOutputStream()));
+            INPUT_STREAM.set(this, new RedisInputStream(socket.getInputStream()));
+        } catch (IOException e) {
+            throw new JedisConnectionException(e);
+        } catch (IllegalAccessException e) {
+            throw new FakeJedisException("Cannot plug the socket into the connection", e);
+        }
+    }
+
+    /**
+     * @return a new connected socket
+     */
+    protected abstract Socket openSocket() throws IOException;
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private static Field connectionField(String name) {
+        try {
+            Field field = Connection.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new FakeJedisException("Unsupported version of Jedis: no field " + name + " in Connection", e);
+        }
+    }
+}
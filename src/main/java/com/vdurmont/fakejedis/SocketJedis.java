@@ -0,0 +1,16 @@
+package com.vdurmont.fakejedis;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Real Jedis client with a custom client (and thus a custom connection)
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class SocketJedis extends Jedis {
+    public SocketJedis(Client client) {
+        super("");
+        this.client = client;
+    }
+}
@@ -0,0 +1,22 @@
+package com.vdurmont.fakejedis;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Path;
+
+/**
+ * Jedis client connected to a {@link FakeRedisServer} through its unix domain socket
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class UnixSocketClient extends SocketClient {
+    private final Path path;
+
+    public UnixSocketClient(Path path) {
+        this.path = path;
+    }
+
+    @Override protected Socket openSocket() throws IOException {
+        return new ChannelSocket(UnixSockets.connect(this.path));
+    }
+}
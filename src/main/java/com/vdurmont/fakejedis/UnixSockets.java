@@ -0,0 +1,137 @@
+package com.vdurmont.fakejedis;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Unix domain sockets, that need java 16 or later.
+ * <p>
+ * The library is compiled for java 8: the API of java 16 is looked up by reflection when the class is loaded. On older
+ * JVMs, it is not found and the unix domain sockets are not supported.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class UnixSockets {
+    private static final Support SUPPORT = load();
+
+    private UnixSockets() {
+        // Static tools
+    }
+
+    public static boolean isSupported() {
+        return SUPPORT != null;
+    }
+
+    /**
+     * Opens a server channel bound to the given path. A socket that already exists at this path is deleted first, any
+     * other file is left untouched and fails the bind.
+     */
+    public static ServerSocketChannel bind(Path path, int backlog) throws IOException {
+        Support support = support();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+        if (attributes != null) {
+            // Neither a regular file, a directory nor a link: a socket left by a server that has not been closed
+            if (!attributes.isOther()) {
+                throw new FileAlreadyExistsException(path.toString(), null, "Not a socket");
+            }
+            Files.delete(path);
+        }
+        ServerSocketChannel channel = support.open();
+        try {
+            channel.bind(support.address(path), backlog);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Opens a blocking channel connected to the given path
+     */
+    public static SocketChannel connect(Path path) throws IOException {
+        return SocketChannel.open(support().address(path));
+    }
+
+    // //////////////////////
+    // PRIVATE TOOLS
+    // //////////////
+
+    private static Support support() {
+        if (SUPPORT == null) {
+            throw new FakeJedisException("The unix domain sockets need java 16 or later");
+        }
+        return SUPPORT;
+    }
+
+    private static Support load() {
+        try {
+            return new Support(Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class),
+                    ServerSocketChannel.class.getMethod("open", ProtocolFamily.class),
+                    StandardProtocolFamily.valueOf("UNIX"));
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // //////////////////////
+    // MODEL
+    // //////////////
+
+    /**
+     * The API of java 16: UnixDomainSocketAddress.of(Path), ServerSocketChannel.open(ProtocolFamily) and
+     * StandardProtocolFamily.UNIX
+     */
+    private static class Support {
+        private final Method addressOf;
+        private final Method openServer;
+        private final ProtocolFamily unix;
+
+        private Support(Method addressOf, Method openServer, ProtocolFamily unix) {
+            this.addressOf = addressOf;
+            this.openServer = openServer;
+            this.unix = unix;
+        }
+
+        private SocketAddress address(Path path) throws IOException {
+            return (SocketAddress) this.invoke(this.addressOf, path);
+        }
+
+        private ServerSocketChannel open() throws IOException {
+            return (ServerSocketChannel) this.invoke(this.openServer, this.unix);
+        }
+
+        private Object invoke(Method method, Object arg) throws IOException {
+            try {
+                return method.invoke(null, arg);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new FakeJedisException("Cannot call " + method, e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new FakeJedisException("Cannot call " + method, e);
+            }
+        }
+    }
+}
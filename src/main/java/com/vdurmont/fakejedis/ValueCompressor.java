@@ -0,0 +1,133 @@
+package com.vdurmont.fakejedis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses values with deflate and keeps the last decompressed values in a small cache, so that a value that is
+ * read several times in a row is only inflated once.
+ * <p>
+ * The compressed form of a value starts with its length in bytes (4 bytes, big endian). Not thread-safe.
+ *
+ * @author Vincent DURMONT [vdurmont@gmail.com]
+ */
+class ValueCompressor {
+    static final int CACHE_SIZE = 16;
+
+    private final Deflater deflater;
+    private final Inflater inflater;
+    // Compressed arrays (compared by identity) to their decompressed values
+    private final Map<byte[], String> cache;
+    private long compressedValues;
+    private long rejectedValues;
+    private long uncompressedBytes;
+    private long compressedBytes;
+    private long compressNanos;
+    private long decompressNanos;
+    private long cacheHits;
+    private long cacheMisses;
+
+    public ValueCompressor() {
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.inflater = new Inflater();
+        this.cache = new LinkedHashMap<byte[], String>(2 * CACHE_SIZE, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<byte[], String> eldest) {
+                return this.size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * @return the compressed value, or null if the compression does not make it smaller
+     */
+    public byte[] compress(String value) {
+        return this.compress(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the compressed bytes, or null if the compression does not make them smaller
+     */
+    public byte[] compress(byte[] bytes) {
+        long start = System.nanoTime();
+        this.deflater.reset();
+        this.deflater.setInput(bytes);
+        this.deflater.finish();
+        // Not worth it if the result is not smaller than the input
+        byte[] output = new byte[bytes.length];
+        int length = 4;
+        while (!this.deflater.finished() && length < output.length) {
+            length += this.deflater.deflate(output, length, output.length - length);
+        }
+        this.compressNanos += System.nanoTime() - start;
+        if (!this.deflater.finished()) {
+            this.rejectedValues++;
+            return null;
+        }
+        output[0] = (byte) (bytes.length >>> 24);
+        output[1] = (byte) (bytes.length >>> 16);
+        output[2] = (byte) (bytes.length >>> 8);
+        output[3] = (byte) bytes.length;
+        this.compressedValues++;
+        this.uncompressedBytes += bytes.length;
+        this.compressedBytes += length;
+        byte[] compressed = new byte[length];
+        System.arraycopy(output, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    public String decompress(byte[] compressed) {
+        String value = this.cache.get(compressed);
+        if (value != null) {
+            this.cacheHits++;
+            return value;
+        }
+        this.cacheMisses++;
+        value = new String(this.inflate(compressed), StandardCharsets.UTF_8);
+        this.cache.put(compressed, value);
+        return value;
+    }
+
+    public byte[] inflate(byte[] compressed) {
+        long start = System.nanoTime();
+        int length = ((compressed[0] & 0xFF) << 24) | ((compressed[1] & 0xFF) << 16) | ((compressed[2] & 0xFF) << 8) | (compressed[3] & 0xFF);
+        byte[] bytes = new byte[length];
+        this.inflater.reset();
+        this.inflater.setInput(compressed, 4, compressed.length - 4);
+        try {
+            int offset = 0;
+            while (offset < length && !this.inflater.finished()) {
+                offset += this.inflater.inflate(bytes, offset, length - offset);
+            }
+        } catch (DataFormatException e) {
+            throw new FakeJedisException("Corrupted compressed value", e);
+        }
+        this.decompressNanos += System.nanoTime() - start;
+        return bytes;
+    }
+
+    /**
+     * A compressed value is not used anymore
+     */
+    public void discard(byte[] compressed) {
+        this.cache.remove(compressed);
+    }
+
+    public Map<String, Number> getStats() {
+        Map<String, Number> stats = new TreeMap<>();
+        stats.put("compressed_values", this.compressedValues);
+        stats.put("rejected_values", this.rejectedValues);
+        stats.put("uncompressed_bytes", this.uncompressedBytes);
+        stats.put("compressed_bytes", this.compressedBytes);
+        stats.put("ratio", this.compressedBytes == 0 ? 0d : (double) this.uncompressedBytes / this.compressedBytes);
+        stats.put("compress_nanos", this.compressNanos);
+        stats.put("decompress_nanos", this.decompressNanos);
+        stats.put("cache_hits", this.cacheHits);
+        stats.put("cache_misses", this.cacheMisses);
+        return stats;
+    }
+}
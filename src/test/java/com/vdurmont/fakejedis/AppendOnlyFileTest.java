@@ -0,0 +1,132 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(JUnit4.class)
+public class AppendOnlyFileTest {
+    @Test public void the_commands_are_appended_with_their_database_and_transaction() throws Exception {
+        // GIVEN
+        Object lock = new Object();
+        Path file = Files.createTempDirectory("fake-jedis").resolve("appendonly.aof");
+        AppendOnlyFile<String> aof = newAof(lock, new DictKeyspace<>());
+        synchronized (lock) {
+            aof.setFsync(AppendOnlyFile.FSYNC_ALWAYS);
+            aof.enable(file);
+        }
+        awaitRewrite(lock, aof);
+
+        // WHEN
+        synchronized (lock) {
+            aof.feed(0, "SET", "a", "1");
+            aof.beginBatch(true);
+            aof.feed(1, "SET", "b", "2");
+            aof.feed(1, "DEL", "a");
+            aof.endBatch();
+        }
+
+        // THEN
+        // With appendfsync always, the commands are in the file when they return
+        assertEquals(Arrays.asList(
+                Arrays.asList("SELECT", "0"),
+                Arrays.asList("SET", "a", "1"),
+                Arrays.asList("SELECT", "1"),
+                Arrays.asList("MULTI"),
+                Arrays.asList("SET", "b", "2"),
+                Arrays.asList("DEL", "a"),
+                Arrays.asList("EXEC")
+        ), readCommands(file));
+        synchronized (lock) {
+            assertEquals(3, aof.getStats().get("aof_commands").longValue());
+            aof.disable();
+            assertFalse(aof.isEnabled());
+        }
+    }
+
+    @Test public void the_rewrite_dumps_the_databases_as_they_were_at_its_start() throws Exception {
+        // GIVEN
+        Object lock = new Object();
+        Path file = Files.createTempDirectory("fake-jedis").resolve("appendonly.aof");
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        for (int i = 0; i < 3 * AppendOnlyFile.REWRITE_BATCH_SIZE; i++) {
+            keyspace.put("key:" + i, "value:" + i);
+        }
+        AppendOnlyFile<String> aof = newAof(lock, keyspace);
+
+        // WHEN
+        synchronized (lock) {
+            aof.rewrite(file);
+            // The rewrite has not dumped anything yet: the keys are copied before they are modified
+            aof.beforeWrite(keyspace, "key:1");
+            keyspace.put("key:1", "modified");
+            aof.feed(0, "SET", "key:1", "modified");
+            aof.beforeWrite(keyspace, "new");
+            keyspace.put("new", "created");
+            aof.feed(0, "SET", "new", "created");
+        }
+        awaitRewrite(lock, aof);
+
+        // THEN
+        Map<String, String> replayed = new HashMap<>();
+        List<String> writesOfKey1 = new ArrayList<>();
+        for (List<String> command : readCommands(file)) {
+            if (command.get(0).equals("SET")) {
+                replayed.put(command.get(1), command.get(2));
+                if (command.get(1).equals("key:1")) {
+                    writesOfKey1.add(command.get(2));
+                }
+            }
+        }
+        Map<String, String> expected = new HashMap<>();
+        keyspace.forEach(expected::put);
+        assertEquals(expected, replayed);
+        assertEquals(Arrays.asList("value:1", "modified"), writesOfKey1);
+        synchronized (lock) {
+            assertEquals(1, aof.getStats().get("aof_rewrite_copied_keys").longValue());
+            assertEquals(1, aof.getStats().get("aof_rewrites").longValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AppendOnlyFile<String> newAof(Object lock, DictKeyspace<String> database) {
+        Keyspace<String>[] databases = new Keyspace[]{database, new DictKeyspace<String>()};
+        return new AppendOnlyFile<>(lock, databases, (key, value, commands) -> commands.accept(new String[]{"SET", key, value}));
+    }
+
+    private static void awaitRewrite(Object lock, AppendOnlyFile<String> aof) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            synchronized (lock) {
+                if (!aof.isRewriting()) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<List<String>> readCommands(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        RespDecoder decoder = new RespDecoder();
+        List<List<String>> commands = new ArrayList<>();
+        while (decoder.decode(buffer)) {
+            commands.add(Arrays.asList(decoder.argumentsAsStrings()));
+        }
+        assertEquals(0, buffer.remaining());
+        return commands;
+    }
+}
@@ -0,0 +1,90 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class ClientTrackingTest {
+    @Test public void a_read_key_is_sent_once_to_each_reader() {
+        // GIVEN
+        ClientTracking tracking = new ClientTracking();
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        ClientTracking.Tracker firstTracker = tracking.track(first::add);
+        ClientTracking.Tracker secondTracker = tracking.track(second::add);
+        tracking.keyRead(firstTracker, "a");
+        tracking.keyRead(secondTracker, "a");
+        tracking.keyRead(secondTracker, "b");
+
+        // WHEN
+        tracking.keyModified("a");
+        tracking.keyModified("a");
+        tracking.keyModified("c");
+
+        // THEN
+        assertEquals(Collections.singletonList("a"), first);
+        assertEquals(Collections.singletonList("a"), second);
+        assertEquals(1, tracking.getStats().get("tracking_total_keys").longValue());
+        assertEquals(2, tracking.getStats().get("tracking_invalidations").longValue());
+    }
+
+    @Test public void a_broadcast_client_is_sent_the_keys_of_its_prefixes_once() {
+        // GIVEN
+        ClientTracking tracking = new ClientTracking();
+        List<String> received = new ArrayList<>();
+        ClientTracking.Tracker tracker = tracking.broadcast(received::add, "user:", "user:1");
+        tracking.keyRead(tracker, "session:1");
+
+        // WHEN
+        tracking.keyModified("user:1");
+        tracking.keyModified("session:1");
+        tracking.keyModified("user:2");
+
+        // THEN
+        assertEquals(Arrays.asList("user:1", "user:2"), received);
+    }
+
+    @Test public void an_untracked_client_is_not_sent_anything() {
+        // GIVEN
+        ClientTracking tracking = new ClientTracking();
+        List<String> received = new ArrayList<>();
+        ClientTracking.Tracker tracker = tracking.track(received::add);
+        ClientTracking.Tracker broadcast = tracking.broadcast(received::add);
+        tracking.keyRead(tracker, "a");
+
+        // WHEN
+        tracking.untrack(tracker);
+        tracking.untrack(broadcast);
+        tracking.keyModified("a");
+        tracking.flushed();
+
+        // THEN
+        assertEquals(Collections.emptyList(), received);
+        assertEquals(0, tracking.getStats().get("tracking_clients").longValue());
+        assertEquals(0, tracking.getStats().get("tracking_total_prefixes").longValue());
+    }
+
+    @Test public void a_failing_listener_does_not_fail_the_modification() {
+        // GIVEN
+        ClientTracking tracking = new ClientTracking();
+        ClientTracking.Tracker tracker = tracking.track(key -> {
+            throw new IllegalStateException("broken listener");
+        });
+        tracking.keyRead(tracker, "a");
+
+        // WHEN
+        tracking.keyModified("a");
+
+        // THEN
+        assertEquals(1, tracking.getStats().get("tracking_invalidations").longValue());
+    }
+}
@@ -0,0 +1,194 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class DictKeyspaceTest {
+    @Test public void behaves_like_a_map() {
+        // GIVEN
+        Random random = new Random(42);
+        DictKeyspace<Integer> keyspace = new DictKeyspace<>();
+        Map<String, Integer> expected = new HashMap<>();
+
+        // WHEN
+        for (int i = 0; i < 200000; i++) {
+            String key = "key:" + random.nextInt(20000);
+            int operation = random.nextInt(3);
+            if (operation < 2) {
+                assertEquals(expected.put(key, i), keyspace.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), keyspace.remove(key));
+            }
+            assertEquals(expected.size(), keyspace.size());
+        }
+
+        // THEN
+        for (int i = 0; i < 20000; i++) {
+            String key = "key:" + i;
+            assertEquals(expected.get(key), keyspace.get(key));
+            assertEquals(expected.containsKey(key), keyspace.containsKey(key));
+        }
+        Map<String, Integer> visited = new HashMap<>();
+        keyspace.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test public void growth_is_incremental() {
+        // GIVEN
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        int capacity = DictKeyspace.INITIAL_CAPACITY;
+        for (int i = 0; 4 * (i + 1) <= 3 * capacity; i++) {
+            keyspace.put("key:" + i, "value");
+        }
+        assertFalse(keyspace.isRehashing());
+
+        // WHEN
+        keyspace.put("one_more_key", "value");
+
+        // THEN
+        assertTrue(keyspace.isRehashing());
+        assertEquals(2 * capacity, keyspace.capacity());
+        for (int i = 0; 4 * (i + 1) <= 3 * capacity; i++) {
+            assertEquals("value", keyspace.get("key:" + i));
+        }
+    }
+
+    @Test public void the_table_shrinks_when_emptied() {
+        // GIVEN
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        for (int i = 0; i < 10000; i++) {
+            keyspace.put("key:" + i, "value");
+        }
+        int capacity = keyspace.capacity();
+
+        // WHEN
+        for (int i = 0; i < 10000; i++) {
+            keyspace.remove("key:" + i);
+        }
+        for (int i = 0; i < 1000 && keyspace.isRehashing(); i++) {
+            keyspace.remove("unknown");
+        }
+
+        // THEN
+        assertEquals(0, keyspace.size());
+        assertTrue(keyspace.capacity() < capacity);
+        assertNull(keyspace.get("key:42"));
+    }
+
+    @Test public void randomKey_picks_every_key() {
+        // GIVEN
+        Random random = new Random(42);
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        for (int i = 0; i < 1000; i++) {
+            keyspace.put("key:" + i, "value");
+        }
+        for (int i = 100; i < 1000; i++) {
+            keyspace.remove("key:" + i);
+        }
+
+        // WHEN
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            counts.merge(keyspace.randomKey(random), 1, Integer::sum);
+        }
+
+        // THEN
+        assertEquals(100, counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            assertTrue(Integer.parseInt(entry.getKey().substring(4)) < 100);
+            assertTrue(entry.getValue() > 700 && entry.getValue() < 1300);
+        }
+    }
+
+    @Test public void scan_visits_the_keys_that_are_present_while_the_keyspace_grows_and_shrinks() {
+        // GIVEN
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        for (int i = 0; i < 1000; i++) {
+            keyspace.put("key:" + i, "value");
+        }
+        Set<String> visited = new HashSet<>();
+
+        // WHEN
+        long cursor = 0;
+        int calls = 0;
+        do {
+            cursor = keyspace.scan(cursor, 10, "", (key, value) -> visited.add(key));
+            // Each call grows the keyspace, then shrinks it, which rehashes the tables many times
+            for (int i = 0; i < 100; i++) {
+                keyspace.put("added:" + calls + ":" + i, "value");
+            }
+            if (calls % 20 == 19) {
+                for (int c = calls - 19; c <= calls; c++) {
+                    for (int i = 0; i < 100; i++) {
+                        keyspace.remove("added:" + c + ":" + i);
+                    }
+                }
+            }
+            calls++;
+        } while (cursor != 0 && calls < 100000);
+
+        // THEN
+        assertEquals(0, cursor);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(visited.contains("key:" + i));
+        }
+    }
+
+    @Test public void scan_does_not_finish_the_rehashing() {
+        // GIVEN
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        int i = 0;
+        while (keyspace.capacity() < 4096 || !keyspace.isRehashing()) {
+            keyspace.put("key:" + i++, "value");
+        }
+        Set<String> visited = new HashSet<>();
+
+        // WHEN
+        long cursor = keyspace.scan(0, 10, "", (key, value) -> visited.add(key));
+
+        // THEN
+        assertTrue(cursor != 0);
+        assertTrue(visited.size() >= 10);
+        assertTrue(keyspace.isRehashing());
+    }
+
+    @Test public void the_writes_never_outrun_the_rehashing() {
+        // GIVEN
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        for (int i = 0; i < 100000; i++) {
+            keyspace.put("key:" + i, "value");
+        }
+        for (int i = 0; i < 100000; i++) {
+            keyspace.remove("key:" + i);
+        }
+
+        // WHEN
+        int maxRehashing = 0;
+        int rehashing = 0;
+        for (int i = 0; i < 100000; i++) {
+            keyspace.put("new:" + i, "value");
+            rehashing = keyspace.isRehashing() ? rehashing + 1 : 0;
+            maxRehashing = Math.max(maxRehashing, rehashing);
+        }
+
+        // THEN
+        assertEquals(100000, keyspace.size());
+        assertEquals("value", keyspace.get("new:42"));
+        // A rehashing migrates a step of the old table at each write, until it is complete
+        assertTrue(maxRehashing > 1);
+    }
+}
@@ -10,17 +10,35 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import redis.clients.jedis.BinaryClient;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.SortingParams;
 import redis.clients.jedis.Transaction;
 import redis.clients.jedis.exceptions.JedisDataException;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(JUnit4.class)
@@ -413,66 +431,1811 @@ public class FakeJedisTest {
         assertTrue(keys.contains("test-with-dashes"));
     }
 
+    @Test public void keys_does_not_remove_the_other_keys() {
+        // GIVEN
+        this.jedis.set("test", VALUE);
+        this.jedis.set("testing", VALUE);
+
+        // WHEN
+        this.jedis.keys("testi*");
+
+        // THEN
+        assertTrue(this.jedis.exists("test"));
+        assertTrue(this.jedis.exists("testing"));
+    }
+
+    @Test public void keys_with_glob_patterns() {
+        // GIVEN
+        this.jedis.set("hello", VALUE);
+        this.jedis.set("hallo", VALUE);
+        this.jedis.set("hxllo", VALUE);
+        this.jedis.set("h.llo", VALUE);
+
+        // WHEN
+        Set<String> keys1 = this.jedis.keys("h?llo");
+        Set<String> keys2 = this.jedis.keys("h[ae]llo");
+        Set<String> keys3 = this.jedis.keys("h[^e]llo");
+        Set<String> keys4 = this.jedis.keys("h\\.llo");
+
+        // THEN
+        assertEquals(4, keys1.size());
+        assertEquals(new HashSet<>(Arrays.asList("hello", "hallo")), keys2);
+        assertEquals(new HashSet<>(Arrays.asList("hallo", "hxllo", "h.llo")), keys3);
+        assertEquals(new HashSet<>(Arrays.asList("h.llo")), keys4);
+    }
+
     @Test public void hgetall_with_unknown_key() {
         // GIVEN
 
         // WHEN
-        Map<String, String> result = this.jedis.hgetAll(KEY);
+        Map<String, String> result = this.jedis.hgetAll(KEY);
+
+        // THEN
+        assertEquals(0, result.size());
+    }
+
+    @Test public void hgetall_with_hash() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+        String field2 = FIELD + "2";
+        String value2 = VALUE + "2";
+        this.jedis.hset(KEY, field2, value2);
+
+        // WHEN
+        Map<String, String> result = this.jedis.hgetAll(KEY);
+
+        // THEN
+        assertEquals(2, result.size());
+        assertEquals(VALUE, result.get(FIELD));
+        assertEquals(value2, result.get(field2));
+    }
+
+    @Test public void hgetall_on_a_list() {
+        // GIVEN
+        this.jedis.lpush(KEY, VALUE);
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("WRONGTYPE Operation against a key holding the wrong kind of value");
+
+        // WHEN
+        this.jedis.hgetAll(KEY);
+    }
+
+    @Test public void setnx_if_already_exists() {
+        // GIVEN
+        String value2 = VALUE + "2";
+        this.jedis.set(KEY, VALUE);
+
+        // WHEN
+        long result = this.jedis.setnx(KEY, value2);
+
+        // THEN
+        assertEquals(0, result);
+        assertEquals(VALUE, this.jedis.get(KEY));
+    }
+
+    @Test public void setnx_if_doesnt_exist() {
+        // GIVEN
+
+        // WHEN
+        long result = this.jedis.setnx(KEY, VALUE);
+
+        // THEN
+        assertEquals(1, result);
+        assertEquals(VALUE, this.jedis.get(KEY));
+    }
+
+    @Test public void append_on_unknown_key_creates_the_string() {
+        // GIVEN
+
+        // WHEN
+        long result = this.jedis.append(KEY, VALUE);
+
+        // THEN
+        assertEquals(VALUE.length(), result);
+        assertEquals(VALUE, this.jedis.get(KEY));
+    }
+
+    @Test public void append_many_times() {
+        // GIVEN
+        this.jedis.set(KEY, "log:");
+        StringBuilder expected = new StringBuilder("log:");
+
+        // WHEN
+        for (int i = 0; i < 1000; i++) {
+            this.jedis.append(KEY, "line_" + i + ";");
+            expected.append("line_").append(i).append(";");
+        }
+
+        // THEN
+        assertEquals(expected.toString(), this.jedis.get(KEY));
+        assertEquals(expected.length(), (long) this.jedis.strlen(KEY));
+    }
+
+    @Test public void strlen_counts_bytes() {
+        // GIVEN
+        this.jedis.set(KEY, "café");
+
+        // WHEN
+        long result = this.jedis.strlen(KEY);
+
+        // THEN
+        assertEquals(5, result);
+    }
+
+    @Test public void setrange_overwrites_and_pads_with_zeros() {
+        // GIVEN
+        this.jedis.set(KEY, "Hello World");
+
+        // WHEN
+        long result1 = this.jedis.setrange(KEY, 6, "Redis");
+        long result2 = this.jedis.setrange(KEY + "2", 2, "ab");
+
+        // THEN
+        assertEquals(11, result1);
+        assertEquals("Hello Redis", this.jedis.get(KEY));
+        assertEquals(4, result2);
+        assertEquals("\u0000\u0000ab", this.jedis.get(KEY + "2"));
+    }
+
+    @Test public void setrange_with_an_empty_value_does_not_create_the_key() {
+        // GIVEN
+
+        // WHEN
+        long result = this.jedis.setrange(KEY, 10, "");
+
+        // THEN
+        assertEquals(0, result);
+        assertFalse(this.jedis.exists(KEY));
+    }
+
+    @Test public void getrange_with_negative_indexes() {
+        // GIVEN
+        this.jedis.set(KEY, "This is a string");
+
+        // WHEN
+        String result1 = this.jedis.getrange(KEY, 0, 3);
+        String result2 = this.jedis.getrange(KEY, -3, -1);
+        String result3 = this.jedis.getrange(KEY, 10, 100);
+        String result4 = this.jedis.getrange(KEY, 5, 2);
+
+        // THEN
+        assertEquals("This", result1);
+        assertEquals("ing", result2);
+        assertEquals("string", result3);
+        assertEquals("", result4);
+    }
+
+    @Test public void getrange_after_append() {
+        // GIVEN
+        this.jedis.set(KEY, "Hello");
+        this.jedis.append(KEY, " World");
+
+        // WHEN
+        String result = this.jedis.getrange(KEY, 6, -1);
+
+        // THEN
+        assertEquals("World", result);
+    }
+
+    @Test public void getset_returns_the_old_value() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+
+        // WHEN
+        String result1 = this.jedis.getSet(KEY, "new_value");
+        String result2 = this.jedis.getSet(KEY + "2", VALUE);
+
+        // THEN
+        assertEquals(VALUE, result1);
+        assertEquals("new_value", this.jedis.get(KEY));
+        assertEquals(null, result2);
+    }
+
+    @Test public void append_on_a_list() {
+        // GIVEN
+        this.jedis.lpush(KEY, VALUE);
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("WRONGTYPE Operation against a key holding the wrong kind of value");
+
+        // WHEN
+        this.jedis.append(KEY, VALUE);
+    }
+
+    @Test public void hmset_and_hmget() {
+        // GIVEN
+        Map<String, String> hash = new HashMap<>();
+        hash.put(FIELD, VALUE);
+        hash.put(FIELD + "2", VALUE + "2");
+
+        // WHEN
+        String result = this.jedis.hmset(KEY, hash);
+        List<String> values = this.jedis.hmget(KEY, FIELD, "unknown", FIELD + "2");
+
+        // THEN
+        assertEquals("OK", result);
+        assertEquals(Arrays.asList(VALUE, null, VALUE + "2"), values);
+    }
+
+    @Test public void hmget_with_unknown_key() {
+        // GIVEN
+
+        // WHEN
+        List<String> values = this.jedis.hmget(KEY, FIELD, FIELD + "2");
+
+        // THEN
+        assertEquals(Arrays.asList(null, null), values);
+    }
+
+    @Test public void hdel_removes_the_fields() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+        this.jedis.hset(KEY, FIELD + "2", VALUE);
+
+        // WHEN
+        long result = this.jedis.hdel(KEY, FIELD, "unknown");
+
+        // THEN
+        assertEquals(1, result);
+        assertFalse(this.jedis.hexists(KEY, FIELD));
+        assertTrue(this.jedis.hexists(KEY, FIELD + "2"));
+        assertEquals(1, (long) this.jedis.hlen(KEY));
+    }
+
+    @Test public void hdel_of_the_last_field_removes_the_key() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+
+        // WHEN
+        this.jedis.hdel(KEY, FIELD);
+
+        // THEN
+        assertFalse(this.jedis.exists(KEY));
+        assertEquals(0, (long) this.jedis.hlen(KEY));
+    }
+
+    @Test public void hkeys_and_hvals() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+        this.jedis.hset(KEY, FIELD + "2", VALUE + "2");
+
+        // WHEN
+        Set<String> keys = this.jedis.hkeys(KEY);
+        List<String> values = this.jedis.hvals(KEY);
+
+        // THEN
+        assertEquals(new HashSet<>(Arrays.asList(FIELD, FIELD + "2")), keys);
+        assertEquals(2, values.size());
+        assertTrue(values.contains(VALUE));
+        assertTrue(values.contains(VALUE + "2"));
+    }
+
+    @Test public void hsetnx_only_sets_new_fields() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+
+        // WHEN
+        long result1 = this.jedis.hsetnx(KEY, FIELD, "other");
+        long result2 = this.jedis.hsetnx(KEY, FIELD + "2", "other");
+
+        // THEN
+        assertEquals(0, result1);
+        assertEquals(1, result2);
+        assertEquals(VALUE, this.jedis.hget(KEY, FIELD));
+        assertEquals("other", this.jedis.hget(KEY, FIELD + "2"));
+    }
+
+    @Test public void hincrbyfloat_increments_the_current_value() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, "10.50");
+
+        // WHEN
+        double result = this.jedis.hincrByFloat(KEY, FIELD, 0.1);
+
+        // THEN
+        assertEquals(10.6, result, 0);
+        assertEquals("10.6", this.jedis.hget(KEY, FIELD));
+    }
+
+    @Test public void hincrbyfloat_on_a_non_float_field() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("ERR hash value is not a float");
+
+        // WHEN
+        this.jedis.hincrByFloat(KEY, FIELD, 3);
+    }
+
+    @Test public void hscan_iterates_over_the_whole_hash() {
+        // GIVEN
+        for (int i = 0; i < 1000; i++) {
+            this.jedis.hset(KEY, FIELD + i, VALUE + i);
+        }
+
+        // WHEN
+        Map<String, String> result = new HashMap<>();
+        String cursor = ScanParams.SCAN_POINTER_START;
+        int calls = 0;
+        do {
+            ScanResult<Map.Entry<String, String>> scan = this.jedis.hscan(KEY, cursor, new ScanParams().count(15));
+            for (Map.Entry<String, String> entry : scan.getResult()) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+            cursor = scan.getStringCursor();
+            calls++;
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+
+        // THEN
+        assertTrue(calls > 1);
+        assertEquals(1000, result.size());
+        assertEquals(VALUE + 42, result.get(FIELD + 42));
+    }
+
+    @Test public void hscan_returns_a_small_hash_at_once() {
+        // GIVEN
+        for (int i = 0; i < 100; i++) {
+            this.jedis.hset(KEY, FIELD + i, VALUE + i);
+        }
+
+        // WHEN
+        ScanResult<Map.Entry<String, String>> scan = this.jedis.hscan(KEY, "0", new ScanParams().count(15));
+
+        // THEN
+        assertEquals("ziplist", this.jedis.objectEncoding(KEY));
+        assertEquals("0", scan.getStringCursor());
+        assertEquals(100, scan.getResult().size());
+    }
+
+    @Test public void hscan_visits_the_fields_that_are_not_modified_during_the_iteration() {
+        // GIVEN
+        for (int i = 0; i < 1000; i++) {
+            this.jedis.hset(KEY, FIELD + i, VALUE + i);
+        }
+
+        // WHEN
+        Set<String> visited = new HashSet<>();
+        List<String> deleted = new ArrayList<>();
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<Map.Entry<String, String>> scan = this.jedis.hscan(KEY, cursor, new ScanParams().count(10));
+            for (Map.Entry<String, String> entry : scan.getResult()) {
+                visited.add(entry.getKey());
+            }
+            cursor = scan.getStringCursor();
+            if (visited.size() >= 100 && deleted.isEmpty()) {
+                // Delete fields that have been returned, and add enough fields to resize the hash table
+                deleted.addAll(new ArrayList<>(visited).subList(0, 5));
+                this.jedis.hdel(KEY, deleted.toArray(new String[deleted.size()]));
+                for (int i = 0; i < 1000; i++) {
+                    this.jedis.hset(KEY, "added" + i, VALUE);
+                }
+            }
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+
+        // THEN
+        assertEquals(5, deleted.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(visited.contains(FIELD + i));
+        }
+    }
+
+    @Test public void hscan_with_match() {
+        // GIVEN
+        this.jedis.hset(KEY, "name", VALUE);
+        this.jedis.hset(KEY, "nickname", VALUE);
+        this.jedis.hset(KEY, "age", "42");
+
+        // WHEN
+        ScanResult<Map.Entry<String, String>> scan = this.jedis.hscan(KEY, "0", new ScanParams().match("*name"));
+
+        // THEN
+        assertEquals("0", scan.getStringCursor());
+        assertEquals(2, scan.getResult().size());
+    }
+
+    @Test public void hforeach_visits_all_the_fields() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        for (int i = 0; i < 2500; i++) {
+            fakeJedis.hset(KEY, FIELD + i, VALUE + i);
+        }
+
+        // WHEN
+        Map<String, String> result = new HashMap<>();
+        fakeJedis.hforEach(KEY, result::put);
+
+        // THEN
+        assertEquals(2500, result.size());
+        assertEquals(VALUE + 1234, result.get(FIELD + 1234));
+    }
+
+    @Test public void hforeach_visits_the_fields_that_are_not_modified_during_the_iteration() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        for (int i = 0; i < 2500; i++) {
+            fakeJedis.hset(KEY, FIELD + i, VALUE + i);
+        }
+        List<String> visited = new ArrayList<>();
+
+        // WHEN
+        fakeJedis.hforEach(KEY, (field, value) -> {
+            visited.add(field);
+            if (visited.size() == 100) {
+                // Delete fields that have been visited, and add enough fields to resize the hash table
+                fakeJedis.hdel(KEY, visited.subList(0, 5).toArray(new String[5]));
+                for (int i = 0; i < 2500; i++) {
+                    fakeJedis.hset(KEY, "added" + i, VALUE);
+                }
+            }
+        });
+
+        // THEN
+        Set<String> unique = new HashSet<>(visited);
+        for (int i = 0; i < 2500; i++) {
+            assertTrue(unique.contains(FIELD + i));
+        }
+    }
+
+    @Test public void hforeach_consumer_can_use_the_instance() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.hset(KEY, FIELD, VALUE);
+
+        // WHEN
+        fakeJedis.hforEach(KEY, (field, value) -> fakeJedis.set(field, value));
+
+        // THEN
+        assertEquals(VALUE, fakeJedis.get(FIELD));
+    }
+
+    @Test public void lrangeforeach_visits_the_range() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        for (int i = 0; i < 2500; i++) {
+            fakeJedis.lpush(KEY, VALUE + i);
+        }
+
+        // WHEN
+        List<String> result = new ArrayList<>();
+        fakeJedis.lrangeForEach(KEY, 1, -2, result::add);
+
+        // THEN
+        assertEquals(2498, result.size());
+        assertEquals(VALUE + 2498, result.get(0));
+        assertEquals(VALUE + 1, result.get(2497));
+        assertEquals(fakeJedis.lrange(KEY, 1, -2), result);
+    }
+
+    @Test public void rpush_and_rpop() {
+        // GIVEN
+
+        // WHEN
+        long len = this.jedis.rpush(KEY, "a", "b", "c");
+        String result = this.jedis.rpop(KEY);
+
+        // THEN
+        assertEquals(3, len);
+        assertEquals("c", result);
+        assertEquals(Arrays.asList("a", "b"), this.jedis.lrange(KEY, 0, -1));
+    }
+
+    @Test public void lpop_of_the_last_element_removes_the_key() {
+        // GIVEN
+        this.jedis.lpush(KEY, VALUE);
+
+        // WHEN
+        this.jedis.lpop(KEY);
+
+        // THEN
+        assertFalse(this.jedis.exists(KEY));
+        assertEquals(null, this.jedis.lpop(KEY));
+        assertEquals(null, this.jedis.rpop(KEY));
+    }
+
+    @Test public void lpushx_and_rpushx_on_unknown_key() {
+        // GIVEN
+
+        // WHEN
+        long result1 = this.jedis.lpushx(KEY, VALUE);
+        long result2 = this.jedis.rpushx(KEY, VALUE);
+
+        // THEN
+        assertEquals(0, result1);
+        assertEquals(0, result2);
+        assertFalse(this.jedis.exists(KEY));
+    }
+
+    @Test public void lindex_and_lset() {
+        // GIVEN
+        initList(this.jedis);
+
+        // WHEN
+        this.jedis.lset(KEY, -1, "last");
+        this.jedis.lset(KEY, 1, "second");
+
+        // THEN
+        assertEquals("value_10", this.jedis.lindex(KEY, 0));
+        assertEquals("second", this.jedis.lindex(KEY, 1));
+        assertEquals("last", this.jedis.lindex(KEY, 9));
+        assertEquals("last", this.jedis.lindex(KEY, -1));
+        assertEquals(null, this.jedis.lindex(KEY, 10));
+    }
+
+    @Test public void lset_out_of_range() {
+        // GIVEN
+        initList(this.jedis);
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("ERR index out of range");
+
+        // WHEN
+        this.jedis.lset(KEY, 10, VALUE);
+    }
+
+    @Test public void linsert_before_and_after_the_pivot() {
+        // GIVEN
+        this.jedis.rpush(KEY, "a", "c");
+
+        // WHEN
+        long result1 = this.jedis.linsert(KEY, BinaryClient.LIST_POSITION.BEFORE, "c", "b");
+        long result2 = this.jedis.linsert(KEY, BinaryClient.LIST_POSITION.AFTER, "c", "d");
+        long result3 = this.jedis.linsert(KEY, BinaryClient.LIST_POSITION.AFTER, "unknown", "e");
+
+        // THEN
+        assertEquals(3, result1);
+        assertEquals(4, result2);
+        assertEquals(-1, result3);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), this.jedis.lrange(KEY, 0, -1));
+    }
+
+    @Test public void lrem_from_the_head_and_from_the_tail() {
+        // GIVEN
+        this.jedis.rpush(KEY, "a", "x", "b", "x", "c", "x");
+
+        // WHEN
+        long result1 = this.jedis.lrem(KEY, 1, "x");
+        long result2 = this.jedis.lrem(KEY, -1, "x");
+
+        // THEN
+        assertEquals(1, result1);
+        assertEquals(1, result2);
+        assertEquals(Arrays.asList("a", "b", "x", "c"), this.jedis.lrange(KEY, 0, -1));
+    }
+
+    @Test public void ltrim_keeps_the_range() {
+        // GIVEN
+        initList(this.jedis);
+
+        // WHEN
+        String result = this.jedis.ltrim(KEY, 1, -2);
+
+        // THEN
+        assertEquals("OK", result);
+        assertEquals(8, (long) this.jedis.llen(KEY));
+        assertEquals("value_9", this.jedis.lindex(KEY, 0));
+        assertEquals("value_2", this.jedis.lindex(KEY, -1));
+    }
+
+    @Test public void ltrim_with_an_empty_range_removes_the_key() {
+        // GIVEN
+        initList(this.jedis);
+
+        // WHEN
+        this.jedis.ltrim(KEY, 5, 2);
+
+        // THEN
+        assertFalse(this.jedis.exists(KEY));
+    }
+
+    @Test public void rpoplpush_moves_the_last_element() {
+        // GIVEN
+        String key2 = KEY + "2";
+        this.jedis.rpush(KEY, "a", "b");
+        this.jedis.rpush(key2, "c");
+
+        // WHEN
+        String result = this.jedis.rpoplpush(KEY, key2);
+
+        // THEN
+        assertEquals("b", result);
+        assertEquals(Arrays.asList("a"), this.jedis.lrange(KEY, 0, -1));
+        assertEquals(Arrays.asList("b", "c"), this.jedis.lrange(key2, 0, -1));
+    }
+
+    @Test public void rpoplpush_on_the_same_list_rotates_it() {
+        // GIVEN
+        this.jedis.rpush(KEY, "a");
+
+        // WHEN
+        String result = this.jedis.rpoplpush(KEY, KEY);
+
+        // THEN
+        assertEquals("a", result);
+        assertEquals(Arrays.asList("a"), this.jedis.lrange(KEY, 0, -1));
+    }
+
+    @Test public void rpoplpush_with_a_missing_source_ignores_the_type_of_the_destination() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+
+        // WHEN
+        String result = this.jedis.rpoplpush("missing", KEY);
+
+        // THEN
+        assertNull(result);
+        assertEquals(VALUE, this.jedis.get(KEY));
+    }
+
+    @Test public void sort_numeric() {
+        // GIVEN
+        this.jedis.rpush(KEY, "3", "10", "1", "2.5");
+
+        // WHEN
+        List<String> asc = this.jedis.sort(KEY);
+        List<String> desc = this.jedis.sort(KEY, new SortingParams().desc());
+
+        // THEN
+        assertEquals(Arrays.asList("1", "2.5", "3", "10"), asc);
+        assertEquals(Arrays.asList("10", "3", "2.5", "1"), desc);
+    }
+
+    @Test public void sort_non_numeric_values() {
+        // GIVEN
+        this.jedis.rpush(KEY, "b", "a");
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("ERR One or more scores can't be converted into double");
+
+        // WHEN
+        this.jedis.sort(KEY);
+    }
+
+    @Test public void sort_alpha_with_limit() {
+        // GIVEN
+        this.jedis.rpush(KEY, "d", "b", "a", "c");
+
+        // WHEN
+        List<String> result = this.jedis.sort(KEY, new SortingParams().alpha().limit(1, 2));
+
+        // THEN
+        assertEquals(Arrays.asList("b", "c"), result);
+    }
+
+    @Test public void sort_by_and_get() {
+        // GIVEN
+        this.jedis.rpush(KEY, "1", "2", "3");
+        this.jedis.set("weight_1", "30");
+        this.jedis.set("weight_2", "10");
+        this.jedis.set("weight_3", "20");
+        this.jedis.set("data_1", "one");
+        this.jedis.set("data_3", "three");
+        this.jedis.hset("object_2", "name", "two");
+
+        // WHEN
+        List<String> result = this.jedis.sort(KEY, new SortingParams().by("weight_*").get("#", "data_*", "object_*->name"));
+
+        // THEN
+        assertEquals(Arrays.asList("2", null, "two", "3", "three", null, "1", "one", null), result);
+    }
+
+    @Test public void sort_nosort_keeps_the_order() {
+        // GIVEN
+        this.jedis.rpush(KEY, "3", "1", "2");
+
+        // WHEN
+        List<String> result = this.jedis.sort(KEY, new SortingParams().nosort());
+
+        // THEN
+        assertEquals(Arrays.asList("3", "1", "2"), result);
+    }
+
+    @Test public void sort_and_store() {
+        // GIVEN
+        String key2 = KEY + "2";
+        this.jedis.rpush(KEY, "3", "1", "2");
+
+        // WHEN
+        long result = this.jedis.sort(KEY, key2);
+
+        // THEN
+        assertEquals(3, result);
+        assertEquals(Arrays.asList("1", "2", "3"), this.jedis.lrange(key2, 0, -1));
+    }
+
+    @Test public void sort_a_big_list() {
+        // GIVEN
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            expected.add(String.valueOf(i));
+        }
+        List<String> shuffled = new ArrayList<>(expected);
+        Collections.shuffle(shuffled, new Random(42));
+        this.jedis.rpush(KEY, shuffled.toArray(new String[shuffled.size()]));
+
+        // WHEN
+        List<String> result = this.jedis.sort(KEY);
+
+        // THEN
+        assertEquals(expected, result);
+    }
+
+    @Test public void object_encoding_of_strings() {
+        // GIVEN
+        this.jedis.set("int", "12345");
+        this.jedis.set("embstr", VALUE);
+        this.jedis.set("raw", String.join("", Collections.nCopies(10, VALUE)));
+        this.jedis.set("appended", VALUE);
+        this.jedis.append("appended", VALUE);
+
+        // WHEN
+        String result1 = this.jedis.objectEncoding("int");
+        String result2 = this.jedis.objectEncoding("embstr");
+        String result3 = this.jedis.objectEncoding("raw");
+        String result4 = this.jedis.objectEncoding("appended");
+        String result5 = this.jedis.objectEncoding("unknown");
+
+        // THEN
+        assertEquals("int", result1);
+        assertEquals("embstr", result2);
+        assertEquals("raw", result3);
+        assertEquals("raw", result4);
+        assertEquals(null, result5);
+    }
+
+    @Test public void object_encoding_of_a_growing_hash() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.configSet("hash-max-ziplist-entries", "10");
+        for (int i = 0; i < 10; i++) {
+            fakeJedis.hset(KEY, FIELD + i, VALUE + i);
+        }
+        String before = fakeJedis.objectEncoding(KEY);
+
+        // WHEN
+        fakeJedis.hset(KEY, FIELD + 10, VALUE + 10);
+
+        // THEN
+        assertEquals("ziplist", before);
+        assertEquals("hashtable", fakeJedis.objectEncoding(KEY));
+        assertEquals(11, (long) fakeJedis.hlen(KEY));
+        assertEquals(VALUE + 3, fakeJedis.hget(KEY, FIELD + 3));
+        assertEquals(1, (long) fakeJedis.getEncodingConversions().get("ziplist->hashtable"));
+    }
+
+    @Test public void hash_with_a_big_value_is_not_compact() {
+        // GIVEN
+        String bigValue = String.join("", Collections.nCopies(10, VALUE));
+
+        // WHEN
+        this.jedis.hset(KEY, FIELD, bigValue);
+
+        // THEN
+        assertEquals("hashtable", this.jedis.objectEncoding(KEY));
+        assertEquals(bigValue, this.jedis.hget(KEY, FIELD));
+    }
+
+    @Test public void object_idletime_and_refcount() {
+        // GIVEN
+        this.jedis.lpush(KEY, VALUE);
+
+        // WHEN
+        long idletime = this.jedis.objectIdletime(KEY);
+        long refcount = this.jedis.objectRefcount(KEY);
+
+        // THEN
+        assertTrue(idletime <= 1);
+        assertEquals(1, refcount);
+        assertEquals("quicklist", this.jedis.objectEncoding(KEY));
+    }
+
+    @Test public void config_get_and_set() {
+        // GIVEN
+
+        // WHEN
+        String result = this.jedis.configSet("hash-max-ziplist-value", "32");
+        List<String> config = this.jedis.configGet("hash-max-ziplist-*");
+
+        // THEN
+        assertEquals("OK", result);
+        assertEquals(Arrays.asList("hash-max-ziplist-entries", "128", "hash-max-ziplist-value", "32"), config);
+    }
+
+    @Test public void config_set_unknown_parameter() {
+        // GIVEN
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("ERR Unsupported CONFIG parameter: unknown");
+
+        // WHEN
+        this.jedis.configSet("unknown", "1");
+    }
+
+    @Test public void scan_iterates_over_all_the_keys() {
+        // GIVEN
+        for (int i = 0; i < 100; i++) {
+            this.jedis.set(KEY + i, VALUE);
+        }
+
+        // WHEN
+        Set<String> result = new HashSet<>();
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> scan = this.jedis.scan(cursor, new ScanParams().count(15));
+            result.addAll(scan.getResult());
+            cursor = scan.getStringCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+
+        // THEN
+        assertEquals(100, result.size());
+    }
+
+    @Test public void scan_and_keys_with_the_radix_keyspace() {
+        // GIVEN
+        this.jedis.set("user:1:profile", VALUE);
+        this.jedis.set("user:1:session", VALUE);
+        this.jedis.set("user:12:profile", VALUE);
+        this.jedis.set("session:1", VALUE);
+
+        // WHEN
+        this.jedis.configSet("keyspace-encoding", "radix");
+
+        // THEN
+        assertEquals(Arrays.asList("keyspace-encoding", "radix"), this.jedis.configGet("keyspace-encoding"));
+        assertEquals(new HashSet<>(Arrays.asList("user:1:profile", "user:1:session")), this.jedis.keys("user:1:*"));
+        ScanResult<String> scan = this.jedis.scan("0", new ScanParams().match("user:1*profile"));
+        assertEquals("0", scan.getStringCursor());
+        assertEquals(Arrays.asList("user:12:profile", "user:1:profile"), scan.getResult());
+        assertEquals(VALUE, this.jedis.get("session:1"));
+    }
+
+    @Test public void big_strings_are_stored_off_heap() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.configSet("string-offheap-threshold", "100");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            builder.append("é").append(i);
+        }
+        String value = builder.toString();
+
+        // WHEN
+        fakeJedis.set(KEY, value);
+        fakeJedis.set("small", VALUE);
+        fakeJedis.append(KEY, "end");
+        fakeJedis.setrange(KEY, 500, "padded");
+
+        // THEN
+        assertEquals(512, fakeJedis.getOffHeapUsedBytes());
+        assertEquals(506, fakeJedis.strlen(KEY).longValue());
+        assertTrue(fakeJedis.get(KEY).startsWith(value + "end\0"));
+        assertEquals("é0é1", fakeJedis.getrange(KEY, 0, 5));
+        assertEquals("padded", fakeJedis.getrange(KEY, -6, -1));
+        assertEquals(VALUE, fakeJedis.get("small"));
+        assertEquals("raw", fakeJedis.objectEncoding(KEY));
+    }
+
+    @Test public void off_heap_strings_are_freed_when_removed() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.configSet("string-offheap-threshold", "10");
+        fakeJedis.set(KEY, "a big enough value");
+        fakeJedis.set("other", "a big enough value");
+        fakeJedis.set("third", "a big enough value");
+
+        // WHEN
+        String old = fakeJedis.getSet(KEY, "small");
+        fakeJedis.del("other");
+        fakeJedis.set("third", "another big value");
+
+        // THEN
+        assertEquals("a big enough value", old);
+        assertEquals(64, fakeJedis.getOffHeapUsedBytes());
+        assertEquals("another big value", fakeJedis.get("third"));
+    }
+
+    @Test public void big_values_are_compressed() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.configSet("value-compression-threshold", "1000");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            builder.append("{\"id\":").append(i).append("},");
+        }
+        String value = builder.toString();
+
+        // WHEN
+        fakeJedis.set(KEY, value);
+        fakeJedis.set("small", VALUE);
+        fakeJedis.hset("hash", FIELD, value);
+        fakeJedis.append(KEY, "end");
+
+        // THEN
+        assertEquals(value + "end", fakeJedis.get(KEY));
+        assertEquals("{\"id\":0}", fakeJedis.getrange(KEY, 0, 7));
+        assertEquals(value.length() + 3, fakeJedis.strlen(KEY).longValue());
+        assertEquals(VALUE, fakeJedis.get("small"));
+        assertEquals(value, fakeJedis.hget("hash", FIELD));
+        assertEquals(value, fakeJedis.hgetAll("hash").get(FIELD));
+        assertEquals(Collections.singletonList(value), fakeJedis.hvals("hash"));
+        Map<String, Number> stats = fakeJedis.getCompressionStats();
+        assertEquals(3l, stats.get("compressed_values"));
+        assertTrue(stats.get("ratio").doubleValue() > 4);
+    }
+
+    @Test public void compressed_hash_values_can_be_replaced_and_removed() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.configSet("value-compression-threshold", "100");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append(i % 10);
+        }
+        String value = builder.toString();
+        fakeJedis.hset(KEY, FIELD, value);
+        fakeJedis.hset(KEY, "other", value);
+
+        // WHEN
+        fakeJedis.hset(KEY, FIELD, VALUE);
+        long removed = fakeJedis.hdel(KEY, "other");
+
+        // THEN
+        assertEquals(1, removed);
+        assertEquals(VALUE, fakeJedis.hget(KEY, FIELD));
+        assertEquals(1, fakeJedis.hlen(KEY).longValue());
+    }
+
+    @Test public void list_compress_depth() {
+        // GIVEN
+        for (int i = 0; i < 1000; i++) {
+            this.jedis.rpush(KEY, VALUE + i);
+        }
+
+        // WHEN
+        this.jedis.configSet("list-compress-depth", "1");
+        this.jedis.lpush(KEY, "first");
+        this.jedis.lset(KEY, 500, "middle");
+
+        // THEN
+        assertEquals(Arrays.asList("list-compress-depth", "1"), this.jedis.configGet("list-compress-depth"));
+        assertEquals("middle", this.jedis.lindex(KEY, 500));
+        assertEquals(Arrays.asList("first", VALUE + 0), this.jedis.lrange(KEY, 0, 1));
+        assertEquals(Arrays.asList(VALUE + 998, VALUE + 999), this.jedis.lrange(KEY, -2, -1));
+        assertEquals(1001, this.jedis.llen(KEY).longValue());
+        assertTrue(((FakeJedis) this.jedis).getCompressionStats().get("compressed_values").longValue() > 0);
+    }
+
+    @Test public void list_compress_depth_applies_to_the_lists_of_all_the_databases() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.select(3);
+        for (int i = 0; i < 1000; i++) {
+            fakeJedis.rpush(KEY, VALUE + i);
+        }
+        fakeJedis.select(0);
+
+        // WHEN
+        fakeJedis.configSet("list-compress-depth", "1");
+
+        // THEN
+        assertTrue(fakeJedis.getCompressionStats().get("compressed_values").longValue() > 0);
+        fakeJedis.select(3);
+        assertEquals(VALUE + 500, fakeJedis.lindex(KEY, 500));
+    }
+
+    @Test public void list_compress_depth_does_not_compress_the_lists_shared_with_a_fork() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        for (int i = 0; i < 1000; i++) {
+            fakeJedis.rpush(KEY, VALUE + i);
+        }
+        FakeJedis fork = fakeJedis.fork();
+
+        // WHEN
+        fakeJedis.configSet("list-compress-depth", "1");
+        Number decompressNanos = fakeJedis.getCompressionStats().get("decompress_nanos");
+        List<String> forked = fork.lrange(KEY, 0, -1);
+
+        // THEN
+        assertTrue(fakeJedis.getCompressionStats().get("compressed_values").longValue() > 0);
+        // The list of the fork is not compressed: reading it decompresses nothing
+        assertEquals(decompressNanos, fakeJedis.getCompressionStats().get("decompress_nanos"));
+        assertEquals(1000, forked.size());
+        assertEquals(VALUE + 500, fakeJedis.lindex(KEY, 500));
+        assertEquals(Arrays.asList("list-compress-depth", "0"), fork.configGet("list-compress-depth"));
+    }
+
+    @Test public void small_integers_are_shared() {
+        // GIVEN
+        this.jedis.set(KEY, "42");
+        this.jedis.set("other", "42");
+        this.jedis.set(KEY + 2, "042");
+
+        // WHEN
+        this.jedis.append("other", "0");
+
+        // THEN
+        assertEquals(Integer.MAX_VALUE, this.jedis.objectRefcount(KEY).longValue());
+        assertEquals("int", this.jedis.objectEncoding(KEY));
+        assertEquals("42", this.jedis.get(KEY));
+        assertEquals("420", this.jedis.get("other"));
+        assertEquals(1, this.jedis.objectRefcount("other").longValue());
+        assertEquals(1, this.jedis.objectRefcount(KEY + 2).longValue());
+    }
+
+    @Test public void short_values_are_interned() {
+        // GIVEN
+        this.jedis.configSet("shared-values-max-entries", "100");
+
+        // WHEN
+        this.jedis.set(KEY, "true");
+        this.jedis.setnx("other", new String("true"));
+        this.jedis.hset("hash", FIELD, new String("true"));
+        this.jedis.setrange(KEY, 0, "T");
+
+        // THEN
+        assertEquals(Integer.MAX_VALUE, this.jedis.objectRefcount("other").longValue());
+        assertEquals(1, this.jedis.objectRefcount(KEY).longValue());
+        assertEquals("True", this.jedis.get(KEY));
+        assertSame(this.jedis.get("other"), this.jedis.hget("hash", FIELD));
+    }
+
+    @Test public void save_writes_an_rdb_file_that_loadRdb_reads() throws IOException {
+        // GIVEN
+        Path dir = Files.createTempDirectory("fake-jedis");
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.configSet("dir", dir.toString());
+        fakeJedis.configSet("dbfilename", "test.rdb");
+        fakeJedis.set(KEY, VALUE);
+        fakeJedis.set("counter", "42");
+        fakeJedis.select(5);
+        fakeJedis.rpush("list", "a", "b", "c");
+        fakeJedis.hset("hash", FIELD, VALUE);
+
+        // WHEN
+        String result = fakeJedis.save();
+        FakeJedis other = new FakeJedis();
+        other.set("dropped", VALUE);
+        Map<String, Long> stats = other.loadRdb(dir.resolve("test.rdb"));
+
+        // THEN
+        assertEquals("OK", result);
+        assertEquals(4, stats.get("keys_loaded").longValue());
+        assertNull(other.get("dropped"));
+        assertEquals(VALUE, other.get(KEY));
+        assertEquals("42", other.get("counter"));
+        other.select(5);
+        assertEquals(Arrays.asList("a", "b", "c"), other.lrange("list", 0, -1));
+        assertEquals(VALUE, other.hget("hash", FIELD));
+        assertTrue(fakeJedis.lastsave() >= System.currentTimeMillis() / 1000 - 1);
+    }
+
+    @Test public void bgsave_writes_the_rdb_file_in_the_background() throws Exception {
+        // GIVEN
+        Path dir = Files.createTempDirectory("fake-jedis");
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.configSet("dir", dir.toString());
+        fakeJedis.set(KEY, VALUE);
+
+        // WHEN
+        String result = fakeJedis.bgsave();
+
+        // THEN
+        assertEquals("Background saving started", result);
+        Path file = dir.resolve("dump.rdb");
+        for (int i = 0; i < 500 && !Files.exists(file); i++) {
+            Thread.sleep(10);
+        }
+        FakeJedis other = new FakeJedis();
+        other.loadRdb(file);
+        assertEquals(VALUE, other.get(KEY));
+    }
+
+    @Test public void loadRdb_keeps_the_databases_if_the_file_is_invalid() throws IOException {
+        // GIVEN
+        Path file = Files.createTempFile("fake-jedis", ".rdb");
+        Files.write(file, "REDIS0009 not an rdb file".getBytes(StandardCharsets.US_ASCII));
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.set(KEY, VALUE);
+
+        // WHEN
+        try {
+            fakeJedis.loadRdb(file);
+        } catch (FakeJedisException e) {
+            // Expected
+        }
+
+        // THEN
+        assertEquals(VALUE, fakeJedis.get(KEY));
+    }
+
+    @Test public void saveSnapshot_writes_a_snapshot_that_loadSnapshot_maps() throws IOException {
+        // GIVEN
+        Path file = Files.createTempDirectory("fake-jedis").resolve("fixture.snapshot");
+        FakeJedis fakeJedis = new FakeJedis();
+        for (int i = 0; i < 1000; i++) {
+            fakeJedis.set("key:" + i, "value:" + i);
+        }
+        fakeJedis.select(5);
+        fakeJedis.rpush("list", "a", "b", "c");
+        fakeJedis.hset("hash", FIELD, VALUE);
+        fakeJedis.saveSnapshot(file);
+        FakeJedis other = new FakeJedis();
+        other.set("dropped", VALUE);
+
+        // WHEN
+        Map<String, Long> stats = other.loadSnapshot(file);
+
+        // THEN
+        assertEquals(1002, stats.get("keys_loaded").longValue());
+        assertEquals(Files.size(file), stats.get("snapshot_bytes").longValue());
+        assertNull(other.get("dropped"));
+        assertEquals(1000, other.dbSize().longValue());
+        assertEquals("value:42", other.get("key:42"));
+        assertEquals(9L, other.append("key:42", "!").longValue());
+        assertEquals("value:42!", other.get("key:42"));
+        assertEquals(1L, other.del("key:43").longValue());
+        assertEquals(999, other.keys("key:*").size());
+        other.select(5);
+        assertEquals("list", other.type("list"));
+        assertEquals(Arrays.asList("a", "b", "c"), other.lrange("list", 0, -1));
+        assertEquals(VALUE, other.hget("hash", FIELD));
+    }
+
+    @Test public void loadSnapshot_keeps_the_databases_if_the_file_is_invalid() throws IOException {
+        // GIVEN
+        Path file = Files.createTempFile("fake-jedis", ".snapshot");
+        Files.write(file, "FJSNAP".getBytes(StandardCharsets.US_ASCII));
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.set(KEY, VALUE);
+
+        // WHEN
+        try {
+            fakeJedis.loadSnapshot(file);
+        } catch (FakeJedisException e) {
+            // Expected
+        }
+
+        // THEN
+        assertEquals(VALUE, fakeJedis.get(KEY));
+    }
+
+    @Test public void massInsert_executes_the_commands_of_a_stream_in_batches() {
+        // GIVEN
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < 25000; i++) {
+            commands.append(resp("SET", "key:" + i, "value:" + i));
+        }
+        commands.append(resp("RPUSH", "list", "a", "b"));
+        commands.append(resp("HSET", "hash", FIELD, "é"));
+        commands.append(resp("NOPE", KEY));
+        commands.append(resp("SELECT", "2"));
+        commands.append(resp("SET", KEY, VALUE));
+        InputStream in = new ByteArrayInputStream(commands.toString().getBytes(StandardCharsets.UTF_8));
+        List<Map<String, Number>> progress = new ArrayList<>();
+        FakeJedis fakeJedis = new FakeJedis();
+
+        // WHEN
+        Map<String, Number> stats = fakeJedis.massInsert(in, progress::add);
 
         // THEN
-        assertEquals(0, result.size());
+        assertEquals(25005L, stats.get("commands"));
+        assertEquals(1L, stats.get("errors"));
+        assertEquals((long) commands.toString().getBytes(StandardCharsets.UTF_8).length, stats.get("bytes"));
+        assertEquals(0L, stats.get("truncated_bytes"));
+        assertTrue(stats.get("ops_per_sec").doubleValue() > 0);
+        assertEquals(stats.get("commands"), progress.get(progress.size() - 1).get("commands"));
+        assertEquals(25002, fakeJedis.dbSize().longValue());
+        assertEquals("value:24999", fakeJedis.get("key:24999"));
+        assertEquals(Arrays.asList("a", "b"), fakeJedis.lrange("list", 0, -1));
+        assertEquals("é", fakeJedis.hget("hash", FIELD));
+        fakeJedis.select(2);
+        assertEquals(VALUE, fakeJedis.get(KEY));
     }
 
-    @Test public void hgetall_with_hash() {
+    @Test(timeout = 10000) public void massInsert_reads_a_command_whose_header_is_split_by_the_buffer() throws IOException {
         // GIVEN
-        this.jedis.hset(KEY, FIELD, VALUE);
-        String field2 = FIELD + "2";
-        String value2 = VALUE + "2";
-        this.jedis.hset(KEY, field2, value2);
+        Path file = Files.createTempFile("fake-jedis", ".txt");
+        String command = rpushWithAHeaderAcross(256 * 1024);
+        Files.write(file, (command + resp("SET", KEY, VALUE)).getBytes(StandardCharsets.US_ASCII));
+        FakeJedis fakeJedis = new FakeJedis();
 
         // WHEN
-        Map<String, String> result = this.jedis.hgetAll(KEY);
+        Map<String, Number> stats = fakeJedis.massInsert(file);
 
         // THEN
-        assertEquals(2, result.size());
-        assertEquals(VALUE, result.get(FIELD));
-        assertEquals(value2, result.get(field2));
+        assertEquals(2L, stats.get("commands"));
+        assertEquals(0L, stats.get("truncated_bytes"));
+        assertEquals(11, fakeJedis.llen("list").longValue());
+        assertEquals("value:9", fakeJedis.lindex("list", -1));
+        assertEquals(VALUE, fakeJedis.get(KEY));
     }
 
-    @Test public void hgetall_on_a_list() {
+    @Test public void massInsert_reads_a_file_of_inline_commands() throws IOException {
+        // GIVEN
+        Path file = Files.createTempFile("fake-jedis", ".txt");
+        Files.write(file, "SET a 1\r\nAPPEND a 2\r\nRPUSH list x y\r\n*2\r\n$3\r\nGET".getBytes(StandardCharsets.US_ASCII));
+        FakeJedis fakeJedis = new FakeJedis();
+
+        // WHEN
+        Map<String, Number> stats = fakeJedis.massInsert(file);
+
+        // THEN
+        assertEquals(3L, stats.get("commands"));
+        assertEquals(0L, stats.get("errors"));
+        assertEquals(11L, stats.get("truncated_bytes"));
+        assertEquals("12", fakeJedis.get("a"));
+        assertEquals(Arrays.asList("x", "y"), fakeJedis.lrange("list", 0, -1));
+    }
+
+    @Test public void fork_creates_an_independent_copy_of_the_databases() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.set(KEY, VALUE);
+        fakeJedis.set("removed", VALUE);
+        fakeJedis.select(3);
+        fakeJedis.set("other", VALUE);
+
+        // WHEN
+        FakeJedis fork = fakeJedis.fork();
+        long forkDb = fork.getDB();
+        fork.del("other");
+        fork.select(0);
+        fork.set(KEY, "forked");
+        fork.set("new", VALUE);
+        fakeJedis.select(0);
+        fakeJedis.del("removed");
+
+        // THEN
+        assertEquals(3L, forkDb);
+        assertEquals("forked", fork.get(KEY));
+        assertEquals(VALUE, fork.get("removed"));
+        assertEquals(3L, fork.dbSize().longValue());
+        assertEquals(VALUE, fakeJedis.get(KEY));
+        assertNull(fakeJedis.get("new"));
+        assertEquals(1L, fakeJedis.dbSize().longValue());
+        fakeJedis.select(3);
+        assertEquals(VALUE, fakeJedis.get("other"));
+        fork.select(3);
+        assertNull(fork.get("other"));
+        assertEquals(0L, fork.dbSize().longValue());
+    }
+
+    @Test public void fork_copies_the_lists_and_the_hashes_on_their_first_write() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.rpush("list", "a", "b", "c");
+        fakeJedis.rpush("rotated", "x", "y");
+        fakeJedis.hset("hash", FIELD, VALUE);
+        fakeJedis.hset("hash", "other", VALUE);
+        fakeJedis.set("str", "abc");
+
+        // WHEN
+        FakeJedis fork = fakeJedis.fork();
+        fork.rpush("list", "d");
+        fork.rpoplpush("rotated", "rotated");
+        fork.hset("hash", FIELD, "forked");
+        fork.append("str", "d");
+        fakeJedis.lset("list", 0, "z");
+        fakeJedis.hdel("hash", "other");
+
+        // THEN
+        assertEquals(Arrays.asList("a", "b", "c", "d"), fork.lrange("list", 0, -1));
+        assertEquals(Arrays.asList("y", "x"), fork.lrange("rotated", 0, -1));
+        assertEquals("forked", fork.hget("hash", FIELD));
+        assertEquals(VALUE, fork.hget("hash", "other"));
+        assertEquals("abcd", fork.get("str"));
+        assertEquals(Arrays.asList("z", "b", "c"), fakeJedis.lrange("list", 0, -1));
+        assertEquals(Arrays.asList("x", "y"), fakeJedis.lrange("rotated", 0, -1));
+        assertEquals(VALUE, fakeJedis.hget("hash", FIELD));
+        assertNull(fakeJedis.hget("hash", "other"));
+        assertEquals("abc", fakeJedis.get("str"));
+    }
+
+    @Test public void fork_can_fork_a_fork() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.rpush(KEY, "a");
+        FakeJedis fork = fakeJedis.fork();
+        fork.rpush(KEY, "b");
+
+        // WHEN
+        FakeJedis grandchild = fork.fork();
+        grandchild.rpush(KEY, "c");
+        fork.lpop(KEY);
+
+        // THEN
+        assertEquals(Arrays.asList("a"), fakeJedis.lrange(KEY, 0, -1));
+        assertEquals(Arrays.asList("b"), fork.lrange(KEY, 0, -1));
+        assertEquals(Arrays.asList("a", "b", "c"), grandchild.lrange(KEY, 0, -1));
+    }
+
+    @Test public void scan_visits_all_the_keys_of_stacked_forks() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        for (int i = 0; i < 100; i++) {
+            fakeJedis.set("key:" + i, VALUE);
+        }
+        FakeJedis fork = fakeJedis;
+        for (int i = 0; i < 40; i++) {
+            fork = fork.fork();
+            fork.set("fork:" + i, VALUE);
+        }
+        Set<String> keys = new HashSet<>();
+
+        // WHEN
+        String cursor = "0";
+        int calls = 0;
+        do {
+            ScanResult<String> scan = fork.scan(cursor);
+            keys.addAll(scan.getResult());
+            cursor = scan.getStringCursor();
+            calls++;
+        } while (!cursor.equals("0") && calls < 1000);
+
+        // THEN
+        assertEquals("0", cursor);
+        assertEquals(140, keys.size());
+        assertEquals(140L, fork.dbSize().longValue());
+        assertEquals(100L, fakeJedis.dbSize().longValue());
+    }
+
+    @Test public void fork_keeps_the_off_heap_strings_that_the_other_server_deletes() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.configSet("string-offheap-threshold", "64");
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            big.append('a');
+        }
+        fakeJedis.set(KEY, big.toString());
+        FakeJedis fork = fakeJedis.fork();
+
+        // WHEN
+        fakeJedis.del(KEY);
+        fakeJedis.flushAll();
+
+        // THEN
+        assertEquals(big.toString(), fork.get(KEY));
+        assertEquals("64", fork.configGet("string-offheap-threshold").get(1));
+    }
+
+    @Test public void fork_copies_the_values_of_a_snapshot_that_are_decoded_after_the_fork() throws IOException {
+        // GIVEN
+        Path file = Files.createTempDirectory("fake-jedis").resolve("fixture.snapshot");
+        FakeJedis fixture = new FakeJedis();
+        fixture.rpush("list", "a", "b");
+        fixture.saveSnapshot(file);
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.loadSnapshot(file);
+
+        // WHEN
+        FakeJedis fork = fakeJedis.fork();
+        fork.rpush("list", "c");
+
+        // THEN
+        assertEquals(Arrays.asList("a", "b", "c"), fork.lrange("list", 0, -1));
+        assertEquals(Arrays.asList("a", "b"), fakeJedis.lrange("list", 0, -1));
+    }
+
+    @Test public void a_snapshot_loaded_after_a_fork_is_not_shared_with_the_fork() throws IOException {
+        // GIVEN
+        Path file = Files.createTempDirectory("fake-jedis").resolve("fixture.snapshot");
+        FakeJedis fixture = new FakeJedis();
+        fixture.set(KEY, "a big enough value");
+        fixture.saveSnapshot(file);
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.configSet("string-offheap-threshold", "10");
+        fakeJedis.fork();
+        fakeJedis.loadSnapshot(file);
+
+        // WHEN
+        assertEquals("a big enough value", fakeJedis.get(KEY));
+        long decoded = fakeJedis.getOffHeapUsedBytes();
+        fakeJedis.del(KEY);
+
+        // THEN
+        assertTrue(decoded > 0);
+        // Not shared with the fork: the string is released
+        assertEquals(0, fakeJedis.getOffHeapUsedBytes());
+    }
+
+    @Test public void fork_of_a_big_database_only_copies_the_written_keys() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        for (int i = 0; i < 100000; i++) {
+            fakeJedis.set("key:" + i, "value:" + i);
+        }
+
+        // WHEN
+        List<FakeJedis> forks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            FakeJedis fork = fakeJedis.fork();
+            fork.set("key:" + i, "forked");
+            forks.add(fork);
+        }
+
+        // THEN
+        for (int i = 0; i < 100; i++) {
+            assertEquals("forked", forks.get(i).get("key:" + i));
+            assertEquals("value:" + (i + 1), forks.get(i).get("key:" + (i + 1)));
+            assertEquals(100000L, forks.get(i).dbSize().longValue());
+        }
+        assertEquals("value:0", fakeJedis.get("key:0"));
+    }
+
+    @Test public void config_set_dir_to_a_missing_directory() {
         // GIVEN
-        this.jedis.lpush(KEY, VALUE);
 
         // THEN
         this.expectedException.expect(JedisDataException.class);
-        this.expectedException.expectMessage("WRONGTYPE Operation against a key holding the wrong kind of value");
+        this.expectedException.expectMessage("ERR Invalid argument");
 
         // WHEN
-        this.jedis.hgetAll(KEY);
+        this.jedis.configSet("dir", "/does/not/exist");
     }
 
-    @Test public void setnx_if_already_exists() {
+    @Test public void the_aof_can_be_replayed_by_loadAof() throws Exception {
+        // GIVEN
+        Path dir = Files.createTempDirectory("fake-jedis");
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.set("before", VALUE);
+        fakeJedis.configSet("dir", dir.toString());
+        fakeJedis.configSet("appendfsync", "always");
+        fakeJedis.configSet("appendonly", "yes");
+        awaitAofRewrite(fakeJedis);
+
+        // WHEN
+        fakeJedis.set(KEY, VALUE);
+        fakeJedis.rpush("list", "a", "b", "c");
+        fakeJedis.lpop("list");
+        fakeJedis.hincrByFloat("hash", FIELD, 1.5);
+        fakeJedis.select(2);
+        Transaction transaction = fakeJedis.multi();
+        transaction.set(KEY, "in db 2");
+        transaction.del("missing");
+        transaction.exec();
+        fakeJedis.configSet("appendonly", "no");
+        FakeJedis other = new FakeJedis();
+        Map<String, Long> stats = other.loadAof(dir.resolve("appendonly.aof"));
+
+        // THEN
+        assertEquals(0, stats.get("commands_failed").longValue());
+        assertEquals(0, stats.get("truncated_bytes").longValue());
+        assertEquals(VALUE, other.get("before"));
+        assertEquals(VALUE, other.get(KEY));
+        assertEquals(Arrays.asList("b", "c"), other.lrange("list", 0, -1));
+        assertEquals("1.5", other.hget("hash", FIELD));
+        other.select(2);
+        assertEquals("in db 2", other.get(KEY));
+        String content = new String(Files.readAllBytes(dir.resolve("appendonly.aof")), StandardCharsets.UTF_8);
+        assertTrue(content.contains("MULTI"));
+        assertFalse(content.contains("missing"));
+    }
+
+    @Test public void loadAof_ignores_an_incomplete_command_at_the_end() throws IOException {
+        // GIVEN
+        Path file = Files.createTempFile("fake-jedis", ".aof");
+        Files.write(file, "*3\r\n$3\r\nSET\r\n$1\r\na\r\n$1\r\n1\r\n*3\r\n$3\r\nSET\r\n$1\r\nb".getBytes(StandardCharsets.US_ASCII));
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.set("dropped", VALUE);
+
+        // WHEN
+        Map<String, Long> stats = fakeJedis.loadAof(file);
+
+        // THEN
+        assertEquals(1, stats.get("commands_loaded").longValue());
+        assertEquals(18, stats.get("truncated_bytes").longValue());
+        assertEquals("1", fakeJedis.get("a"));
+        assertNull(fakeJedis.get("b"));
+        assertNull(fakeJedis.get("dropped"));
+    }
+
+    @Test(timeout = 10000) public void loadAof_reads_a_command_whose_header_is_split_by_the_buffer() throws IOException {
+        // GIVEN
+        Path file = Files.createTempFile("fake-jedis", ".aof");
+        String command = rpushWithAHeaderAcross(64 * 1024);
+        Files.write(file, command.getBytes(StandardCharsets.US_ASCII));
+        FakeJedis fakeJedis = new FakeJedis();
+
+        // WHEN
+        Map<String, Long> stats = fakeJedis.loadAof(file);
+
+        // THEN
+        assertEquals(1, stats.get("commands_loaded").longValue());
+        assertEquals(0, stats.get("truncated_bytes").longValue());
+        assertEquals(11, fakeJedis.llen("list").longValue());
+        assertEquals("value:9", fakeJedis.lindex("list", -1));
+    }
+
+    @Test public void bgrewriteaof_compacts_the_aof_while_the_clients_write() throws Exception {
+        // GIVEN
+        Path dir = Files.createTempDirectory("fake-jedis");
+        FakeJedis fakeJedis = new FakeJedis();
+        fakeJedis.configSet("dir", dir.toString());
+        fakeJedis.configSet("appendonly", "yes");
+        for (int i = 0; i < 5000; i++) {
+            fakeJedis.rpush("list:" + (i % 100), String.valueOf(i));
+            fakeJedis.set("key:" + i, VALUE);
+        }
+        awaitAofRewrite(fakeJedis);
+        FakeJedis writer = fakeJedis.newClient();
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < 5000; i++) {
+                writer.lpop("list:" + (i % 100));
+                writer.rename("key:" + i, "renamed:" + i);
+                writer.hset("hash", FIELD + i, VALUE);
+            }
+        });
+
+        // WHEN
+        thread.start();
+        String result = fakeJedis.bgrewriteaof();
+        thread.join();
+        awaitAofRewrite(fakeJedis);
+        fakeJedis.configSet("appendonly", "no");
+        FakeJedis other = new FakeJedis();
+        other.loadAof(dir.resolve("appendonly.aof"));
+
+        // THEN
+        assertEquals("Background append only file rewriting started", result);
+        assertEquals(fakeJedis.keys("*"), other.keys("*"));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(fakeJedis.lrange("list:" + i, 0, -1), other.lrange("list:" + i, 0, -1));
+        }
+        assertEquals(fakeJedis.hgetAll("hash"), other.hgetAll("hash"));
+        assertEquals(2, fakeJedis.getAofStats().get("aof_rewrites").longValue());
+    }
+
+    @Test public void config_set_appendfsync_unknown_policy() {
+        // GIVEN
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("ERR Invalid argument 'sometimes' for CONFIG SET 'appendfsync'");
+
+        // WHEN
+        this.jedis.configSet("appendfsync", "sometimes");
+    }
+
+    @Test public void select_isolates_the_databases() {
         // GIVEN
-        String value2 = VALUE + "2";
         this.jedis.set(KEY, VALUE);
 
         // WHEN
-        long result = this.jedis.setnx(KEY, value2);
+        this.jedis.select(3);
+        this.jedis.set("other", VALUE);
 
         // THEN
-        assertEquals(0, result);
+        assertEquals(3, this.jedis.getDB().longValue());
+        assertNull(this.jedis.get(KEY));
+        assertEquals(1, this.jedis.dbSize().longValue());
+        this.jedis.select(0);
         assertEquals(VALUE, this.jedis.get(KEY));
+        assertNull(this.jedis.get("other"));
     }
 
-    @Test public void setnx_if_doesnt_exist() {
+    @Test public void select_out_of_range() {
+        // GIVEN
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("ERR DB index is out of range");
+
+        // WHEN
+        this.jedis.select(16);
+    }
+
+    @Test public void move_a_key() {
         // GIVEN
+        this.jedis.set(KEY, VALUE);
+        this.jedis.set("other", VALUE);
+        this.jedis.select(1);
+        this.jedis.set("other", "taken");
+        this.jedis.select(0);
 
         // WHEN
-        long result = this.jedis.setnx(KEY, VALUE);
+        long moved = this.jedis.move(KEY, 1);
+        long notMoved = this.jedis.move("other", 1);
+        long missing = this.jedis.move("missing", 1);
 
         // THEN
-        assertEquals(1, result);
+        assertEquals(1, moved);
+        assertEquals(0, notMoved);
+        assertEquals(0, missing);
+        assertNull(this.jedis.get(KEY));
+        this.jedis.select(1);
         assertEquals(VALUE, this.jedis.get(KEY));
+        assertEquals("taken", this.jedis.get("other"));
+    }
+
+    @Test public void flushdb_and_flushall() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+        this.jedis.select(1);
+        this.jedis.set(KEY, VALUE);
+        this.jedis.select(2);
+        this.jedis.set(KEY, VALUE);
+
+        // WHEN
+        this.jedis.flushDB();
+
+        // THEN
+        assertEquals(0, this.jedis.dbSize().longValue());
+        this.jedis.select(1);
+        assertEquals(1, this.jedis.dbSize().longValue());
+        this.jedis.flushAll();
+        assertEquals(0, this.jedis.dbSize().longValue());
+        this.jedis.select(0);
+        assertEquals(0, this.jedis.dbSize().longValue());
+    }
+
+    @Test public void clients_share_the_databases_and_swapdb() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        FakeJedis other = fakeJedis.newClient();
+        other.select(1);
+        other.set(KEY, "in db 1");
+        fakeJedis.set(KEY, "in db 0");
+
+        // WHEN
+        fakeJedis.swapDB(0, 1);
+
+        // THEN
+        assertEquals("in db 1", fakeJedis.get(KEY));
+        assertEquals("in db 0", other.get(KEY));
+        assertEquals(0, fakeJedis.getDB().longValue());
+    }
+
+    @Test public void off_heap_strings_are_freed_in_the_background() throws InterruptedException {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.configSet("string-offheap-threshold", "10");
+        for (int i = 0; i < 100; i++) {
+            fakeJedis.set(KEY + i, "a big enough value");
+        }
+        fakeJedis.select(1);
+        fakeJedis.set(KEY, "a big enough value");
+
+        // WHEN
+        long unlinked = fakeJedis.unlink(KEY, "missing");
+        fakeJedis.flushAll();
+
+        // THEN
+        assertEquals(1, unlinked);
+        for (int i = 0; i < 5000 && fakeJedis.getLazyFreeStats().get("lazyfree_pending_objects") > 0; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(101, fakeJedis.getLazyFreeStats().get("lazyfreed_objects").longValue());
+        assertEquals(0, fakeJedis.getOffHeapUsedBytes());
+    }
+
+    @Test public void rename_moves_the_object() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+        this.jedis.set("other", VALUE);
+
+        // WHEN
+        String result = this.jedis.rename(KEY, "other");
+
+        // THEN
+        assertEquals("OK", result);
+        assertFalse(this.jedis.exists(KEY));
+        assertEquals("hash", this.jedis.type("other"));
+        assertEquals(VALUE, this.jedis.hget("other", FIELD));
+    }
+
+    @Test public void rename_a_missing_key() {
+        // GIVEN
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("ERR no such key");
+
+        // WHEN
+        this.jedis.rename(KEY, "other");
+    }
+
+    @Test public void renamenx_does_not_overwrite() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+        this.jedis.set("other", "other value");
+
+        // WHEN
+        long notRenamed = this.jedis.renamenx(KEY, "other");
+        long renamed = this.jedis.renamenx(KEY, "new");
+
+        // THEN
+        assertEquals(0, notRenamed);
+        assertEquals(1, renamed);
+        assertEquals("other value", this.jedis.get("other"));
+        assertEquals(VALUE, this.jedis.get("new"));
+    }
+
+    @Test public void type_randomkey_and_persist() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+        this.jedis.rpush("list", VALUE);
+
+        // WHEN
+        Set<String> randomKeys = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            randomKeys.add(this.jedis.randomKey());
+        }
+
+        // THEN
+        assertEquals(new HashSet<>(Arrays.asList(KEY, "list")), randomKeys);
+        assertEquals("string", this.jedis.type(KEY));
+        assertEquals("list", this.jedis.type("list"));
+        assertEquals("none", this.jedis.type("missing"));
+        assertEquals(0, this.jedis.persist(KEY).longValue());
+        this.jedis.flushDB();
+        assertNull(this.jedis.randomKey());
+    }
+
+    @Test public void client_tracking_sends_the_modified_keys_once() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        FakeJedis writer = fakeJedis.newClient();
+        List<String> invalidated = new ArrayList<>();
+        fakeJedis.clientTrackingOn(invalidated::add);
+        fakeJedis.hget(KEY, FIELD);
+        fakeJedis.get("other");
+
+        // WHEN
+        writer.hset(KEY, FIELD, VALUE);
+        writer.hset(KEY, FIELD, "second value");
+        writer.set("not read", VALUE);
+        fakeJedis.hgetAll(KEY);
+        writer.del(KEY);
+        writer.flushAll();
+
+        // THEN
+        assertEquals(Arrays.asList(KEY, KEY, null), invalidated);
+        assertEquals(1, fakeJedis.getTrackingStats().get("tracking_clients").longValue());
+        fakeJedis.clientTrackingOff();
+        assertEquals(0, fakeJedis.getTrackingStats().get("tracking_clients").longValue());
+    }
+
+    @Test public void client_tracking_tracks_the_source_of_sort_store() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        FakeJedis writer = fakeJedis.newClient();
+        List<String> invalidated = new ArrayList<>();
+        fakeJedis.rpush(KEY, "2", "1");
+        fakeJedis.clientTrackingOn(invalidated::add);
+        fakeJedis.sort(KEY, "sorted");
+
+        // WHEN
+        writer.rpush(KEY, "3");
+
+        // THEN
+        assertEquals(Arrays.asList(KEY), invalidated);
+    }
+
+    @Test public void client_tracking_broadcast_sends_the_keys_of_the_prefixes() {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        List<String> invalidated = new ArrayList<>();
+        fakeJedis.clientTrackingBroadcast(invalidated::add, "user:", "us");
+
+        // WHEN
+        fakeJedis.set("user:1", VALUE);
+        fakeJedis.rpush("session:1", VALUE);
+        fakeJedis.hset("user:2", FIELD, VALUE);
+        fakeJedis.rename("user:1", "session:2");
+
+        // THEN
+        assertEquals(Arrays.asList("user:1", "user:2", "user:1"), invalidated);
+        assertEquals(2, fakeJedis.getTrackingStats().get("tracking_total_prefixes").longValue());
     }
 
     @Test public void call_a_method_that_is_not_implemented() {
@@ -500,6 +2263,32 @@ public class FakeJedisTest {
         this.jedis.exists(KEY);
     }
 
+    @Test public void if_isInMulti_we_cant_use_saveRdb() throws IOException {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.multi();
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("Cannot use Jedis when in Multi. Please use JedisTransaction instead.");
+
+        // WHEN
+        fakeJedis.saveRdb(Files.createTempDirectory("fake-jedis").resolve("dump.rdb"));
+    }
+
+    @Test public void if_isInMulti_we_cant_use_saveSnapshot() throws IOException {
+        // GIVEN
+        FakeJedis fakeJedis = (FakeJedis) this.jedis;
+        fakeJedis.multi();
+
+        // THEN
+        this.expectedException.expect(JedisDataException.class);
+        this.expectedException.expectMessage("Cannot use Jedis when in Multi. Please use JedisTransaction instead.");
+
+        // WHEN
+        fakeJedis.saveSnapshot(Files.createTempDirectory("fake-jedis").resolve("fixture.snapshot"));
+    }
+
     @Test public void if_was_in_multi_but_exec_was_called_the_instance_can_be_used() {
         // GIVEN
         Transaction tr = this.jedis.multi();
@@ -528,4 +2317,46 @@ public class FakeJedisTest {
         String result = this.jedis.hget(KEY, FIELD);
         assertEquals("0", result);
     }
+
+    private static String resp(String... args) {
+        StringBuilder resp = new StringBuilder("*").append(args.length).append("\r\n");
+        for (String arg : args) {
+            resp.append('$').append(arg.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(arg).append("\r\n");
+        }
+        return resp.toString();
+    }
+
+    /**
+     * @return an RPUSH of 11 elements to the key "list", where the header of the second element starts 2 bytes before
+     * the position
+     */
+    private static String rpushWithAHeaderAcross(int position) {
+        String[] args = new String[13];
+        args[0] = "RPUSH";
+        args[1] = "list";
+        for (int i = 0; i < 10; i++) {
+            args[i + 3] = "value:" + i;
+        }
+        args[2] = "";
+        // The padding moves the header by its length, and by the digits of its length in its own header
+        int header = resp(args).indexOf("$7\r\nvalue:0");
+        int length = 0;
+        while (header + length + String.valueOf(length).length() - 1 < position - 2) {
+            length++;
+        }
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            padding.append('x');
+        }
+        args[2] = padding.toString();
+        String command = resp(args);
+        assertEquals(position - 2, command.indexOf("$7\r\nvalue:0"));
+        return command;
+    }
+
+    private static void awaitAofRewrite(FakeJedis jedis) throws InterruptedException {
+        for (int i = 0; i < 1000 && jedis.getAofStats().get("aof_rewrite_in_progress") == 1; i++) {
+            Thread.sleep(10);
+        }
+    }
 }
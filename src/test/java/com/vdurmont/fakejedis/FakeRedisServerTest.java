@@ -0,0 +1,367 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class FakeRedisServerTest {
+    private static final String KEY = "my_key";
+    private static final String FIELD = "my_field";
+    private static final String VALUE = "my_value";
+
+    @Rule public ExpectedException expectedEx = ExpectedException.none();
+
+    private FakeJedis fakeJedis;
+    private FakeRedisServer server;
+    private Jedis jedis;
+
+    @Before public void before() {
+        this.fakeJedis = new FakeJedis();
+        this.server = new FakeRedisServer(this.fakeJedis, 0).start();
+        this.jedis = new Jedis("localhost", this.server.getPort());
+    }
+
+    @After public void after() {
+        this.jedis.close();
+        this.server.close();
+    }
+
+    @Test public void a_real_client_shares_the_databases_of_the_fake() {
+        // GIVEN
+        this.fakeJedis.set(KEY, VALUE);
+
+        // WHEN
+        String value = this.jedis.get(KEY);
+        this.jedis.hset(KEY + "2", FIELD, VALUE);
+
+        // THEN
+        assertEquals(VALUE, value);
+        assertEquals(VALUE, this.fakeJedis.hget(KEY + "2", FIELD));
+    }
+
+    @Test public void serves_strings_lists_and_hashes() {
+        // GIVEN
+        Map<String, String> hash = new HashMap<>();
+        hash.put(FIELD, VALUE);
+        hash.put("count", "1");
+
+        // WHEN
+        this.jedis.rpush(KEY, "a", "b", "c");
+        this.jedis.hmset(KEY + "2", hash);
+        this.jedis.hincrBy(KEY + "2", "count", 41);
+        this.jedis.set(KEY + "3", "héllo");
+
+        // THEN
+        assertEquals(Arrays.asList("a", "b", "c"), this.jedis.lrange(KEY, 0, -1));
+        assertEquals(Long.valueOf(3), this.jedis.llen(KEY));
+        assertEquals("42", this.jedis.hget(KEY + "2", "count"));
+        assertEquals(2, this.jedis.hgetAll(KEY + "2").size());
+        assertEquals("héllo", this.jedis.get(KEY + "3"));
+        assertEquals("list", this.jedis.type(KEY));
+        assertNull(this.jedis.get("unknown"));
+    }
+
+    @Test public void returns_the_errors_of_the_commands() {
+        // GIVEN
+        this.jedis.rpush(KEY, VALUE);
+
+        // THEN
+        this.expectedEx.expect(JedisDataException.class);
+        this.expectedEx.expectMessage("WRONGTYPE Operation against a key holding the wrong kind of value");
+
+        // WHEN
+        this.jedis.get(KEY);
+    }
+
+    @Test public void each_connection_selects_its_own_database() {
+        // GIVEN
+        this.jedis.select(1);
+        this.jedis.set(KEY, VALUE);
+
+        // WHEN
+        Long size = this.fakeJedis.dbSize();
+
+        // THEN
+        assertEquals(Long.valueOf(0), size);
+        this.fakeJedis.select(1);
+        assertEquals(VALUE, this.fakeJedis.get(KEY));
+    }
+
+    @Test public void pipelines_and_transactions() {
+        // GIVEN
+        Pipeline pipeline = this.jedis.pipelined();
+        List<Response<Long>> responses = new ArrayList<>();
+
+        // WHEN
+        for (int i = 0; i < 1000; i++) {
+            responses.add(pipeline.rpush(KEY, String.valueOf(i)));
+        }
+        pipeline.sync();
+        Transaction transaction = this.jedis.multi();
+        transaction.lpop(KEY);
+        transaction.llen(KEY);
+        List<Object> results = transaction.exec();
+
+        // THEN
+        assertEquals(Long.valueOf(1000), responses.get(999).get());
+        assertEquals(Arrays.asList("0", 999L), results);
+    }
+
+    @Test public void handles_requests_that_are_split_and_pipelined_on_a_raw_socket() throws IOException {
+        // GIVEN
+        byte[] request = ("*3\r\n$3\r\nSET\r\n$6\r\nmy_key\r\n$8\r\nmy_value\r\nPING\r\n*2\r\n$3\r\nGET\r\n$6\r\nmy_key\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+        String expected = "+OK\r\n+PONG\r\n$8\r\nmy_value\r\n";
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort())) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+
+            // WHEN
+            for (byte b : request) {
+                out.write(b);
+                out.flush();
+            }
+
+            // THEN
+            InputStream in = socket.getInputStream();
+            byte[] reply = new byte[expected.length()];
+            int read = 0;
+            while (read < reply.length) {
+                read += in.read(reply, read, reply.length - read);
+            }
+            assertEquals(expected, new String(reply, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test public void hello_switches_the_connection_to_resp3() throws IOException {
+        // GIVEN
+        this.fakeJedis.hset(KEY, FIELD, VALUE);
+        byte[] request = "HELLO 3\r\n*2\r\n$7\r\nHGETALL\r\n$6\r\nmy_key\r\n*2\r\n$3\r\nGET\r\n$7\r\nunknown\r\n"
+                .getBytes(StandardCharsets.UTF_8);
+        String expected = "%1\r\n$8\r\nmy_field\r\n$8\r\nmy_value\r\n_\r\n";
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort())) {
+            // WHEN
+            socket.getOutputStream().write(request);
+
+            // THEN
+            InputStream in = socket.getInputStream();
+            String hello = readLine(in);
+            assertEquals("%7", hello);
+            // Skip the fields of the HELLO reply
+            for (int i = 0; i < 2 * 7; i++) {
+                String line = readLine(in);
+                if (line.startsWith("$")) {
+                    readLine(in);
+                }
+            }
+            byte[] reply = new byte[expected.length()];
+            int read = 0;
+            while (read < reply.length) {
+                read += in.read(reply, read, reply.length - read);
+            }
+            assertEquals(expected, new String(reply, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test public void client_tracking_sends_resp3_invalidation_pushes() throws IOException {
+        // GIVEN
+        byte[] request = "HELLO 3\r\nCLIENT TRACKING on\r\nGET my_key\r\n".getBytes(StandardCharsets.UTF_8);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort())) {
+            socket.getOutputStream().write(request);
+            InputStream in = socket.getInputStream();
+            assertEquals("%7", readLine(in));
+            for (int i = 0; i < 2 * 7; i++) {
+                String line = readLine(in);
+                if (line.startsWith("$")) {
+                    readLine(in);
+                }
+            }
+            assertEquals("+OK", readLine(in));
+            assertEquals("_", readLine(in));
+
+            // WHEN
+            this.jedis.set(KEY, VALUE);
+            socket.getOutputStream().write("PING\r\n".getBytes(StandardCharsets.UTF_8));
+
+            // THEN
+            assertEquals(">2", readLine(in));
+            assertEquals("$10", readLine(in));
+            assertEquals("invalidate", readLine(in));
+            assertEquals("*1", readLine(in));
+            assertEquals("$6", readLine(in));
+            assertEquals(KEY, readLine(in));
+            assertEquals("+PONG", readLine(in));
+        }
+    }
+
+    @Test public void serves_large_values() {
+        // GIVEN
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        String value = builder.toString();
+
+        // WHEN
+        this.jedis.set(KEY, value);
+
+        // THEN
+        assertEquals(value, this.jedis.get(KEY));
+    }
+
+    @Test public void serves_many_connections() {
+        // GIVEN
+        List<Jedis> clients = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            clients.add(new Jedis("localhost", this.server.getPort()));
+        }
+
+        // WHEN
+        for (int i = 0; i < clients.size(); i++) {
+            clients.get(i).rpush(KEY, String.valueOf(i));
+        }
+
+        // THEN
+        assertEquals(Long.valueOf(200), this.jedis.llen(KEY));
+        for (Jedis client : clients) {
+            client.close();
+        }
+    }
+
+    @Test public void unknown_commands_are_rejected() {
+        // THEN
+        this.expectedEx.expect(JedisDataException.class);
+        this.expectedEx.expectMessage("ERR unknown command 'ZADD'");
+
+        // WHEN
+        this.jedis.zadd(KEY, 1, VALUE);
+    }
+
+    @Test public void serves_a_unix_domain_socket() throws IOException {
+        // GIVEN
+        Assume.assumeTrue(UnixSockets.isSupported());
+        Path directory = Files.createTempDirectory("fake-redis");
+        Path path = directory.resolve("redis.sock");
+        FakeRedisServer unixServer = new FakeRedisServer(this.fakeJedis, path, 1).start();
+        Jedis client = FakeRedisServer.connect(path);
+
+        // WHEN
+        client.select(1);
+        client.set(KEY, VALUE);
+        Pipeline pipeline = client.pipelined();
+        Response<Long> length = pipeline.rpush(KEY + "2", "a", "b");
+        pipeline.sync();
+
+        // THEN
+        assertEquals(Long.valueOf(2), length.get());
+        this.fakeJedis.select(1);
+        assertEquals(VALUE, this.fakeJedis.get(KEY));
+        client.close();
+        unixServer.close();
+        assertFalse(Files.exists(path));
+        Files.delete(directory);
+    }
+
+    @Test public void a_socket_left_at_the_path_is_replaced() throws IOException {
+        // GIVEN
+        Assume.assumeTrue(UnixSockets.isSupported());
+        Path directory = Files.createTempDirectory("fake-redis");
+        Path path = directory.resolve("redis.sock");
+        // A channel that is never closed leaves its socket file behind, like a server that crashed
+        UnixSockets.bind(path, 1).close();
+        assertTrue(Files.exists(path));
+
+        // WHEN
+        FakeRedisServer unixServer = new FakeRedisServer(this.fakeJedis, path, 1).start();
+
+        // THEN
+        Jedis client = FakeRedisServer.connect(path);
+        assertEquals("PONG", client.ping());
+        client.close();
+        unixServer.close();
+        Files.delete(directory);
+    }
+
+    @Test public void a_file_that_is_not_a_socket_is_not_replaced() throws IOException {
+        // GIVEN
+        Assume.assumeTrue(UnixSockets.isSupported());
+        Path path = Files.createTempFile("fake-redis", ".sock");
+        Files.write(path, VALUE.getBytes(StandardCharsets.UTF_8));
+
+        // WHEN
+        FakeJedisException error = null;
+        try {
+            new FakeRedisServer(this.fakeJedis, path, 1).start();
+        } catch (FakeJedisException e) {
+            error = e;
+        }
+
+        // THEN
+        assertNotNull(error);
+        assertTrue(error.getCause() instanceof FileAlreadyExistsException);
+        assertEquals(VALUE, new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        Files.delete(path);
+    }
+
+    @Test public void the_acceptor_backs_off_after_a_failure() {
+        // GIVEN
+
+        // WHEN
+        long first = FakeRedisServer.acceptBackoffMillis(1);
+        long second = FakeRedisServer.acceptBackoffMillis(2);
+        long many = FakeRedisServer.acceptBackoffMillis(1000);
+
+        // THEN
+        assertEquals(FakeRedisServer.MIN_ACCEPT_BACKOFF_MILLIS, first);
+        assertEquals(2 * FakeRedisServer.MIN_ACCEPT_BACKOFF_MILLIS, second);
+        assertEquals(FakeRedisServer.MAX_ACCEPT_BACKOFF_MILLIS, many);
+        assertNull(this.server.getLastAcceptError());
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -12,10 +12,12 @@ import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 import redis.clients.jedis.exceptions.JedisDataException;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(JUnit4.class)
 public class FakeTransactionTest {
@@ -77,4 +79,21 @@ public class FakeTransactionTest {
         // THEN
         assertFalse(this.jedis.exists(KEY));
     }
+
+    @Test public void responses_can_be_read_after_exec() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+        Transaction tr = this.jedis.multi();
+
+        // WHEN
+        Response<String> value = tr.hget(KEY, FIELD);
+        Response<Boolean> exists = tr.hexists(KEY, FIELD);
+        Response<List<String>> values = tr.hmget(KEY, FIELD, "unknown");
+        tr.exec();
+
+        // THEN
+        assertEquals(VALUE, value.get());
+        assertTrue(exists.get());
+        assertEquals(Arrays.asList(VALUE, null), values.get());
+    }
 }
@@ -0,0 +1,163 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ForkedKeyspaceTest {
+    private DictKeyspace<String> base;
+    private ForkedKeyspace<String> fork;
+
+    @Before public void setUp() {
+        this.base = new DictKeyspace<>();
+        for (int i = 0; i < 100; i++) {
+            this.base.put("key:" + i, "value:" + i);
+        }
+        this.fork = new ForkedKeyspace<>(this.base, new DictKeyspace<>());
+    }
+
+    @Test public void the_changes_of_the_fork_are_not_written_to_the_base() {
+        // GIVEN
+
+        // WHEN
+        String replaced = this.fork.put("key:1", "new");
+        String removed = this.fork.remove("key:2");
+        String added = this.fork.put("added", "new");
+
+        // THEN
+        assertEquals("value:1", replaced);
+        assertEquals("value:2", removed);
+        assertNull(added);
+        assertEquals("new", this.fork.get("key:1"));
+        assertNull(this.fork.get("key:2"));
+        assertFalse(this.fork.containsKey("key:2"));
+        assertTrue(this.fork.containsKey("added"));
+        assertEquals("value:3", this.fork.get("key:3"));
+        assertEquals(100, this.fork.size());
+        assertEquals(3, this.fork.changes());
+        assertEquals("value:1", this.base.get("key:1"));
+        assertEquals("value:2", this.base.get("key:2"));
+        assertNull(this.base.get("added"));
+        assertEquals(100, this.base.size());
+    }
+
+    @Test public void a_removed_key_can_be_written_again() {
+        // GIVEN
+        this.fork.remove("key:5");
+        this.fork.put("added", "new");
+        this.fork.remove("added");
+
+        // WHEN
+        String old = this.fork.put("key:5", "again");
+
+        // THEN
+        assertNull(old);
+        assertNull(this.fork.remove("added"));
+        assertEquals("again", this.fork.get("key:5"));
+        assertEquals(100, this.fork.size());
+        assertEquals(1, this.fork.changes());
+    }
+
+    @Test public void forEach_visits_each_key_once_with_its_current_value() {
+        // GIVEN
+        this.fork.put("key:1", "new");
+        this.fork.remove("key:2");
+        this.fork.put("added", "new");
+        Map<String, String> visited = new HashMap<>();
+        Map<String, String> own = new HashMap<>();
+
+        // WHEN
+        this.fork.forEach((key, value) -> assertNull(visited.put(key, value)));
+        this.fork.forEachOwn(own::put);
+
+        // THEN
+        assertEquals(100, visited.size());
+        assertEquals("new", visited.get("key:1"));
+        assertFalse(visited.containsKey("key:2"));
+        assertEquals("value:3", visited.get("key:3"));
+        assertEquals(2, own.size());
+        assertEquals("new", own.get("added"));
+    }
+
+    @Test public void scan_visits_the_keys_that_are_written_during_the_iteration() {
+        // GIVEN
+        this.fork.remove("key:2");
+        Map<String, String> visited = new HashMap<>();
+
+        // WHEN
+        long cursor = 0;
+        boolean written = false;
+        do {
+            cursor = this.fork.scan(cursor, 10, "", visited::put);
+            if (!written) {
+                // The own keys are scanned first: this key is inherited and has not been visited yet
+                this.fork.put("key:7", "new");
+                written = true;
+            }
+        } while (cursor != 0);
+
+        // THEN
+        assertEquals(99, visited.size());
+        assertFalse(visited.containsKey("key:2"));
+        assertEquals("new", visited.get("key:7"));
+    }
+
+    @Test public void scan_visits_all_the_keys_of_stacked_forks() {
+        // GIVEN
+        this.fork.put("added:1", "new");
+        ForkedKeyspace<String> stacked = new ForkedKeyspace<>(this.fork, new DictKeyspace<>());
+        stacked.put("added:2", "new");
+        stacked.remove("key:3");
+        Map<String, String> visited = new HashMap<>();
+
+        // WHEN
+        long cursor = 0;
+        int calls = 0;
+        do {
+            cursor = stacked.scan(cursor, 10, "", (key, value) -> assertNull(visited.put(key, value)));
+            calls++;
+        } while (cursor != 0 && calls < 1000);
+
+        // THEN
+        assertEquals(0, cursor);
+        assertEquals(1, stacked.depth());
+        assertEquals(101, visited.size());
+        assertTrue(visited.containsKey("added:1"));
+        assertTrue(visited.containsKey("added:2"));
+        assertFalse(visited.containsKey("key:3"));
+    }
+
+    @Test public void randomKey_never_returns_a_removed_key() {
+        // GIVEN
+        for (int i = 0; i < 90; i++) {
+            this.fork.remove("key:" + i);
+        }
+        Random random = new Random(42);
+        Set<String> keys = new HashSet<>();
+
+        // WHEN
+        for (int i = 0; i < 1000; i++) {
+            keys.add(this.fork.randomKey(random));
+        }
+
+        // THEN
+        assertEquals(10, keys.size());
+        for (int i = 90; i < 100; i++) {
+            assertTrue(keys.contains("key:" + i));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(JUnit4.class)
+public class InMemoryClientTest {
+    private static final String KEY = "my_key";
+    private static final String FIELD = "my_field";
+    private static final String VALUE = "my_value";
+
+    @Rule public ExpectedException expectedEx = ExpectedException.none();
+
+    @Test public void newJedis_returns_a_real_client_of_the_fake() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        Jedis jedis = fakeJedis.newJedis();
+
+        // WHEN
+        jedis.set(KEY, VALUE);
+        jedis.rpush(KEY + "2", "a", "b");
+
+        // THEN
+        assertEquals(VALUE, fakeJedis.get(KEY));
+        assertEquals(Arrays.asList("a", "b"), jedis.lrange(KEY + "2", 0, -1));
+        assertEquals("PONG", jedis.ping());
+    }
+
+    @Test public void the_binary_commands_are_executed_by_the_fake() {
+        // GIVEN
+        FakeJedis jedis = new FakeJedis();
+        byte[] key = KEY.getBytes(StandardCharsets.UTF_8);
+
+        // WHEN
+        jedis.hset(key, FIELD.getBytes(StandardCharsets.UTF_8), "héllo".getBytes(StandardCharsets.UTF_8));
+
+        // THEN
+        assertEquals("héllo", jedis.hget(KEY, FIELD));
+        Map<byte[], byte[]> hash = jedis.hgetAll(key);
+        assertEquals(1, hash.size());
+        assertArrayEquals("héllo".getBytes(StandardCharsets.UTF_8), hash.values().iterator().next());
+        assertEquals(Boolean.TRUE, jedis.exists(key));
+    }
+
+    @Test public void a_binary_value_that_is_not_utf8_is_rejected_instead_of_corrupted() {
+        // GIVEN
+        FakeJedis jedis = new FakeJedis();
+        byte[] key = KEY.getBytes(StandardCharsets.UTF_8);
+        byte[] value = {(byte) 0xff, 0, (byte) 0xc3, 0x28};
+
+        // WHEN
+        JedisDataException error = null;
+        try {
+            jedis.set(key, value);
+        } catch (JedisDataException e) {
+            error = e;
+        }
+
+        // THEN
+        assertNotNull(error);
+        assertEquals("ERR invalid UTF-8 in argument 2, the fake server only stores strings", error.getMessage());
+        assertNull(jedis.get(key));
+        jedis.set(key, "héllo".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals("héllo".getBytes(StandardCharsets.UTF_8), jedis.get(key));
+    }
+
+    @Test public void the_pipelines_of_FakeJedis_are_executed_by_the_fake() {
+        // GIVEN
+        FakeJedis jedis = new FakeJedis();
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Long>> responses = new ArrayList<>();
+
+        // WHEN
+        for (int i = 0; i < 10000; i++) {
+            responses.add(pipeline.lpush(KEY, String.valueOf(i)));
+        }
+        Response<String> last = pipeline.lindex(KEY, 0);
+        pipeline.sync();
+
+        // THEN
+        assertEquals(Long.valueOf(10000), responses.get(9999).get());
+        assertEquals("9999", last.get());
+        assertEquals(Long.valueOf(10000), jedis.llen(KEY));
+    }
+
+    @Test public void the_transactions_of_a_real_client_are_executed_by_the_fake() {
+        // GIVEN
+        FakeJedis fakeJedis = new FakeJedis();
+        Jedis jedis = fakeJedis.newJedis();
+        jedis.select(2);
+
+        // WHEN
+        Transaction transaction = jedis.multi();
+        transaction.set(KEY, VALUE);
+        transaction.append(KEY, "!");
+        List<Object> results = transaction.exec();
+
+        // THEN
+        assertEquals(Arrays.asList("OK", 9L), results);
+        assertEquals(Long.valueOf(0), fakeJedis.dbSize());
+        fakeJedis.select(2);
+        assertEquals(VALUE + "!", fakeJedis.get(KEY));
+    }
+
+    @Test public void the_errors_are_returned_to_the_client() {
+        // GIVEN
+        Jedis jedis = new FakeJedis().newJedis();
+
+        // THEN
+        this.expectedEx.expect(JedisDataException.class);
+        this.expectedEx.expectMessage("ERR unknown command 'INCR'");
+
+        // WHEN
+        jedis.incr(KEY);
+    }
+
+    @Test public void quit_closes_the_connection() {
+        // GIVEN
+        Jedis jedis = new FakeJedis().newJedis();
+        assertEquals("OK", jedis.quit());
+
+        // THEN
+        this.expectedEx.expect(JedisConnectionException.class);
+
+        // WHEN
+        jedis.get(KEY);
+    }
+}
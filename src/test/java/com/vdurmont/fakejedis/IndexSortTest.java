@@ -0,0 +1,70 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class IndexSortTest {
+    @Test public void sort_orders_the_indexes_by_their_values() {
+        // GIVEN
+        int[] values = randomValues(1000, 100);
+        int[] indexes = identity(values.length);
+
+        // WHEN
+        IndexSort.sort(indexes, (i1, i2) -> Integer.compare(values[i1], values[i2]), Integer.MAX_VALUE);
+
+        // THEN
+        assertSortedAndStable(values, indexes);
+    }
+
+    @Test public void sort_in_parallel_orders_the_indexes_by_their_values() {
+        // GIVEN
+        int[] values = randomValues(100000, 1000);
+        int[] indexes = identity(values.length);
+
+        // WHEN
+        IndexSort.sort(indexes, (i1, i2) -> Integer.compare(values[i1], values[i2]), 1000);
+
+        // THEN
+        assertSortedAndStable(values, indexes);
+    }
+
+    private static int[] randomValues(int size, int bound) {
+        Random random = new Random(42);
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextInt(bound);
+        }
+        return values;
+    }
+
+    private static int[] identity(int size) {
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
+    private static void assertSortedAndStable(int[] values, int[] indexes) {
+        boolean[] seen = new boolean[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            seen[indexes[i]] = true;
+            if (i > 0) {
+                int previous = indexes[i - 1];
+                int current = indexes[i];
+                // Equal values keep the order of their indexes
+                assertTrue(values[previous] < values[current] || values[previous] == values[current] && previous < current);
+            }
+        }
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class LazyFreeTest {
+    @Test public void releases_the_objects_in_the_background() throws InterruptedException {
+        // GIVEN
+        Object lock = new Object();
+        List<String> released = new ArrayList<>();
+        LazyFree<String> lazyFree = new LazyFree<>(lock, released::add);
+        DictKeyspace<String> keyspace = new DictKeyspace<>();
+        for (int i = 0; i < 2500; i++) {
+            keyspace.put("key:" + i, "value:" + i);
+        }
+
+        // WHEN
+        lazyFree.free(keyspace);
+        lazyFree.free("single");
+
+        // THEN
+        assertTrue(lazyFree.awaitIdle(5000));
+        synchronized (lock) {
+            assertEquals(2501, released.size());
+            assertTrue(released.contains("single"));
+        }
+        assertEquals(2501, lazyFree.freedObjects());
+        assertEquals(0, lazyFree.pendingObjects());
+    }
+}
@@ -0,0 +1,180 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class MappedKeyspaceTest {
+    private List<String> decodedKeys;
+    private MappedKeyspace<String> keyspace;
+
+    @Before public void setUp() throws IOException {
+        Path file = Files.createTempFile("fake-jedis", ".snapshot");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            MappedSnapshot.Writer writer = new MappedSnapshot.Writer(channel, 1);
+            writer.selectDb(0, 100);
+            for (int i = 0; i < 100; i++) {
+                writer.string("key:" + i, "value:" + i);
+            }
+            writer.finish();
+        }
+        this.decodedKeys = new ArrayList<>();
+        this.keyspace = new MappedKeyspace<>(new DictKeyspace<>(), (key, value) -> {
+            this.decodedKeys.add(key);
+            String[] decoded = new String[1];
+            value.read(key, new StringHandler(decoded));
+            // A new instance for each decoding, to check that a key is decoded once
+            return new String(decoded[0]);
+        });
+        new MappedSnapshot(file).load(0, this.keyspace::putValue);
+    }
+
+    @Test public void a_value_is_decoded_once_when_its_key_is_read() {
+        // GIVEN
+
+        // WHEN
+        String first = this.keyspace.get("key:42");
+        String second = this.keyspace.get("key:42");
+
+        // THEN
+        assertEquals("value:42", first);
+        assertSame(first, second);
+        assertEquals(1, this.decodedKeys.size());
+        assertEquals(99, this.keyspace.undecoded());
+        assertEquals(100, this.keyspace.size());
+        assertTrue(this.keyspace.containsKey("key:7"));
+        assertEquals(1, this.decodedKeys.size());
+    }
+
+    @Test public void the_replaced_and_removed_values_are_returned_decoded() {
+        // GIVEN
+
+        // WHEN
+        String replaced = this.keyspace.put("key:1", "new");
+        String removed = this.keyspace.remove("key:2");
+
+        // THEN
+        assertEquals("value:1", replaced);
+        assertEquals("value:2", removed);
+        assertEquals("new", this.keyspace.get("key:1"));
+        assertNull(this.keyspace.get("key:2"));
+        assertEquals(98, this.keyspace.undecoded());
+    }
+
+    @Test public void the_values_decoded_by_an_iteration_are_stored_at_its_end() {
+        // GIVEN
+        Map<String, String> visited = new HashMap<>();
+
+        // WHEN
+        this.keyspace.forEach((key, value) -> {
+            // A read of the same key while iterating returns the same instance
+            assertSame(value, this.keyspace.get(key));
+            visited.put(key, value);
+        });
+
+        // THEN
+        assertEquals(100, visited.size());
+        assertEquals("value:12", visited.get("key:12"));
+        assertEquals(0, this.keyspace.undecoded());
+        assertSame(visited.get("key:12"), this.keyspace.get("key:12"));
+        assertEquals(100, this.decodedKeys.size());
+    }
+
+    @Test public void forEachDecoded_does_not_decode_the_values() {
+        // GIVEN
+        this.keyspace.get("key:3");
+        Map<String, String> visited = new HashMap<>();
+
+        // WHEN
+        this.keyspace.forEachDecoded(visited::put);
+
+        // THEN
+        assertEquals(1, visited.size());
+        assertEquals("value:3", visited.get("key:3"));
+        assertEquals(1, this.decodedKeys.size());
+    }
+
+    @Test public void scan_decodes_the_visited_values() {
+        // GIVEN
+        Map<String, String> visited = new HashMap<>();
+
+        // WHEN
+        long cursor = 0;
+        do {
+            cursor = this.keyspace.scan(cursor, 10, "key:1", visited::put);
+        } while (cursor != 0);
+
+        // THEN
+        assertEquals(11, visited.size());
+        assertEquals("value:15", visited.get("key:15"));
+        assertEquals(89, this.keyspace.undecoded());
+    }
+
+    @Test public void only_the_values_decoded_once_frozen_are_sealed() {
+        // GIVEN
+        this.keyspace.get("key:1");
+        List<String> sealed = new ArrayList<>();
+
+        // WHEN
+        this.keyspace.freeze(sealed::add);
+        this.keyspace.freeze(value -> {
+            throw new AssertionError("Frozen twice");
+        });
+        this.keyspace.get("key:1");
+        this.keyspace.get("key:2");
+        this.keyspace.forEachWithPrefix("key:3", (key, value) -> {
+        });
+
+        // THEN
+        assertEquals(12, sealed.size());
+        assertTrue(sealed.contains("value:2"));
+        assertTrue(sealed.contains("value:35"));
+        assertFalse(sealed.contains("value:1"));
+    }
+
+    private static class StringHandler implements RdbReader.Handler {
+        private final String[] value;
+
+        private StringHandler(String[] value) {
+            this.value = value;
+        }
+
+        @Override public void selectDb(int index) {
+        }
+
+        @Override public void string(String key, String value) {
+            this.value[0] = value;
+        }
+
+        @Override public void beginList(String key) {
+        }
+
+        @Override public void listElement(String element) {
+        }
+
+        @Override public void beginHash(String key) {
+        }
+
+        @Override public void hashField(String field, String value) {
+        }
+    }
+}
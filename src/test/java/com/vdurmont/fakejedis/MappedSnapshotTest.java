@@ -0,0 +1,201 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class MappedSnapshotTest {
+    @Rule public ExpectedException expectedEx = ExpectedException.none();
+
+    @Test public void the_written_snapshot_can_be_read() throws IOException {
+        // GIVEN
+        Path file = write(writer -> {
+            writer.selectDb(0, 2);
+            writer.string("k1", "v1");
+            writer.beginList("list", 2);
+            writer.listElement("a");
+            writer.listElement("é");
+            writer.selectDb(3, 1);
+            writer.beginHash("hash", 1);
+            writer.hashField("f", "v");
+        });
+
+        // WHEN
+        MappedSnapshot snapshot = new MappedSnapshot(file);
+
+        // THEN
+        assertEquals(16, snapshot.databases());
+        assertEquals(2, snapshot.size(0));
+        assertEquals(0, snapshot.size(1));
+        assertEquals(Arrays.asList("k1=v1", "list:list", "a", "é"), read(snapshot, 0));
+        assertEquals(Arrays.asList(), read(snapshot, 1));
+        assertEquals(Arrays.asList("hash:hash", "f=v"), read(snapshot, 3));
+    }
+
+    @Test public void the_keys_are_read_in_parallel_in_the_order_of_the_file() throws IOException {
+        // GIVEN
+        int count = 100000;
+        Path file = write(writer -> {
+            writer.selectDb(0, count);
+            for (int i = 0; i < count; i++) {
+                writer.string("key:" + i, "value:" + i);
+            }
+        });
+        MappedSnapshot snapshot = new MappedSnapshot(file);
+        List<String> keys = new ArrayList<>();
+
+        // WHEN
+        snapshot.load(0, (key, value) -> keys.add(key));
+
+        // THEN
+        assertEquals(count, keys.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("key:" + i, keys.get(i));
+        }
+    }
+
+    @Test public void the_values_that_straddle_two_segments_are_read() throws IOException {
+        // GIVEN
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            big.append((char) ('a' + i % 26));
+        }
+        Path file = write(writer -> {
+            writer.selectDb(0, 50);
+            for (int i = 0; i < 50; i++) {
+                writer.string("key:" + i, i % 10 == 0 ? big.toString() : "value:" + i);
+            }
+        });
+
+        // WHEN
+        MappedSnapshot snapshot = new MappedSnapshot(file, 64);
+
+        // THEN
+        List<String> events = read(snapshot, 0);
+        assertEquals(50, events.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("key:" + i + "=" + (i % 10 == 0 ? big.toString() : "value:" + i), events.get(i));
+        }
+    }
+
+    @Test public void a_file_that_is_not_a_snapshot_is_rejected() throws IOException {
+        // GIVEN
+        Path file = Files.createTempFile("fake-jedis", ".snapshot");
+        Files.write(file, "REDIS0009 and the rest of an RDB file".getBytes(StandardCharsets.US_ASCII));
+
+        // THEN
+        this.expectedEx.expect(FakeJedisException.class);
+        this.expectedEx.expectMessage("Bad file format reading the snapshot: not a snapshot");
+
+        // WHEN
+        new MappedSnapshot(file);
+    }
+
+    @Test public void a_corrupted_index_is_rejected_when_the_keys_are_read() throws IOException {
+        // GIVEN
+        Path file = write(1, writer -> {
+            writer.selectDb(0, 1);
+            writer.string("key", "value");
+        });
+        MappedSnapshot snapshot = new MappedSnapshot(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // The last position of the index is the end of the value
+            channel.write(ByteBuffer.allocate(8).putLong(0, 3), channel.size() - 8);
+        }
+
+        // THEN
+        this.expectedEx.expect(FakeJedisException.class);
+        this.expectedEx.expectMessage("bad position of the key 0 of the DB 0");
+
+        // WHEN
+        snapshot.load(0, (key, value) -> {
+        });
+    }
+
+    @Test public void the_writer_checks_the_announced_number_of_keys() throws IOException {
+        // THEN
+        this.expectedEx.expect(IllegalStateException.class);
+        this.expectedEx.expectMessage("Fewer keys than announced in the DB 2");
+
+        // WHEN
+        write(writer -> {
+            writer.selectDb(2, 2);
+            writer.string("key", "value");
+            writer.selectDb(3, 0);
+        });
+    }
+
+    private static Path write(WriterAction action) throws IOException {
+        return write(16, action);
+    }
+
+    private static Path write(int databases, WriterAction action) throws IOException {
+        Path file = Files.createTempFile("fake-jedis", ".snapshot");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedSnapshot.Writer writer = new MappedSnapshot.Writer(channel, databases);
+            action.write(writer);
+            writer.finish();
+        }
+        return file;
+    }
+
+    private static List<String> read(MappedSnapshot snapshot, int db) {
+        List<String> events = new ArrayList<>();
+        RecordingHandler handler = new RecordingHandler(events);
+        snapshot.load(db, (key, value) -> value.read(key, handler));
+        return events;
+    }
+
+    private interface WriterAction {
+        void write(MappedSnapshot.Writer writer);
+    }
+
+    private static class RecordingHandler implements RdbReader.Handler {
+        private final List<String> events;
+
+        private RecordingHandler(List<String> events) {
+            this.events = events;
+        }
+
+        @Override public void selectDb(int index) {
+            this.events.add("db:" + index);
+        }
+
+        @Override public void string(String key, String value) {
+            this.events.add(key + "=" + value);
+        }
+
+        @Override public void beginList(String key) {
+            this.events.add("list:" + key);
+        }
+
+        @Override public void listElement(String element) {
+            this.events.add(element);
+        }
+
+        @Override public void beginHash(String key) {
+            this.events.add("hash:" + key);
+        }
+
+        @Override public void hashField(String field, String value) {
+            this.events.add(field + "=" + value);
+        }
+    }
+}
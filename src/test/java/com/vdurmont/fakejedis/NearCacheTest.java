@@ -0,0 +1,114 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(JUnit4.class)
+public class NearCacheTest {
+    private static final String KEY = "my_key";
+    private static final String FIELD = "my_field";
+    private static final String VALUE = "my_value";
+
+    private FakeJedis jedis;
+
+    @Before public void setUp() {
+        this.jedis = new FakeJedis();
+    }
+
+    @Test public void repeated_reads_are_served_from_the_cache() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+        this.jedis.hset("hash", FIELD, VALUE);
+        NearCache cache = new NearCache(this.jedis);
+
+        // WHEN
+        for (int i = 0; i < 10; i++) {
+            assertEquals(VALUE, cache.get(KEY));
+            assertNull(cache.get("missing"));
+            assertEquals(VALUE, cache.hget("hash", FIELD));
+            assertNull(cache.hget("hash", "missing"));
+        }
+
+        // THEN
+        Map<String, Number> stats = cache.getStats();
+        assertEquals(36L, stats.get("hits"));
+        assertEquals(4L, stats.get("misses"));
+        assertEquals(0.9, stats.get("hit_ratio").doubleValue(), 0.0001);
+        assertEquals(3, stats.get("keys"));
+    }
+
+    @Test public void a_modified_key_is_read_again() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+        this.jedis.hset("hash", FIELD, VALUE);
+        NearCache cache = new NearCache(this.jedis);
+        cache.get(KEY);
+        cache.hgetAll("hash");
+
+        // WHEN
+        this.jedis.append(KEY, "!");
+        this.jedis.newClient().hset("hash", "other", VALUE);
+
+        // THEN
+        assertEquals(VALUE + "!", cache.get(KEY));
+        assertEquals(2, cache.hgetAll("hash").size());
+        assertEquals(VALUE, cache.hget("hash", "other"));
+        assertEquals(2L, cache.getStats().get("invalidations"));
+        assertEquals(1L, cache.getStats().get("hits"));
+    }
+
+    @Test public void hgetAll_returns_a_copy() {
+        // GIVEN
+        this.jedis.hset(KEY, FIELD, VALUE);
+        NearCache cache = new NearCache(this.jedis);
+
+        // WHEN
+        cache.hgetAll(KEY).clear();
+
+        // THEN
+        assertEquals(Collections.singletonMap(FIELD, VALUE), cache.hgetAll(KEY));
+    }
+
+    @Test public void a_flush_empties_the_cache() {
+        // GIVEN
+        this.jedis.set(KEY, VALUE);
+        NearCache cache = new NearCache(this.jedis);
+        cache.get(KEY);
+
+        // WHEN
+        this.jedis.flushDB();
+
+        // THEN
+        assertNull(cache.get(KEY));
+        assertEquals(0L, cache.getStats().get("hits"));
+    }
+
+    @Test public void the_cache_reads_the_selected_database_and_is_bounded() {
+        // GIVEN
+        this.jedis.select(3);
+        for (int i = 0; i < 10; i++) {
+            this.jedis.set(KEY + i, VALUE + i);
+        }
+        NearCache cache = new NearCache(this.jedis, 5);
+
+        // WHEN
+        for (int i = 0; i < 10; i++) {
+            assertEquals(VALUE + i, cache.get(KEY + i));
+        }
+
+        // THEN
+        assertEquals(5, cache.getStats().get("keys"));
+        cache.close();
+        assertEquals(0, cache.getStats().get("keys"));
+        assertEquals(0, this.jedis.getTrackingStats().get("tracking_clients").longValue());
+    }
+}
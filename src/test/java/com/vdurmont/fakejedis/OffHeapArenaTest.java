@@ -0,0 +1,71 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class OffHeapArenaTest {
+    @Test public void sizes_are_rounded_to_their_size_class() {
+        assertEquals(64, OffHeapArena.capacityFor(0));
+        assertEquals(64, OffHeapArena.capacityFor(64));
+        assertEquals(128, OffHeapArena.capacityFor(65));
+        assertEquals(OffHeapArena.SLAB_SIZE, OffHeapArena.capacityFor(OffHeapArena.SLAB_SIZE));
+        assertEquals(OffHeapArena.SLAB_SIZE + 1, OffHeapArena.capacityFor(OffHeapArena.SLAB_SIZE + 1));
+    }
+
+    @Test public void write_and_read_a_block() {
+        // GIVEN
+        OffHeapArena arena = new OffHeapArena();
+        byte[] bytes = "hello world".getBytes(StandardCharsets.UTF_8);
+        long handle = arena.allocate(100);
+
+        // WHEN
+        arena.write(handle, 10, bytes, 0, bytes.length);
+
+        // THEN
+        byte[] result = new byte[5];
+        arena.read(handle, 16, result, 0, 5);
+        assertArrayEquals("world".getBytes(StandardCharsets.UTF_8), result);
+        assertEquals(128, arena.usedBytes());
+        assertEquals(OffHeapArena.SLAB_SIZE, arena.reservedBytes());
+    }
+
+    @Test public void freed_blocks_are_reused() {
+        // GIVEN
+        OffHeapArena arena = new OffHeapArena();
+        long first = arena.allocate(1000);
+        arena.allocate(1000);
+
+        // WHEN
+        arena.free(first, OffHeapArena.capacityFor(1000));
+        long reused = arena.allocate(900);
+
+        // THEN
+        assertEquals(first, reused);
+        assertEquals(2048, arena.usedBytes());
+    }
+
+    @Test public void big_blocks_get_a_dedicated_buffer() {
+        // GIVEN
+        OffHeapArena arena = new OffHeapArena();
+        int size = 3 * OffHeapArena.SLAB_SIZE;
+
+        // WHEN
+        long handle = arena.allocate(size);
+        arena.fill(handle, 0, size);
+        long reservedBytes = arena.reservedBytes();
+        arena.free(handle, size);
+
+        // THEN
+        assertEquals(size, reservedBytes);
+        assertEquals(0, arena.reservedBytes());
+        assertEquals(0, arena.usedBytes());
+    }
+}
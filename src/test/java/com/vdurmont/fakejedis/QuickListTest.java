@@ -0,0 +1,191 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class QuickListTest {
+    @Test public void behaves_like_a_linked_list() {
+        // GIVEN
+        Random random = new Random(42);
+        QuickList list = new QuickList();
+        LinkedList<String> expected = new LinkedList<>();
+
+        // WHEN
+        for (int i = 0; i < 20000; i++) {
+            String element = String.valueOf(random.nextInt(50));
+            int operation = random.nextInt(10);
+            if (operation < 3) {
+                list.addFirst(element);
+                expected.addFirst(element);
+            } else if (operation < 6) {
+                list.addLast(element);
+                expected.addLast(element);
+            } else if (operation == 6) {
+                assertEquals(expected.pollFirst(), list.pollFirst());
+            } else if (operation == 7) {
+                assertEquals(expected.pollLast(), list.pollLast());
+            } else if (operation == 8 && !expected.isEmpty()) {
+                String pivot = expected.get(random.nextInt(expected.size()));
+                list.insert(pivot, element, true);
+                expected.add(expected.indexOf(pivot) + 1, element);
+            } else if (!expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                list.set(index, element);
+                expected.set(index, element);
+            }
+        }
+
+        // THEN
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, list.range(0, list.size() - 1));
+        for (int i = 0; i < expected.size(); i += 7) {
+            assertEquals(expected.get(i), list.get(i));
+        }
+    }
+
+    @Test public void compressed_list_behaves_like_a_linked_list() {
+        // GIVEN
+        Random random = new Random(42);
+        QuickList list = new QuickList();
+        list.setCompressDepth(1, new ValueCompressor());
+        LinkedList<String> expected = new LinkedList<>();
+
+        // WHEN
+        for (int i = 0; i < 50000; i++) {
+            String element = "element:" + random.nextInt(50);
+            int operation = random.nextInt(20);
+            if (operation < 8) {
+                list.addFirst(element);
+                expected.addFirst(element);
+            } else if (operation < 16) {
+                list.addLast(element);
+                expected.addLast(element);
+            } else if (operation == 16) {
+                assertEquals(expected.pollFirst(), list.pollFirst());
+            } else if (operation == 17 && !expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                list.set(index, element);
+                expected.set(index, element);
+            } else if (operation == 18 && !expected.isEmpty()) {
+                String pivot = expected.get(random.nextInt(expected.size()));
+                list.insert(pivot, element, false);
+                expected.add(expected.indexOf(pivot), element);
+            } else if (random.nextInt(100) == 0) {
+                list.remove(2, element);
+                expected.removeFirstOccurrence(element);
+                expected.removeFirstOccurrence(element);
+            }
+        }
+
+        // THEN
+        assertTrue(list.compressedNodes() > 0);
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, list.range(0, list.size() - 1));
+        for (int i = 0; i < expected.size(); i += 7) {
+            assertEquals(expected.get(i), list.get(i));
+        }
+        list.trim(1000, expected.size() - 1000);
+        assertEquals(expected.subList(1000, expected.size() - 999), list.range(0, list.size() - 1));
+        list.setCompressDepth(0, null);
+        assertEquals(0, list.compressedNodes());
+    }
+
+    @Test public void a_node_that_is_not_worth_compressing_is_not_compressed_again_until_it_is_modified() {
+        // GIVEN
+        int[] attempts = new int[1];
+        QuickList list = new QuickList();
+        list.setCompressDepth(1, new ValueCompressor() {
+            @Override public byte[] compress(byte[] bytes) {
+                attempts[0]++;
+                return null;
+            }
+        });
+
+        // WHEN
+        for (int i = 0; i < 10 * QuickList.NODE_CAPACITY; i++) {
+            list.addLast("element:" + i);
+        }
+        int afterPushes = attempts[0];
+        list.set(3 * QuickList.NODE_CAPACITY, "modified");
+
+        // THEN
+        assertEquals(0, list.compressedNodes());
+        // Each node is tried once, when it leaves the tail
+        assertTrue(afterPushes <= 10);
+        assertEquals(afterPushes + 1, attempts[0]);
+    }
+
+    @Test public void remove_from_the_head_and_from_the_tail() {
+        // GIVEN
+        QuickList list = new QuickList();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            list.addLast(String.valueOf(i % 3));
+            expected.add(String.valueOf(i % 3));
+        }
+
+        // WHEN
+        long removed1 = list.remove(200, "1");
+        long removed2 = list.remove(-100, "2");
+        long removed3 = list.remove(0, "0");
+
+        // THEN
+        for (int i = 0; i < 200; i++) {
+            expected.remove("1");
+        }
+        for (int i = 0; i < 100; i++) {
+            expected.remove(expected.lastIndexOf("2"));
+        }
+        expected.removeAll(Arrays.asList("0"));
+        assertEquals(200, removed1);
+        assertEquals(100, removed2);
+        assertEquals(334, removed3);
+        assertEquals(expected, list.range(0, list.size() - 1));
+    }
+
+    @Test public void trim_drops_whole_nodes() {
+        // GIVEN
+        QuickList list = new QuickList();
+        for (int i = 0; i < 1000; i++) {
+            list.addLast(String.valueOf(i));
+        }
+
+        // WHEN
+        list.trim(300, 699);
+
+        // THEN
+        assertEquals(400, list.size());
+        assertEquals("300", list.get(0));
+        assertEquals("699", list.get(399));
+        assertEquals("699", list.pollLast());
+        assertEquals("300", list.pollFirst());
+    }
+
+    @Test public void trim_everything() {
+        // GIVEN
+        QuickList list = new QuickList();
+        for (int i = 0; i < 1000; i++) {
+            list.addFirst(String.valueOf(i));
+        }
+
+        // WHEN
+        list.trim(1000, 2000);
+
+        // THEN
+        assertEquals(0, list.size());
+        assertNull(list.pollFirst());
+    }
+}
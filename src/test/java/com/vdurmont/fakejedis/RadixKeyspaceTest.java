@@ -0,0 +1,126 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class RadixKeyspaceTest {
+    @Test public void behaves_like_a_sorted_map() {
+        // GIVEN
+        Random random = new Random(42);
+        RadixKeyspace<Integer> keyspace = new RadixKeyspace<>();
+        TreeMap<String, Integer> expected = new TreeMap<>();
+
+        // WHEN
+        for (int i = 0; i < 200000; i++) {
+            // Short keys with a small alphabet: lots of shared prefixes, splits and merges
+            String key = Integer.toString(random.nextInt(20000), 5);
+            int operation = random.nextInt(3);
+            if (operation < 2) {
+                assertEquals(expected.put(key, i), keyspace.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), keyspace.remove(key));
+            }
+            assertEquals(expected.size(), keyspace.size());
+        }
+
+        // THEN
+        for (int i = 0; i < 20000; i++) {
+            String key = Integer.toString(i, 5);
+            assertEquals(expected.get(key), keyspace.get(key));
+            assertEquals(expected.containsKey(key), keyspace.containsKey(key));
+        }
+        List<String> visited = new ArrayList<>();
+        keyspace.forEach((key, value) -> visited.add(key));
+        assertEquals(new ArrayList<>(expected.keySet()), visited);
+    }
+
+    @Test public void forEachWithPrefix_only_visits_the_matching_keys_in_order() {
+        // GIVEN
+        RadixKeyspace<String> keyspace = new RadixKeyspace<>();
+        for (String key : Arrays.asList("user:2:profile", "user:1:profile", "user:12:profile", "user:1:session", "user", "session:1")) {
+            keyspace.put(key, "value");
+        }
+
+        // WHEN
+        List<String> visited = new ArrayList<>();
+        keyspace.forEachWithPrefix("user:1", (key, value) -> visited.add(key));
+
+        // THEN
+        assertEquals(Arrays.asList("user:12:profile", "user:1:profile", "user:1:session"), visited);
+    }
+
+    @Test public void scan_visits_every_key_despite_the_modifications() {
+        // GIVEN
+        RadixKeyspace<String> keyspace = new RadixKeyspace<>();
+        for (int i = 0; i < 1000; i++) {
+            keyspace.put("key:" + i, "value");
+        }
+
+        // WHEN
+        Set<String> visited = new HashSet<>();
+        Map<String, Integer> counts = new HashMap<>();
+        long cursor = 0;
+        int calls = 0;
+        do {
+            cursor = keyspace.scan(cursor, 100, "", (key, value) -> {
+                visited.add(key);
+                counts.merge(key, 1, Integer::sum);
+            });
+            // Remove the visited keys and add new ones in the middle of the iteration
+            keyspace.remove("key:" + calls);
+            keyspace.put("new:" + calls, "value");
+            calls++;
+        } while (cursor != 0);
+
+        // THEN
+        // The new keys are after the old ones
+        assertEquals(11, calls);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(visited.contains("key:" + i));
+        }
+        for (Integer count : counts.values()) {
+            assertEquals(1, count.intValue());
+        }
+    }
+
+    @Test public void randomKey_picks_every_key() {
+        // GIVEN
+        Random random = new Random(42);
+        RadixKeyspace<String> keyspace = new RadixKeyspace<>();
+        for (int i = 0; i < 1000; i++) {
+            keyspace.put("key:" + i, "value");
+        }
+        for (int i = 100; i < 1000; i++) {
+            keyspace.remove("key:" + i);
+        }
+
+        // WHEN
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            counts.merge(keyspace.randomKey(random), 1, Integer::sum);
+        }
+
+        // THEN
+        assertEquals(100, counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            assertTrue(Integer.parseInt(entry.getKey().substring(4)) < 100);
+            assertTrue(entry.getValue() > 700 && entry.getValue() < 1300);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class RdbReaderTest {
+    @Rule public ExpectedException expectedEx = ExpectedException.none();
+
+    @Test public void read_the_plain_and_integer_encodings() {
+        // GIVEN
+        RdbBuilder rdb = new RdbBuilder()
+                .aux("redis-ver", "7.2.0")
+                .selectDb(0)
+                .type(RdbReader.TYPE_STRING).string("k1").string("v1")
+                .type(RdbReader.TYPE_STRING).string("k2").bytes(0xC0, 0xF6)
+                .type(RdbReader.TYPE_STRING).string("k3").bytes(0xC1).int16(-300)
+                .type(RdbReader.TYPE_STRING).string("k4").bytes(0xC2).int32(100000)
+                .selectDb(3)
+                .type(RdbReader.TYPE_LIST).string("list").length(2).string("a").string("b")
+                .type(RdbReader.TYPE_HASH).string("hash").length(1).string("f").string("v");
+
+        // WHEN
+        List<String> events = read(rdb);
+
+        // THEN
+        assertEquals(Arrays.asList("db:0", "k1=v1", "k2=-10", "k3=-300", "k4=100000", "db:3", "list:list", "a", "b",
+                "hash:hash", "f=v"), events);
+    }
+
+    @Test public void read_an_lzf_compressed_string() {
+        // GIVEN
+        // One literal "a", then a back reference of 23 bytes at distance 1
+        RdbBuilder rdb = new RdbBuilder()
+                .type(RdbReader.TYPE_STRING).string("key").bytes(0xC3).length(5).length(24).bytes(0x00, 'a', 0xE0, 14, 0x00);
+
+        // WHEN
+        List<String> events = read(rdb);
+
+        // THEN
+        assertEquals(Arrays.asList("key=aaaaaaaaaaaaaaaaaaaaaaaa"), events);
+    }
+
+    @Test public void read_the_compact_encodings() {
+        // GIVEN
+        byte[] ziplist = ziplist(
+                new int[]{0x00, 0x01, 'a'},
+                // 4 bits immediate integer
+                new int[]{0x03, 0xFD},
+                new int[]{0x02, 0xC0, 0xD4, 0xFE},
+                new int[]{0x04, 0x05, 'h', 'e', 'l', 'l', 'o'});
+        byte[] hashListpack = listpack(
+                new int[]{0x82, 'f', '1', 0x03},
+                new int[]{0x82, 'v', '1', 0x03},
+                new int[]{0x81, 'n', 0x02},
+                // 13 bits integer
+                new int[]{0xC3, 0xE8, 0x02},
+                new int[]{0x81, 'm', 0x02},
+                new int[]{0xF1, 0x30, 0xF8, 0x04});
+        byte[] listListpack = listpack(new int[]{0x81, 'x', 0x02}, new int[]{0x05, 0x01});
+        byte[] zipmap = toBytes(0x02, 0x01, 'a', 0x01, 0x00, 'b', 0x01, 'c', 0x02, 0x01, 'd', 'e', 'X', 0xFF);
+        RdbBuilder rdb = new RdbBuilder()
+                .type(RdbReader.TYPE_LIST_ZIPLIST).string("ziplist").blob(ziplist)
+                .type(RdbReader.TYPE_HASH_LISTPACK).string("listpack").blob(hashListpack)
+                .type(RdbReader.TYPE_LIST_QUICKLIST_2).string("quicklist").length(2)
+                .length(2).blob(listListpack)
+                .length(1).string("plain element")
+                .type(RdbReader.TYPE_HASH_ZIPMAP).string("zipmap").blob(zipmap);
+
+        // WHEN
+        List<String> events = read(rdb);
+
+        // THEN
+        assertEquals(Arrays.asList("list:ziplist", "a", "12", "-300", "hello", "hash:listpack", "f1=v1", "n=1000",
+                "m=-2000", "list:quicklist", "x", "5", "plain element", "hash:zipmap", "a=b", "c=de"), events);
+    }
+
+    @Test public void skip_the_sets_the_sorted_sets_and_the_expired_keys() {
+        // GIVEN
+        byte[] intset = toBytes(0x02, 0, 0, 0, 0x02, 0, 0, 0, 0x01, 0x00, 0x02, 0x00);
+        RdbBuilder rdb = new RdbBuilder()
+                .type(RdbReader.TYPE_SET).string("set").length(2).string("a").string("b")
+                .type(RdbReader.TYPE_SET_INTSET).string("intset").blob(intset)
+                .type(RdbReader.TYPE_ZSET_2).string("zset").length(1).string("m").bytes(0, 0, 0, 0, 0, 0, 0xF0, 0x3F)
+                .type(RdbReader.TYPE_ZSET).string("old zset").length(1).string("m").bytes(0xFE)
+                .type(RdbReader.OPCODE_EXPIRETIME_MS).int64(1000).type(RdbReader.TYPE_STRING).string("expired").string("v")
+                .type(RdbReader.OPCODE_EXPIRETIME_MS).int64(Long.MAX_VALUE).type(RdbReader.TYPE_STRING).string("volatile").string("v")
+                .type(RdbReader.OPCODE_FREQ).bytes(5)
+                .type(RdbReader.TYPE_STRING).string("key").string("v");
+        RdbReader reader = new RdbReader(Channels.newChannel(new ByteArrayInputStream(rdb.build())), System.currentTimeMillis());
+        List<String> events = new ArrayList<>();
+
+        // WHEN
+        reader.read(new RecordingHandler(events));
+
+        // THEN
+        assertEquals(Arrays.asList("volatile=v", "key=v"), events);
+        Map<String, Long> stats = reader.getStats();
+        assertEquals(2, stats.get("keys_loaded").longValue());
+        assertEquals(1, stats.get("keys_expired").longValue());
+        assertEquals(4, stats.get("keys_skipped").longValue());
+        assertEquals(1, stats.get("volatile_keys").longValue());
+    }
+
+    @Test public void a_wrong_checksum_fails() {
+        // GIVEN
+        byte[] rdb = new RdbBuilder().type(RdbReader.TYPE_STRING).string("key").string("value").build();
+        rdb[rdb.length - 1] ^= 1;
+
+        // THEN
+        this.expectedEx.expect(FakeJedisException.class);
+        this.expectedEx.expectMessage("Wrong RDB checksum");
+
+        // WHEN
+        new RdbReader(Channels.newChannel(new ByteArrayInputStream(rdb)), 0).read(new RecordingHandler(new ArrayList<>()));
+    }
+
+    @Test public void a_truncated_file_fails() {
+        // GIVEN
+        byte[] rdb = new RdbBuilder().type(RdbReader.TYPE_STRING).string("key").string("value").build();
+
+        // THEN
+        this.expectedEx.expect(FakeJedisException.class);
+        this.expectedEx.expectMessage("Unexpected end of the RDB file");
+
+        // WHEN
+        new RdbReader(Channels.newChannel(new ByteArrayInputStream(Arrays.copyOf(rdb, 20))), 0)
+                .read(new RecordingHandler(new ArrayList<>()));
+    }
+
+    private static List<String> read(RdbBuilder rdb) {
+        List<String> events = new ArrayList<>();
+        new RdbReader(Channels.newChannel(new ByteArrayInputStream(rdb.build())), 0).read(new RecordingHandler(events));
+        return events;
+    }
+
+    private static byte[] ziplist(int[]... entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = 11;
+        for (int[] entry : entries) {
+            length += entry.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(length).putInt(0).putShort((short) entries.length);
+        out.write(header.array(), 0, 10);
+        for (int[] entry : entries) {
+            byte[] bytes = toBytes(entry);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(0xFF);
+        return out.toByteArray();
+    }
+
+    private static byte[] listpack(int[]... entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = 7;
+        for (int[] entry : entries) {
+            length += entry.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(length).putShort((short) entries.length);
+        out.write(header.array(), 0, 6);
+        for (int[] entry : entries) {
+            byte[] bytes = toBytes(entry);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(0xFF);
+        return out.toByteArray();
+    }
+
+    private static byte[] toBytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Builds an RDB file of version 11
+     */
+    private static class RdbBuilder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private RdbBuilder() {
+            byte[] header = "REDIS0011".getBytes(StandardCharsets.US_ASCII);
+            this.out.write(header, 0, header.length);
+        }
+
+        private RdbBuilder type(int type) {
+            this.out.write(type);
+            return this;
+        }
+
+        private RdbBuilder aux(String key, String value) {
+            return this.type(RdbReader.OPCODE_AUX).string(key).string(value);
+        }
+
+        private RdbBuilder selectDb(int index) {
+            return this.type(RdbReader.OPCODE_SELECTDB).length(index);
+        }
+
+        private RdbBuilder length(int length) {
+            if (length < 64) {
+                this.out.write(length);
+            } else {
+                this.out.write(0x80);
+                ByteBuffer buffer = ByteBuffer.allocate(4).putInt(length);
+                this.out.write(buffer.array(), 0, 4);
+            }
+            return this;
+        }
+
+        private RdbBuilder string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            return this.length(bytes.length).raw(bytes);
+        }
+
+        private RdbBuilder blob(byte[] bytes) {
+            return this.length(bytes.length).raw(bytes);
+        }
+
+        private RdbBuilder bytes(int... values) {
+            return this.raw(toBytes(values));
+        }
+
+        private RdbBuilder int16(int value) {
+            return this.raw(ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort((short) value).array());
+        }
+
+        private RdbBuilder int32(int value) {
+            return this.raw(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array());
+        }
+
+        private RdbBuilder int64(long value) {
+            return this.raw(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array());
+        }
+
+        private RdbBuilder raw(byte[] bytes) {
+            this.out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        private byte[] build() {
+            this.out.write(RdbReader.OPCODE_EOF);
+            byte[] content = this.out.toByteArray();
+            long crc = Crc64.update(0, content, 0, content.length);
+            ByteBuffer checksum = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(crc);
+            byte[] rdb = Arrays.copyOf(content, content.length + 8);
+            System.arraycopy(checksum.array(), 0, rdb, content.length, 8);
+            return rdb;
+        }
+    }
+
+    private static class RecordingHandler implements RdbReader.Handler {
+        private final List<String> events;
+
+        private RecordingHandler(List<String> events) {
+            this.events = events;
+        }
+
+        @Override public void selectDb(int index) {
+            this.events.add("db:" + index);
+        }
+
+        @Override public void string(String key, String value) {
+            this.events.add(key + "=" + value);
+        }
+
+        @Override public void beginList(String key) {
+            this.events.add("list:" + key);
+        }
+
+        @Override public void listElement(String element) {
+            this.events.add(element);
+        }
+
+        @Override public void beginHash(String key) {
+            this.events.add("hash:" + key);
+        }
+
+        @Override public void hashField(String field, String value) {
+            this.events.add(field + "=" + value);
+        }
+    }
+}
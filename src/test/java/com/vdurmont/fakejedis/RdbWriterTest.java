@@ -0,0 +1,85 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class RdbWriterTest {
+    @Test public void the_checksum_is_the_crc64_of_redis() {
+        // GIVEN
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+        // WHEN
+        long crc = Crc64.update(0, check, 0, check.length);
+
+        // THEN
+        assertEquals(0xe9c6d914c4b8d9caL, crc);
+    }
+
+    @Test public void the_written_file_can_be_read() {
+        // GIVEN
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            big.append((char) ('a' + i % 26));
+        }
+        RdbWriter writer = new RdbWriter(Channels.newChannel(out));
+
+        // WHEN
+        writer.selectDb(0, 2);
+        writer.string("int", "-123456");
+        writer.string("big", big.toString());
+        writer.selectDb(15, 2);
+        writer.beginList("list", 3);
+        writer.listElement("héllo");
+        writer.listElement("0");
+        writer.listElement("0123");
+        writer.beginHash("hash", 1);
+        writer.hashField("field", "99999999999");
+        writer.finish();
+
+        // THEN
+        List<String> events = new ArrayList<>();
+        RdbReader reader = new RdbReader(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), 0);
+        reader.read(new RdbReader.Handler() {
+            @Override public void selectDb(int index) {
+                events.add("db:" + index);
+            }
+
+            @Override public void string(String key, String value) {
+                events.add(key + "=" + (value.length() > 20 ? value.length() : value));
+            }
+
+            @Override public void beginList(String key) {
+                events.add("list:" + key);
+            }
+
+            @Override public void listElement(String element) {
+                events.add(element);
+            }
+
+            @Override public void beginHash(String key) {
+                events.add("hash:" + key);
+            }
+
+            @Override public void hashField(String field, String value) {
+                events.add(field + "=" + value);
+            }
+        });
+        assertEquals(Arrays.asList("db:0", "int=-123456", "big=100000", "db:15", "list:list", "héllo", "0", "0123",
+                "hash:hash", "field=99999999999"), events);
+        assertEquals(4, reader.getStats().get("keys_loaded").longValue());
+    }
+}
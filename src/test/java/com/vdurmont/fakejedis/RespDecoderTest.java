@@ -0,0 +1,193 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class RespDecoderTest {
+    private static final String SET_REQUEST = "*3\r\n$3\r\nSET\r\n$6\r\nmy_key\r\n$8\r\nmy_value\r\n";
+
+    @Rule public ExpectedException expectedEx = ExpectedException.none();
+
+    @Test public void decode_a_multibulk_request() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(SET_REQUEST + "*1\r\n$4\r\nPING\r\n"));
+
+        // WHEN
+        boolean decoded = decoder.decode(buffer);
+
+        // THEN
+        assertTrue(decoded);
+        assertArrayEquals(new String[]{"SET", "my_key", "my_value"}, decoder.argumentsAsStrings());
+        assertTrue(decoder.argumentEqualsIgnoreCase(0, "set"));
+        assertEquals(SET_REQUEST.length(), buffer.position());
+        assertTrue(decoder.decode(buffer));
+        assertArrayEquals(new String[]{"PING"}, decoder.argumentsAsStrings());
+        assertFalse(decoder.decode(buffer));
+    }
+
+    @Test public void the_arguments_are_slices_of_the_buffer() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(SET_REQUEST));
+
+        // WHEN
+        decoder.decode(buffer);
+        ByteBuffer argument = decoder.argument(2);
+        buffer.put(decoder.argumentOffset(2), (byte) 'M');
+
+        // THEN
+        assertEquals(8, argument.remaining());
+        assertEquals('M', argument.get(0));
+        assertEquals(8, decoder.argumentLength(2));
+    }
+
+    @Test public void decode_a_request_that_is_received_byte_by_byte() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        byte[] request = bytes(SET_REQUEST);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        // WHEN
+        int decoded = 0;
+        for (byte b : request) {
+            buffer.put(b);
+            buffer.flip();
+            if (decoder.decode(buffer)) {
+                decoded++;
+                assertArrayEquals(new String[]{"SET", "my_key", "my_value"}, decoder.argumentsAsStrings());
+            }
+            // The selector loops compact the buffer between two reads
+            buffer.compact();
+        }
+
+        // THEN
+        assertEquals(1, decoded);
+        assertEquals(0, buffer.position());
+    }
+
+    @Test public void pendingRequestSize_returns_the_size_of_a_partial_bulk() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes("*2\r\n$3\r\nGET\r\n$100\r\nabc"));
+
+        // WHEN
+        boolean decoded = decoder.decode(buffer);
+
+        // THEN
+        assertFalse(decoded);
+        assertEquals(0, buffer.position());
+        assertEquals(13 + 6 + 100 + 2, decoder.pendingRequestSize());
+    }
+
+    @Test public void decode_inline_requests_and_skip_the_empty_ones() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes("\r\n*0\r\n  get   my_key \r\nPING\n"));
+
+        // WHEN
+        boolean decoded = decoder.decode(buffer);
+
+        // THEN
+        assertTrue(decoded);
+        assertArrayEquals(new String[]{"get", "my_key"}, decoder.argumentsAsStrings());
+        assertTrue(decoder.decode(buffer));
+        assertArrayEquals(new String[]{"PING"}, decoder.argumentsAsStrings());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test public void decode_an_invalid_bulk_length_fails() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes("*1\r\n$abc\r\n"));
+
+        // THEN
+        this.expectedEx.expect(JedisDataException.class);
+        this.expectedEx.expectMessage("ERR Protocol error: invalid bulk length");
+
+        // WHEN
+        decoder.decode(buffer);
+    }
+
+    @Test public void an_argument_that_is_not_utf8_cannot_be_decoded_as_a_string() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        byte[] request = bytes("*2\r\n$3\r\nGET\r\n$4\r\n....\r\n");
+        System.arraycopy(new byte[]{(byte) 0xff, 0, (byte) 0xc3, 0x28}, 0, request, 17, 4);
+        decoder.decode(ByteBuffer.wrap(request));
+
+        // THEN
+        this.expectedEx.expect(JedisDataException.class);
+        this.expectedEx.expectMessage("ERR invalid UTF-8 in argument 1");
+
+        // WHEN
+        decoder.argumentsAsStrings();
+    }
+
+    @Test public void a_replacement_character_is_a_valid_argument() {
+        // GIVEN
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes("*2\r\n$3\r\nGET\r\n$3\r\n\uFFFD\r\n"));
+
+        // WHEN
+        decoder.decode(buffer);
+
+        // THEN
+        assertArrayEquals(new String[]{"GET", "\uFFFD"}, decoder.argumentsAsStrings());
+    }
+
+    @Test(timeout = 10000) public void throughput_of_pipelined_multibulk_requests() {
+        // GIVEN
+        int requests = 200000;
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String key = "key:" + i;
+            builder.append("*3\r\n$3\r\nSET\r\n$").append(key.length()).append("\r\n").append(key).append("\r\n$8\r\nmy_value\r\n");
+        }
+        byte[] batch = bytes(builder.toString());
+        RespDecoder decoder = new RespDecoder();
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+        // WHEN
+        int decoded = 0;
+        long argumentBytes = 0;
+        for (int sent = 0; sent < requests; sent += 1000) {
+            int offset = 0;
+            while (offset < batch.length) {
+                // Reads of arbitrary sizes, that split the requests anywhere
+                int length = Math.min(Math.min(buffer.remaining(), 4093), batch.length - offset);
+                buffer.put(batch, offset, length);
+                offset += length;
+                buffer.flip();
+                while (decoder.decode(buffer)) {
+                    decoded++;
+                    argumentBytes += decoder.argumentLength(2);
+                }
+                buffer.compact();
+            }
+        }
+
+        // THEN
+        assertEquals(requests, decoded);
+        assertEquals(8L * requests, argumentBytes);
+        assertEquals(0, buffer.position());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
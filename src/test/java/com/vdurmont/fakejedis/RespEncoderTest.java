@@ -0,0 +1,105 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class RespEncoderTest {
+    @Test public void encode_resp2_replies() {
+        // GIVEN
+        RespEncoder encoder = new RespEncoder(16);
+
+        // WHEN
+        encoder.simpleString("OK")
+                .error("ERR bad\r\nthing")
+                .integer(-42)
+                .integer(Long.MIN_VALUE)
+                .bulkString("héllo 😀")
+                .nullValue()
+                .mapHeader(1).bulkString("a").booleanValue(true)
+                .doubleValue(1.5);
+
+        // THEN
+        assertEquals("+OK\r\n-ERR bad  thing\r\n:-42\r\n:-9223372036854775808\r\n$11\r\nhéllo 😀\r\n$-1\r\n"
+                + "*2\r\n$1\r\na\r\n:1\r\n$3\r\n1.5\r\n", drain(encoder));
+    }
+
+    @Test public void encode_resp3_replies() {
+        // GIVEN
+        RespEncoder encoder = new RespEncoder(16);
+        encoder.setProtocol(3);
+
+        // WHEN
+        encoder.nullValue()
+                .mapHeader(1).bulkString("a").booleanValue(false)
+                .setHeader(0)
+                .doubleValue(Double.NEGATIVE_INFINITY);
+
+        // THEN
+        assertEquals("_\r\n%1\r\n$1\r\na\r\n#f\r\n~0\r\n,-inf\r\n", drain(encoder));
+    }
+
+    @Test public void encode_slices_without_moving_them() {
+        // GIVEN
+        RespEncoder encoder = new RespEncoder(16);
+        ByteBuffer value = ByteBuffer.wrap("xxvaluexx".getBytes(StandardCharsets.UTF_8), 2, 5);
+
+        // WHEN
+        encoder.bulkString(value).bulkString("abc".getBytes(StandardCharsets.UTF_8), 1, 2);
+
+        // THEN
+        assertEquals("$5\r\nvalue\r\n$2\r\nbc\r\n", drain(encoder));
+        assertEquals(2, value.position());
+    }
+
+    @Test public void writeTo_keeps_the_bytes_that_are_not_sent() throws IOException {
+        // GIVEN
+        RespEncoder encoder = new RespEncoder(16);
+        encoder.bulkString("0123456789");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        // A channel that accepts 4 bytes at a time
+        WritableByteChannel slowChannel = new WritableByteChannel() {
+            @Override public int write(ByteBuffer src) throws IOException {
+                ByteBuffer chunk = src.duplicate();
+                chunk.limit(Math.min(src.limit(), src.position() + 4));
+                int written = channel.write(chunk);
+                src.position(src.position() + written);
+                return written;
+            }
+
+            @Override public boolean isOpen() {
+                return true;
+            }
+
+            @Override public void close() {
+            }
+        };
+
+        // WHEN
+        int written = encoder.writeTo(slowChannel);
+        encoder.integer(1);
+        while (encoder.pendingBytes() > 0) {
+            encoder.writeTo(slowChannel);
+        }
+
+        // THEN
+        assertEquals(4, written);
+        assertEquals("$10\r\n0123456789\r\n:1\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String drain(RespEncoder encoder) {
+        return new String(encoder.drain(), StandardCharsets.UTF_8);
+    }
+}
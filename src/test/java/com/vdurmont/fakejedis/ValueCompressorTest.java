@@ -0,0 +1,61 @@
+package com.vdurmont.fakejedis;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ValueCompressorTest {
+    @Test public void compress_and_decompress() {
+        // GIVEN
+        ValueCompressor compressor = new ValueCompressor();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"élément\"},");
+        }
+        String value = builder.toString();
+
+        // WHEN
+        byte[] compressed = compressor.compress(value);
+
+        // THEN
+        assertTrue(compressed.length < value.length() / 4);
+        assertEquals(value, compressor.decompress(compressed));
+    }
+
+    @Test public void incompressible_values_are_rejected() {
+        // GIVEN
+        ValueCompressor compressor = new ValueCompressor();
+
+        // WHEN
+        byte[] compressed = compressor.compress("abc");
+
+        // THEN
+        assertNull(compressed);
+        assertEquals(1l, compressor.getStats().get("rejected_values"));
+    }
+
+    @Test public void decompressed_values_are_cached() {
+        // GIVEN
+        ValueCompressor compressor = new ValueCompressor();
+        byte[] compressed = compressor.compress("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+        // WHEN
+        compressor.decompress(compressed);
+        compressor.decompress(compressed);
+        compressor.discard(compressed);
+        compressor.decompress(compressed);
+
+        // THEN
+        Map<String, Number> stats = compressor.getStats();
+        assertEquals(1l, stats.get("cache_hits"));
+        assertEquals(2l, stats.get("cache_misses"));
+    }
+}